@@ -13,6 +13,8 @@ public enum RLALCExceptionCodesEnum {
     RLAC_008_FailedToStopRecordingProcessForUnkownReason,
     RLAC_009_CannotStartEmbeddedHttpRestServer,
     RLAC_010_CannotAddOnTheFlyOneShotTestRecording,
+    RLAC_011_InvalidRecorderSpecificParameters,
+    RLAC_012_FailedToAccessRecordingStateStore,
     ;
 
 }
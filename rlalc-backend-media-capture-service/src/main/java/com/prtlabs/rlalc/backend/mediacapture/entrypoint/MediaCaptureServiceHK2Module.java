@@ -4,15 +4,31 @@ import com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.IEmb
 import com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.embeddedtomcatwithjersey.TomcatJerseyEmbeddedRESTServerModule;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.IRLALCMediaCaptureService;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.RLALCMediaCaptureServiceImpl;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndexService;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.IMediaCapturePlanningLoader;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.loaders.file.ConfigFileBased_MediaCapturePlanningLoader;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.CaptureHealthWatchdog;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.RecordingChunkFeed;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.RecordingStartAdmissionControl;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.continuous.ContinuousStationRecorder;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.ffmpeg.FFMpegRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.InProcessStreamRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.SharedUpstreamMultiplexer;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.StreamIngestionEngine;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.MediaCaptureScheduler;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.ProgramDescriptorRegistry;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.RecurringProgramsPlanner;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureJob;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCapturePendingStateInitializationJob;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureStopJob;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.StationContinuousCaptureJob;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.IRecordingStateManagementService;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.RecordingStatusCache;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.database.sqllite.SQLliteBasedRecordingStateManagementService;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.manifests.ManifestFileBasedRecordingStateManagementService;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.hls.HLSPlaylistService;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.splicing.ProgramSplicingService;
 import com.prtlabs.rlalc.backend.mediacapture.utils.RLALCLocalTimeZoneTimeHelper;
 import com.prtlabs.utils.dependencyinjection.hk2.quartz.PrtHK2QuartzJobFactory;
 import com.prtlabs.utils.time.provider.IPrtTimeProviderService;
@@ -25,6 +41,15 @@ import org.quartz.spi.JobFactory;
  */
 public class MediaCaptureServiceHK2Module extends AbstractBinder {
 
+    // Values of the 'prt.rlalc.mediaRecorder' System property used to select the IMediaRecorder
+    public static final String MEDIA_RECORDER_FFMPEG    = "ffmpeg";       // One ffmpeg process per Recording (default)
+    public static final String MEDIA_RECORDER_INPROCESS = "inprocess";    // The streams are captured by the JVM itself on virtual threads (no process, no re-encoding)
+    public static final String MEDIA_RECORDER_CONTINUOUS = "continuous";  // The stations are recorded 24/7 (in-process), the Programs are time range views over their chunks
+
+    // Values of the 'prt.rlalc.recordingStateStore' System property used to select the IRecordingStateManagementService
+    public static final String RECORDING_STATE_STORE_MANIFEST = "manifest";    // One JSON manifest file per recording (default)
+    public static final String RECORDING_STATE_STORE_SQLITE   = "sqlite";      // An embedded SQLite database (batched writes, one query for all the states)
+
     @Override
     protected void configure() {
         // Technical bindings
@@ -34,17 +59,43 @@ public class MediaCaptureServiceHK2Module extends AbstractBinder {
         //  - PRTLabs framework
         bind(PrtComputerClockBasedTimeProviderService.class).to(IPrtTimeProviderService.class);
         //  - RLALC services
-        bind(ManifestFileBasedRecordingStateManagementService.class).to(IRecordingStateManagementService.class);
+        if (RECORDING_STATE_STORE_SQLITE.equals(System.getProperty("prt.rlalc.recordingStateStore", RECORDING_STATE_STORE_MANIFEST))) {
+            bind(SQLliteBasedRecordingStateManagementService.class).to(IRecordingStateManagementService.class);
+        } else {
+            bind(ManifestFileBasedRecordingStateManagementService.class).to(IRecordingStateManagementService.class);
+        }
+        bind(RecordingStatusCache.class).to(RecordingStatusCache.class);
+        bind(RecordingChunkIndexService.class).to(RecordingChunkIndexService.class);
         bind(RLALCMediaCaptureServiceImpl.class).to(IRLALCMediaCaptureService.class);
         bind(ConfigFileBased_MediaCapturePlanningLoader.class).to(IMediaCapturePlanningLoader.class);
-        bind(FFMpegRecorder.class).to(IMediaRecorder.class);
+        String mediaRecorder = System.getProperty("prt.rlalc.mediaRecorder", MEDIA_RECORDER_FFMPEG);
+        if (MEDIA_RECORDER_INPROCESS.equals(mediaRecorder)) {
+            bind(InProcessStreamRecorder.class).to(IMediaRecorder.class);
+        } else if (MEDIA_RECORDER_CONTINUOUS.equals(mediaRecorder)) {
+            bind(ContinuousStationRecorder.class).to(IMediaRecorder.class);
+        } else {
+            bind(FFMpegRecorder.class).to(IMediaRecorder.class);
+        }
+        bind(FFMpegRecorder.class).to(FFMpegRecorder.class);    // Also used by the InProcessStreamRecorder for the streams which need to be transcoded
+        bind(ContinuousStationRecorder.class).to(ContinuousStationRecorder.class);    // Used by the StationContinuousCaptureJob
+        bind(StreamIngestionEngine.class).to(StreamIngestionEngine.class);
+        bind(RecordingStartAdmissionControl.class).to(RecordingStartAdmissionControl.class);
+        bind(CaptureHealthWatchdog.class).to(CaptureHealthWatchdog.class);
+        bind(RecordingChunkFeed.class).to(RecordingChunkFeed.class);
+        bind(SharedUpstreamMultiplexer.class).to(SharedUpstreamMultiplexer.class);
         bind(RLALCLocalTimeZoneTimeHelper.class).to(RLALCLocalTimeZoneTimeHelper.class);
+        bind(HLSPlaylistService.class).to(HLSPlaylistService.class);
+        bind(ProgramSplicingService.class).to(ProgramSplicingService.class);
         bind(PrtHK2QuartzJobFactory.class).to(PrtHK2QuartzJobFactory.class);
+        bind(MediaCaptureScheduler.class).to(MediaCaptureScheduler.class);
+        bind(ProgramDescriptorRegistry.class).to(ProgramDescriptorRegistry.class);
+        bind(RecurringProgramsPlanner.class).to(RecurringProgramsPlanner.class);
 
         // Register Quartz job classes
         bind(MediaCaptureJob.class).to(MediaCaptureJob.class);
         bind(MediaCaptureStopJob.class).to(MediaCaptureStopJob.class);
         bind(MediaCapturePendingStateInitializationJob.class).to(MediaCapturePendingStateInitializationJob.class);
+        bind(StationContinuousCaptureJob.class).to(StationContinuousCaptureJob.class);
 
         //  - Management of the MediaCaptureService
         bind(TomcatJerseyEmbeddedRESTServerModule.class).to(IEmbeddedRESTServerModule.class);
@@ -3,6 +3,7 @@ package com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.emb
 import com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.IEmbeddedRESTServerModule;
 import com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.embeddedtomcatwithjersey.config.jaxrs.JerseyConfig;
 import com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.embeddedtomcatwithjersey.config.openapi.OpenAPIGeneratorConfig;
+import com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.embeddedtomcatwithjersey.mediaserving.ChunkStreamingServlet;
 import com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.embeddedtomcatwithjersey.staticcontentserving.StaticContentServlet;
 import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
 import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
@@ -51,6 +52,7 @@ public class TomcatJerseyEmbeddedRESTServerModule implements IEmbeddedRESTServer
             Wrapper jerseyServletWrapper = Tomcat.addServlet(jerseyServletContext, "jerseyServlet", jerseyServlet);
             jerseyServletContext.addServletMappingDecoded("/api/*", "jerseyServlet");
             jerseyServletWrapper.setLoadOnStartup(1);
+            jerseyServletWrapper.setAsyncSupported(true);    // For the long-polls (see the chunk feed of the management API)
 
             //
             //  - Static content serving servlet
@@ -68,6 +70,16 @@ public class TomcatJerseyEmbeddedRESTServerModule implements IEmbeddedRESTServer
             Wrapper staticContentServletWrapper = Tomcat.addServlet(jerseyServletContext, "staticContentServlet", staticContentServlet);
             jerseyServletContext.addServletMappingDecoded("/spa/*", "staticContentServlet");
 
+            //
+            //  - Chunks streaming servlet
+            //
+            //    REMARK: The audio of the recordings is served outside of Jersey, so that Tomcat can sendfile the chunks
+            //            (cf ChunkStreamingServlet). The sendfile of the NIO connector is enabled by default.
+            //
+            HttpServlet chunkStreamingServlet = new ChunkStreamingServlet();
+            Tomcat.addServlet(jerseyServletContext, "chunkStreamingServlet", chunkStreamingServlet);
+            jerseyServletContext.addServletMappingDecoded("/media/*", "chunkStreamingServlet");
+
             //
             //  - Swagger Generator configuration servlet
             //
@@ -2,6 +2,7 @@ package com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.emb
 
 import com.prtlabs.rlalc.backend.mediacapture.entrypoint.MediaCaptureServiceHK2Module;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturemanagement.service.RLALCMediaCaptureServiceManagementAPIServiceImpl;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.service.RLALCMediaPlaybackAPIServiceImpl;
 import com.prtlabs.utils.httplogging.logascurl.PrtServerSideLogAsCurljakartaJAXRSFilter;
 import org.glassfish.jersey.server.ResourceConfig;
 
@@ -24,6 +25,7 @@ public class JerseyConfig  extends ResourceConfig {
         //  - Register resources one by one
         //    - Teevity REST Resources
         this.register(RLALCMediaCaptureServiceManagementAPIServiceImpl.class);
+        this.register(RLALCMediaPlaybackAPIServiceImpl.class);
         //    - Register server-side logAsCurl filter
         this.register(PrtServerSideLogAsCurljakartaJAXRSFilter.class);
 
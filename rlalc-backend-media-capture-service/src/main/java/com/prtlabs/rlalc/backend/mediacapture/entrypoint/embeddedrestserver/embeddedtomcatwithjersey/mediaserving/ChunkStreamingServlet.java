@@ -0,0 +1,267 @@
+package com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.embeddedtomcatwithjersey.mediaserving;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.MediaChunkURLs;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.Globals;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Serves the audio of the chunks of the recordings (the files under '<baseDir>/radiolivealacarte/datastore/media', see
+ * MediaChunkURLs), for instance '/media/mp3/<recording>/<chunk>.mp3' or '/media/stations/<station>/<yyyyMMdd>/<chunk>.mp3'.
+ *
+ * The chunks are never copied through the heap: they are handed over to Tomcat with its sendfile attributes (the NIO
+ * connector then sends them with FileChannel.transferTo from its poller, without holding a request thread), and are
+ * only transferred by this servlet when sendfile isn't available (e.g. over TLS).
+ *
+ * It supports what the players need to seek and to cache:
+ *   - byte ranges ('Range' with a single range, 'If-Range'), answered with a 206 (or a 416 when unsatisfiable)
+ *   - strong ETags (size and last modification of the chunk) and conditional GETs ('If-None-Match', 'If-Modified-Since')
+ *   - the chunks which haven't been modified for a while are over and are served as immutable, the others have to be
+ *     revalidated (the last chunk of a live recording is still growing)
+ */
+public class ChunkStreamingServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStreamingServlet.class);
+
+    private static final Map<String, String> CONTENT_TYPE_PER_EXTENSION = Map.of("mp3", "audio/mpeg", "wav", "audio/wav");
+
+    // A chunk which hasn't been modified for longer than that is over (the chunks last 10 seconds)
+    private static final Duration MIN_AGE_OF_IMMUTABLE_CHUNK = Duration.ofSeconds(30);
+    private static final Duration MAX_AGE_OF_IMMUTABLE_CHUNK = Duration.ofDays(1);
+
+    // Under that size, writing the chunk is cheaper than a sendfile (same threshold as the DefaultServlet of Tomcat)
+    private static final long MIN_SENDFILE_SIZE_BYTES = 48 * 1024;
+
+    private final transient Path mediaRootDir;    // Path isn't Serializable (the servlets are never serialized anyway)
+
+
+    public ChunkStreamingServlet() {
+        this(MediaChunkURLs.MEDIA_ROOT_DIR);
+    }
+
+    public ChunkStreamingServlet(Path mediaRootDir) {
+        this.mediaRootDir = mediaRootDir.toAbsolutePath().normalize();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        serveChunk(req, resp, true);
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        serveChunk(req, resp, false);
+    }
+
+    /**
+     * A byte range of a chunk (both ends included)
+     */
+    record ByteRange(long start, long end) {
+        long length() { return end - start + 1; }
+    }
+
+    // Returned by parseRange() when the range can't be satisfied
+    static final ByteRange UNSATISFIABLE_RANGE = new ByteRange(-1, -1);
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private void serveChunk(HttpServletRequest req, HttpServletResponse resp, boolean withContent) throws IOException {
+        // Resolve the chunk (only the media files under the root directory are served)
+        Path chunkPath = resolveChunkPath(req.getPathInfo());
+        String contentType = (chunkPath != null) ? getContentType(chunkPath) : null;
+        if ((contentType == null) || !Files.isRegularFile(chunkPath, LinkOption.NOFOLLOW_LINKS)) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(chunkPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        long size = attributes.size();
+        long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+        String eTag = buildETag(size, lastModifiedMillis);
+
+        // Validators and caching
+        resp.setHeader("Accept-Ranges", "bytes");
+        resp.setHeader("ETag", eTag);
+        resp.setDateHeader("Last-Modified", lastModifiedMillis);
+        boolean immutable = (System.currentTimeMillis() - lastModifiedMillis) > MIN_AGE_OF_IMMUTABLE_CHUNK.toMillis();
+        resp.setHeader("Cache-Control", immutable ? ("public, max-age="+MAX_AGE_OF_IMMUTABLE_CHUNK.toSeconds()+", immutable") : "no-cache");
+
+        // Conditional GET ('If-None-Match' takes precedence over 'If-Modified-Since')
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        boolean notModified = (ifNoneMatch != null) ? matchesETag(ifNoneMatch, eTag) : isNotModifiedSince(req, lastModifiedMillis);
+        if (notModified) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        // Range (ignored when the chunk has changed since the client got its first bytes)
+        ByteRange range = null;
+        String rangeHeader = req.getHeader("Range");
+        if ((rangeHeader != null) && isIfRangeSatisfied(req, eTag, lastModifiedMillis)) {
+            range = parseRange(rangeHeader, size);
+        }
+        if (range == UNSATISFIABLE_RANGE) {
+            resp.setHeader("Content-Range", "bytes */" + size);
+            resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        if (range != null) {
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader("Content-Range", "bytes "+range.start()+"-"+range.end()+"/"+size);
+        } else {
+            range = new ByteRange(0, size - 1);
+        }
+        resp.setContentType(contentType);
+        resp.setContentLengthLong(Math.max(0, range.length()));
+        if (!withContent || (range.length() <= 0)) { return; }
+
+        // Send the bytes (by Tomcat when it can sendfile, the response is then complete once this method returns)
+        if ((range.length() >= MIN_SENDFILE_SIZE_BYTES) && Boolean.TRUE.equals(req.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR))) {
+            req.setAttribute(Globals.SENDFILE_FILENAME_ATTR, chunkPath.toString());
+            req.setAttribute(Globals.SENDFILE_FILE_START_ATTR, range.start());
+            req.setAttribute(Globals.SENDFILE_FILE_END_ATTR, range.end() + 1);    // Exclusive
+            return;
+        }
+        transferChunk(chunkPath, range, resp.getOutputStream());
+    }
+
+    /**
+     * @return the chunk file of the request path, or null if it's outside of the root directory
+     */
+    Path resolveChunkPath(String pathInfo) {
+        if ((pathInfo == null) || pathInfo.isEmpty() || pathInfo.contains("\0")) { return null; }
+        try {
+            Path chunkPath = mediaRootDir.resolve(pathInfo.replaceFirst("^/+", "")).normalize();
+            return (chunkPath.startsWith(mediaRootDir) && !chunkPath.equals(mediaRootDir)) ? chunkPath : null;
+        } catch (RuntimeException e) {
+            return null;    // Invalid path
+        }
+    }
+
+    private static String getContentType(Path chunkPath) {
+        String fileName = chunkPath.getFileName().toString();
+        int extensionIndex = fileName.lastIndexOf('.');
+        if ((extensionIndex <= 0) || fileName.startsWith(".")) { return null; }
+        return CONTENT_TYPE_PER_EXTENSION.get(fileName.substring(extensionIndex + 1).toLowerCase(Locale.ROOT));
+    }
+
+    static String buildETag(long size, long lastModifiedMillis) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModifiedMillis) + "\"";
+    }
+
+    /**
+     * @return true if the 'If-None-Match' (or 'If-Range') header lists the ETag (weak ETags only match for 'If-None-Match')
+     */
+    static boolean matchesETag(String header, String eTag) {
+        for (String candidate : header.split(",")) {
+            String trimmedCandidate = candidate.trim();
+            if (trimmedCandidate.equals("*") || trimmedCandidate.equals(eTag) || trimmedCandidate.equals("W/" + eTag)) { return true; }
+        }
+        return false;
+    }
+
+    private static boolean isNotModifiedSince(HttpServletRequest req, long lastModifiedMillis) {
+        long ifModifiedSince = getDateHeader(req, "If-Modified-Since");
+        return (ifModifiedSince != -1) && ((lastModifiedMillis / 1000) <= (ifModifiedSince / 1000));    // HTTP dates have a 1 second resolution
+    }
+
+    private static boolean isIfRangeSatisfied(HttpServletRequest req, String eTag, long lastModifiedMillis) {
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange == null) { return true; }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) { return ifRange.equals(eTag); }
+        if (ifRange.startsWith("W/")) { return false; }    // A weak ETag can't validate a range
+        long ifRangeDate = getDateHeader(req, "If-Range");
+        return (ifRangeDate != -1) && ((lastModifiedMillis / 1000) == (ifRangeDate / 1000));
+    }
+
+    private static long getDateHeader(HttpServletRequest req, String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;    // Not a date
+        }
+    }
+
+    /**
+     * Parse a 'Range' header (only single ranges are supported, the others are ignored and the whole chunk is served,
+     * which the RFC allows)
+     * @return the range to serve, null to serve the whole chunk, or UNSATISFIABLE_RANGE
+     */
+    static ByteRange parseRange(String rangeHeader, long size) {
+        String header = rangeHeader.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) { return null; }
+        String rangeSpec = header.substring(6).trim();
+        if (rangeSpec.contains(",")) { return null; }
+        int dashIndex = rangeSpec.indexOf('-');
+        if (dashIndex < 0) { return null; }
+        try {
+            String firstBytePos = rangeSpec.substring(0, dashIndex).trim();
+            String lastBytePos = rangeSpec.substring(dashIndex + 1).trim();
+            if (firstBytePos.isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffixLength = Long.parseLong(lastBytePos);
+                if (suffixLength <= 0 || size == 0) { return UNSATISFIABLE_RANGE; }
+                return new ByteRange(Math.max(0, size - suffixLength), size - 1);
+            }
+            long start = Long.parseLong(firstBytePos);
+            long end = lastBytePos.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastBytePos);
+            if ((start < 0) || (end < start)) { return null; }    // Invalid, ignored
+            if (start >= size) { return UNSATISFIABLE_RANGE; }
+            return new ByteRange(start, Math.min(end, size - 1));
+        } catch (NumberFormatException e) {
+            return null;    // Invalid, ignored
+        }
+    }
+
+    /**
+     * Transfer a range of the chunk when Tomcat can't sendfile it
+     * REMARK: This is not a zero-copy transfer: the output stream isn't a file descriptor, so transferTo() copies the chunk
+     *         through a heap buffer of the JDK (Channels.newChannel()) before Tomcat copies it again into its own buffers
+     */
+    private static void transferChunk(Path chunkPath, ByteRange range, OutputStream outputStream) throws IOException {
+        try (FileChannel chunkChannel = FileChannel.open(chunkPath, StandardOpenOption.READ)) {
+            WritableByteChannel outputChannel = Channels.newChannel(outputStream);
+            long position = range.start();
+            long remaining = range.length();
+            while (remaining > 0) {
+                long transferred = chunkChannel.transferTo(position, remaining, outputChannel);
+                if (transferred <= 0) {
+                    // The chunk has been truncated since its size was read
+                    logger.warn("Chunk=[{}] is shorter than expected, [{}] bytes could not be served", chunkPath, remaining);
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+}
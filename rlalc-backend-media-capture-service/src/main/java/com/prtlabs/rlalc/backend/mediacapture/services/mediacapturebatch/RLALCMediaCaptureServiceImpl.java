@@ -1,24 +1,27 @@
 package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.MediaCaptureScheduler;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.ProgramDescriptorRegistry;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.RecurringProgramsPlanner;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCapturePendingStateInitializationJob;
 import com.prtlabs.rlalc.domain.ProgramId;
-import com.prtlabs.utils.dependencyinjection.hk2.quartz.PrtHK2QuartzJobFactory;
 import com.prtlabs.utils.exceptions.PrtTechnicalException;
 import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
 import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.IMediaCapturePlanningLoader;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.dto.MediaCapturePlanningDTO;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.dto.RecurringProgramDTO;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureJob;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureStopJob;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.continuous.ContinuousStationRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.continuous.StationChunkStore;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.StationContinuousCaptureJob;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
 import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
-import com.prtlabs.utils.json.PrtJsonUtils;
 import jakarta.inject.Inject;
 import org.quartz.*;
-import org.quartz.impl.StdSchedulerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,6 +33,12 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.quartz.impl.matchers.GroupMatcher;
@@ -43,46 +52,50 @@ public class RLALCMediaCaptureServiceImpl implements IRLALCMediaCaptureService {
 
     private static final Logger logger = LoggerFactory.getLogger(RLALCMediaCaptureServiceImpl.class);
 
-    private static final ObjectMapper mapper = PrtJsonUtils.getFasterXmlObjectMapper();
+    private static final int RECORDING_INITIALIZATION_PARALLELISM = 16;    // The initialization of a recording creates its storage directory and writes its initial state
 
     @Inject private IMediaRecorder mediaRecorder;
     @Inject private IMediaCapturePlanningLoader mediaCapturePlanningService;
-    @Inject private PrtHK2QuartzJobFactory prtHK2QuartzJobFactory;
+    @Inject private MediaCaptureScheduler mediaCaptureScheduler;
+    @Inject private ProgramDescriptorRegistry programDescriptorRegistry;
+    @Inject private RecurringProgramsPlanner recurringProgramsPlanner;
 
 
     @Override
     public void startMediaCapture() throws PrtTechnicalException {
         MediaCapturePlanningDTO planning = readMediaCapturePlanning();
-        logger.info("  -> MediaCapturePlanning read successfully. Found nb=[{}] streams to capture. Scheduling media capture tasks ...", planning.getProgramsToCapture().size());
+        logger.info("  -> MediaCapturePlanning read successfully. Found nb=[{}] streams and nb=[{}] recurring programs to capture. Scheduling media capture tasks ...", planning.getProgramsToCapture().size(), getRecurringProgramsToCapture(planning).size());
         scheduleMediaCapture(planning);
         logger.info(" -> Scheduling done.");
     }
 
     @Override
     public List<ProgramId> getScheduledProgramIds() {
+        // With a continuous recording of the stations, the Programs are not scheduled (they are time range views)
+        if (mediaRecorder.recordsStationsContinuously()) {
+            return new ArrayList<>(mediaRecorder.getRecordingStatuses().keySet());
+        }
+
         try {
-            // Get the scheduler
-            SchedulerFactory schedulerFactory = new StdSchedulerFactory();
-            Scheduler scheduler = schedulerFactory.getScheduler();
+            Scheduler scheduler = mediaCaptureScheduler.getScheduler();
 
-            // Get all job keys in the default group
-            List<ProgramId> programIds = new ArrayList<>();
+            // Get all job keys in the default group (a recurring Program may have several occurrences scheduled)
+            Set<ProgramId> programIds = new LinkedHashSet<>();
             for (JobKey jobKey : scheduler.getJobKeys(GroupMatcher.anyGroup())) {
                 try {
                     JobDetail jobDetail = scheduler.getJobDetail(jobKey);
                     // Only consider MediaCaptureJob jobs (not stop jobs)
                     if (jobDetail.getJobClass().equals(MediaCaptureJob.class)) {
-                        JobDataMap jobDataMap = jobDetail.getJobDataMap();
-                        ProgramDescriptorDTO programDescriptor = PrtJsonUtils.getFasterXmlObjectMapper().readValue(jobDataMap.getString(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON), ProgramDescriptorDTO.class);
-                        if (programDescriptor.getUuid() != null) {
-                            programIds.add(programDescriptor.getUuid());
+                        ProgramId programId = programDescriptorRegistry.getProgramId(jobDetail.getJobDataMap());
+                        if (programId != null) {
+                            programIds.add(programId);
                         }
                     }
                 } catch (Exception e) {
                     logger.warn("  -> Failed to extract ProgramDescriptor from MediaCaptureJob with jobKey=["+jobKey+"]. Skipping it.");
                 }
             }
-            return programIds;
+            return new ArrayList<>(programIds);
         } catch (SchedulerException e) {
             logger.error("Failed to get scheduled program IDs with message=[{}]", e.getMessage(), e);
             return List.of();
@@ -112,10 +125,14 @@ public class RLALCMediaCaptureServiceImpl implements IRLALCMediaCaptureService {
                 programDescriptor.getTitle(), programDescriptor.getUuid(), programDescriptor.getStartTimeUTCEpochSec(), 
                 programDescriptor.getDurationSeconds());
 
-            // Initialize the scheduler
-            SchedulerFactory schedulerFactory = new StdSchedulerFactory();
-            Scheduler scheduler = schedulerFactory.getScheduler();
-            scheduler.setJobFactory(prtHK2QuartzJobFactory);
+            Scheduler scheduler = mediaCaptureScheduler.getScheduler();
+
+            // With a continuous recording of the stations, the Program only needs its time range view (and its station to be recorded)
+            if (mediaRecorder.recordsStationsContinuously()) {
+                mediaRecorder.initBeforeRecording(programDescriptor);
+                scheduleStationContinuousCapture(scheduler, programDescriptor.getStreamURL());
+                return programDescriptor.getUuid();
+            }
 
             // Parse start time and duration
             long startTimeEpochSec = programDescriptor.getStartTimeUTCEpochSec();
@@ -123,47 +140,51 @@ public class RLALCMediaCaptureServiceImpl implements IRLALCMediaCaptureService {
             Date startDate = Date.from(Instant.ofEpochSecond(startTimeEpochSec));
             Date endDate = Date.from(Instant.ofEpochSecond(startTimeEpochSec + durationSeconds));
 
+            // Register the Program (its JSON representation is built once for all its jobs)
+            JobDataMap programJobData = programDescriptorRegistry.registerAndBuildJobData(programDescriptor);
+
             // Create the Quartz Start Job and its associate trigger
             String startRecordingJobId = "capture-" + programDescriptor.getUuid();
             String startRecordingTriggerId = "trigger-" + programDescriptor.getUuid();
-            JobDataMap jobDataMap = new JobDataMap();
-            jobDataMap.put(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON, mapper.writeValueAsString(programDescriptor));
+            JobDataMap jobDataMap = new JobDataMap(programJobData);
+            Date startFireDate = MediaCaptureJob.computeStartFireTime(startDate.toInstant(), Instant.now(), programDescriptor.getUuid().uuid());    // A few seconds before the start (pre-warm)
             JobDetail jobDetail = JobBuilder.newJob(MediaCaptureJob.class)
-                .withIdentity(startRecordingJobId)
+                .withIdentity(startRecordingJobId, MediaCaptureScheduler.ONE_TIME_JOBS_GROUP)    // Not part of the planning
                 .usingJobData(jobDataMap)
                 .build();
 
             // Create trigger for start job
             Trigger startTrigger = TriggerBuilder.newTrigger()
-                .withIdentity(startRecordingTriggerId)
-                .startAt(startDate)
+                .withIdentity(startRecordingTriggerId, MediaCaptureScheduler.ONE_TIME_JOBS_GROUP)
+                .startAt(startFireDate)
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())    // A start missed (e.g. during a restart) is performed as soon as possible
                 .build();
 
-            // Schedule the start job
-            scheduler.scheduleJob(jobDetail, startTrigger);
 
             // Create the Quartz Stop Job and its associate trigger
             String stopRecordingJobId = "stop-" + programDescriptor.getUuid();
             String stopRecordingTriggerId = "stop-trigger-" + programDescriptor.getUuid();
-            JobDataMap stopJobDataMap = new JobDataMap();
-            stopJobDataMap.put(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON, mapper.writeValueAsString(programDescriptor));
             JobDetail stopJobDetail = JobBuilder.newJob(MediaCaptureStopJob.class)
-                .withIdentity(stopRecordingJobId)
-                .usingJobData(stopJobDataMap)
+                .withIdentity(stopRecordingJobId, MediaCaptureScheduler.ONE_TIME_JOBS_GROUP)
+                .usingJobData(programJobData)
                 .build();
 
             // Create trigger for stop job
             Trigger stopTrigger = TriggerBuilder.newTrigger()
-                .withIdentity(stopRecordingTriggerId)
+                .withIdentity(stopRecordingTriggerId, MediaCaptureScheduler.ONE_TIME_JOBS_GROUP)
                 .startAt(endDate)
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
                 .build();
 
-            // Schedule the stop job
-            scheduler.scheduleJob(stopJobDetail, stopTrigger);
-
-            // Initialize the recording into a Pending state
+            // Initialize the recording into a Pending state (before its start job can fire, which is right away if the program is already on air)
             mediaRecorder.initBeforeRecording(programDescriptor);
 
+            // Schedule both jobs at once
+            Map<JobDetail, Set<? extends Trigger>> triggersPerJob = new LinkedHashMap<>();
+            triggersPerJob.put(jobDetail, Set.of(startTrigger));
+            triggersPerJob.put(stopJobDetail, Set.of(stopTrigger));
+            mediaCaptureScheduler.scheduleJobs(triggersPerJob);
+
             logger.info("    -> One-time media capture scheduled for stream [{}] at [{}] for a duration of [{}]secs", 
                 programDescriptor.getTitle(), startDate, durationSeconds);
 
@@ -196,16 +217,25 @@ public class RLALCMediaCaptureServiceImpl implements IRLALCMediaCaptureService {
 
     private void scheduleMediaCapture(MediaCapturePlanningDTO planning) {
         try {
-            // Initialize the scheduler
+            // REMARK: The scheduler is only started once the recordings are initialized, since the start job of a program
+            //         which is already on air fires right away (and its initialization would overwrite its ONGOING state)
             logger.info("Quartz scheduler initialization ...");
-            SchedulerFactory schedulerFactory = new StdSchedulerFactory();
-            Scheduler scheduler = schedulerFactory.getScheduler();
-            scheduler.setJobFactory(prtHK2QuartzJobFactory);      // When Quartz Jobs are created (based on JobDetails), they are instantiated via our HK2 aware factory
-            scheduler.start();
+            Scheduler scheduler = mediaCaptureScheduler.getScheduler();
+
+            // With a continuous recording of the stations, there is one job per station instead of the jobs of each Program
+            if (mediaRecorder.recordsStationsContinuously()) {
+                mediaCaptureScheduler.schedulePlanningJobs(Map.of());    // The jobs of the Programs persisted before a restart are deleted
+                scheduleContinuousMediaCapture(planning, scheduler);
+                startRecurringProgramsPlanner(planning);
+                mediaCaptureScheduler.start();
+                return;
+            }
 
-            // Schedule a job for each Program to capture
+            // Build the jobs of each Program to capture (they are all scheduled at once afterwards)
             //  - Create a Quartz startJob and a Quartz startTrigger to start the recording
             //  - Create a Quartz stopJob and a Quartz stopTrigger to stop the recording
+            Map<JobDetail, Set<? extends Trigger>> triggersPerJob = new LinkedHashMap<>();
+            List<ProgramDescriptorDTO> programsToInitialize = new ArrayList<>();
             for (ProgramDescriptorDTO program : planning.getProgramsToCapture()) {
                 try {
                     logger.info(" - Scheduling media capture for program=[{}] with UUID [{}] at [{}] for [{}] seconds", program.getTitle(), program.getUuid(), program.getStartTimeUTCEpochSec(), program.getDurationSeconds());
@@ -236,40 +266,38 @@ public class RLALCMediaCaptureServiceImpl implements IRLALCMediaCaptureService {
                         programMidnight = programMidnight.plusDays(1);
                         pendingJobDate = Date.from(programMidnight.toInstant());
                     }
+                    // - Register the Program (its JSON representation is built once for all its jobs)
+                    JobDataMap programJobData = programDescriptorRegistry.registerAndBuildJobData(program);
                     // - Create the Job
                     String pendingJobId = "pending-" + program.getUuid();
                     String pendingTriggerId = "pending-trigger-" + program.getUuid();
-                    JobDataMap pendingJobData = new JobDataMap();
-                    pendingJobData.put(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON, mapper.writeValueAsString(program));
                     JobDetail pendingJobDetail = JobBuilder.newJob(MediaCapturePendingStateInitializationJob.class)
                         .withIdentity(pendingJobId)
-                        .usingJobData(pendingJobData)
+                        .usingJobData(programJobData)
                         .build();
                     // - Trigger at 00:00am local program time
                     Trigger pendingTrigger = TriggerBuilder.newTrigger()
                         .withIdentity(pendingTriggerId)
                         .startAt(pendingJobDate)
                         .withSchedule(CronScheduleBuilder.dailyAtHourAndMinute(0, 0)
-                            .inTimeZone(TimeZone.getTimeZone(timeZone)))
+                            .inTimeZone(TimeZone.getTimeZone(timeZone))
+                            .withMisfireHandlingInstructionFireAndProceed())    // A missed initialization is performed once, as soon as possible
                         .build();
-                    // - Schedule the pending initialization job
-                    scheduler.scheduleJob(pendingJobDetail, pendingTrigger);
-                    logger.info("    -> Pending job scheduled at [{}] in timeZone [{}]", pendingJobDate, timeZone);
+                    triggersPerJob.put(pendingJobDetail, Set.of(pendingTrigger));
 
 
                     // Create the Quartz Start Job and its associate trigger
                     // - Create the Job
                     String startRecordingJobId = "capture-" + program.getUuid();
                     String startRecordingTriggerId = "trigger-" + program.getUuid();
-                    JobDataMap jobDataMap = new JobDataMap();
-                    jobDataMap.put(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON, mapper.writeValueAsString(program));
-                    //    Deal with the case where the job should have already started but not ended (and compute the adjusted duration if so)
+                    JobDataMap jobDataMap = new JobDataMap(programJobData);
+                    //    Deal with the case where the job should have already started but not ended (the job only records what remains of the program)
                     if (startDate.before(now) && endDate.after(now)) {
                         startDate = now;
                         durationSeconds = (endDate.getTime() - startDate.getTime()) / 1000;
-                        jobDataMap.put(MediaCaptureJob.KEY_DURATION_SECONDS, durationSeconds);    // Store the information for the Quartz job
                         logger.info("Media capture for program=[{}] has already started. Adjusting start time to current time [{}] with durationSeconds=[{}]", program.getTitle(), startDate, durationSeconds);
                     }
+                    Date startFireDate = MediaCaptureJob.computeStartFireTime(startDate.toInstant(), now.toInstant(), program.getUuid().uuid());    // A few seconds before the start (pre-warm)
                     JobDetail jobDetail = JobBuilder.newJob(MediaCaptureJob.class)
                         .withIdentity(startRecordingJobId)
                         .usingJobData(jobDataMap)
@@ -277,39 +305,47 @@ public class RLALCMediaCaptureServiceImpl implements IRLALCMediaCaptureService {
                     // - Create trigger for start job
                     Trigger startTrigger = TriggerBuilder.newTrigger()
                         .withIdentity(startRecordingTriggerId)
-                        .startAt(startDate)
+                        .startAt(startFireDate)
+                        .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())    // A start missed (e.g. during a restart) is performed as soon as possible
                         .build();
-                    // - Schedule the start job
-                    scheduler.scheduleJob(jobDetail, startTrigger);
+                    triggersPerJob.put(jobDetail, Set.of(startTrigger));
 
                     // Create the Quartz Stop Job and its associate trigger
                     // - Create the Job
                     String stopRecordingJobId = "stop-" + program.getUuid();
                     String stopRecordingTriggerId = "stop-trigger-" + program.getUuid();
-                    JobDataMap stopJobDataMap = new JobDataMap();
-                    stopJobDataMap.put(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON, mapper.writeValueAsString(program));
                     JobDetail stopJobDetail = JobBuilder.newJob(MediaCaptureStopJob.class)
                         .withIdentity(stopRecordingJobId)
-                        .usingJobData(stopJobDataMap)
+                        .usingJobData(programJobData)
                         .build();
                     // - Create trigger for stop job
                     Trigger stopTrigger = TriggerBuilder.newTrigger()
                         .withIdentity(stopRecordingTriggerId)
                         .startAt(endDate)
+                        .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
                         .build();
-                    // - Schedule the stop job
-                    scheduler.scheduleJob(stopJobDetail, stopTrigger);
-
-                    // Initialize the recording into a Pending state for the first day (the "pending state initializations" for the days after today are performed by the dedicated Quartz Job)
-                    mediaRecorder.initBeforeRecording(program);
+                    triggersPerJob.put(stopJobDetail, Set.of(stopTrigger));
 
-                    logger.info("    -> Media capture scheduled for stream [{}] at [{}] for a duration of [{}]secs", program.getTitle(), startDate, durationSeconds);
+                    programsToInitialize.add(program);
+                    logger.info("    -> Media capture for stream [{}] at [{}] for a duration of [{}]secs (pending job at [{}] in timeZone [{}])", program.getTitle(), startDate, durationSeconds, pendingJobDate, timeZone);
                 } catch (JsonProcessingException e) {
                     logger.warn("    -> Failed to schedule recording for stream [{}] with message=[{}]", program.getTitle(), e.getMessage());
                 }
             }
 
-            logger.info("All media capture tasks scheduled successfully");
+            // Initialize the recordings into a Pending state for the first day (the "pending state initializations" for the days after today are performed by the dedicated Quartz Job)
+            initBeforeRecordingInParallel(programsToInitialize);
+
+            // Schedule all the jobs in a single call (a single transaction with the 'jdbc' job store), the ones already scheduled (ie persisted before a restart) being kept
+            // and the ones of the Programs removed from the planning being deleted
+            int nbScheduledJobs = mediaCaptureScheduler.schedulePlanningJobs(triggersPerJob);
+            logger.info("All media capture tasks scheduled successfully (nb=[{}] jobs scheduled, nb=[{}] already scheduled)", nbScheduledJobs, triggersPerJob.size() - nbScheduledJobs);
+
+            // Only the occurrences of the next hours of the recurring Programs are scheduled (the window is then extended as time passes)
+            startRecurringProgramsPlanner(planning);
+
+            // Start firing the jobs
+            mediaCaptureScheduler.start();
 
         } catch (SchedulerException e) {
             logger.error("Failed to schedule media capture tasks: {}", e.getMessage(), e);
@@ -322,4 +358,100 @@ public class RLALCMediaCaptureServiceImpl implements IRLALCMediaCaptureService {
         }
     }
 
+    /**
+     * Register the time range view of each Program, and schedule the continuous recording of each station (only once
+     * per station, whatever its number of Programs)
+     */
+    private void scheduleContinuousMediaCapture(MediaCapturePlanningDTO planning, Scheduler scheduler) throws SchedulerException {
+        Set<String> stationStreamURLs = new LinkedHashSet<>();
+        for (ProgramDescriptorDTO program : planning.getProgramsToCapture()) {
+            logger.info(" - Registering the time range view of program=[{}] with UUID [{}] at [{}] for [{}] seconds", program.getTitle(), program.getUuid(), program.getStartTimeUTCEpochSec(), program.getDurationSeconds());
+            stationStreamURLs.add(program.getStreamURL());
+        }
+        for (RecurringProgramDTO recurringProgram : getRecurringProgramsToCapture(planning)) {
+            stationStreamURLs.add(recurringProgram.getStreamURL());
+        }
+        initBeforeRecordingInParallel(planning.getProgramsToCapture());
+        if (mediaRecorder instanceof ContinuousStationRecorder continuousStationRecorder) {
+            continuousStationRecorder.registerRecurringPrograms(getRecurringProgramsToCapture(planning));    // So that they only have a time range on the days they air
+        }
+        for (String stationStreamURL : stationStreamURLs) {
+            scheduleStationContinuousCapture(scheduler, stationStreamURL);
+        }
+        logger.info("Continuous recording scheduled for nb=[{}] stations ([{}] programs)", stationStreamURLs.size(), planning.getProgramsToCapture().size());
+    }
+
+    private void startRecurringProgramsPlanner(MediaCapturePlanningDTO planning) {
+        List<RecurringProgramDTO> recurringPrograms = getRecurringProgramsToCapture(planning);
+        if (recurringPrograms.isEmpty()) { return; }
+        logger.info("Starting the rolling planner of nb=[{}] recurring programs ...", recurringPrograms.size());
+        recurringProgramsPlanner.start(recurringPrograms);
+    }
+
+    private static List<RecurringProgramDTO> getRecurringProgramsToCapture(MediaCapturePlanningDTO planning) {
+        return (planning.getRecurringProgramsToCapture() != null) ? planning.getRecurringProgramsToCapture() : List.of();
+    }
+
+    /**
+     * Initialize the recordings (storage directory, initial state) of several Programs in parallel, since it's mostly I/O
+     */
+    private void initBeforeRecordingInParallel(List<ProgramDescriptorDTO> programs) {
+        if (programs.isEmpty()) { return; }
+        try {
+            List<Future<?>> initializations = new ArrayList<>();
+            for (ProgramDescriptorDTO program : programs) {
+                initializations.add(InitExecutorHolder.INIT_EXECUTOR.submit(() -> mediaRecorder.initBeforeRecording(program)));
+            }
+            // Wait for all of them, then report the first failure (as a sequential initialization would have)
+            Exception firstFailure = null;
+            for (int i = 0; i < initializations.size(); i++) {
+                try {
+                    initializations.get(i).get();
+                } catch (ExecutionException e) {
+                    logger.error("    -> Failed to initialize the recording of program=[{}] with message=[{}]", programs.get(i).getTitle(), e.getCause().getMessage(), e.getCause());
+                    if (firstFailure == null) { firstFailure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e; }
+                }
+            }
+            if (firstFailure instanceof RuntimeException) { throw (RuntimeException) firstFailure; }
+            if (firstFailure != null) {
+                throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_001_FailedToScheduleMediaCapture.name(), "Failed to initialize the recordings with message=["+firstFailure.getMessage()+"]", firstFailure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_001_FailedToScheduleMediaCapture.name(), "Interrupted while initializing the recordings", e);
+        }
+    }
+
+    private void scheduleStationContinuousCapture(Scheduler scheduler, String stationStreamURL) throws SchedulerException {
+        String stationKey = StationChunkStore.buildStationKey(stationStreamURL);
+        JobKey stationJobKey = JobKey.jobKey("station-" + stationKey);
+        if (scheduler.checkExists(stationJobKey)) { return; }
+
+        JobDetail stationJobDetail = JobBuilder.newJob(StationContinuousCaptureJob.class)
+            .withIdentity(stationJobKey)
+            .usingJobData(StationContinuousCaptureJob.KEY_STATION_STREAM_URL, stationStreamURL)
+            .build();
+        Trigger stationTrigger = TriggerBuilder.newTrigger()
+            .withIdentity("station-trigger-" + stationKey)
+            .startNow()
+            .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+            .build();
+        scheduler.scheduleJob(stationJobDetail, stationTrigger);
+        logger.info("    -> Continuous recording of station [{}] scheduled", stationStreamURL);
+    }
+
+    /**
+     * The threads initializing the recordings are only started when recordings are initialized (and stop when idle)
+     */
+    private static final class InitExecutorHolder {
+        private static final ExecutorService INIT_EXECUTOR = createInitExecutor();
+
+        private static ExecutorService createInitExecutor() {
+            ThreadPoolExecutor initExecutor = new ThreadPoolExecutor(RECORDING_INITIALIZATION_PARALLELISM, RECORDING_INITIALIZATION_PARALLELISM, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), Thread.ofPlatform().name("rlalc-recording-init-", 0).daemon(true).factory());
+            initExecutor.allowCoreThreadTimeOut(true);
+            return initExecutor;
+        }
+    }
+
 }
@@ -0,0 +1,127 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+
+/**
+ * Frame offset table of an MP3 chunk: the byte offset of one audio frame every FRAMES_PER_SEEK_POINT frames, so that a
+ * position in the audio of the chunk is turned into a byte offset (on a frame boundary) without reading the chunk.
+ *
+ * The table is built while the chunk is written (see Mp3ChunkSegmentWriter), or else by scanning the chunk once (see
+ * scan()). The time of a seek point is derived from its frame number, the frames of a chunk having the same duration:
+ * if the stream changes in the middle of a chunk (another sample rate), the frames after the change aren't indexed.
+ *
+ * The Xing/Info frame written at the beginning of the chunks by ffmpeg isn't audio: it's skipped (it doesn't advance
+ * the timeline).
+ */
+public final class ChunkSeekTable {
+
+    // ~209ms at 44.1kHz: the consumers read (and drop) at most that much audio after the seek point
+    public static final int FRAMES_PER_SEEK_POINT = 8;
+
+    private final long frameDurationNanos;
+    private final int[] seekPointOffsets;
+    private final long chunkLengthBytes;
+
+
+    /**
+     * A seek point: a frame boundary, and the position of the frame in the audio of the chunk
+     */
+    public record SeekPoint(long byteOffset, long offsetInChunkNanos) {}
+
+
+    private ChunkSeekTable(long frameDurationNanos, int[] seekPointOffsets, long chunkLengthBytes) {
+        this.frameDurationNanos = frameDurationNanos;
+        this.seekPointOffsets = seekPointOffsets;
+        this.chunkLengthBytes = chunkLengthBytes;
+    }
+
+    /**
+     * @return the latest seek point at or before a position in the audio of the chunk (the start of the chunk if it has
+     *         no audio frame)
+     */
+    public SeekPoint getSeekPoint(long offsetInChunkNanos) {
+        if ((seekPointOffsets.length == 0) || (offsetInChunkNanos <= 0)) {
+            return new SeekPoint((seekPointOffsets.length == 0) ? 0 : seekPointOffsets[0], 0);
+        }
+        long seekPointDurationNanos = frameDurationNanos * FRAMES_PER_SEEK_POINT;
+        int seekPointIndex = (int) Math.min(offsetInChunkNanos / seekPointDurationNanos, seekPointOffsets.length - 1);
+        return new SeekPoint(seekPointOffsets[seekPointIndex], seekPointIndex * seekPointDurationNanos);
+    }
+
+    /**
+     * @return the length of the chunk when the table has been built
+     */
+    public long getChunkLengthBytes() {
+        return chunkLengthBytes;
+    }
+
+    public int getNbSeekPoints() {
+        return seekPointOffsets.length;
+    }
+
+    /**
+     * Build the table of a chunk by reading it (for the chunks which haven't been written by the Mp3ChunkSegmentWriter)
+     */
+    public static ChunkSeekTable scan(File chunk) throws IOException {
+        long chunkLengthBytes = chunk.length();    // Before reading it (a chunk being written keeps growing)
+        Builder builder = new Builder();
+        byte[] frameBuffer = new byte[Mp3FrameReader.MAX_FRAME_LENGTH_BYTES];
+        long framesBytes = 0;
+        try (InputStream chunkInputStream = new FileInputStream(chunk)) {
+            Mp3FrameReader frameReader = new Mp3FrameReader(chunkInputStream);
+            Mp3FrameHeader frameHeader;
+            while ((frameHeader = frameReader.readNextFrame(frameBuffer)) != null) {
+                // The bytes which are not part of a frame (ID3 tags, ...) are before the frame which has just been read
+                long frameOffset = framesBytes + frameReader.getSkippedBytes();
+                if (!frameHeader.isXingOrInfoFrame(frameBuffer)) {
+                    builder.addFrame(frameOffset, frameHeader);
+                }
+                framesBytes += frameHeader.frameLengthBytes();
+            }
+            return builder.build(chunkLengthBytes);
+        }
+    }
+
+
+    /**
+     * Builds the table as the audio frames of a chunk are written
+     */
+    public static final class Builder {
+        private int[] seekPointOffsets = new int[64];
+        private int nbSeekPoints = 0;
+        private int nbFrames = 0;
+        private long frameDurationNanos = 0;
+        private boolean streamChanged = false;
+
+        /**
+         * @param frameOffset offset of the (audio) frame in the chunk
+         */
+        public void addFrame(long frameOffset, Mp3FrameHeader frameHeader) {
+            if (streamChanged) { return; }
+            if (nbFrames == 0) {
+                frameDurationNanos = frameHeader.durationNanos();
+            } else if (frameHeader.durationNanos() != frameDurationNanos) {
+                streamChanged = true;
+                return;
+            }
+            if ((nbFrames % FRAMES_PER_SEEK_POINT) == 0) {
+                if (nbSeekPoints == seekPointOffsets.length) { seekPointOffsets = Arrays.copyOf(seekPointOffsets, nbSeekPoints * 2); }
+                seekPointOffsets[nbSeekPoints++] = (int) frameOffset;
+            }
+            nbFrames++;
+        }
+
+        public ChunkSeekTable build(long chunkLengthBytes) {
+            return new ChunkSeekTable(frameDurationNanos, Arrays.copyOf(seekPointOffsets, nbSeekPoints), chunkLengthBytes);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex;
+
+import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
+import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The ChunkSeekTables of the chunks, by chunk file.
+ *
+ * The tables of the chunks written by the Mp3ChunkSegmentWriter are published when the chunks are (see put()): they are
+ * trusted as is. The other ones (chunks written by ffmpeg, or before a restart) are built by scanning the chunk the first
+ * time it's needed, and rebuilt if the chunk has grown since (it was still being written).
+ *
+ * Only the tables of the MAX_CACHED_TABLES most recently used chunks are kept (~55 hours of 10 seconds chunks, a few
+ * hundred bytes each).
+ */
+public final class ChunkSeekTables {
+
+    private static final int MAX_CACHED_TABLES = 20_000;
+
+    private record CachedSeekTable(ChunkSeekTable seekTable, boolean published) {}
+
+    // REMARK: The tables are static because they are published by the recorders, which are not injected with the services
+    //         instantiated by the HK2 ServiceLocator of the Jersey servlet
+    private static final Map<File, CachedSeekTable> seekTablePerChunk = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, CachedSeekTable> eldest) {
+            return size() > MAX_CACHED_TABLES;
+        }
+    };
+
+
+    private ChunkSeekTables() {}
+
+    /**
+     * Publish the table of a chunk which has been built while the chunk was written
+     */
+    public static void put(File chunk, ChunkSeekTable seekTable) {
+        synchronized (seekTablePerChunk) {
+            seekTablePerChunk.put(chunk.getAbsoluteFile(), new CachedSeekTable(seekTable, true));
+        }
+    }
+
+    /**
+     * @return the table of a chunk (built by scanning the chunk if it hasn't been published)
+     */
+    public static ChunkSeekTable get(File chunk) {
+        File chunkKey = chunk.getAbsoluteFile();
+        CachedSeekTable cachedSeekTable;
+        synchronized (seekTablePerChunk) {
+            cachedSeekTable = seekTablePerChunk.get(chunkKey);
+        }
+        if ((cachedSeekTable != null) && (cachedSeekTable.published() || (cachedSeekTable.seekTable().getChunkLengthBytes() == chunk.length()))) {
+            return cachedSeekTable.seekTable();
+        }
+
+        // REMARK: The chunk is scanned outside of the lock (two concurrent scans of the same chunk give the same table)
+        ChunkSeekTable seekTable;
+        try {
+            seekTable = ChunkSeekTable.scan(chunk);
+        } catch (IOException e) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_005_FailedToAccessMediaChunks.name(), "Failed to build the seek table of chunk=["+chunk+"] with message=["+e.getMessage()+"]", e);
+        }
+        synchronized (seekTablePerChunk) {
+            seekTablePerChunk.put(chunkKey, new CachedSeekTable(seekTable, false));
+        }
+        return seekTable;
+    }
+
+    public static void remove(File chunk) {
+        synchronized (seekTablePerChunk) {
+            seekTablePerChunk.remove(chunk.getAbsoluteFile());
+        }
+    }
+
+}
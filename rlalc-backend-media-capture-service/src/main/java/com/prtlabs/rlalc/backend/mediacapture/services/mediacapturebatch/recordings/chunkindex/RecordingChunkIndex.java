@@ -0,0 +1,154 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex;
+
+import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
+import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+
+/**
+ * In-memory index of the chunks of a directory, by chunk start time, so that the chunks of a recording (or of a time
+ * range of it) are found in O(log n) without listing the directory.
+ *
+ * The index is filled once from the directory, then maintained incrementally (see RecordingChunkIndexService). It is
+ * safe to query it while it's being updated.
+ *
+ * The chunks are the '.mp3' files named '<baseName>_chunk_<yyyyMMdd_HHmmss>.mp3' (the names produced by the ffmpeg
+ * segmenter and by the Mp3ChunkSegmentWriter), the timestamp being the start of the chunk. Combined with the frame offset
+ * table of the chunks (see ChunkSeekTable), an instant of the recording is turned into a (chunk, byte offset) position.
+ */
+public class RecordingChunkIndex {
+
+    // Duration of the chunks of all the recorders (ffmpeg segmenter, in-process and continuous recorders)
+    public static final Duration CHUNK_DURATION = Duration.ofSeconds(10);
+
+    private static final DateTimeFormatter CHUNK_TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final String CHUNK_NAME_MARKER = "_chunk_";
+    private static final String CHUNK_EXTENSION = ".mp3";
+
+    private final Path directory;
+    private final ZoneId chunkNamesTimeZone;
+    private final ConcurrentSkipListMap<Instant, File> chunkPerStart = new ConcurrentSkipListMap<>();
+
+
+    /**
+     * A position in a recording: a frame boundary in a chunk, and the time of that frame
+     */
+    public record ChunkPosition(File chunk, Instant chunkStart, long byteOffset, Instant frameStart) {}
+
+
+    /**
+     * @param chunkNamesTimeZone time zone of the timestamps in the chunk names
+     */
+    public RecordingChunkIndex(Path directory, ZoneId chunkNamesTimeZone) {
+        this.directory = directory;
+        this.chunkNamesTimeZone = chunkNamesTimeZone;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Add a chunk to the index (ignored if the file isn't a chunk)
+     */
+    public void add(Path chunkPath) {
+        Instant chunkStart = parseChunkStart(chunkPath.getFileName().toString(), chunkNamesTimeZone);
+        if (chunkStart != null) {
+            chunkPerStart.put(chunkStart, chunkPath.toFile());
+        }
+    }
+
+    public void remove(Path chunkPath) {
+        Instant chunkStart = parseChunkStart(chunkPath.getFileName().toString(), chunkNamesTimeZone);
+        if (chunkStart != null) {
+            chunkPerStart.remove(chunkStart, chunkPath.toFile());
+            ChunkSeekTables.remove(chunkPath.toFile());
+        }
+    }
+
+    /**
+     * Rebuild the index from the content of the directory (when the incremental updates can't be trusted anymore)
+     */
+    public void reload() {
+        if (!Files.isDirectory(directory)) {
+            chunkPerStart.clear();
+            return;
+        }
+        Map<Instant, File> reloadedChunkPerStart = new ConcurrentSkipListMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                Instant chunkStart = parseChunkStart(path.getFileName().toString(), chunkNamesTimeZone);
+                if (chunkStart != null) { reloadedChunkPerStart.put(chunkStart, path.toFile()); }
+            });
+        } catch (IOException ex) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_005_FailedToAccessMediaChunks.name(), "Failed to gather audio chunk files in=["+directory+"] with message=["+ex.getMessage()+"]", ex);
+        }
+        chunkPerStart.putAll(reloadedChunkPerStart);
+        // REMARK: A chunk missing from the listing is only removed if its file is gone (it may have been added during the listing)
+        chunkPerStart.entrySet().removeIf(entry -> !reloadedChunkPerStart.containsKey(entry.getKey()) && !entry.getValue().exists());
+    }
+
+    /**
+     * @return all the chunks, sorted by start time
+     */
+    public List<File> getChunks() {
+        return new ArrayList<>(chunkPerStart.values());
+    }
+
+    /**
+     * @return the chunks overlapping the [from, to) time range, sorted by start time
+     */
+    public List<File> getChunks(Instant from, Instant to) {
+        // A chunk overlapping the range may have started (up to one chunk duration) before it
+        NavigableMap<Instant, File> overlappingChunks = chunkPerStart.subMap(from.minus(CHUNK_DURATION), false, to, false);
+        return new ArrayList<>(overlappingChunks.values());
+    }
+
+    /**
+     * Find where to read a recording from to play it from a given instant: the chunk being recorded at that instant,
+     * and the offset of the (seek point) frame at or before it. The chunk is then read from that offset.
+     *
+     * @return null if the recording has no chunk started at or before that instant
+     */
+    public ChunkPosition seek(Instant instant) {
+        Map.Entry<Instant, File> chunkEntry = chunkPerStart.floorEntry(instant);
+        if (chunkEntry == null) { return null; }
+        ChunkSeekTable.SeekPoint seekPoint = ChunkSeekTables.get(chunkEntry.getValue()).getSeekPoint(Duration.between(chunkEntry.getKey(), instant).toNanos());
+        return new ChunkPosition(chunkEntry.getValue(), chunkEntry.getKey(), seekPoint.byteOffset(), chunkEntry.getKey().plusNanos(seekPoint.offsetInChunkNanos()));
+    }
+
+    public int size() {
+        return chunkPerStart.size();
+    }
+
+    /**
+     * @return the start time of a chunk, from its file name (null if the name isn't a chunk name)
+     */
+    public static Instant parseChunkStart(String chunkFileName, ZoneId chunkNamesTimeZone) {
+        int markerIndex = chunkFileName.lastIndexOf(CHUNK_NAME_MARKER);
+        if ((markerIndex < 0) || !chunkFileName.endsWith(CHUNK_EXTENSION)) { return null; }
+        try {
+            String timestamp = chunkFileName.substring(markerIndex + CHUNK_NAME_MARKER.length(), chunkFileName.length() - CHUNK_EXTENSION.length());
+            return LocalDateTime.parse(timestamp, CHUNK_TIMESTAMP_FORMATTER).atZone(chunkNamesTimeZone).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Maintains a RecordingChunkIndex per recording directory, so that the chunks of the recordings are never found by
+ * listing their directory on the hot path (status updates, API calls).
+ *
+ * The index of a directory is built from a single listing the first time it's needed. It's then updated incrementally
+ * from the file system events of the directory (a WatchService): the chunks written by ffmpeg and the ones published by
+ * the in-process recorders are indexed as they appear. When events have been lost (overflow), the index is rebuilt.
+ * When a recording ends, its directory isn't watched anymore and its index is dropped (see releaseIndex()), so that
+ * only the directories of the ongoing recordings (and the ones read since their recording ended) are indexed.
+ *
+ * The timestamps in the names of the chunks of the recordings are in the default time zone (like the ffmpeg 'strftime'
+ * based names).
+ */
+public class RecordingChunkIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordingChunkIndexService.class);
+
+    // The indexes are static because the services are also instantiated by the HK2 ServiceLocator of the Jersey servlet,
+    // and all instances need to see the same indexes (and the directories must only be watched once)
+    private static final Map<Path, RecordingChunkIndex> indexPerDirectory = new ConcurrentHashMap<>();
+    private static final Map<WatchKey, RecordingChunkIndex> indexPerWatchKey = new ConcurrentHashMap<>();
+    private static final Map<Path, WatchKey> watchKeyPerDirectory = new ConcurrentHashMap<>();
+
+
+
+    /**
+     * @return the (up to date) chunk index of a recording directory
+     */
+    public RecordingChunkIndex getIndex(String recordingDir) {
+        Path directory = Paths.get(recordingDir).toAbsolutePath().normalize();
+        if (!Files.isDirectory(directory)) {
+            return new RecordingChunkIndex(directory, ZoneId.systemDefault());    // Empty, and not kept since the directory can't be watched yet
+        }
+        return indexPerDirectory.computeIfAbsent(directory, this::createIndex);
+    }
+
+    /**
+     * Rebuild the index of a recording directory from its content (e.g. when the recording ends, so that its last chunk
+     * is in the index whatever the latency of the file system events)
+     */
+    public RecordingChunkIndex reloadIndex(String recordingDir) {
+        RecordingChunkIndex index = getIndex(recordingDir);
+        index.reload();
+        return index;
+    }
+
+    /**
+     * The recording of a directory is over: the directory isn't watched anymore and its index is dropped (the next
+     * getIndex() of the directory builds a new index from a single listing)
+     */
+    public void releaseIndex(String recordingDir) {
+        Path directory = Paths.get(recordingDir).toAbsolutePath().normalize();
+        RecordingChunkIndex index = indexPerDirectory.remove(directory);
+        WatchKey watchKey = watchKeyPerDirectory.remove(directory);
+        if (watchKey != null) {
+            watchKey.cancel();
+            indexPerWatchKey.remove(watchKey);
+        }
+        if (index != null) { logger.debug("Chunk index of directory=[{}] released ([{}] directories still indexed)", directory, indexPerDirectory.size()); }
+    }
+
+    public int getNbIndexedDirectories() {
+        return indexPerDirectory.size();
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private RecordingChunkIndex createIndex(Path directory) {
+        RecordingChunkIndex index = new RecordingChunkIndex(directory, ZoneId.systemDefault());
+        // The directory is watched before it's listed, so that no chunk created in the meantime is missed
+        try {
+            WatchKey watchKey = directory.register(WatcherHolder.WATCH_SERVICE, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+            indexPerWatchKey.put(watchKey, index);
+            watchKeyPerDirectory.put(directory, watchKey);
+        } catch (IOException e) {
+            // The index is then only rebuilt when the recording ends
+            logger.warn("Failed to watch the chunks of directory=[{}] with message=[{}]", directory, e.getMessage());
+        }
+        index.reload();
+        return index;
+    }
+
+    /**
+     * The WatchService and the thread consuming its events are only started if an index is created
+     * REMARK: The watcher is a platform daemon thread (it blocks on the native WatchService, which would pin the carrier
+     *         thread of a virtual thread)
+     */
+    private static final class WatcherHolder {
+        private static final WatchService WATCH_SERVICE = createWatchService();
+
+        private static WatchService createWatchService() {
+            try {
+                WatchService watchService = FileSystems.getDefault().newWatchService();
+                Thread watcherThread = new Thread(() -> watchChunks(watchService), "rlalc-chunk-index-watcher");
+                watcherThread.setDaemon(true);
+                watcherThread.start();
+                return watchService;
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to create the WatchService of the chunk indexes with message=["+e.getMessage()+"]", e);
+            }
+        }
+    }
+
+    private static void watchChunks(WatchService watchService) {
+        while (true) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            RecordingChunkIndex index = indexPerWatchKey.get(watchKey);
+            if (index != null) {
+                try {
+                    for (WatchEvent<?> event : watchKey.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            logger.warn("Chunk events lost for directory=[{}]. Rebuilding its index", index.getDirectory());
+                            index.reload();
+                        } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            index.add(index.getDirectory().resolve((Path) event.context()));
+                        } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            index.remove(index.getDirectory().resolve((Path) event.context()));
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Failed to update the chunk index of directory=[{}] with message=[{}]", index.getDirectory(), e.getMessage(), e);
+                }
+            }
+            if (!watchKey.reset()) {
+                // The directory is gone: its index is dropped (it's rebuilt if it's needed again)
+                indexPerWatchKey.remove(watchKey);
+                if (index != null) {
+                    indexPerDirectory.remove(index.getDirectory(), index);
+                    watchKeyPerDirectory.remove(index.getDirectory(), watchKey);
+                }
+            }
+        }
+    }
+
+}
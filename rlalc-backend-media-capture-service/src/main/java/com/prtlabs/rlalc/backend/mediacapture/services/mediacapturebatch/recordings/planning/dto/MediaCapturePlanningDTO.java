@@ -25,6 +25,9 @@ public class MediaCapturePlanningDTO {
     @JsonProperty("programsToCapture")
     private List<ProgramDescriptorDTO> programsToCapture;
 
+    @JsonProperty("recurringProgramsToCapture")
+    private List<RecurringProgramDTO> recurringProgramsToCapture;    // Optional
+
     /**
      * Meta information class.
      */
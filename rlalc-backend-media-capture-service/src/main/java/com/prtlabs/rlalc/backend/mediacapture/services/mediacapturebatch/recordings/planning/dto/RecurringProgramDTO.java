@@ -0,0 +1,49 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.prtlabs.rlalc.domain.ProgramId;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Program broadcast every week on the same days, at the same local time (e.g. "weekdays 07:00-09:00 Europe/Paris").
+ *
+ *    {
+ *        "title": "France Inter - Le 7/9",
+ *        "uuid": "3e0f8f1e-2f7c-4a43-a2d4-5f0ac4b1e2a1",
+ *        "streamURL": "http://direct.franceinter.fr/live/franceinter-midfi.mp3",
+ *        "daysOfWeek": ["MONDAY", "TUESDAY", "WEDNESDAY", "THURSDAY", "FRIDAY"],
+ *        "localStartTime": "07:00",
+ *        "durationSeconds": "7200",
+ *        "timeZone": "Europe/Paris"
+ *    }
+ *
+ * Its occurrences are only materialized into concrete ProgramDescriptorDTOs (and scheduled) a few hours ahead, see
+ * RecurringProgramsPlanner.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RecurringProgramDTO {
+
+    @JsonProperty("uuid")                       private ProgramId uuid;
+    @JsonProperty("title")                      private String title;
+    @JsonProperty("streamURL")                  private String streamURL;
+    @JsonProperty("daysOfWeek")                 private Set<DayOfWeek> daysOfWeek;    // Every day when empty
+    @JsonProperty("localStartTime")             private LocalTime localStartTime;     // In the timeZone of the Program
+    @JsonProperty("durationSeconds")            private long durationSeconds;
+    @JsonProperty("timeZone")                   private ZoneId timeZone;
+    @JsonProperty("recorderSpecificParameters") private Map<String, String> recorderSpecificParameters;
+
+}
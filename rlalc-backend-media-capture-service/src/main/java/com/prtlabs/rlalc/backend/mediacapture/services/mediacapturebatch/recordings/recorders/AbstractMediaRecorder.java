@@ -0,0 +1,327 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndexService;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.IRecordingStateManagementService;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.RecordingStatusCache;
+import com.prtlabs.rlalc.backend.mediacapture.utils.RLALCLocalTimeZoneTimeHelper;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.domain.ProgramId;
+import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
+import com.prtlabs.utils.exceptions.PrtBaseRuntimeException;
+import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Base class for the IMediaRecorders. It holds what is common to all of them:
+ *   - the bookkeeping of the Recordings (RecordingId, Program, storage path)
+ *   - the storage layout of the chunks (directory and file names)
+ *   - the access to the Recording states (written through the RecordingStatusCache) and to the chunks
+ *
+ * The subclasses only have to implement the actual capture (startRecording / stopRecording), and to call
+ * onRecordingFinished() once a capture is over: the Recording is then evicted from the live maps into a compact history
+ * (see FinishedRecordingsHistory), from which its state and its chunks are still served.
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.recordings.historyRetentionHours : how long the finished recordings are kept in the history (default 48)
+ */
+public abstract class AbstractMediaRecorder implements IMediaRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(AbstractMediaRecorder.class);
+
+    protected static final String PRTLABS_BASEDIR = System.getProperty("prt.rlalc.baseDir", "/opt/prtlabs");
+
+    private static final int FINISHED_RECORDINGS_HISTORY_MAX_SIZE = 10_000;
+
+    // How far from its end a recording is stopped by the stop job of its program (which can fire a little bit early)
+    protected static final Duration STOP_END_TOLERANCE = Duration.ofSeconds(30);
+
+    // Maps to store recording information
+    // REMARK: They are static because the Recorders are also instantiated by the HK2 ServiceLocator of the Jersey servlet,
+    //         and all instances need to see the same Recordings
+    protected static final Map<ProgramId, RecordingId> recordingIdPerProgramId = new ConcurrentHashMap<>();    // There can only be one Recording at a time for a Program (hence the type of recordingIdPerProgramId)
+    protected static final Map<RecordingId, ProgramId> programIdPerRecordingId = new ConcurrentHashMap<>();
+    protected static final Map<RecordingId, String> recordingPaths = new ConcurrentHashMap<>();
+    private static final FinishedRecordingsHistory finishedRecordingsHistory = new FinishedRecordingsHistory(
+        Duration.ofHours(Math.max(1, Integer.getInteger("prt.rlalc.recordings.historyRetentionHours", 48))), FINISHED_RECORDINGS_HISTORY_MAX_SIZE);
+
+    @Inject protected RLALCLocalTimeZoneTimeHelper rLALCLocalTimeZoneTimeHelper;
+    @Inject protected IRecordingStateManagementService recordingStateManagementService;
+    @Inject protected RecordingChunkIndexService recordingChunkIndexService;
+    @Inject protected RecordingStatusCache recordingStatusCache;
+    @Inject protected RecordingChunkFeed recordingChunkFeed;
+
+
+
+    @Override
+    public void initBeforeRecording(ProgramDescriptorDTO programDescriptor) {
+        // Create a RecordingId in the 'rec-<ProgramId>-<epochSec>'
+        RecordingId recordingId = buildRecordingId_UsingProgramId_andCurrentDayForProgram(programDescriptor);
+        recordingIdPerProgramId.put(programDescriptor.getUuid(), recordingId);
+        programIdPerRecordingId.put(recordingId, programDescriptor.getUuid());
+
+        // Create the initial manifest file with PENDING status
+        try {
+            // Compute the filenames and path for the local storage of chunks
+            FileInfoForRecordingStorage fileInfoForRecordingStorage = buildFileInfoForRecordingStorage(programDescriptor);
+            Files.createDirectories(Paths.get(fileInfoForRecordingStorage.outputDir()));
+            // Initialize the recording path since it's needed to access the Manifest (to check the status of a Recording)
+            recordingPaths.put(recordingId, fileInfoForRecordingStorage.outputDir());
+            // Create the initial manifest file with PENDING status
+            createOrUpdateManifest(fileInfoForRecordingStorage.outputDir(), RecordingStatus.Status.PENDING, null, null);
+        } catch (IOException ioex) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_006_FailedToStartRecordingForProgram.name(), "Failed to prepare recording for Program=["+programDescriptor.getTitle()+"] with message=["+ioex.getMessage()+"]", ioex);
+        }
+    }
+
+    /**
+     * The statuses are served from the RecordingStatusCache (no I/O), only the recordings missing from it (e.g. after an
+     * error) are read from the IRecordingStateManagementService.
+     * A Program without a live Recording gets the status of its last finished Recording (from the history).
+     */
+    @Override
+    public Map<ProgramId, RecordingStatus> getRecordingStatuses() {
+        Map<ProgramId, RecordingStatus> statuses = new HashMap<>();
+
+        // The live Recordings override the finished ones of the same Programs
+        Map<ProgramId, String> outputDirPerProgramId = new HashMap<>();
+        finishedRecordingsHistory.getAll(Instant.now()).forEach((programId, finishedRecording) -> outputDirPerProgramId.put(programId, finishedRecording.outputDir()));
+        for (Map.Entry<RecordingId, String> entry : new HashMap<>(recordingPaths).entrySet()) {
+            ProgramId programId = programIdPerRecordingId.get(entry.getKey());
+            if (programId != null) { outputDirPerProgramId.put(programId, entry.getValue()); }
+        }
+
+        // Read the states of the recordings which aren't cached yet (all at once)
+        Map<String, RecordingStatus> statePerOutputDir = recordingStatusCache.getSnapshot();
+        Map<String, RecordingStatus> cachedStatePerOutputDir = statePerOutputDir;
+        List<String> notCachedOutputDirs = outputDirPerProgramId.values().stream().filter(outputDir -> !cachedStatePerOutputDir.containsKey(outputDir)).distinct().toList();
+        boolean failedToReadStates = false;
+        if (!notCachedOutputDirs.isEmpty()) {
+            try {
+                recordingStatusCache.putAll(recordingStateManagementService.readRecordingStates(notCachedOutputDirs));
+                statePerOutputDir = recordingStatusCache.getSnapshot();
+            } catch (Exception e) {
+                logger.error("Error reading the recording states with message=[{}]", e.getMessage(), e);
+                failedToReadStates = true;
+            }
+        }
+
+        for (Map.Entry<ProgramId, String> entry : outputDirPerProgramId.entrySet()) {
+            RecordingStatus status = statePerOutputDir.get(entry.getValue());
+            if ((status == null) && failedToReadStates) {
+                // Create a status with error information
+                status = new RecordingStatus(RecordingStatus.Status.PARTIAL_FAILURE);
+                status.addError("Failed to read the recording state");
+            }
+            if (status != null) {
+                statuses.put(entry.getKey(), status);
+            }
+        }
+
+        return statuses;
+    }
+
+    /**
+     * Same as getRecordingStatuses(), for the live Recording of a single Program (or else its last finished Recording)
+     */
+    @Override
+    public RecordingStatus getRecordingStatus(ProgramId programId) {
+        String outputDir = null;
+        RecordingId recordingIdForProgram = recordingIdPerProgramId.get(programId);
+        if (recordingIdForProgram != null) {
+            outputDir = recordingPaths.get(recordingIdForProgram);
+        }
+        if (outputDir == null) {
+            FinishedRecordingsHistory.FinishedRecording finishedRecording = finishedRecordingsHistory.get(programId, Instant.now());
+            if (finishedRecording == null) { return null; }
+            outputDir = finishedRecording.outputDir();
+        }
+
+        RecordingStatus status = recordingStatusCache.getSnapshot().get(outputDir);
+        if (status != null) { return status; }
+        try {
+            status = recordingStateManagementService.readRecordingState(outputDir);
+            recordingStatusCache.put(outputDir, status);
+            return status;
+        } catch (Exception e) {
+            logger.error("Error reading the state of recording=[{}] with message=[{}]", outputDir, e.getMessage(), e);
+            status = new RecordingStatus(RecordingStatus.Status.PARTIAL_FAILURE);
+            status.addError("Failed to read the recording state");
+            return status;
+        }
+    }
+
+    @Override
+    public List<File> getChunkFiles(ProgramId programId, Instant day) {
+        // Get the path of the current Recording of that programId (or else of its last finished Recording)
+        String outputDir = null;
+        RecordingId recordingIdForProgram = recordingIdPerProgramId.get(programId);
+        if (recordingIdForProgram != null) {
+            outputDir = recordingPaths.get(recordingIdForProgram);
+            if (outputDir == null) { throw new PrtBaseRuntimeException(RLALCExceptionCodesEnum.RLAC_003_NoRecordingStartedForProgram.name(), "Recording storage path not created"); }
+        } else {
+            FinishedRecordingsHistory.FinishedRecording finishedRecording = finishedRecordingsHistory.get(programId, Instant.now());
+            if (finishedRecording == null) { throw new PrtBaseRuntimeException(RLALCExceptionCodesEnum.RLAC_003_NoRecordingStartedForProgram.name(), "No planned RecordingIds found"); }
+            outputDir = finishedRecording.outputDir();
+        }
+
+        // Look for the files
+        Path dirPath = Paths.get(outputDir);
+        if (!Files.exists(dirPath)) { throw new PrtBaseRuntimeException(RLALCExceptionCodesEnum.RLAC_004_NoRecordingsStorageFoundForProgram.name(), "Recording storage path=["+outputDir+"] not found"); }
+
+        // The chunks of all the days of the Program are in the same directory: only the ones of the requested (UTC) day are returned
+        Instant startOfDay = day.atZone(ZoneOffset.UTC).toLocalDate().atStartOfDay(ZoneOffset.UTC).toInstant();
+        return recordingChunkIndexService.getIndex(outputDir).getChunks(startOfDay, startOfDay.plus(1, ChronoUnit.DAYS));
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    protected static record RecordingId(String uuid) {}    // RecordingId is an internal concept. Outside of the Recorders, everything is identified by the ProgramIds (not RecordingIds)
+    protected static record FileInfoForRecordingStorage(String recordingBaseName, String outputDir) {}
+
+
+    /**
+     * Wait until the given instant (used by the pre-warmed recordings)
+     *
+     * @return false if the thread has been interrupted while waiting
+     */
+    protected static boolean waitUntil(Instant instant) {
+        long millisToWait = Duration.between(Instant.now(), instant).toMillis();
+        if (millisToWait <= 0) { return true; }
+        try {
+            Thread.sleep(millisToWait);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * A Recording is over (its final state has been written): it's moved from the live maps to the history
+     */
+    protected void onRecordingFinished(RecordingId recordingId) {
+        ProgramId programId = programIdPerRecordingId.get(recordingId);
+        String outputDir = recordingPaths.get(recordingId);
+        if ((programId == null) || (outputDir == null)) { return; }    // Already evicted
+        // Added to the history first, so that the Recording is always visible from getRecordingStatuses()
+        finishedRecordingsHistory.add(programId, new FinishedRecordingsHistory.FinishedRecording(recordingId.uuid(), outputDir, Instant.now()));
+        recordingIdPerProgramId.remove(programId, recordingId);    // Unless the next Recording of the Program has already been initialized
+        recordingPaths.remove(recordingId);
+        programIdPerRecordingId.remove(recordingId);
+        if (!recordingPaths.containsValue(outputDir)) { recordingChunkIndexService.releaseIndex(outputDir); }    // Unless the next Recording of the Program has already started in the same directory
+        logger.debug("Recording=[{}] is finished, evicted into the history (which holds [{}] recordings)", recordingId.uuid(), finishedRecordingsHistory.size());
+    }
+
+    /**
+     * A chunk of a Program has been closed (it won't change anymore): it's published to the consumers of the RecordingChunkFeed
+     */
+    protected void onChunkClosed(ProgramId programId, File chunk) {
+        Instant chunkStart = getChunkStart(chunk);
+        if (chunkStart == null) { return; }    // Not a chunk
+        recordingChunkFeed.publish(programId, chunk, chunkStart);
+    }
+
+    /**
+     * Write the state of a Recording into the IRecordingStateManagementService, then into the RecordingStatusCache
+     */
+    protected void createOrUpdateManifest(String outputDir, RecordingStatus.Status status, List<String> errors, List<File> chunkList) {
+        recordingStateManagementService.createOrUpdateManifest(outputDir, status, errors, chunkList);
+        refreshCachedRecordingStatus(outputDir);
+    }
+
+    /**
+     * Update the status of a Recording in the IRecordingStateManagementService, then in the RecordingStatusCache
+     */
+    protected void updateStatus(ProgramDescriptorDTO programDescriptor, Optional<Long> processId, Optional<Integer> processExitValue, String outputDir) {
+        updateStatus(programDescriptor, processId, processExitValue, outputDir, null);
+    }
+
+    /**
+     * Update the status (and the errors) of a Recording in the IRecordingStateManagementService, then in the RecordingStatusCache
+     */
+    protected void updateStatus(ProgramDescriptorDTO programDescriptor, Optional<Long> processId, Optional<Integer> processExitValue, String outputDir, List<String> errors) {
+        recordingStateManagementService.updateStatus(programDescriptor, processId, processExitValue, outputDir, errors);
+        refreshCachedRecordingStatus(outputDir);
+    }
+
+    private void refreshCachedRecordingStatus(String outputDir) {
+        // The state is read back since the IRecordingStateManagementService computes it (status, chunks) from what it is given
+        try {
+            recordingStatusCache.put(outputDir, recordingStateManagementService.readRecordingState(outputDir));
+        } catch (Exception e) {
+            // The state will be read again from the IRecordingStateManagementService by the next getRecordingStatuses
+            logger.error("Failed to cache the state of recording=[{}] with message=[{}]", outputDir, e.getMessage(), e);
+            recordingStatusCache.invalidate(outputDir);
+        }
+    }
+
+    /**
+     * The chunks of the primary rendition (the first one) are stored at the root of the outputDir of the Recording, the
+     * ones of the other renditions in a subdirectory named after the rendition
+     */
+    protected String getOutputDirForRendition(FileInfoForRecordingStorage fileInfoForRecordingStorage, List<MediaOutputRendition> renditions, MediaOutputRendition rendition) {
+        return (renditions.indexOf(rendition) == 0) ? fileInfoForRecordingStorage.outputDir() : fileInfoForRecordingStorage.outputDir() + "/" + rendition.name();
+    }
+
+    /**
+     * Build a RecordingId that includes the programID and the currentDay for the program
+     * @param programDescriptor
+     * @return
+     */
+    protected RecordingId buildRecordingId_UsingProgramId_andCurrentDayForProgram(ProgramDescriptorDTO programDescriptor) {
+        String currentDayForProgramAsYYYYMMDD = rLALCLocalTimeZoneTimeHelper.getCurrentDayForProgramAsYYYYMMDD(programDescriptor.getTimeZone());
+        return new RecordingId("rec-" + programDescriptor.getUuid() + "-" + currentDayForProgramAsYYYYMMDD);
+    }
+
+    /**
+     * Build the RecordingId of a recording which starts at recordingStart (pre-warmed recordings are started just before
+     * it, possibly on the day before)
+     */
+    protected RecordingId buildRecordingId_UsingProgramId_andDayForProgramAt(ProgramDescriptorDTO programDescriptor, Instant recordingStart) {
+        if (!recordingStart.isAfter(Instant.now())) {
+            return buildRecordingId_UsingProgramId_andCurrentDayForProgram(programDescriptor);
+        }
+        return new RecordingId("rec-" + programDescriptor.getUuid() + "-" + rLALCLocalTimeZoneTimeHelper.getDayForProgramAsYYYYMMDD(programDescriptor.getTimeZone(), recordingStart));
+    }
+
+    /**
+     * Build a "filename-compatible" name for the directory storing the recording, and the outputDir where chunks will
+     * be stored for this Recording of this Program
+     * @param programDescriptor
+     * @return
+     */
+    protected FileInfoForRecordingStorage buildFileInfoForRecordingStorage(ProgramDescriptorDTO programDescriptor) {
+        String recordingBaseName = programDescriptor.getUuid().uuid().toLowerCase() + "-" +
+            programDescriptor.getTitle().toLowerCase()
+                .replaceAll("[^a-z0-9]", "_")
+                .replaceAll("_+", "_");
+        String outputDir = PRTLABS_BASEDIR + "/radiolivealacarte/datastore/media/mp3/" + recordingBaseName;
+        return new FileInfoForRecordingStorage(recordingBaseName, outputDir);
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Watchdog of the live captures: it tracks, per recording, the bytes received, the cadence of the chunks and the age of
+ * the last chunk, so that a capture which is 'ONGOING' but doesn't produce anything anymore (e.g. a process hung on a
+ * dead socket) is detected and restarted.
+ *
+ * The recorders only update a few atomic counters per chunk (see CaptureHealth), the thresholds are checked every few
+ * seconds by the watchdog thread:
+ *   - no chunk for longer than 'maxChunkAgeSeconds' : the capture is STALLED and is restarted (through the action given
+ *                                                     by its recorder, at most once per 'maxChunkAgeSeconds')
+ *   - less than 'minBytesPerSecond' received        : the capture is DEGRADED (only reported, some streams have a
+ *                                                     really low bitrate)
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.capture.watchdog.maxChunkAgeSeconds : max age of the last chunk of a live capture (default 45)
+ *   - prt.rlalc.capture.watchdog.minBytesPerSecond  : min throughput of a live capture (default 2000, ie 16kbps)
+ */
+public class CaptureHealthWatchdog {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureHealthWatchdog.class);
+
+    private static final long CHECK_PERIOD_SECONDS = 5;
+    private static final long MAX_CHUNK_AGE_NANOS = TimeUnit.SECONDS.toNanos(Math.max(CHECK_PERIOD_SECONDS, Long.getLong("prt.rlalc.capture.watchdog.maxChunkAgeSeconds", 45)));
+    private static final long MIN_BYTES_PER_SECOND = Long.getLong("prt.rlalc.capture.watchdog.minBytesPerSecond", 2000);
+
+    public enum HealthState { STARTING, HEALTHY, DEGRADED, STALLED }
+
+    // REMARK: The captures are static because the recorders are also instantiated by the HK2 ServiceLocator of the Jersey
+    //         servlet, and the management API must see the captures of the Media Capture service
+    private static final Map<String, CaptureHealth> healthPerRecordingId = new ConcurrentHashMap<>();
+
+
+    /**
+     * Start watching a capture (replacing the previous capture of the same recording, if any)
+     * @param restartAction how to restart the capture when it's stalled (null if it can't be restarted)
+     * @return the counters to update by the recorder
+     */
+    public CaptureHealth watch(String recordingId, ProgramId programId, String title, Runnable restartAction) {
+        CaptureHealth captureHealth = new CaptureHealth(recordingId, programId, title, restartAction, System.nanoTime());
+        healthPerRecordingId.put(recordingId, captureHealth);
+        WatchdogThread.start();
+        return captureHealth;
+    }
+
+    /**
+     * Stop watching a capture (it's over)
+     */
+    public void unwatch(CaptureHealth captureHealth) {
+        if (captureHealth != null) {
+            healthPerRecordingId.remove(captureHealth.recordingId, captureHealth);
+        }
+    }
+
+    /**
+     * @return the live metrics of the captures being watched
+     */
+    public List<CaptureHealthSnapshot> getSnapshots() {
+        long nowNanos = System.nanoTime();
+        List<CaptureHealthSnapshot> snapshots = new ArrayList<>();
+        for (CaptureHealth captureHealth : healthPerRecordingId.values()) {
+            snapshots.add(captureHealth.snapshot(nowNanos));
+        }
+        snapshots.sort(Comparator.comparing(CaptureHealthSnapshot::recordingId));
+        return snapshots;
+    }
+
+    /**
+     * The live metrics of a capture
+     *
+     * @param bytesPerSecond               throughput measured over the last check period of the watchdog
+     * @param averageChunkIntervalSeconds  average time between two chunks (-1 until there are 2 chunks)
+     * @param lastChunkAgeSeconds          time since the last chunk (since the start of the capture if there is none yet)
+     */
+    public record CaptureHealthSnapshot(String recordingId, ProgramId programId, String title, HealthState state,
+                                        long totalBytes, long bytesPerSecond, long nbChunks, double averageChunkIntervalSeconds,
+                                        long lastChunkAgeSeconds, int nbRestarts) {}
+
+    /**
+     * The counters of a capture, updated by its recorder (a few atomic updates per chunk) and read by the watchdog
+     */
+    public static final class CaptureHealth {
+        private final String recordingId;
+        private final ProgramId programId;
+        private final String title;
+        private final Runnable restartAction;
+        private final long watchedSinceNanos;
+        private final AtomicLong totalBytes = new AtomicLong(0);
+        private final AtomicLong nbChunks = new AtomicLong(0);
+        private final AtomicInteger nbRestarts = new AtomicInteger(0);
+        private volatile long firstChunkNanos = 0;
+        private volatile long lastChunkNanos = 0;
+        private volatile HealthState state = HealthState.STARTING;
+        // Only used by the watchdog thread
+        private long lastCheckNanos;
+        private long lastCheckTotalBytes = 0;
+        private long lastRestartNanos = 0;
+        private volatile long bytesPerSecond = 0;
+
+        private CaptureHealth(String recordingId, ProgramId programId, String title, Runnable restartAction, long watchedSinceNanos) {
+            this.recordingId = recordingId;
+            this.programId = programId;
+            this.title = title;
+            this.restartAction = restartAction;
+            this.watchedSinceNanos = watchedSinceNanos;
+            this.lastCheckNanos = watchedSinceNanos;
+        }
+
+        /**
+         * Bytes have been received from the stream (to be called once per chunk, or less often)
+         */
+        public void onBytesReceived(long nbBytes) {
+            totalBytes.addAndGet(nbBytes);
+        }
+
+        /**
+         * A chunk has been produced
+         */
+        public void onChunkProduced() {
+            onChunkProduced(System.nanoTime());
+        }
+
+        void onChunkProduced(long nowNanos) {
+            if (nbChunks.getAndIncrement() == 0) { firstChunkNanos = nowNanos; }
+            lastChunkNanos = nowNanos;
+        }
+
+        public HealthState getState() {
+            return state;
+        }
+
+        public int getNbRestarts() {
+            return nbRestarts.get();
+        }
+
+        private CaptureHealthSnapshot snapshot(long nowNanos) {
+            long nbChunksProduced = nbChunks.get();
+            long lastProgressNanos = (nbChunksProduced > 0) ? lastChunkNanos : watchedSinceNanos;
+            double averageChunkIntervalSeconds = (nbChunksProduced > 1) ? ((lastChunkNanos - firstChunkNanos) / 1e9) / (nbChunksProduced - 1) : -1;
+            return new CaptureHealthSnapshot(recordingId, programId, title, state, totalBytes.get(), bytesPerSecond, nbChunksProduced,
+                averageChunkIntervalSeconds, TimeUnit.NANOSECONDS.toSeconds(nowNanos - lastProgressNanos), nbRestarts.get());
+        }
+
+        /**
+         * Check the thresholds (and restart the capture if it's stalled)
+         */
+        void check(long nowNanos) {
+            // Throughput since the previous check
+            long currentTotalBytes = totalBytes.get();
+            long elapsedNanos = nowNanos - lastCheckNanos;
+            if (elapsedNanos > 0) {
+                bytesPerSecond = ((currentTotalBytes - lastCheckTotalBytes) * TimeUnit.SECONDS.toNanos(1)) / elapsedNanos;
+            }
+            lastCheckNanos = nowNanos;
+            lastCheckTotalBytes = currentTotalBytes;
+
+            // State
+            long nbChunksProduced = nbChunks.get();
+            long lastProgressNanos = (nbChunksProduced > 0) ? lastChunkNanos : watchedSinceNanos;
+            if ((nowNanos - lastProgressNanos) > MAX_CHUNK_AGE_NANOS) {
+                state = HealthState.STALLED;
+                if ((restartAction != null) && ((lastRestartNanos == 0) || ((nowNanos - lastRestartNanos) > MAX_CHUNK_AGE_NANOS))) {
+                    lastRestartNanos = nowNanos;
+                    nbRestarts.incrementAndGet();
+                    logger.warn("Capture of program=[{}] (recording=[{}]) has not produced any chunk for [{}]secs, restarting it", title, recordingId, TimeUnit.NANOSECONDS.toSeconds(nowNanos - lastProgressNanos));
+                    try {
+                        restartAction.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to restart the capture of program=[{}] with message=[{}]", title, e.getMessage(), e);
+                    }
+                }
+            } else if (nbChunksProduced == 0) {
+                state = HealthState.STARTING;
+            } else if (bytesPerSecond < MIN_BYTES_PER_SECOND) {
+                if (state != HealthState.DEGRADED) { logger.warn("Capture of program=[{}] (recording=[{}]) only receives [{}]bytes/sec", title, recordingId, bytesPerSecond); }
+                state = HealthState.DEGRADED;
+            } else {
+                state = HealthState.HEALTHY;
+            }
+        }
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    static void checkAll(long nowNanos) {
+        for (CaptureHealth captureHealth : healthPerRecordingId.values()) {
+            captureHealth.check(nowNanos);
+        }
+    }
+
+    /**
+     * The watchdog thread is only started when the first capture is watched (and not in the processes which only
+     * schedule recordings or serve the management API)
+     */
+    private static final class WatchdogThread {
+        private static final ScheduledExecutorService watchdogExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("rlalc-capture-health-watchdog").daemon(true).factory());
+
+        static {
+            watchdogExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    checkAll(System.nanoTime());
+                } catch (RuntimeException e) {
+                    logger.error("Failed to check the health of the captures with message=[{}]", e.getMessage(), e);
+                }
+            }, CHECK_PERIOD_SECONDS, CHECK_PERIOD_SECONDS, TimeUnit.SECONDS);
+        }
+
+        private static void start() {
+            // Starting is done by the class initialization
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import com.prtlabs.rlalc.domain.ProgramId;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Compact history of the finished recordings: the recorders evict their recordings from their live maps once they are
+ * over, and only keep here the last finished recording of each Program (so that its state and its chunks are still
+ * served), for a limited time.
+ *
+ * The entries are kept in the order in which the recordings finished, so that the expired ones are evicted from the head.
+ */
+final class FinishedRecordingsHistory {
+
+    /**
+     * A finished recording (what's needed to serve its state and its chunks)
+     */
+    record FinishedRecording(String recordingId, String outputDir, Instant finishedAt) {}
+
+    private final Duration retention;
+    private final int maxSize;
+    private final LinkedHashMap<ProgramId, FinishedRecording> lastFinishedRecordingPerProgramId = new LinkedHashMap<>();
+
+
+    FinishedRecordingsHistory(Duration retention, int maxSize) {
+        this.retention = retention;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Add the finished recording of a Program (replacing its previous one)
+     */
+    synchronized void add(ProgramId programId, FinishedRecording finishedRecording) {
+        lastFinishedRecordingPerProgramId.remove(programId);    // Re-inserted at the tail
+        lastFinishedRecordingPerProgramId.put(programId, finishedRecording);
+        evict(finishedRecording.finishedAt());
+    }
+
+    /**
+     * @return the last finished recording of a Program (null if there is none, or if it has expired)
+     */
+    synchronized FinishedRecording get(ProgramId programId, Instant now) {
+        evict(now);
+        return lastFinishedRecordingPerProgramId.get(programId);
+    }
+
+    /**
+     * @return the last finished recording of each Program (the expired ones excluded)
+     */
+    synchronized Map<ProgramId, FinishedRecording> getAll(Instant now) {
+        evict(now);
+        return new LinkedHashMap<>(lastFinishedRecordingPerProgramId);
+    }
+
+    synchronized int size() {
+        return lastFinishedRecordingPerProgramId.size();
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private void evict(Instant now) {
+        Instant expiry = now.minus(retention);
+        Iterator<FinishedRecording> iterator = lastFinishedRecordingPerProgramId.values().iterator();
+        while (iterator.hasNext()) {
+            FinishedRecording oldestFinishedRecording = iterator.next();
+            if ((lastFinishedRecordingPerProgramId.size() <= maxSize) && !oldestFinishedRecording.finishedAt().isBefore(expiry)) { break; }
+            iterator.remove();
+        }
+    }
+
+}
@@ -1,11 +1,13 @@
 package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
 
 import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndex;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
 import com.prtlabs.rlalc.domain.ProgramId;
 
 import java.io.File;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.util.List;
 import java.util.Map;
 
@@ -13,10 +15,49 @@ import java.util.Map;
 public interface IMediaRecorder {
 
     void initBeforeRecording(ProgramDescriptorDTO programDescriptor);
-    void startRecording(ProgramDescriptorDTO programDescriptor, Map<String, String> recorderSpecificParameters);
+    /**
+     * Start the recording of a Program, producing all the given renditions from a single download of the stream
+     * @param renditions the outputs to produce (the first one is the primary one). If empty, the recorder produces its default rendition.
+     */
+    void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters);
+    default void startRecording(ProgramDescriptorDTO programDescriptor, Map<String, String> recorderSpecificParameters) {
+        startRecording(programDescriptor, MediaOutputRendition.fromRecorderSpecificParameters(recorderSpecificParameters), recorderSpecificParameters);
+    }
+    /**
+     * Start the recording of a Program ahead of its start (pre-warm): the recorder gets ready (connection to the stream,
+     * encoders, ...) but only records from recordingStart, so that the recording begins exactly on time.
+     * By default, the recorder has no pre-warm: the recording is started right away (a few seconds ahead of recordingStart).
+     */
+    default void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters, Instant recordingStart) {
+        startRecording(programDescriptor, renditions, recorderSpecificParameters);
+    }
     void stopRecording(ProgramId programId);
 
     Map<ProgramId, RecordingStatus> getRecordingStatuses();
     List<File>                      getChunkFiles(ProgramId programId, Instant day);
 
+    /**
+     * @return the status of the Recording of a single Program (null if it has none). By default, it's taken from
+     *         getRecordingStatuses(), which the recorders override to avoid computing the statuses of all the Programs.
+     */
+    default RecordingStatus getRecordingStatus(ProgramId programId) {
+        return getRecordingStatuses().get(programId);
+    }
+
+    /**
+     * @return the start time of a chunk returned by getChunkFiles() (from its name), null if the file isn't a chunk.
+     *         By default, the timestamps in the names of the chunks are in the default time zone.
+     */
+    default Instant getChunkStart(File chunk) {
+        return RecordingChunkIndex.parseChunkStart(chunk.getName(), ZoneId.systemDefault());
+    }
+
+    /**
+     * @return true if the recorder records the stations 24/7 (the Programs being time range views over their station),
+     *         in which case it needs one capture job per station instead of the start/stop jobs of each Program
+     */
+    default boolean recordsStationsContinuously() {
+        return false;
+    }
+
 }
@@ -0,0 +1,106 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
+import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * One of the outputs produced by the recording of a Program (e.g. 160k MP3 for the archive, 64k MP3 for the mobile
+ * previews, mono 16kHz WAV for the AI labeler). All the renditions of a Program are produced from a single download
+ * of the stream.
+ *
+ * The renditions are defined in the 'recorderSpecificParameters' of the Program, with the 'outputRenditions' key:
+ *
+ *     "recorderSpecificParameters": { "outputRenditions": "archive:mp3:160:32000:2;mobile:mp3:64:22050:1;labeler:wav:0:16000:1" }
+ *
+ * Each rendition is described as '<name>:<format>:<bitrateKbps>:<sampleRateHz>:<channels>', where 0 means "same as the
+ * source" (a 0 bitrate MP3 rendition is written without re-encoding by the in-process recorder, when the source is MP3).
+ *
+ * The first rendition is the primary one: its chunks are stored at the root of the storage directory of the Recording
+ * (where the manifest lists them), the chunks of the other renditions are stored in a subdirectory named after them.
+ *
+ * @param name         name of the rendition (used as the name of its subdirectory)
+ * @param format       container/codec of the chunks
+ * @param bitrateKbps  bitrate of the encoded audio (0 for "same as the source", ignored for WAV)
+ * @param sampleRateHz sample rate (0 for "same as the source")
+ * @param channels     number of channels (0 for "same as the source")
+ */
+public record MediaOutputRendition(String name, Format format, int bitrateKbps, int sampleRateHz, int channels) {
+
+    public static final String RECORDER_SPECIFIC_PARAMETER_KEY = "outputRenditions";
+
+    public enum Format {
+        MP3("mp3"),
+        WAV("wav");
+
+        private final String fileExtension;
+
+        Format(String fileExtension) { this.fileExtension = fileExtension; }
+
+        public String getFileExtension() { return fileExtension; }
+    }
+
+
+    /**
+     * @return true if the rendition is the source audio itself (MPEG audio frames copied as is)
+     */
+    public boolean isSourcePassthrough() {
+        return (format == Format.MP3) && (bitrateKbps == 0) && (sampleRateHz == 0) && (channels == 0);
+    }
+
+    /**
+     * Parse the renditions defined in the 'recorderSpecificParameters' of a Program
+     * @return the renditions, or an empty list if none is defined (the recorders then use their default rendition)
+     */
+    public static List<MediaOutputRendition> fromRecorderSpecificParameters(Map<String, String> recorderSpecificParameters) {
+        List<MediaOutputRendition> renditions = new ArrayList<>();
+        if (recorderSpecificParameters == null) { return renditions; }
+        String renditionsSpec = recorderSpecificParameters.get(RECORDER_SPECIFIC_PARAMETER_KEY);
+        if ((renditionsSpec == null) || renditionsSpec.isBlank()) { return renditions; }
+
+        Set<String> names = new HashSet<>();
+        for (String renditionSpec : renditionsSpec.split(";")) {
+            if (renditionSpec.isBlank()) { continue; }
+            MediaOutputRendition rendition = parse(renditionSpec.trim());
+            if (!names.add(rendition.name())) {
+                throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_011_InvalidRecorderSpecificParameters.name(), "Duplicate rendition name=["+rendition.name()+"] in outputRenditions=["+renditionsSpec+"]");
+            }
+            renditions.add(rendition);
+        }
+        return renditions;
+    }
+
+    /**
+     * Parse a rendition described as '<name>:<format>:<bitrateKbps>:<sampleRateHz>:<channels>'
+     */
+    public static MediaOutputRendition parse(String renditionSpec) {
+        String[] fields = renditionSpec.split(":");
+        if (fields.length != 5) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_011_InvalidRecorderSpecificParameters.name(), "Invalid rendition=["+renditionSpec+"], expected '<name>:<format>:<bitrateKbps>:<sampleRateHz>:<channels>'");
+        }
+        String name = fields[0].trim();
+        if (!name.matches("[a-zA-Z0-9_-]+")) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_011_InvalidRecorderSpecificParameters.name(), "Invalid name=["+name+"] for rendition=["+renditionSpec+"], only letters, digits, '_' and '-' are allowed");
+        }
+        try {
+            Format format = Format.valueOf(fields[1].trim().toUpperCase(Locale.ROOT));
+            int bitrateKbps = Integer.parseInt(fields[2].trim());
+            int sampleRateHz = Integer.parseInt(fields[3].trim());
+            int channels = Integer.parseInt(fields[4].trim());
+            if ((bitrateKbps < 0) || (sampleRateHz < 0) || (channels < 0) || (channels > 2)) {
+                throw new IllegalArgumentException("bitrate, sample rate and channels must be positive (and channels at most 2)");
+            }
+            return new MediaOutputRendition(name, format, bitrateKbps, sampleRateHz, channels);
+        } catch (IllegalArgumentException e) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_011_InvalidRecorderSpecificParameters.name(), "Invalid rendition=["+renditionSpec+"] with message=["+e.getMessage()+"]", e);
+        }
+    }
+
+}
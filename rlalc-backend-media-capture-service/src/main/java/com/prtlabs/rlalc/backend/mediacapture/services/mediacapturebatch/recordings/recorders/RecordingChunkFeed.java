@@ -0,0 +1,208 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+
+/**
+ * Feed of the chunks closed by the recorders, so that the consumers of the recordings (labelers, datastore, apps) learn
+ * about the new audio as soon as it's written, instead of polling the chunks of the recordings.
+ *
+ * Each chunk closed by a recorder is published once (see AbstractMediaRecorder.onChunkClosed()), with a sequence number.
+ * The consumers long-poll the feed (all the programs, or a single one) with the cursor of the last event they've got:
+ * the events after it are returned right away, or else as soon as one is published. The last MAX_RETAINED_EVENTS
+ * events are kept, so that a consumer can resume from its cursor after a disconnection. When the events after its cursor
+ * are gone (or the service has restarted), the consumer is told to resync: it then lists the chunks of the recordings
+ * once, and goes on with the returned cursor.
+ *
+ * The cursors are '<feedId>-<sequence>', the feed id changing at each start of the service.
+ */
+public class RecordingChunkFeed {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordingChunkFeed.class);
+
+    private static final int MAX_RETAINED_EVENTS = Math.max(100, Integer.getInteger("prt.rlalc.chunkFeed.retainedEvents", 10_000));
+    public static final int MAX_EVENTS_PER_POLL = 500;
+
+    private static final String FEED_ID = Long.toString(System.currentTimeMillis(), 36);
+
+
+    /**
+     * A chunk closed by a recorder
+     */
+    public record ChunkEvent(long sequence, ProgramId programId, File chunk, Instant chunkStart, Instant publishedAt) {}
+
+    /**
+     * What a poll returns: the events after the cursor of the consumer, and the cursor to poll from next.
+     * When 'resync' is true, some events have been missed (the events are the oldest retained ones).
+     */
+    public record ChunkEvents(String cursor, boolean resync, List<ChunkEvent> events) {}
+
+    private record Waiter(ProgramId programId, long afterSequence, int maxEvents, Consumer<ChunkEvents> callback) {}
+
+    // REMARK: The feed is static because the services are also instantiated by the HK2 ServiceLocator of the Jersey
+    //         servlet, and the API must see the events published by the recorders
+    private static final Object lock = new Object();
+    private static final Deque<ChunkEvent> retainedEvents = new ArrayDeque<>();
+    private static final List<Waiter> waiters = new ArrayList<>();
+    private static long lastSequence = 0;
+
+
+
+    /**
+     * Publish a closed chunk (and wake up the consumers waiting for it)
+     */
+    public void publish(ProgramId programId, File chunk, Instant chunkStart) {
+        List<Waiter> wokenUpWaiters = new ArrayList<>();
+        synchronized (lock) {
+            ChunkEvent event = new ChunkEvent(++lastSequence, programId, chunk, chunkStart, Instant.now());
+            retainedEvents.addLast(event);
+            if (retainedEvents.size() > MAX_RETAINED_EVENTS) { retainedEvents.removeFirst(); }
+            for (Iterator<Waiter> waiterIterator = waiters.iterator(); waiterIterator.hasNext(); ) {
+                Waiter waiter = waiterIterator.next();
+                if ((waiter.programId() == null) || waiter.programId().equals(programId)) {
+                    waiterIterator.remove();
+                    wokenUpWaiters.add(waiter);
+                }
+            }
+        }
+
+        // REMARK: The consumers are called back from another thread (their response is written from the callback, and
+        //         the recorders must not wait for the network)
+        for (Waiter waiter : wokenUpWaiters) {
+            NotifierHolder.NOTIFIER.execute(() -> {
+                try {
+                    waiter.callback().accept(getEventsAfter(waiter.programId(), waiter.afterSequence(), waiter.maxEvents()));
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to notify a consumer of the chunk feed with message=[{}]", e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the events after a cursor, or else wait for the next one
+     *
+     * @param programId only the events of that program (all the events if null)
+     * @param cursor the cursor returned by the previous poll (null to only get the events published from now on)
+     * @param callback called (once) with the events, right away if there are some, or else when there are. Nothing is
+     *                 called if the waiter is cancelled before (see the returned Runnable).
+     * @return cancels the wait (e.g. when the consumer has given up)
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    public Runnable poll(ProgramId programId, String cursor, int maxEvents, Consumer<ChunkEvents> callback) {
+        int effectiveMaxEvents = Math.max(1, Math.min(maxEvents, MAX_EVENTS_PER_POLL));
+        ChunkEvents chunkEvents;
+        Waiter waiter = null;
+        synchronized (lock) {
+            long afterSequence = parseCursor(cursor);
+            chunkEvents = getEventsAfter(programId, afterSequence, effectiveMaxEvents);
+            if (chunkEvents.events().isEmpty() && !chunkEvents.resync()) {
+                waiter = new Waiter(programId, afterSequence, effectiveMaxEvents, callback);
+                waiters.add(waiter);
+            }
+        }
+        if (waiter == null) {
+            callback.accept(chunkEvents);
+            return () -> {};
+        }
+        Waiter registeredWaiter = waiter;
+        return () -> {
+            synchronized (lock) { waiters.remove(registeredWaiter); }
+        };
+    }
+
+    /**
+     * @return the cursor of the last event published so far
+     */
+    public String getCurrentCursor() {
+        synchronized (lock) {
+            return buildCursor(lastSequence);
+        }
+    }
+
+    public int getNbWaiters() {
+        synchronized (lock) {
+            return waiters.size();
+        }
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private static ChunkEvents getEventsAfter(ProgramId programId, long afterSequence, int maxEvents) {
+        synchronized (lock) {
+            // The events after the cursor are gone (or the cursor is from a previous run of the service)
+            long oldestRetainedSequence = retainedEvents.isEmpty() ? (lastSequence + 1) : retainedEvents.getFirst().sequence();
+            boolean resync = (afterSequence < 0) || (afterSequence < oldestRetainedSequence - 1);
+
+            // The events after the cursor are the last ones (a consumer which keeps up only looks at the few last events)
+            long cursorSequence = resync ? (oldestRetainedSequence - 1) : afterSequence;
+            List<ChunkEvent> newEvents = new ArrayList<>();
+            for (Iterator<ChunkEvent> eventIterator = retainedEvents.descendingIterator(); eventIterator.hasNext(); ) {
+                ChunkEvent event = eventIterator.next();
+                if (event.sequence() <= cursorSequence) { break; }
+                newEvents.add(event);
+            }
+
+            // REMARK: The cursor moves past the events of the other programs, so that they're not looked at again
+            List<ChunkEvent> events = new ArrayList<>();
+            for (int i = newEvents.size() - 1; (i >= 0) && (events.size() < maxEvents); i--) {
+                ChunkEvent event = newEvents.get(i);
+                if ((programId == null) || programId.equals(event.programId())) { events.add(event); }
+                cursorSequence = event.sequence();
+            }
+            return new ChunkEvents(buildCursor(cursorSequence), resync, events);
+        }
+    }
+
+    /**
+     * @return the sequence of the cursor (-1 if it's from a previous run of the service)
+     */
+    private static long parseCursor(String cursor) {
+        if ((cursor == null) || cursor.isEmpty()) { return lastSequence; }
+        int separatorIndex = cursor.lastIndexOf('-');
+        if (separatorIndex <= 0) { throw new IllegalArgumentException("Invalid cursor=["+cursor+"]"); }
+        long sequence;
+        try {
+            sequence = Long.parseLong(cursor.substring(separatorIndex + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor=["+cursor+"]");
+        }
+        if (!cursor.substring(0, separatorIndex).equals(FEED_ID)) { return -1; }
+        if ((sequence < 0) || (sequence > lastSequence)) { throw new IllegalArgumentException("Unknown cursor=["+cursor+"]"); }
+        return sequence;
+    }
+
+    private static String buildCursor(long sequence) {
+        return FEED_ID + "-" + sequence;
+    }
+
+    /**
+     * The thread calling the consumers back is only started if the feed is used
+     */
+    private static final class NotifierHolder {
+        private static final ExecutorService NOTIFIER = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("rlalc-chunk-feed-notifier").daemon(true).factory());
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Admission control of the setup of the recordings (process fork, connection to the stream), so that the hundreds of
+ * programs starting at the top of the hour don't saturate the CPU and the network in the same second.
+ *
+ * A recording holds a permit while it sets up: at most 'maxConcurrentStarts' setups run at the same time, and at most
+ * 'maxConcurrentStartsPerHost' towards the same streaming host. The setups are also spread over the seconds before the
+ * start of the programs by the jitter of their pre-warm (see MediaCaptureJob.computeStartFireTime()).
+ *
+ * A recording which waits too long for its permits is set up anyway (losing the start of a program is worse than a
+ * burst of setups).
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.capture.maxConcurrentStarts        : max number of setups at the same time (default 16)
+ *   - prt.rlalc.capture.maxConcurrentStartsPerHost : max number of setups at the same time towards a host (default 4)
+ */
+public class RecordingStartAdmissionControl {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordingStartAdmissionControl.class);
+
+    private static final Duration MAX_ADMISSION_WAIT = Duration.ofSeconds(30);
+    private static final int MAX_CONCURRENT_STARTS_PER_HOST = Integer.getInteger("prt.rlalc.capture.maxConcurrentStartsPerHost", 4);
+
+    // REMARK: The permits are static because the recorders are also instantiated by the HK2 ServiceLocator of the Jersey
+    //         servlet, and the limits are for the whole JVM
+    private static final Semaphore startPermits = new Semaphore(Integer.getInteger("prt.rlalc.capture.maxConcurrentStarts", 16), true);
+    private static final Map<String, Semaphore> startPermitsPerHost = new ConcurrentHashMap<>();
+
+
+    /**
+     * Wait for the permits to set up the recording of a stream (to be closed once the setup is done)
+     */
+    public StartPermit acquire(String streamURL) {
+        return acquire(streamURL, MAX_ADMISSION_WAIT);
+    }
+
+    /**
+     * A permit to set up a recording, released when closed (it can be closed several times)
+     */
+    public static final class StartPermit implements AutoCloseable {
+        private final Semaphore hostPermits;
+        private final boolean hostPermitAcquired;
+        private final boolean globalPermitAcquired;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private StartPermit(Semaphore hostPermits, boolean hostPermitAcquired, boolean globalPermitAcquired) {
+            this.hostPermits = hostPermits;
+            this.hostPermitAcquired = hostPermitAcquired;
+            this.globalPermitAcquired = globalPermitAcquired;
+        }
+
+        public boolean isAdmitted() {
+            return hostPermitAcquired && globalPermitAcquired;
+        }
+
+        @Override
+        public void close() {
+            if (!released.compareAndSet(false, true)) { return; }
+            if (globalPermitAcquired) { startPermits.release(); }
+            if (hostPermitAcquired)   { hostPermits.release(); }
+        }
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    StartPermit acquire(String streamURL, Duration maxWait) {
+        long deadlineNanos = System.nanoTime() + maxWait.toNanos();
+        // The permit of the host is acquired first, so that a slow host doesn't hold global permits while its setups queue
+        Semaphore hostPermits = startPermitsPerHost.computeIfAbsent(getHost(streamURL), host -> new Semaphore(MAX_CONCURRENT_STARTS_PER_HOST, true));
+        boolean hostPermitAcquired = tryAcquire(hostPermits, deadlineNanos);
+        boolean globalPermitAcquired = tryAcquire(startPermits, deadlineNanos);
+        StartPermit permit = new StartPermit(hostPermits, hostPermitAcquired, globalPermitAcquired);
+        if (!permit.isAdmitted()) {
+            logger.warn("Setting up the recording of stream=[{}] without waiting any longer for the admission control (waited for [{}]secs)", streamURL, maxWait.toSeconds());
+        }
+        return permit;
+    }
+
+    private static boolean tryAcquire(Semaphore permits, long deadlineNanos) {
+        try {
+            return permits.tryAcquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String getHost(String streamURL) {
+        try {
+            String host = URI.create(streamURL).getHost();
+            return (host != null) ? host.toLowerCase(Locale.ROOT) : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+}
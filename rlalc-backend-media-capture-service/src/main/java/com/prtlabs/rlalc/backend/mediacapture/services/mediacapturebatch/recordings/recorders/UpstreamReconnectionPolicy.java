@@ -0,0 +1,48 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import java.time.Duration;
+import java.time.Instant;
+
+
+/**
+ * How the recorders supervise the connection to the stream of a recording: a stream which stalls (no data received
+ * for 'stallTimeoutSeconds') or drops is reconnected, with an exponential backoff between the attempts (1s, 2s, 4s, ...
+ * up to 30s), until the end of the recording.
+ *
+ * The chunks recorded after a reconnection stay on the timeline of the recording, and the interruption is recorded as
+ * a gap in the errors of the recording (see buildGapError()), which then ends as a PARTIAL_FAILURE.
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.capture.stallTimeoutSeconds : how long a stream can go without sending any data before it's reconnected (default 10)
+ */
+public final class UpstreamReconnectionPolicy {
+
+    public static final Duration STALL_TIMEOUT = Duration.ofSeconds(Math.max(1, Integer.getInteger("prt.rlalc.capture.stallTimeoutSeconds", 10)));
+
+    public static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+    public static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+    // Prefix of the errors recording the gaps (the consumers of the recording states can spot them with it)
+    public static final String GAP_ERROR_PREFIX = "Gap in the recording";
+
+
+    private UpstreamReconnectionPolicy() {}
+
+    /**
+     * @param nbConsecutiveFailures number of failures since the stream last delivered data (1 for the first reconnection)
+     * @return how long to wait before the next reconnection attempt
+     */
+    public static Duration computeBackoff(int nbConsecutiveFailures) {
+        int exponent = Math.min(Math.max(0, nbConsecutiveFailures - 1), 30);
+        Duration backoff = INITIAL_BACKOFF.multipliedBy(1L << exponent);
+        return (backoff.compareTo(MAX_BACKOFF) > 0) ? MAX_BACKOFF : backoff;
+    }
+
+    /**
+     * @return the error recording a gap of a recording (no audio was recorded between gapStart and gapEnd)
+     */
+    public static String buildGapError(Instant gapStart, Instant gapEnd) {
+        return GAP_ERROR_PREFIX + " from ["+gapStart+"] to ["+gapEnd+"] ("+Duration.between(gapStart, gapEnd).toSeconds()+"secs without audio)";
+    }
+
+}
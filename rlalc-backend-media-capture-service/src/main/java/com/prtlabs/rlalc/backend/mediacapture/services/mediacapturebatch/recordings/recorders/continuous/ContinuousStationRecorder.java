@@ -0,0 +1,432 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.continuous;
+
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndex;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.dto.RecurringProgramDTO;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.AbstractMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.MediaOutputRendition;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.UpstreamReconnectionPolicy;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.Mp3ChunkSegmentWriter;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.IUpstreamFrameListener;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.SharedUpstreamMultiplexer;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.StreamIngestionEngine;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.UnsupportedUpstreamContentTypeException;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.domain.ProgramId;
+import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
+import com.prtlabs.utils.exceptions.PrtBaseRuntimeException;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * IMediaRecorder which records each station 24/7 into a rolling chunk store (see StationChunkStore), instead of starting
+ * and stopping a capture per Program.
+ *
+ * A Program is then only a time range view over the chunks of its station: its chunks are found from their timestamps,
+ * so there are no gaps between back-to-back programs, and a correction of the schedule of a program (even after it has
+ * been aired) only changes which chunks are returned for it. A recurring Program has a time range on the days of its
+ * recurrence only, a one-time Program on its own day only.
+ *
+ * The stations are captured in-process (through the SharedUpstreamMultiplexer), so only MPEG audio streams are supported
+ * in this mode.
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.continuous.retentionDays : number of (UTC) days of chunks kept per station (default 7)
+ */
+public class ContinuousStationRecorder extends AbstractMediaRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContinuousStationRecorder.class);
+
+    private static final int RETENTION_DAYS = Integer.getInteger("prt.rlalc.continuous.retentionDays", 7);
+    private static final long RECONNECTION_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final int MAX_STATION_INCIDENTS = 1000;
+
+    private static final StationChunkStore stationChunkStore = new StationChunkStore(Paths.get(PRTLABS_BASEDIR + "/radiolivealacarte/datastore/media/stations"));
+
+    // The views, recurrences and captures are static because the recorders are also instantiated by the HK2 ServiceLocator
+    // of the Jersey servlet, and all instances need to see the same ones
+    private static final Map<ProgramId, ProgramDescriptorDTO> programViews = new ConcurrentHashMap<>();
+    private static final Map<ProgramId, RecurringProgramDTO> recurringProgramPerProgramId = new ConcurrentHashMap<>();
+    private static final Map<String, StationCapture> stationCapturePerStreamURL = new ConcurrentHashMap<>();
+
+    @Inject private StreamIngestionEngine streamIngestionEngine;
+    @Inject private SharedUpstreamMultiplexer sharedUpstreamMultiplexer;
+
+
+
+    @Override
+    public boolean recordsStationsContinuously() {
+        return true;
+    }
+
+    /**
+     * Register (or update) the time range view of a Program. Nothing has to be created on disk, the chunks of the
+     * program are the ones of its station.
+     */
+    @Override
+    public void initBeforeRecording(ProgramDescriptorDTO programDescriptor) {
+        ProgramDescriptorDTO previousView = programViews.put(programDescriptor.getUuid(), programDescriptor);
+        if (previousView != null) {
+            logger.info("Time range view of program=[{}] updated", programDescriptor.getTitle());
+        }
+    }
+
+    @Override
+    public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters) {
+        initBeforeRecording(programDescriptor);
+        if (!renditions.isEmpty()) {
+            logger.warn(" -> The output renditions of program=[{}] are ignored: the stations are recorded continuously as is", programDescriptor.getTitle());
+        }
+        startStationCapture(programDescriptor.getStreamURL());
+    }
+
+    /**
+     * Register the recurrences of the recurring Programs of the planning (replacing the previous ones). Their views are the
+     * occurrences registered by their pending state initialization jobs, the recurrence tells on which days they air.
+     */
+    public void registerRecurringPrograms(List<RecurringProgramDTO> recurringPrograms) {
+        recurringProgramPerProgramId.keySet().retainAll(recurringPrograms.stream().map(RecurringProgramDTO::getUuid).toList());
+        recurringPrograms.forEach(recurringProgram -> recurringProgramPerProgramId.put(recurringProgram.getUuid(), recurringProgram));
+    }
+
+    /**
+     * Nothing to stop: the station keeps being recorded, the end of the program is only the end of its time range
+     */
+    @Override
+    public void stopRecording(ProgramId programId) {
+        logger.info("Program=[{}] ended (its station keeps being recorded continuously)", programId);
+    }
+
+    /**
+     * Start recording a station 24/7 (does nothing if it's already recorded)
+     */
+    public void startStationCapture(String streamURL) {
+        StationCapture newStationCapture = new StationCapture(streamURL);
+        StationCapture stationCapture = stationCapturePerStreamURL.putIfAbsent(streamURL, newStationCapture);
+        if (stationCapture != null) {
+            logger.info("Station=[{}] is already recorded continuously", streamURL);
+            return;
+        }
+        logger.info("Starting the continuous recording of station=[{}] into=[{}]", streamURL, stationChunkStore.getDayDir(newStationCapture.stationKey, LocalDate.now(ZoneOffset.UTC)).getParent());
+        newStationCapture.connectInBackground(0);
+    }
+
+    /**
+     * Stop recording a station (the chunks already recorded are kept)
+     */
+    public void stopStationCapture(String streamURL) {
+        StationCapture stationCapture = stationCapturePerStreamURL.remove(streamURL);
+        if (stationCapture != null) {
+            stationCapture.stop();
+        }
+    }
+
+    public Set<String> getContinuouslyRecordedStreamURLs() {
+        return Collections.unmodifiableSet(stationCapturePerStreamURL.keySet());
+    }
+
+    @Override
+    public Map<ProgramId, RecordingStatus> getRecordingStatuses() {
+        Map<ProgramId, RecordingStatus> statuses = new HashMap<>();
+        Instant now = Instant.now();
+        for (ProgramDescriptorDTO programDescriptor : programViews.values()) {
+            statuses.put(programDescriptor.getUuid(), computeRecordingStatus(programDescriptor, now));
+        }
+        return statuses;
+    }
+
+    /**
+     * Only the status (and the chunks) of the given Program is computed
+     */
+    @Override
+    public RecordingStatus getRecordingStatus(ProgramId programId) {
+        ProgramDescriptorDTO programDescriptor = programViews.get(programId);
+        return (programDescriptor != null) ? computeRecordingStatus(programDescriptor, Instant.now()) : null;
+    }
+
+    /**
+     * @param day any instant of the day (in the time zone of the program) the program has been aired on (no chunks if it
+     *            didn't air on that day)
+     */
+    @Override
+    public List<File> getChunkFiles(ProgramId programId, Instant day) {
+        ProgramDescriptorDTO programDescriptor = programViews.get(programId);
+        if (programDescriptor == null) { throw new PrtBaseRuntimeException(RLALCExceptionCodesEnum.RLAC_003_NoRecordingStartedForProgram.name(), "No time range view found for programId=["+programId+"]"); }
+        ProgramTimeRange programTimeRange = computeProgramTimeRange(programDescriptor, recurringProgramPerProgramId.get(programId), day);
+        return (programTimeRange != null) ? findChunks(programDescriptor, programTimeRange) : new ArrayList<>();
+    }
+
+    /**
+     * The timestamps in the names of the chunks of the stations are in UTC
+     */
+    @Override
+    public Instant getChunkStart(File chunk) {
+        return StationChunkStore.parseChunkStart(chunk.getName());
+    }
+
+    /**
+     * Time range of a program on a given day: a recurring program airs on the days of its recurrence at its local start
+     * time, a one-time program only at its 'startTimeUTCEpochSec'
+     * @param recurringProgram the recurrence of the program (null for a one-time program)
+     * @param day any instant of the day (in the time zone of the program)
+     * @return null if the program doesn't air on that day
+     */
+    public static ProgramTimeRange computeProgramTimeRange(ProgramDescriptorDTO programDescriptor, RecurringProgramDTO recurringProgram, Instant day) {
+        ZoneId timeZone = (programDescriptor.getTimeZone() != null) ? programDescriptor.getTimeZone() : ZoneOffset.UTC;
+        ZonedDateTime programStart = Instant.ofEpochSecond(programDescriptor.getStartTimeUTCEpochSec()).atZone(timeZone);
+        LocalDate localDay = day.atZone(timeZone).toLocalDate();
+        Instant start;
+        if (recurringProgram == null) {
+            if (!programStart.toLocalDate().equals(localDay)) { return null; }
+            start = programStart.toInstant();
+        } else {
+            Set<DayOfWeek> daysOfWeek = recurringProgram.getDaysOfWeek();    // Every day when empty
+            if ((daysOfWeek != null) && !daysOfWeek.isEmpty() && !daysOfWeek.contains(localDay.getDayOfWeek())) { return null; }
+            LocalTime localStartTime = (recurringProgram.getLocalStartTime() != null) ? recurringProgram.getLocalStartTime() : programStart.toLocalTime();
+            start = ZonedDateTime.of(localDay, localStartTime, timeZone).toInstant();
+        }
+        return new ProgramTimeRange(start, start.plusSeconds(programDescriptor.getDurationSeconds()));
+    }
+
+    public static record ProgramTimeRange(Instant start, Instant end) {}
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private RecordingStatus computeRecordingStatus(ProgramDescriptorDTO programDescriptor, Instant now) {
+        // A one-time program has a single time range, a recurring one the one of the current day (if it airs today)
+        ProgramTimeRange programTimeRange;
+        RecurringProgramDTO recurringProgram = recurringProgramPerProgramId.get(programDescriptor.getUuid());
+        if (recurringProgram == null) {
+            Instant start = Instant.ofEpochSecond(programDescriptor.getStartTimeUTCEpochSec());
+            programTimeRange = new ProgramTimeRange(start, start.plusSeconds(programDescriptor.getDurationSeconds()));
+        } else {
+            programTimeRange = computeProgramTimeRange(programDescriptor, recurringProgram, now);
+            if (programTimeRange == null) { return new RecordingStatus(RecordingStatus.Status.PENDING, new ArrayList<>(), new ArrayList<>()); }
+        }
+
+        RecordingStatus.Status status;
+        if (now.isBefore(programTimeRange.start())) {
+            status = RecordingStatus.Status.PENDING;
+        } else if (now.isBefore(programTimeRange.end())) {
+            status = RecordingStatus.Status.ONGOING;
+        } else {
+            status = RecordingStatus.Status.COMPLETED;
+        }
+
+        // The incidents of the station during the program are the errors of its recording
+        List<String> errors = new ArrayList<>();
+        StationCapture stationCapture = stationCapturePerStreamURL.get(programDescriptor.getStreamURL());
+        if (stationCapture != null) {
+            errors.addAll(stationCapture.getIncidents(programTimeRange.start(), programTimeRange.end()));
+        } else if (status != RecordingStatus.Status.PENDING) {
+            errors.add("Station=["+programDescriptor.getStreamURL()+"] is not recorded continuously");
+        }
+        if ((status == RecordingStatus.Status.COMPLETED) && !errors.isEmpty()) {
+            status = RecordingStatus.Status.PARTIAL_FAILURE;
+        }
+
+        List<File> chunks = (status == RecordingStatus.Status.PENDING) ? new ArrayList<>() : findChunks(programDescriptor, programTimeRange);
+        return new RecordingStatus(status, errors, chunks);
+    }
+
+    private List<File> findChunks(ProgramDescriptorDTO programDescriptor, ProgramTimeRange programTimeRange) {
+        return stationChunkStore.findChunks(StationChunkStore.buildStationKey(programDescriptor.getStreamURL()), programTimeRange.start(), programTimeRange.end());
+    }
+
+    private static record StationIncident(Instant time, String description) {}
+
+    /**
+     * The 24/7 capture of a station: it receives the frames of the upstream and writes them into chunks, each chunk being
+     * named after the wall clock time of its first frame (so that the chunks stay aligned on the real time, whatever the
+     * interruptions of the stream).
+     *
+     * The frames are pushed by the single task reading the upstream, the other methods are called by the reconnection
+     * task or by the scheduler: the methods are synchronized (never contended in practice).
+     */
+    private final class StationCapture implements IUpstreamFrameListener {
+        private final String streamURL;
+        private final String stationKey;
+        private final Deque<StationIncident> incidents = new ArrayDeque<>();
+        private SharedUpstreamMultiplexer.SharedUpstream upstream = null;
+        private Mp3ChunkSegmentWriter currentChunkWriter = null;
+        private LocalDate currentUTCDay = null;
+        private boolean stopped = false;
+
+        private StationCapture(String streamURL) {
+            this.streamURL = streamURL;
+            this.stationKey = StationChunkStore.buildStationKey(streamURL);
+        }
+
+        @Override
+        public synchronized boolean onFrame(byte[] frameBuffer, Mp3FrameHeader frameHeader) {
+            if (stopped) { return false; }
+            try {
+                // Each chunk has its own writer, created when its first frame arrives
+                if ((currentChunkWriter == null) || (currentChunkWriter.getNbCompletedChunks() > 0)) {
+                    openChunkWriter();
+                }
+                currentChunkWriter.writeFrame(frameBuffer, frameHeader);
+                if (currentChunkWriter.getNbCompletedChunks() > 0) {
+                    publishChunk(currentChunkWriter.getLastCompletedChunkPath());
+                }
+            } catch (IOException e) {
+                // The frame is lost, the next one starts a new chunk
+                logger.error("Error while writing the chunks of station=[{}] with message=[{}]", streamURL, e.getMessage(), e);
+                addIncident("Error while writing the chunks with message=["+e.getMessage()+"]");
+                currentChunkWriter = null;
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized void onUpstreamGap(Instant gapStart, Instant gapEnd) {
+            // The next chunk is named after the time of its first frame, the chunk before the gap just has to be published
+            closeChunkWriter();
+            addIncident(UpstreamReconnectionPolicy.buildGapError(gapStart, gapEnd));
+        }
+
+        @Override
+        public synchronized void onUpstreamEnded(String error) {
+            closeChunkWriter();
+            upstream = null;
+            if (stopped) { return; }
+            addIncident("Station stream interrupted with message=["+error+"]");
+            connectInBackground(RECONNECTION_DELAY_MILLIS);
+        }
+
+        private void connectInBackground(long delayMillis) {
+            streamIngestionEngine.submitIngestionTask("rlalc-station-connect-" + stationKey, () -> {
+                try {
+                    Thread.sleep(delayMillis);
+                    connect();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        private void connect() {
+            synchronized (this) {
+                if (stopped) { return; }
+            }
+            try {
+                SharedUpstreamMultiplexer.SharedUpstream attachedUpstream = sharedUpstreamMultiplexer.attach(streamURL, this);
+                synchronized (this) {
+                    upstream = attachedUpstream;
+                    if (stopped) { sharedUpstreamMultiplexer.detach(attachedUpstream, this); }
+                }
+                logger.info("Station=[{}] is recorded continuously", streamURL);
+            } catch (UnsupportedUpstreamContentTypeException e) {
+                // Can't be recorded as is, and retrying won't change that
+                logger.error("Station=[{}] can't be recorded continuously (content type=[{}] is not MPEG audio)", streamURL, e.getContentType());
+                addIncident("Station can't be recorded continuously with message=["+e.getMessage()+"]");
+            } catch (IOException e) {
+                logger.error("Failed to connect to station=[{}] with message=[{}]. Retrying in [{}]secs", streamURL, e.getMessage(), TimeUnit.MILLISECONDS.toSeconds(RECONNECTION_DELAY_MILLIS));
+                addIncident("Failed to connect to the station stream with message=["+e.getMessage()+"]");
+                connectInBackground(RECONNECTION_DELAY_MILLIS);
+            }
+        }
+
+        private synchronized void stop() {
+            stopped = true;
+            if (upstream != null) {
+                sharedUpstreamMultiplexer.detach(upstream, this);
+                upstream = null;
+            }
+            closeChunkWriter();
+        }
+
+        private void openChunkWriter() throws IOException {
+            Instant now = Instant.now();
+            LocalDate utcDay = now.atZone(ZoneOffset.UTC).toLocalDate();
+            Path dayDir = stationChunkStore.getDayDir(stationKey, utcDay);
+            if (!utcDay.equals(currentUTCDay)) {
+                // New day: its directory is created, and the days older than the retention are purged (in the background,
+                // not to hold the frames of the station while the files are deleted)
+                Files.createDirectories(dayDir);
+                LocalDate oldestUTCDayToKeep = utcDay.minusDays(RETENTION_DAYS - 1L);
+                streamIngestionEngine.submitIngestionTask("rlalc-station-purge-" + stationKey, () -> stationChunkStore.purgeDaysBefore(stationKey, oldestUTCDayToKeep));
+                currentUTCDay = utcDay;
+            }
+            currentChunkWriter = new Mp3ChunkSegmentWriter(dayDir, stationKey, now, RecordingChunkIndex.CHUNK_DURATION, ZoneOffset.UTC);
+        }
+
+        /**
+         * Index a chunk of the station, and publish it to the RecordingChunkFeed for each program on air when it started
+         */
+        private void publishChunk(Path chunkPath) {
+            stationChunkStore.onChunkPublished(chunkPath);
+            Instant chunkStart = StationChunkStore.parseChunkStart(chunkPath.getFileName().toString());
+            if (chunkStart == null) { return; }
+            for (ProgramDescriptorDTO programView : programViews.values()) {
+                if (!streamURL.equals(programView.getStreamURL())) { continue; }
+                // The program may have started the day before (if it spans midnight)
+                RecurringProgramDTO recurringProgram = recurringProgramPerProgramId.get(programView.getUuid());
+                for (Instant day : List.of(chunkStart, chunkStart.minus(1, ChronoUnit.DAYS))) {
+                    ProgramTimeRange programTimeRange = computeProgramTimeRange(programView, recurringProgram, day);
+                    if ((programTimeRange != null) && chunkStart.plus(RecordingChunkIndex.CHUNK_DURATION).isAfter(programTimeRange.start()) && chunkStart.isBefore(programTimeRange.end())) {
+                        onChunkClosed(programView.getUuid(), chunkPath.toFile());
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void closeChunkWriter() {
+            if (currentChunkWriter == null) { return; }
+            try {
+                currentChunkWriter.close();
+                if (currentChunkWriter.getLastCompletedChunkPath() != null) {
+                    publishChunk(currentChunkWriter.getLastCompletedChunkPath());
+                }
+            } catch (IOException e) {
+                logger.error("Failed to write the last chunk of station=[{}] with message=[{}]", streamURL, e.getMessage(), e);
+            }
+            currentChunkWriter = null;
+        }
+
+        private synchronized void addIncident(String description) {
+            incidents.addLast(new StationIncident(Instant.now(), description));
+            if (incidents.size() > MAX_STATION_INCIDENTS) {
+                incidents.removeFirst();
+            }
+        }
+
+        private synchronized List<String> getIncidents(Instant from, Instant to) {
+            return incidents.stream()
+                .filter(incident -> !incident.time().isBefore(from) && incident.time().isBefore(to))
+                .map(incident -> "At=["+incident.time()+"] "+incident.description())
+                .toList();
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.continuous;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+
+/**
+ * Rolling store of the chunks of the stations recorded 24/7 (see ContinuousStationRecorder).
+ *
+ * Layout: '<storeRootDir>/<stationKey>/<yyyyMMdd>/<stationKey>_chunk_<yyyyMMdd_HHmmss>.mp3', the day directories and
+ * the chunk timestamps being in UTC so that a chunk can be found from its start time only (whatever the time zone of
+ * the programs reading it, and without any ambiguity on DST changes).
+ *
+ * Each day directory has its RecordingChunkIndex, built from a single listing the first time the day is queried, then
+ * fed by the recorder as it publishes the chunks: the queries never list the directories.
+ */
+public class StationChunkStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(StationChunkStore.class);
+
+    private static final DateTimeFormatter DAY_DIR_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final Path storeRootDir;
+    private final Map<Path, RecordingChunkIndex> indexPerDayDir = new ConcurrentHashMap<>();
+
+
+    public StationChunkStore(Path storeRootDir) {
+        this.storeRootDir = storeRootDir;
+    }
+
+    /**
+     * Build a "filename-compatible" key identifying a station (the stream URL, plus its hash to avoid collisions)
+     */
+    public static String buildStationKey(String streamURL) {
+        String readablePart = streamURL.toLowerCase()
+            .replaceFirst("^[a-z]+://", "")
+            .replaceAll("[^a-z0-9]", "_")
+            .replaceAll("_+", "_")
+            .replaceAll("^_|_$", "");
+        return readablePart + "-" + Integer.toHexString(streamURL.hashCode());
+    }
+
+    /**
+     * @return the directory storing the chunks of a station starting during a UTC day
+     */
+    public Path getDayDir(String stationKey, LocalDate utcDay) {
+        return storeRootDir.resolve(stationKey).resolve(DAY_DIR_FORMATTER.format(utcDay));
+    }
+
+    /**
+     * Index a chunk which has just been published by the recorder
+     */
+    public void onChunkPublished(Path chunkPath) {
+        // REMARK: The index of the day is created here if needed (rather than on the first query) so that no chunk
+        //         published while the directory is being listed is missed
+        indexPerDayDir.computeIfAbsent(chunkPath.getParent(), this::createDayIndex).add(chunkPath);
+    }
+
+    /**
+     * @return the chunks of a station overlapping the [from, to) time range, sorted by start time
+     */
+    public List<File> findChunks(String stationKey, Instant from, Instant to) {
+        List<File> chunks = new ArrayList<>();
+        // A chunk overlapping the range may have started (up to one chunk duration) before it, possibly the day before
+        LocalDate firstDay = from.minus(RecordingChunkIndex.CHUNK_DURATION).atZone(ZoneOffset.UTC).toLocalDate();
+        LocalDate lastDay = to.atZone(ZoneOffset.UTC).toLocalDate();
+        for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+            Path dayDir = getDayDir(stationKey, day);
+            if (!Files.isDirectory(dayDir)) { continue; }
+            chunks.addAll(indexPerDayDir.computeIfAbsent(dayDir, this::createDayIndex).getChunks(from, to));
+        }
+        return chunks;
+    }
+
+    /**
+     * Delete the day directories of a station which are older than the given day
+     */
+    public void purgeDaysBefore(String stationKey, LocalDate oldestUTCDayToKeep) {
+        Path stationDir = storeRootDir.resolve(stationKey);
+        if (!Files.isDirectory(stationDir)) { return; }
+        String oldestDayDirNameToKeep = DAY_DIR_FORMATTER.format(oldestUTCDayToKeep);
+        try (Stream<Path> dayDirs = Files.list(stationDir)) {
+            for (Path dayDir : dayDirs.filter(p -> p.getFileName().toString().compareTo(oldestDayDirNameToKeep) < 0).toList()) {
+                logger.info("Purging the chunks of station=[{}] in=[{}] (older than the retention)", stationKey, dayDir);
+                indexPerDayDir.remove(dayDir);
+                try (Stream<Path> files = Files.walk(dayDir)) {
+                    for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            // Not fatal: the purge is attempted again on the next day
+            logger.error("Failed to purge the chunks of station=[{}] with message=[{}]", stationKey, ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return the start time of a chunk, from its file name (null if the name isn't a chunk name)
+     */
+    public static Instant parseChunkStart(String chunkFileName) {
+        return RecordingChunkIndex.parseChunkStart(chunkFileName, ZoneOffset.UTC);
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private RecordingChunkIndex createDayIndex(Path dayDir) {
+        RecordingChunkIndex index = new RecordingChunkIndex(dayDir, ZoneOffset.UTC);
+        index.reload();
+        return index;
+    }
+
+}
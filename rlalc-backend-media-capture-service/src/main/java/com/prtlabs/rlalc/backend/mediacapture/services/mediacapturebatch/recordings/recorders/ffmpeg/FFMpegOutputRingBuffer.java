@@ -0,0 +1,232 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.ffmpeg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Keeps the output (stdout/stderr) of an ffmpeg process with a bounded memory footprint, whatever the duration of the
+ * recording.
+ *
+ * Only the last 'maxLines' lines are kept (the older ones are only counted), and each line is classified (from the level
+ * ffmpeg prefixes it with, see FFMPEG_LOGLEVEL) so that the errors can be reported in the manifest without the noise of
+ * the progress lines:
+ *   - the last 'maxErrorLines' error/warning lines are kept separately (they are not pushed out by the progress lines)
+ *   - a count is kept per category of line
+ *
+ * The line arrays are allocated once, appending a line doesn't allocate anything.
+ *
+ * REMARK: The lines are appended by the thread draining the process output and read by the thread handling the exit of
+ *         the process, hence the synchronization.
+ */
+public class FFMpegOutputRingBuffer {
+
+    public static final int DEFAULT_MAX_LINES       = 200;
+    public static final int DEFAULT_MAX_ERROR_LINES = 50;
+
+    private static final int NB_LAST_LINES_IN_MANIFEST_ON_FAILURE = 10;
+
+    public enum LineCategory { PROGRESS, INFO, WARNING, ERROR }
+
+    // The '-loglevel' of the ffmpeg processes: the 'level' flag prefixes each line with its level ('[error] ...', or
+    // '[http @ 0x55d0c8a3e0c0] [error] ...' for the lines of a component)
+    public static final String FFMPEG_LOGLEVEL = "level+info";
+    private static final Set<String> ERROR_LEVELS   = Set.of("panic", "fatal", "error");
+    private static final Set<String> LINE_LEVELS    = Set.of("quiet", "panic", "fatal", "error", "warning", "info", "verbose", "debug", "trace");
+
+    private final LineRing lastLines;
+    private final LineRing lastErrorLines;
+    private final long[] nbLinesPerCategory = new long[LineCategory.values().length];
+    private long nbLines = 0;
+
+
+    public FFMpegOutputRingBuffer() {
+        this(DEFAULT_MAX_LINES, DEFAULT_MAX_ERROR_LINES);
+    }
+
+    public FFMpegOutputRingBuffer(int maxLines, int maxErrorLines) {
+        this.lastLines = new LineRing(maxLines);
+        this.lastErrorLines = new LineRing(maxErrorLines);
+    }
+
+    public synchronized void append(String line) {
+        LineCategory category = classify(line);
+        nbLines++;
+        nbLinesPerCategory[category.ordinal()]++;
+        lastLines.add(line);
+        if ((category == LineCategory.ERROR) || (category == LineCategory.WARNING)) {
+            lastErrorLines.add(line);
+        }
+    }
+
+    /**
+     * @return the lines still in the buffer, oldest first
+     */
+    public synchronized List<String> getLastLines() {
+        return lastLines.toList(lastLines.size);
+    }
+
+    public synchronized long getNbLines() {
+        return nbLines;
+    }
+
+    /**
+     * @return the number of lines which have been pushed out of the buffer
+     */
+    public synchronized long getNbDroppedLines() {
+        return nbLines - lastLines.size;
+    }
+
+    public synchronized long getNbLines(LineCategory category) {
+        return nbLinesPerCategory[category.ordinal()];
+    }
+
+    /**
+     * Build the 'errors' to report in the manifest of the recording:
+     *   - nothing if ffmpeg exited normally without reporting any error or warning
+     *   - otherwise a summary line, the last error/warning lines, and (if ffmpeg failed) the last lines of its output
+     */
+    public synchronized List<String> buildManifestErrors(int exitValue) {
+        List<String> manifestErrors = new ArrayList<>();
+        long nbErrorAndWarningLines = getNbLines(LineCategory.ERROR) + getNbLines(LineCategory.WARNING);
+        if ((exitValue == 0) && (nbErrorAndWarningLines == 0)) { return manifestErrors; }
+
+        manifestErrors.add("ffmpeg exited with code=["+exitValue+"] after ["+nbLines+"] output lines " +
+            "(errors=["+getNbLines(LineCategory.ERROR)+"], warnings=["+getNbLines(LineCategory.WARNING)+"], " +
+            "errors/warnings not kept=["+(nbErrorAndWarningLines - lastErrorLines.size)+"])");
+        manifestErrors.addAll(lastErrorLines.toList(lastErrorLines.size));
+        if (exitValue != 0) {
+            // The classification can miss the reason of the failure, the end of the output is where it is
+            for (String line : lastLines.toList(NB_LAST_LINES_IN_MANIFEST_ON_FAILURE)) {
+                if (!manifestErrors.contains(line)) { manifestErrors.add(line); }
+            }
+        }
+        return manifestErrors;
+    }
+
+    /**
+     * @return the size of the output reported by a progress line ('size=     512kB time=...'), -1 if the line doesn't
+     *         report it
+     */
+    public static long parseProgressSizeBytes(String line) {
+        line = stripLevel(line);
+        if ((line == null) || !line.startsWith("size=")) { return -1; }
+        int index = "size=".length();
+        while ((index < line.length()) && (line.charAt(index) == ' ')) { index++; }
+        int numberStart = index;
+        while ((index < line.length()) && Character.isDigit(line.charAt(index))) { index++; }
+        if (index == numberStart) { return -1; }    // 'size=N/A'
+        long size = Long.parseLong(line.substring(numberStart, index));
+        String unit = line.substring(index, Math.min(line.length(), index + 3));
+        if (unit.startsWith("kB") || unit.startsWith("KiB")) { return size * 1024; }
+        if (unit.startsWith("MB") || unit.startsWith("MiB")) { return size * 1024 * 1024; }
+        return size;
+    }
+
+    /**
+     * @return true if the line reports that the segmenter opened a new chunk ("[segment @ 0x...] Opening '...' for writing")
+     */
+    public static boolean isChunkOpenedLine(String line) {
+        return (line != null) && line.contains("Opening '") && line.endsWith("for writing");
+    }
+
+    /**
+     * @return the path of the chunk opened by the segmenter (null if the line doesn't report a chunk opening)
+     */
+    public static String parseOpenedChunkPath(String line) {
+        if (!isChunkOpenedLine(line)) { return null; }
+        int pathStart = line.indexOf("Opening '") + "Opening '".length();
+        int pathEnd = line.lastIndexOf("' for writing");
+        return (pathEnd > pathStart) ? line.substring(pathStart, pathEnd) : null;
+    }
+
+    /**
+     * Classify an ffmpeg output line from its level (the content of a line says nothing about its severity: the title of
+     * a stream, or the name of a file, can contain 'error' or 'failed').
+     * The lines without a level (the ones which are not written by ffmpeg, e.g. by the shell) are INFO: the end of the
+     * output is reported anyway when the process fails.
+     */
+    public static LineCategory classify(String line) {
+        if (line == null) { return LineCategory.INFO; }
+        String message = stripLevel(line);
+        if (message.startsWith("size=") || (message.contains(" time=") && message.contains("bitrate="))) {
+            return LineCategory.PROGRESS;
+        }
+        String level = parseLevel(line);
+        if (level == null) { return LineCategory.INFO; }
+        if (ERROR_LEVELS.contains(level)) { return LineCategory.ERROR; }
+        return level.equals("warning") ? LineCategory.WARNING : LineCategory.INFO;
+    }
+
+    /**
+     * @return the level of an ffmpeg output line ('error', 'warning', ...), null if the line isn't prefixed with one
+     */
+    public static String parseLevel(String line) {
+        if (line == null) { return null; }
+        // The level comes after the '[component @ 0x...] ' prefixes, if any
+        int index = 0;
+        while (line.startsWith("[", index)) {
+            int end = line.indexOf("] ", index);
+            if (end < 0) { return null; }
+            String prefix = line.substring(index + 1, end);
+            if (LINE_LEVELS.contains(prefix)) { return prefix; }
+            if (!prefix.contains(" @ ")) { return null; }
+            index = end + 2;
+        }
+        return null;
+    }
+
+    /**
+     * @return the line without its level prefix, if it starts with one ('[info] Output #0, ...' gives 'Output #0, ...')
+     */
+    public static String stripLevel(String line) {
+        if ((line == null) || !line.startsWith("[")) { return line; }
+        int end = line.indexOf("] ");
+        return ((end > 0) && LINE_LEVELS.contains(line.substring(1, end))) ? line.substring(end + 2) : line;
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    /**
+     * Fixed size circular array of lines, the oldest line being overwritten when it's full
+     */
+    private static final class LineRing {
+        private final String[] lines;
+        private int next = 0;    // Index where the next line is written
+        private int size = 0;
+
+        private LineRing(int capacity) {
+            this.lines = new String[Math.max(1, capacity)];
+        }
+
+        private void add(String line) {
+            lines[next] = line;
+            next = (next + 1) % lines.length;
+            if (size < lines.length) { size++; }
+        }
+
+        /**
+         * @return the last 'nbLines' lines (at most), oldest first
+         */
+        private List<String> toList(int nbLines) {
+            int nbLinesToReturn = Math.min(nbLines, size);
+            List<String> result = new ArrayList<>(nbLinesToReturn);
+            int start = next - nbLinesToReturn + lines.length;
+            for (int i = 0; i < nbLinesToReturn; i++) {
+                result.add(lines[(start + i) % lines.length]);
+            }
+            return result;
+        }
+    }
+
+}
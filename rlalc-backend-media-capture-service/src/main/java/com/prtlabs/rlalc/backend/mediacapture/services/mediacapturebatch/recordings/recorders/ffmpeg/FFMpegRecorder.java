@@ -1,12 +1,13 @@
 package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.ffmpeg;
 
-import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.IRecordingStateManagementService;
-import com.prtlabs.rlalc.backend.mediacapture.utils.RLALCLocalTimeZoneTimeHelper;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndex;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.AbstractMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.CaptureHealthWatchdog;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.MediaOutputRendition;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.RecordingStartAdmissionControl;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.UpstreamReconnectionPolicy;
 import com.prtlabs.rlalc.domain.ProgramId;
-import com.prtlabs.utils.exceptions.PrtBaseRuntimeException;
 import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
-import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
-import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
 import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
 import jakarta.inject.Inject;
@@ -17,115 +18,300 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * IMediaRecorder which records a Program with an ffmpeg process (the stream is downloaded and decoded once, and encoded
+ * once per rendition into chunks of 10 seconds).
+ *
+ * The process is supervised: ffmpeg exits when its stream drops or stalls ('-rw_timeout', see UpstreamReconnectionPolicy),
+ * and it is then relaunched (with a backoff) for what remains of the program. The chunks are named after the wall clock
+ * time, so the chunks of the relaunched process are on the same timeline, and the interruptions are recorded as gaps in
+ * the errors of the recording. A process which is alive but doesn't produce any chunk anymore is killed (and so
+ * relaunched) by the CaptureHealthWatchdog.
+ *
+ * A stopped process is given GRACEFUL_STOP_TIMEOUT to exit (SIGTERM lets ffmpeg finalize its last chunk) before it's
+ * killed, and an exited process is always reaped (removed from the maps below, and the recording evicted into the
+ * history, see AbstractMediaRecorder.onRecordingFinished()). The processes still alive when the JVM shuts down are
+ * stopped the same way, so that no ffmpeg outlives the service.
+ */
+public class FFMpegRecorder extends AbstractMediaRecorder {
 
+    private static final Logger logger = LoggerFactory.getLogger(FFMpegRecorder.class);
 
-public class FFMpegRecorder implements IMediaRecorder {
+    // Rendition produced when none is defined for the Program
+    public static final MediaOutputRendition DEFAULT_RENDITION = new MediaOutputRendition("archive", MediaOutputRendition.Format.MP3, 160, 32000, 0);
 
-    private static final Logger logger = LoggerFactory.getLogger(FFMpegRecorder.class);
+    // A process failing this close to the end of its recording isn't relaunched
+    private static final Duration MIN_REMAINING_DURATION_TO_RELAUNCH = Duration.ofSeconds(2);
 
-    private static final String PRTLABS_BASEDIR = System.getProperty("prt.rlalc.baseDir", "/opt/prtlabs");
+    // How long a stopped process is given to exit before it's killed, then to be reaped once killed
+    private static final Duration GRACEFUL_STOP_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration FORCED_STOP_TIMEOUT = Duration.ofSeconds(2);
 
-    // Maps to store recording information
-    private static final Map<ProgramId, RecordingId> recordingIdPerProgramId = new ConcurrentHashMap<>();    // There can only be one Recording at a time for a Program (hence the type of recordingIdPerProgramId)
-    private static final Map<RecordingId, ProgramId> programIdPerRecordingId = new ConcurrentHashMap<>();
+    // Maps to store the ffmpeg specific recording information (the ones common to all recorders are in AbstractMediaRecorder)
     private static final Map<RecordingId, Process> activeProcesses = new ConcurrentHashMap<>();
-    private static final Map<RecordingId, String> recordingPaths = new ConcurrentHashMap<>();
-    private static final Map<RecordingId, List<String>> processOutputs = new ConcurrentHashMap<>();
+    private static final Map<RecordingId, FFMpegOutputRingBuffer> processOutputs = new ConcurrentHashMap<>();    // Bounded, only the last lines of the output are kept
+    private static final Map<RecordingId, FFMpegCapture> activeCaptures = new ConcurrentHashMap<>();
 
-    @Inject private RLALCLocalTimeZoneTimeHelper rLALCLocalTimeZoneTimeHelper;
-    @Inject private IRecordingStateManagementService recordingStateManagementService;
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(FFMpegRecorder::stopAllProcesses, "rlalc-ffmpeg-reaper"));
+    }
 
+    @Inject private RecordingStartAdmissionControl recordingStartAdmissionControl;
+    @Inject private CaptureHealthWatchdog captureHealthWatchdog;
 
 
-    @Override
-    public void initBeforeRecording(ProgramDescriptorDTO programDescriptor) {
-        // Create a RecordingId in the 'rec-<ProgramId>-<epochSec>'
-        RecordingId recordingId = buildRecordingId_UsingProgramId_andCurrentDayForProgram(programDescriptor);
-        recordingIdPerProgramId.put(programDescriptor.getUuid(), recordingId);
-        programIdPerRecordingId.put(recordingId, programDescriptor.getUuid());
 
-        // Create the initial manifest file with PENDING status
-        try {
-            // Compute the filenames and path for the local storage of chunks
-            FileInfoForRecordingStorage fileInfoForRecordingStorage = buildFileInfoForRecordingStorage(programDescriptor);
-            Files.createDirectories(Paths.get(fileInfoForRecordingStorage.outputDir));
-            // Initialize the recording path since it's needed to access the Manifest (to check the status of a Recording)
-            recordingPaths.put(recordingId, fileInfoForRecordingStorage.outputDir);
-            // Create the initial manifest file with PENDING status
-            recordingStateManagementService.createOrUpdateManifest(fileInfoForRecordingStorage.outputDir, RecordingStatus.Status.PENDING, null, null);
-        } catch (IOException ioex) {
-            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_006_FailedToStartRecordingForProgram.name(), "Failed to prepare recording for Program=["+programDescriptor.getTitle()+"] with message=["+ioex.getMessage()+"]", ioex);
-        }
+    @Override
+    public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters) {
+        startRecording(programDescriptor, renditions, recorderSpecificParameters, Instant.now());
     }
 
+    /**
+     * The ffmpeg process can't be started before recordingStart since it can't hold its outputs: only its command line,
+     * the output directories and the resolution of the host of the stream are prepared ahead of time.
+     * The wait for recordingStart, and the launch of the process, are done by a thread of the recording: the start job
+     * returns right away, and doesn't hold a worker thread of the scheduler during the pre-warm.
+     */
     @Override
-    public void startRecording(ProgramDescriptorDTO programDescriptor, Map<String, String> recorderSpecificParameters) {
+    public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters, Instant recordingStart) {
         logger.info("Starting recording for program [{}] with UUID [{}]", programDescriptor.getTitle(), programDescriptor.getUuid());
+        List<MediaOutputRendition> effectiveRenditions = renditions.isEmpty() ? List.of(DEFAULT_RENDITION) : renditions;
 
         try {
             // Create a RecordingId in the 'rec-<ProgramId>-<epochSec>'
-            RecordingId recordingId = buildRecordingId_UsingProgramId_andCurrentDayForProgram(programDescriptor);
+            RecordingId recordingId = buildRecordingId_UsingProgramId_andDayForProgramAt(programDescriptor, recordingStart);
 
             // Create a clean filename from the program descriptor and create the full output path for ffmpeg
             FileInfoForRecordingStorage fileInfoForRecordingStorage = buildFileInfoForRecordingStorage(programDescriptor);
 
-            // Start the ffmpeg process
-            //  - Build the output files pattern
-            String audioChunksPathPattern = fileInfoForRecordingStorage.outputDir + "/" + fileInfoForRecordingStorage.recordingBaseName + "_chunk_%Y%m%d_%H%M%S.mp3";
-            //  - Build the ffmpeg command
-            String ffmpegCommand = String.join(" ", List.of(
+            // Build the output arguments of the ffmpeg command (the stream is downloaded and decoded once, and encoded once per rendition)
+            List<String> outputArguments = new ArrayList<>();
+            for (MediaOutputRendition rendition : effectiveRenditions) {
+                //  - Build the output files pattern of the rendition (and create its directory since ffmpeg won't)
+                String outputDirForRendition = getOutputDirForRendition(fileInfoForRecordingStorage, effectiveRenditions, rendition);
+                Files.createDirectories(Paths.get(outputDirForRendition));
+                String audioChunksPathPattern = outputDirForRendition + "/" + fileInfoForRecordingStorage.recordingBaseName() + "_chunk_%Y%m%d_%H%M%S." + rendition.format().getFileExtension();
+                outputArguments.addAll(buildRenditionOutputArguments(rendition, "\"" + audioChunksPathPattern + "\""));
+            }
+
+            // Start the (supervised) ffmpeg process at the start of the recording
+            Thread.ofVirtual()
+                .name("rlalc-ffmpeg-start-" + recordingId.uuid())
+                .start(() -> launchCapture(recordingId, programDescriptor, fileInfoForRecordingStorage, outputArguments, recordingStart));
+        } catch (IOException e) {
+            String message = String.format("Failed to start recording for program=[{}] with message=[{}]", programDescriptor.getTitle(), e.getMessage());
+            logger.error(message, e);
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_006_FailedToStartRecordingForProgram.name(), message, e);
+        }
+    }
+
+    /**
+     * Pre-warm the resolution of the host of the stream, wait for the start of the recording, then launch its ffmpeg
+     * process (a failure to launch it ends the recording, since there's no job left to report it to)
+     */
+    private void launchCapture(RecordingId recordingId, ProgramDescriptorDTO programDescriptor, FileInfoForRecordingStorage fileInfoForRecordingStorage, List<String> outputArguments, Instant recordingStart) {
+        prewarmStreamHostResolution(programDescriptor.getStreamURL());
+        if (!waitUntil(recordingStart)) {
+            logger.warn("Interrupted while waiting for the start of the recording of program=[{}]", programDescriptor.getTitle());
+            return;
+        }
+
+        Instant now = Instant.now();
+        Instant recordingEnd = (recordingStart.isAfter(now) ? recordingStart : now).plusSeconds(programDescriptor.getDurationSeconds());
+        FFMpegCapture capture = new FFMpegCapture(recordingId, programDescriptor, fileInfoForRecordingStorage, outputArguments, recordingEnd);
+        activeCaptures.put(recordingId, capture);
+        capture.captureHealth = captureHealthWatchdog.watch(recordingId.uuid(), programDescriptor.getUuid(), programDescriptor.getTitle(), capture::killHungProcess);
+        try {
+            capture.launchProcess(false);
+            logger.info("Recording started for program [{}] with recording ID [{}]", programDescriptor.getTitle(), recordingId);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to start recording for program=[{}] with message=[{}]", programDescriptor.getTitle(), e.getMessage(), e);
+            activeCaptures.remove(recordingId, capture);
+            captureHealthWatchdog.unwatch(capture.captureHealth);
+            updateStatus(programDescriptor, Optional.empty(), Optional.of(-1), fileInfoForRecordingStorage.outputDir(), List.of("Failed to start the ffmpeg process with message=["+e.getMessage()+"]"));
+            onRecordingFinished(recordingId);
+        }
+    }
+
+
+    /**
+     * The stop job of a program fires at its end: only the captures of the program which are over (give or take
+     * STOP_END_TOLERANCE) are stopped. The ProgramId is shared by all the occurrences of a program, and the capture of
+     * its next occurrence (which may already be started) must be left alone.
+     */
+    @Override
+    public void stopRecording(ProgramId programId) {
+        if (programId == null) { logger.warn(" -> Cannot stop recording with null recording ID"); return; }
+
+        logger.info("Stopping recording with programId=[{}]", programId);
+
+        List<FFMpegCapture> captures = activeCaptures.values().stream().filter(capture -> programId.equals(capture.programDescriptor.getUuid())).toList();
+        if (captures.isEmpty()) { logger.info("No active recording found for programId=[{}] (which is expected since it's supposed to auto exit after the defined duration)", programId); return; }
+
+        Instant latestRecordingEndToStop = Instant.now().plus(STOP_END_TOLERANCE);
+        for (FFMpegCapture capture : captures) {
+            if (capture.recordingEnd.isAfter(latestRecordingEndToStop)) {
+                logger.info(" -> Recording=[{}] of programId=[{}] ends at [{}], it's a later occurrence of the program: not stopping it", capture.recordingId.uuid(), programId, capture.recordingEnd);
+                continue;
+            }
+            stopCapture(capture);
+        }
+    }
+
+    private void stopCapture(FFMpegCapture capture) {
+        // The process must not be relaunched once the recording is stopped
+        capture.stopRequested = true;
+
+        // Stop the process (its exit callback then writes the final state of the recording and reaps it)
+        Process process = activeProcesses.get(capture.recordingId);
+        if ((process == null) || !process.isAlive()) {
+            logger.info("No active FFMPEG recording process found (which is expected since it's supposed to auto exit after the defined duration)");
+            return;
+        }
+        logger.warn("Active FFMPEG recording process=[{}] found (which is not expected since it's supposed to auto exit after the defined duration), stopping it", process.pid());
+        try {
+            if (stopProcess(process)) {
+                logger.warn(" -> FFMPEG process=[{}] did terminate gracefully (it was probably just a timing issue where the stop Trigger kicked-in a little bit early)", process.pid());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_008_FailedToStopRecordingProcessForUnkownReason.name(), "Interrupted while stopping the ffmpeg process=["+process.pid()+"] with message=["+e.getMessage()+"]", e);
+        }
+    }
+
+    /**
+     * Build the ffmpeg arguments producing the chunks of a rendition (see RecordingChunkIndex.CHUNK_DURATION)
+     * @param audioChunksPathPattern the 'strftime' pattern of the chunk files (quoted if the command goes through a shell)
+     */
+    public static List<String> buildRenditionOutputArguments(MediaOutputRendition rendition, String audioChunksPathPattern) {
+        List<String> arguments = new ArrayList<>();
+        switch (rendition.format()) {
+            case MP3 -> {
+                arguments.addAll(List.of("-c:a", "libmp3lame"));
+                if (rendition.bitrateKbps() > 0) { arguments.addAll(List.of("-b:a", rendition.bitrateKbps() + "k")); }    // Otherwise the libmp3lame default
+            }
+            case WAV -> arguments.addAll(List.of("-c:a", "pcm_s16le"));
+        }
+        if (rendition.sampleRateHz() > 0) { arguments.addAll(List.of("-ar", "" + rendition.sampleRateHz())); }
+        if (rendition.channels() > 0)     { arguments.addAll(List.of("-ac", "" + rendition.channels())); }
+        arguments.addAll(List.of(
+            "-f", "segment",
+            "-segment_format", rendition.format().getFileExtension(),
+            "-segment_time", "" + RecordingChunkIndex.CHUNK_DURATION.toSeconds(),
+            "-strftime", "1",
+            audioChunksPathPattern
+        ));
+        return arguments;
+    }
+
+    /**
+     * The recording of a Program, supervised: its ffmpeg process is relaunched until the end of the recording whenever
+     * it fails (the stream dropped or stalled), unless the recording has been stopped
+     */
+    private final class FFMpegCapture {
+        private final RecordingId recordingId;
+        private final ProgramDescriptorDTO programDescriptor;
+        private final FileInfoForRecordingStorage fileInfoForRecordingStorage;
+        private final List<String> outputArguments;
+        private final Instant recordingEnd;
+        private final List<String> gapErrors = new CopyOnWriteArrayList<>();
+        private volatile boolean stopRequested = false;
+        private volatile Instant gapStart = null;          // Set while the stream is interrupted
+        private volatile CaptureHealthWatchdog.CaptureHealth captureHealth = null;
+        private volatile File openChunk = null;             // The chunk (of the main rendition) being written by the process
+        private int nbConsecutiveFailures = 0;
+
+        private FFMpegCapture(RecordingId recordingId, ProgramDescriptorDTO programDescriptor, FileInfoForRecordingStorage fileInfoForRecordingStorage, List<String> outputArguments, Instant recordingEnd) {
+            this.recordingId = recordingId;
+            this.programDescriptor = programDescriptor;
+            this.fileInfoForRecordingStorage = fileInfoForRecordingStorage;
+            this.outputArguments = outputArguments;
+            this.recordingEnd = recordingEnd;
+        }
+
+        /**
+         * Launch an ffmpeg process recording the stream until the end of the recording
+         * @param isRelaunch true if the process replaces a failed one: it isn't subject to the admission control (the
+         *                   relaunches are already spread by their backoff, and they run on the thread of the exit
+         *                   callback of the failed process, which must not wait for the permits)
+         */
+        private void launchProcess(boolean isRelaunch) throws IOException {
+            // Build the ffmpeg command
+            long remainingSeconds = Math.max(1, Duration.between(Instant.now(), recordingEnd).toSeconds());
+            List<String> ffmpegArguments = new ArrayList<>(List.of(
                 "ffmpeg",
+                "-loglevel", FFMpegOutputRingBuffer.FFMPEG_LOGLEVEL,    // Prefix the lines with their level, so that the errors can be told from the rest of the output
                 "-re",                                                  // Force realtime pacing instead of letting ffmpeg try to record as fast as it can if the server can deliver (realtime pacing is what we want when we record live radio)
-                "-t", ""+programDescriptor.getDurationSeconds(),
-                "-i", "\"" + programDescriptor.getStreamURL() + "\"",
-                "-c:a", "libmp3lame",
-                "-b:a", "160k",
-                "-f", "mp3",
-                "-f", "segment",
-                "-segment_time", "10",
-                "-strftime", "1",
-                "-ar", "32000",
-                "\"" + audioChunksPathPattern + "\""
+                "-rw_timeout", ""+UpstreamReconnectionPolicy.STALL_TIMEOUT.toNanos()/1000,    // Fail (and so be relaunched) when the stream stalls, instead of waiting for it forever
+                "-t", ""+remainingSeconds,
+                "-i", "\"" + programDescriptor.getStreamURL() + "\""
             ));
+            ffmpegArguments.addAll(outputArguments);
             List<String> command = new ArrayList<>();
             command.add("bash");
             command.add("-c");
-            command.add("exec " + ffmpegCommand);
-            //  - Build the process and starts it
+            command.add("exec " + String.join(" ", ffmpegArguments));
+
+            // Build the process and starts it, once admitted (the permit is held until ffmpeg has opened the stream, or has exited)
             ProcessBuilder processBuilder = new ProcessBuilder(command);
             processBuilder.redirectErrorStream(true);
-            Process process = processBuilder.start();
+            RecordingStartAdmissionControl.StartPermit startPermit = isRelaunch ? null : recordingStartAdmissionControl.acquire(programDescriptor.getStreamURL());
+            Process process;
+            try {
+                process = processBuilder.start();
+            } catch (IOException e) {
+                if (startPermit != null) { startPermit.close(); }
+                throw e;
+            }
             //  - Keep its pid associated with the
             activeProcesses.put(recordingId, process);
 
             // Update manifest to ONGOING status
             logger.info("Started ffmpeg with PID=[{}] and command=[{}]", process.pid(), String.join(" ", command));
-            recordingStateManagementService.updateStatus(programDescriptor, Optional.of(process.pid()), Optional.empty(), fileInfoForRecordingStorage.outputDir);
+            updateStatus(programDescriptor, Optional.of(process.pid()), Optional.empty(), fileInfoForRecordingStorage.outputDir(), gapErrors.isEmpty() ? null : List.copyOf(gapErrors));
 
             // Register a thread to collect the process output
-            //  - Initialize a buffer
-            List<String> outputLines = new ArrayList<>();
+            //  - Initialize a buffer (bounded, a long recording with a flaky upstream can output tens of thousands of lines)
+            FFMpegOutputRingBuffer outputLines = new FFMpegOutputRingBuffer();
             processOutputs.put(recordingId, outputLines);
             //  - Start a thread to read the process output
             Thread outputThread = new Thread(() -> {
                 try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
                     String line;
+                    long lastReportedSizeBytes = 0;
                     while ((line = reader.readLine()) != null) {
-                        outputLines.add(line);
+                        outputLines.append(line);
+                        if (FFMpegOutputRingBuffer.stripLevel(line).startsWith("Output #0")) { onStreamOpened(startPermit); }
+                        // Feed the watchdog with what ffmpeg reports (the size of its outputs, and the chunks it opens)
+                        long sizeBytes = FFMpegOutputRingBuffer.parseProgressSizeBytes(line);
+                        if (sizeBytes > lastReportedSizeBytes) {
+                            captureHealth.onBytesReceived(sizeBytes - lastReportedSizeBytes);
+                            lastReportedSizeBytes = sizeBytes;
+                        }
+                        if (FFMpegOutputRingBuffer.isChunkOpenedLine(line)) { captureHealth.onChunkProduced(); }
+                        String openedChunkPath = FFMpegOutputRingBuffer.parseOpenedChunkPath(line);
+                        if (openedChunkPath != null) { onChunkOpened(openedChunkPath); }
                         logger.debug("FFmpeg output: {}", line);
                     }
                 } catch (IOException e) {
                     logger.error("Error reading ffmpeg output: {}", e.getMessage(), e);
+                } finally {
+                    if (startPermit != null) { startPermit.close(); }
                 }
             });
             outputThread.setDaemon(true);
@@ -133,157 +319,161 @@ public class FFMpegRecorder implements IMediaRecorder {
 
             // Register a callback for when the process exits
             process.onExit().thenAccept((theProcess) -> {
-                logger.info(" ============ FFmpeg process=[{}]  exited with code=[{}]. ==================================== ", theProcess.pid(), theProcess.exitValue());
-                recordingStateManagementService.updateStatus(programDescriptor, Optional.of(process.pid()), Optional.of(theProcess.exitValue()), fileInfoForRecordingStorage.outputDir, outputLines);
+                try { outputThread.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }    // Let the last lines (which usually hold the reason of a failure) be drained
+                //  - Reap the process (unless it has already been replaced by a relaunched one)
+                activeProcesses.remove(recordingId, theProcess);
+                processOutputs.remove(recordingId, outputLines);
+                logger.info(" ============ FFmpeg process=[{}]  exited with code=[{}] after [{}] output lines. ==================================== ", theProcess.pid(), theProcess.exitValue(), outputLines.getNbLines());
+                onProcessExit(theProcess.pid(), theProcess.exitValue(), outputLines);
             });
-
-            logger.info("Recording started for program [{}] with recording ID [{}]", programDescriptor.getTitle(), recordingId);
-        } catch (IOException e) {
-            String message = String.format("Failed to start recording for program=[{}] with message=[{}]", programDescriptor.getTitle(), e.getMessage());
-            logger.error(message, e);
-            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_006_FailedToStartRecordingForProgram.name(), message, e);
         }
-    }
-
 
-    @Override
-    public void stopRecording(ProgramId programId) {
-        if (programId == null) { logger.warn(" -> Cannot stop recording with null recording ID"); return; }
-
-        logger.info("Stopping recording with programId=[{}]", programId);
-
-        // Get the path for this recording
-        Process process = activeProcesses.get(programId);
-        if (process != null) {
-            logger.warn("Active FFMPEG recording process found (which is not expected since it's supposed to auto exit after the defined duration");
-            // Send SIGTERM to allow ffmpeg to clean up resources and wait for the process to terminate
-            process.destroy();
-            boolean terminated = false;
-            try { process.waitFor(5, java.util.concurrent.TimeUnit.SECONDS); } catch (InterruptedException e) { throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_008_FailedToStopRecordingProcessForUnkownReason.name(), e.getMessage(), e); }
-            if (!terminated) {
-                // If it didn't terminate gracefully, force it
-                logger.warn(" -> FFMPEG process did not terminate gracefully, forcing termination");
-                process.destroyForcibly();
-            } else {
-                logger.warn(" -> FFMPEG process did terminate gracefully (it was probably just a timing issue where the stop Trigger kicked-in a little bit early)");
-                logger.warn("Active ffmpeg recording process found (which is expected since it's supposed to auto exit after the defined duration");
+        /**
+         * ffmpeg has opened the stream (and its outputs): the setup is over, and the stream is back if it was interrupted
+         */
+        private void onStreamOpened(RecordingStartAdmissionControl.StartPermit startPermit) {
+            if (startPermit != null) { startPermit.close(); }
+            Instant interruptedSince = gapStart;
+            if (interruptedSince != null) {
+                Instant gapEnd = Instant.now();
+                gapErrors.add(UpstreamReconnectionPolicy.buildGapError(interruptedSince, gapEnd));
+                logger.info("Stream of program=[{}] is back after [{}]secs", programDescriptor.getTitle(), Duration.between(interruptedSince, gapEnd).toSeconds());
+                gapStart = null;
             }
-        } else {
-            logger.info("No active FFMPEG recording process found (which is expected since it's supposed to auto exit after the defined duration");
+            synchronized (this) { nbConsecutiveFailures = 0; }
         }
 
-        // Clean up
-        processOutputs.remove(programId);
-
-        // Collect the files which have been generated and update the status
-    }
-
+        /**
+         * The segmenter closes a chunk when it opens the next one: the previous chunk (of the main rendition) is published
+         */
+        private void onChunkOpened(String chunkPath) {
+            File chunk = new File(chunkPath);
+            if (!Paths.get(fileInfoForRecordingStorage.outputDir()).equals(chunk.toPath().getParent())) { return; }    // Another rendition
+            File closedChunk = openChunk;
+            openChunk = chunk;
+            if (closedChunk != null) { onChunkClosed(programDescriptor.getUuid(), closedChunk); }
+        }
 
-    @Override
-    public Map<ProgramId, RecordingStatus> getRecordingStatuses() {
-        Map<ProgramId, RecordingStatus> statuses = new HashMap<>();
+        /**
+         * Relaunch the process if it failed before the end of the recording, otherwise write the final state of the
+         * recording (only the classified errors, and not the raw output, are written into it)
+         */
+        private void onProcessExit(long pid, int exitValue, FFMpegOutputRingBuffer outputLines) {
+            // The last chunk of the process is closed
+            File closedChunk = openChunk;
+            openChunk = null;
+            if ((closedChunk != null) && closedChunk.exists()) { onChunkClosed(programDescriptor.getUuid(), closedChunk); }
+
+            boolean mustRelaunch = (exitValue != 0) && !stopRequested && Instant.now().plus(MIN_REMAINING_DURATION_TO_RELAUNCH).isBefore(recordingEnd);
+            if (!mustRelaunch) {
+                end(pid, exitValue, outputLines);
+                return;
+            }
 
-        // Iterate through all recording paths and read their manifests
-        for (Map.Entry<RecordingId, String> entry : recordingPaths.entrySet()) {
-            RecordingId recordingId = entry.getKey();
-            String outputDir = entry.getValue();
+            // The stream dropped or stalled: the process is relaunched after a backoff (the state stays ONGOING in the meantime)
+            if (gapStart == null) { gapStart = Instant.now(); }
+            int nbFailures;
+            synchronized (this) { nbFailures = ++nbConsecutiveFailures; }
+            Duration backoff = UpstreamReconnectionPolicy.computeBackoff(nbFailures);
+            logger.warn("FFmpeg process=[{}] of program=[{}] failed with code=[{}] before the end of the recording. Relaunching it in [{}]secs (attempt=[{}])", pid, programDescriptor.getTitle(), exitValue, backoff.toSeconds(), nbFailures);
+            List<String> errors = new ArrayList<>(gapErrors);
+            errors.addAll(outputLines.buildManifestErrors(exitValue));
+            updateStatus(programDescriptor, Optional.of(pid), Optional.empty(), fileInfoForRecordingStorage.outputDir(), errors);
+            CompletableFuture.runAsync(() -> relaunchProcess(pid, exitValue, outputLines), CompletableFuture.delayedExecutor(backoff.toMillis(), TimeUnit.MILLISECONDS));
+        }
 
+        private void relaunchProcess(long failedPid, int failedExitValue, FFMpegOutputRingBuffer failedOutputLines) {
+            if (stopRequested || !Instant.now().plus(MIN_REMAINING_DURATION_TO_RELAUNCH).isBefore(recordingEnd)) {
+                end(failedPid, failedExitValue, failedOutputLines);
+                return;
+            }
             try {
-                // Read the manifest file to get the recording status
-                RecordingStatus status = recordingStateManagementService.readRecordingState(outputDir);
-                if (status != null) {
-                    statuses.put(programIdPerRecordingId.get(recordingId), status);
-                }
-            } catch (Exception e) {
-                logger.error("Error reading manifest for recording {}: {}", recordingId, e.getMessage(), e);
-                // Create a status with error information
-                RecordingStatus errorStatus = new RecordingStatus(RecordingStatus.Status.PARTIAL_FAILURE);
-                errorStatus.addError("Failed to read manifest: " + e.getMessage());
-                statuses.put(programIdPerRecordingId.get(recordingId), errorStatus);
+                launchProcess(true);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to relaunch the ffmpeg process of program=[{}] with message=[{}]", programDescriptor.getTitle(), e.getMessage(), e);
+                onProcessExit(failedPid, failedExitValue, failedOutputLines);
             }
         }
 
-        return statuses;
-    }
+        /**
+         * Kill the process of a capture which doesn't produce any chunk anymore (it is then relaunched like any failed process)
+         */
+        private void killHungProcess() {
+            Process process = activeProcesses.get(recordingId);
+            if ((process != null) && process.isAlive()) {
+                logger.warn("Killing the ffmpeg process=[{}] of program=[{}] which doesn't produce any chunk anymore", process.pid(), programDescriptor.getTitle());
+                process.destroy();
+            }
+        }
 
-    @Override
-    public List<File> getChunkFiles(ProgramId programId, Instant day) {
-        // Find the current recordingId matching that programId
-        RecordingId recordingIdForProgram = recordingIdPerProgramId.get(programId);
-        if (recordingIdForProgram == null) { throw new PrtBaseRuntimeException(RLALCExceptionCodesEnum.RLAC_003_NoRecordingStartedForProgram.name(), "No planned RecordingIds found"); }
-
-        // Get the path for this recording
-        String outputDir = recordingPaths.get(recordingIdForProgram);
-        if (outputDir == null) { throw new PrtBaseRuntimeException(RLALCExceptionCodesEnum.RLAC_003_NoRecordingStartedForProgram.name(), "Recording storage path not created"); }
-
-        // Look for the files
-        Path dirPath = Paths.get(outputDir);
-        if (!Files.exists(dirPath)) { throw new PrtBaseRuntimeException(RLALCExceptionCodesEnum.RLAC_004_NoRecordingsStorageFoundForProgram.name(), "Recording storage path=["+outputDir+"] not found"); }
-
-        // Get the path for the day, with date format=YYYYMMDD
-        String dayDirName = this.getDirNameForDay(day);
-        Path dirForDayPath = dirPath.resolve(dayDirName);
-        if (!Files.exists(dirForDayPath)) { return new ArrayList<>(); /* throw new PrtBaseRuntimeException(RLALCExceptionCodesEnum.RLAC_004_NoRecordingsStorageFoundForProgram.name(), "Recording storage path for that day=["+dirForDayPath.toFile().getAbsolutePath()+"] not found");*/ }
-
-        // Get all MP3 files in the directory
-        List<File> chunkFiles = new ArrayList<>();
-        try {
-            try (Stream<Path> files = Files.list(dirForDayPath)) {
-                chunkFiles = files
-                    .filter(Files::isRegularFile)
-                    .filter(p -> p.getFileName().toString().endsWith(".mp3"))
-                    .map(Path::toFile)
-                    .collect(Collectors.toList());
+        private void end(long pid, int exitValue, FFMpegOutputRingBuffer outputLines) {
+            activeCaptures.remove(recordingId, this);
+            captureHealthWatchdog.unwatch(captureHealth);
+            Instant interruptedSince = gapStart;
+            if (interruptedSince != null) {
+                // The stream never came back
+                Instant gapEnd = Instant.now().isBefore(recordingEnd) ? Instant.now() : recordingEnd;
+                gapErrors.add(UpstreamReconnectionPolicy.buildGapError(interruptedSince, gapEnd.isAfter(interruptedSince) ? gapEnd : interruptedSince));
+                gapStart = null;
             }
-            return chunkFiles;
-        } catch (IOException ex) {
-            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_005_FailedToAccessMediaChunks.name(), "Failed to gather audio chunk files with message=["+ex.getMessage()+"]", ex);
+            List<String> errors = new ArrayList<>(gapErrors);
+            errors.addAll(outputLines.buildManifestErrors(exitValue));
+            // A recording with gaps is a partial failure, even if its last process went on until the end of the program
+            int recordingExitValue = ((exitValue == 0) && !gapErrors.isEmpty()) ? 1 : exitValue;
+            updateStatus(programDescriptor, Optional.of(pid), Optional.of(recordingExitValue), fileInfoForRecordingStorage.outputDir(), errors);
+            onRecordingFinished(recordingId);
         }
     }
 
-
-
-
-
-
-    //
-    //
-    // IMPLEMENTATION
-    //
-    //
-
-    private static record RecordingId(String uuid) {}    // RecordingId is an internal concept. Outside of the Recorders, everything is identified by the ProgramIds (not RecordingIds)
-    private static record FileInfoForRecordingStorage(String recordingBaseName, String outputDir) {}
-
-
-    private String getDirNameForDay(Instant day) {
-        return DateTimeFormatter.ofPattern("yyyyMMdd").format(day.atZone(ZoneOffset.UTC));
+    /**
+     * Stop a process gracefully (SIGTERM lets ffmpeg finalize its last chunk), and kill it if it hasn't exited by the deadline
+     * @return true if the process exited gracefully
+     */
+    private static boolean stopProcess(Process process) throws InterruptedException {
+        process.destroy();
+        if (process.waitFor(GRACEFUL_STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) { return true; }
+        logger.warn(" -> FFMPEG process=[{}] did not terminate gracefully within [{}]secs, forcing termination", process.pid(), GRACEFUL_STOP_TIMEOUT.toSeconds());
+        process.destroyForcibly();
+        if (!process.waitFor(FORCED_STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+            logger.error(" -> FFMPEG process=[{}] is still alive after being killed", process.pid());
+        }
+        return false;
     }
 
     /**
-     * Build a RecordingId that includes the programID and the currentDay for the program
-     * @param programDescriptor
-     * @return
+     * Stop the processes still alive when the JVM shuts down (all of them at once, then they share the same deadline)
      */
-    private RecordingId buildRecordingId_UsingProgramId_andCurrentDayForProgram(ProgramDescriptorDTO programDescriptor) {
-        String currentDayForProgramAsYYYYMMDD = rLALCLocalTimeZoneTimeHelper.getCurrentDayForProgramAsYYYYMMDD(programDescriptor.getTimeZone());
-        return new RecordingId("rec-" + programDescriptor.getUuid() + "-" + currentDayForProgramAsYYYYMMDD);
+    private static void stopAllProcesses() {
+        activeCaptures.values().forEach(capture -> capture.stopRequested = true);
+        List<Process> processes = activeProcesses.values().stream().filter(Process::isAlive).toList();
+        if (processes.isEmpty()) { return; }
+        logger.info("Stopping the [{}] ffmpeg processes still alive", processes.size());
+        processes.forEach(Process::destroy);
+        long deadlineNanos = System.nanoTime() + GRACEFUL_STOP_TIMEOUT.toNanos();
+        try {
+            for (Process process : processes) {
+                if (!process.waitFor(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    logger.warn(" -> FFMPEG process=[{}] did not terminate gracefully within [{}]secs, forcing termination", process.pid(), GRACEFUL_STOP_TIMEOUT.toSeconds());
+                    process.destroyForcibly();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            processes.forEach(Process::destroyForcibly);
+        }
     }
 
     /**
-     * Build a "filename-compatible" name for the directory storing the recording, and the outputDir where chunks will
-     * be stored for this Recording of this Program
-     * @param programDescriptor
-     * @return
+     * Resolve the host of a stream ahead of the start of its recording, so that the resolver caches of the OS (nscd,
+     * systemd-resolved, ...) are warm when ffmpeg connects (a failure is left to ffmpeg, which reports it)
      */
-    private FileInfoForRecordingStorage buildFileInfoForRecordingStorage(ProgramDescriptorDTO programDescriptor) {
-        String recordingBaseName = programDescriptor.getUuid().uuid().toLowerCase() + "-" +
-            programDescriptor.getTitle().toLowerCase()
-                .replaceAll("[^a-z0-9]", "_")
-                .replaceAll("_+", "_");
-        String outputDir = PRTLABS_BASEDIR + "/radiolivealacarte/datastore/media/mp3/" + recordingBaseName;
-        return new FileInfoForRecordingStorage(recordingBaseName, outputDir);
+    private static void prewarmStreamHostResolution(String streamURL) {
+        try {
+            String host = URI.create(streamURL).getHost();
+            if (host != null) { InetAddress.getAllByName(host); }
+        } catch (IllegalArgumentException | UnknownHostException e) {
+            logger.debug("Failed to resolve the host of stream=[{}] ahead of its recording with message=[{}]", streamURL, e.getMessage());
+        }
     }
 
-
 }
@@ -0,0 +1,178 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.MediaOutputRendition;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.ffmpeg.FFMpegOutputRingBuffer;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.ffmpeg.FFMpegRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Encodes the renditions of a Recording which can't be written "as is" by the in-process recorder (other bitrate,
+ * other sample rate, WAV, ...).
+ *
+ * A single ffmpeg process produces all these renditions: it's fed with the MPEG audio frames already downloaded by the
+ * capture task (on its stdin), so the stream is still downloaded only once and decoded only once, whatever the number
+ * of renditions.
+ *
+ * The frames are handed to the process through a bounded queue, drained by a virtual thread of the encoder: the
+ * blocking writes to its stdin never run on the task reading the upstream, which is shared with the other captures of
+ * the stream. When the encoder can't keep up (queue full), the frames are dropped rather than stalling the upstream.
+ *
+ * REMARK: An encoder failure doesn't stop the capture (the renditions written "as is" are still produced), it's
+ *         reported with the exit code and the errors of the process when the encoder is closed.
+ */
+public class FFMpegRenditionsEncoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(FFMpegRenditionsEncoder.class);
+
+    private static final long EXIT_TIMEOUT_SECONDS = 10;
+    private static final int MAX_QUEUED_FRAMES = 512;    // ~13 seconds of audio (MPEG1 Layer III frames of 26ms)
+    private static final byte[] END_OF_INPUT = new byte[0];
+
+    private final String debugProgramTitle;
+    private final Process process;
+    private final OutputStream processInput;
+    private final BlockingQueue<byte[]> queuedFrames = new ArrayBlockingQueue<>(MAX_QUEUED_FRAMES);
+    private final Thread inputThread;
+    private final Thread outputThread;
+    private final FFMpegOutputRingBuffer outputLines = new FFMpegOutputRingBuffer();
+    private volatile boolean inputFailed = false;
+    private long nbDroppedFrames = 0;             // Only updated by the task feeding the frames
+    private long nbConsecutiveDroppedFrames = 0;
+
+
+    /**
+     * Start the ffmpeg process producing the renditions
+     * @param chunksPathPatternPerRendition the 'strftime' pattern of the chunk files for each rendition
+     */
+    public FFMpegRenditionsEncoder(String debugProgramTitle, Map<MediaOutputRendition, String> chunksPathPatternPerRendition) throws IOException {
+        this.debugProgramTitle = debugProgramTitle;
+
+        // Build the ffmpeg command (the arguments are passed as is, without going through a shell)
+        List<String> command = new ArrayList<>(List.of("ffmpeg", "-hide_banner", "-f", "mp3", "-i", "pipe:0"));
+        chunksPathPatternPerRendition.forEach((rendition, chunksPathPattern) -> command.addAll(FFMpegRecorder.buildRenditionOutputArguments(rendition, chunksPathPattern)));
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        this.process = processBuilder.start();
+        this.processInput = process.getOutputStream();
+        logger.info("Started ffmpeg renditions encoder with PID=[{}] for program=[{}] and command=[{}]", process.pid(), debugProgramTitle, String.join(" ", command));
+
+        // Drain the process output
+        this.outputThread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    outputLines.append(line);
+                    logger.debug("FFmpeg encoder output: {}", line);
+                }
+            } catch (IOException e) {
+                logger.error("Error reading ffmpeg encoder output: {}", e.getMessage(), e);
+            }
+        }, "rlalc-encoder-output-" + process.pid());
+        outputThread.setDaemon(true);
+        outputThread.start();
+
+        // Feed the process with the queued frames
+        this.inputThread = Thread.ofVirtual()
+            .name("rlalc-encoder-input-" + process.pid())
+            .start(this::feedProcess);
+    }
+
+    /**
+     * Queue a frame for the encoder (the frame is copied, the buffer can be reused right away). The frame is dropped if
+     * the encoder is too far behind.
+     */
+    public void write(byte[] frameBuffer, int frameLengthBytes) {
+        if (inputFailed) { return; }
+        if (!queuedFrames.offer(Arrays.copyOf(frameBuffer, frameLengthBytes))) {
+            nbDroppedFrames++;
+            if (nbConsecutiveDroppedFrames++ == 0) {
+                logger.error("The ffmpeg renditions encoder for program=[{}] can't keep up with the stream (more than [{}] frames queued), dropping frames", debugProgramTitle, MAX_QUEUED_FRAMES);
+            }
+        } else if (nbConsecutiveDroppedFrames > 0) {
+            logger.error(" -> The ffmpeg renditions encoder for program=[{}] is fed again after [{}] dropped frames", debugProgramTitle, nbConsecutiveDroppedFrames);
+            nbConsecutiveDroppedFrames = 0;
+        }
+    }
+
+    /**
+     * Close the input of the encoder and wait for it to flush the last chunks and exit
+     * @param errors the errors reported by the encoder are added to this list
+     * @return the exit code of the ffmpeg process
+     */
+    public int close(List<String> errors) {
+        int exitValue;
+        try {
+            // The input of the process is closed once the frames queued before END_OF_INPUT have been written
+            if (!inputFailed && !queuedFrames.offer(END_OF_INPUT, EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn(" -> FFmpeg renditions encoder for program=[{}] did not take its input within [{}]secs", debugProgramTitle, EXIT_TIMEOUT_SECONDS);
+            }
+            if (process.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                exitValue = process.exitValue();
+            } else {
+                logger.warn(" -> FFmpeg renditions encoder for program=[{}] did not exit within [{}]secs, forcing termination", debugProgramTitle, EXIT_TIMEOUT_SECONDS);
+                process.destroyForcibly();
+                exitValue = -1;
+            }
+            inputThread.interrupt();    // Only still running if the process didn't take its input
+            outputThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+            exitValue = -1;
+        }
+
+        errors.addAll(outputLines.buildManifestErrors(exitValue));
+        if (nbDroppedFrames > 0) {
+            errors.add("The encoder of the renditions couldn't keep up with the stream: ["+nbDroppedFrames+"] frames dropped");
+        }
+        return exitValue;
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private void feedProcess() {
+        try {
+            byte[] frame;
+            while ((frame = queuedFrames.take()) != END_OF_INPUT) {
+                processInput.write(frame);
+            }
+        } catch (IOException e) {
+            // The process is gone, the reason will be in its output
+            inputFailed = true;
+            queuedFrames.clear();
+            logger.error("Failed to feed the ffmpeg renditions encoder for program=[{}] with message=[{}]", debugProgramTitle, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                processInput.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the input of the ffmpeg renditions encoder with message=[{}]", e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,395 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess;
+
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndex;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.AbstractMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.CaptureHealthWatchdog;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.MediaOutputRendition;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.RecordingStartAdmissionControl;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.UpstreamReconnectionPolicy;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.ffmpeg.FFMpegRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.IUpstreamFrameListener;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.SharedUpstreamMultiplexer;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.StreamIngestionEngine;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.UnsupportedUpstreamContentTypeException;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.domain.ProgramId;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * IMediaRecorder which pulls the HTTP/Icecast stream itself and writes the MPEG audio frames straight into the chunk
+ * files, without spawning any process and without re-encoding the audio.
+ *
+ * Only the streams which are not MPEG audio (AAC, Ogg, ...) need to be transcoded. Their recording is delegated to
+ * the FFMpegRecorder.
+ *
+ * When the Program defines other renditions than the source audio (other bitrate, WAV, ...), the frames are also fed
+ * to a single ffmpeg process which encodes all of them (see FFMpegRenditionsEncoder): the stream is still downloaded
+ * once.
+ *
+ * The captures don't own their connection: they attach to the shared upstream of their stream URL (see
+ * SharedUpstreamMultiplexer), so that the overlapping and back-to-back programs of a station share a single download.
+ * The upstreams are read by lightweight tasks of the StreamIngestionEngine (one virtual thread per stream, read buffers
+ * taken from a shared bounded pool), so that a single JVM can capture thousands of streams.
+ *
+ * An upstream which drops or stalls is reconnected by the SharedUpstreamMultiplexer: the capture skips the gap on the
+ * timeline of its chunks, records it in the errors of the recording, and goes on until the end of the program.
+ */
+public class InProcessStreamRecorder extends AbstractMediaRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(InProcessStreamRecorder.class);
+
+    // Rendition produced when none is defined for the Program: the source audio, written as is
+    public static final MediaOutputRendition DEFAULT_RENDITION = new MediaOutputRendition("source", MediaOutputRendition.Format.MP3, 0, 0, 0);
+
+    // Maps to store the in-process specific recording information (the ones common to all recorders are in AbstractMediaRecorder)
+    private static final Map<RecordingId, InProcessCapture> activeCaptures = new ConcurrentHashMap<>();
+    private static final Set<ProgramId> programIdsDelegatedToFFMpeg = ConcurrentHashMap.newKeySet();
+
+    private static final long CHUNK_DURATION_NANOS = RecordingChunkIndex.CHUNK_DURATION.toNanos();
+
+    @Inject private FFMpegRecorder ffmpegRecorder;    // Used for the streams which need to be transcoded
+    @Inject private StreamIngestionEngine streamIngestionEngine;
+    @Inject private SharedUpstreamMultiplexer sharedUpstreamMultiplexer;
+    @Inject private RecordingStartAdmissionControl recordingStartAdmissionControl;
+    @Inject private CaptureHealthWatchdog captureHealthWatchdog;
+
+
+
+    @Override
+    public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters) {
+        startRecording(programDescriptor, renditions, recorderSpecificParameters, Instant.now());
+    }
+
+    /**
+     * The capture is attached to the upstream (DNS resolution, connection) and its outputs are prepared (renditions
+     * encoder started) right away, but the frames received before recordingStart are dropped: the first chunk starts
+     * exactly at recordingStart
+     */
+    @Override
+    public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters, Instant recordingStart) {
+        logger.info("Starting in-process recording for program [{}] with UUID [{}] (recording from [{}])", programDescriptor.getTitle(), programDescriptor.getUuid(), recordingStart);
+        List<MediaOutputRendition> effectiveRenditions = renditions.isEmpty() ? List.of(DEFAULT_RENDITION) : renditions;
+
+        // Create a RecordingId in the 'rec-<ProgramId>-<epochSec>' and compute where the chunks are stored
+        RecordingId recordingId = buildRecordingId_UsingProgramId_andDayForProgramAt(programDescriptor, recordingStart);
+        FileInfoForRecordingStorage fileInfoForRecordingStorage = buildFileInfoForRecordingStorage(programDescriptor);
+
+        // Attach the capture to the (shared) upstream of the stream
+        // REMARK: The capture is locked until its outputs are ready, the frames pushed in the meantime wait for it
+        Instant now = Instant.now();
+        InProcessCapture capture = new InProcessCapture(recordingId, programDescriptor, effectiveRenditions, fileInfoForRecordingStorage, recordingStart.isAfter(now) ? recordingStart : now);
+        capture.lock.lock();
+        RecordingStartAdmissionControl.StartPermit startPermit = recordingStartAdmissionControl.acquire(programDescriptor.getStreamURL());    // Bounds the connections (and encoders) set up at the same time
+        try {
+            for (MediaOutputRendition rendition : effectiveRenditions) {
+                Files.createDirectories(Paths.get(getOutputDirForRendition(fileInfoForRecordingStorage, effectiveRenditions, rendition)));
+            }
+            capture.upstream = sharedUpstreamMultiplexer.attach(programDescriptor.getStreamURL(), capture);
+
+            // Prepare the outputs, and watch the capture (an upstream which doesn't feed it anymore is reconnected)
+            activeCaptures.put(recordingId, capture);
+            capture.prepareOutputs();
+            SharedUpstreamMultiplexer.SharedUpstream upstream = capture.upstream;
+            capture.captureHealth = captureHealthWatchdog.watch(recordingId.uuid(), programDescriptor.getUuid(), programDescriptor.getTitle(),
+                () -> sharedUpstreamMultiplexer.forceReconnection(upstream, "Capture of program=["+programDescriptor.getTitle()+"] doesn't produce any chunk anymore"));
+            createOrUpdateManifest(fileInfoForRecordingStorage.outputDir(), RecordingStatus.Status.ONGOING, null, null);
+        } catch (UnsupportedUpstreamContentTypeException e) {
+            // Only MPEG audio can be written as is, the other codecs need to be transcoded by ffmpeg
+            logger.info(" -> Stream content type=[{}] is not MPEG audio. Delegating the recording of program=[{}] to ffmpeg for transcoding", e.getContentType(), programDescriptor.getTitle());
+            startPermit.close();    // The ffmpeg process is admitted on its own
+            programIdsDelegatedToFFMpeg.add(programDescriptor.getUuid());
+            ffmpegRecorder.startRecording(programDescriptor, renditions, recorderSpecificParameters, recordingStart);
+            return;
+        } catch (IOException e) {
+            // Same outcome as an ffmpeg process which can't connect: the recording is marked as failed
+            logger.error("Failed to connect to stream=[{}] for program=[{}] with message=[{}]", programDescriptor.getStreamURL(), programDescriptor.getTitle(), e.getMessage(), e);
+            activeCaptures.remove(recordingId, capture);
+            try {
+                updateStatus(programDescriptor, Optional.empty(), Optional.of(1), fileInfoForRecordingStorage.outputDir(),
+                    List.of("Failed to connect to stream=["+programDescriptor.getStreamURL()+"] with message=["+e.getMessage()+"]"));
+            } finally {
+                onRecordingFinished(recordingId);
+            }
+            return;
+        } finally {
+            startPermit.close();
+            capture.lock.unlock();
+        }
+
+        logger.info("Recording started for program [{}] with recording ID [{}] (upstream shared by [{}] captures)", programDescriptor.getTitle(), recordingId, capture.upstream.getNbSubscribers());
+    }
+
+    /**
+     * Like for the FFMpegRecorder, only the captures of the program which are over (give or take STOP_END_TOLERANCE) are
+     * stopped: the capture of the next occurrence of the program (which may already be started) is left alone
+     */
+    @Override
+    public void stopRecording(ProgramId programId) {
+        if (programId == null) { logger.warn(" -> Cannot stop recording with null program ID"); return; }
+
+        logger.info("Stopping recording with programId=[{}]", programId);
+
+        // Recordings which have been delegated to ffmpeg are stopped by the FFMpegRecorder (which only stops the occurrences that are over)
+        // REMARK: The program stays in programIdsDelegatedToFFMpeg since its next occurrence is probably delegated as well
+        if (programIdsDelegatedToFFMpeg.contains(programId)) {
+            ffmpegRecorder.stopRecording(programId);
+        }
+
+        List<InProcessCapture> captures = activeCaptures.values().stream().filter(capture -> programId.equals(capture.programDescriptor.getUuid())).toList();
+        if (captures.isEmpty()) {
+            logger.info("No active in-process capture found (which is expected since it's supposed to auto stop after the defined duration)");
+            return;
+        }
+
+        Instant latestRecordingEndToStop = Instant.now().plus(STOP_END_TOLERANCE);
+        for (InProcessCapture capture : captures) {
+            if (capture.recordingEnd.isAfter(latestRecordingEndToStop)) {
+                logger.info(" -> Recording=[{}] of programId=[{}] ends at [{}], it's a later occurrence of the program: not stopping it", capture.recordingId.uuid(), programId, capture.recordingEnd);
+                continue;
+            }
+            // Detach the capture from its upstream (the upstream itself keeps running if it's shared) and publish what has been captured
+            capture.end(true, null);
+        }
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    /**
+     * The capture of a Program: it receives the frames of its upstream and writes them into the chunks of its renditions,
+     * until the duration of the program has been recorded (or until the recording is stopped)
+     *
+     * REMARK: A ReentrantLock is used (rather than 'synchronized') because the frames are pushed by virtual threads and
+     *         the lock is held during file I/O.
+     */
+    private final class InProcessCapture implements IUpstreamFrameListener {
+        private final RecordingId recordingId;
+        private final ProgramDescriptorDTO programDescriptor;
+        private final List<MediaOutputRendition> renditions;
+        private final FileInfoForRecordingStorage fileInfoForRecordingStorage;
+        private final long targetAudioNanos;
+        private final Instant recordingStart;    // The frames received before it (pre-warm) are dropped
+        private final Instant recordingEnd;      // Only used to tell the occurrences of the program apart when it's stopped
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<String> errors = new ArrayList<>();
+        private final List<Mp3ChunkSegmentWriter> passthroughChunkSegmentWriters = new ArrayList<>();
+        private Mp3ChunkSegmentWriter mainChunkSegmentWriter = null;    // The writer of the main rendition (if it's written as is)
+        private int nbPublishedChunks = 0;
+        private SharedUpstreamMultiplexer.SharedUpstream upstream = null;
+        private FFMpegRenditionsEncoder renditionsEncoder = null;
+        private CaptureHealthWatchdog.CaptureHealth captureHealth = null;
+        private long bytesSinceLastReport = 0;           // Reported to the watchdog once per chunk duration of audio
+        private long audioNanosSinceLastReport = 0;
+        private long writtenAudioNanos = 0;
+        private long skippedGapsNanos = 0;
+        private int nbGaps = 0;
+        private boolean recordingStarted = false;
+        private boolean ended = false;
+
+        private InProcessCapture(RecordingId recordingId, ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, FileInfoForRecordingStorage fileInfoForRecordingStorage, Instant recordingStart) {
+            this.recordingId = recordingId;
+            this.programDescriptor = programDescriptor;
+            this.renditions = renditions;
+            this.fileInfoForRecordingStorage = fileInfoForRecordingStorage;
+            this.targetAudioNanos = TimeUnit.SECONDS.toNanos(programDescriptor.getDurationSeconds());
+            this.recordingStart = recordingStart;
+            this.recordingEnd = recordingStart.plusSeconds(programDescriptor.getDurationSeconds());
+        }
+
+        /**
+         * Prepare the outputs: the renditions which are the source audio are written as is, the other ones are all
+         * encoded by a single ffmpeg process
+         */
+        private void prepareOutputs() {
+            String recordingBaseName = fileInfoForRecordingStorage.recordingBaseName();
+            Instant timelineStart = recordingStart;    // The chunk boundaries are aligned on the start of the recording
+            Map<MediaOutputRendition, String> chunksPathPatternPerEncodedRendition = new LinkedHashMap<>();
+            for (MediaOutputRendition rendition : renditions) {
+                String outputDirForRendition = getOutputDirForRendition(fileInfoForRecordingStorage, renditions, rendition);
+                if (rendition.isSourcePassthrough()) {
+                    Mp3ChunkSegmentWriter chunkSegmentWriter = new Mp3ChunkSegmentWriter(Paths.get(outputDirForRendition), recordingBaseName, timelineStart, RecordingChunkIndex.CHUNK_DURATION);
+                    passthroughChunkSegmentWriters.add(chunkSegmentWriter);
+                    if (renditions.indexOf(rendition) == 0) { mainChunkSegmentWriter = chunkSegmentWriter; }
+                } else {
+                    chunksPathPatternPerEncodedRendition.put(rendition, outputDirForRendition + "/" + recordingBaseName + "_chunk_%Y%m%d_%H%M%S." + rendition.format().getFileExtension());
+                }
+            }
+            if (!chunksPathPatternPerEncodedRendition.isEmpty()) {
+                try {
+                    renditionsEncoder = new FFMpegRenditionsEncoder(programDescriptor.getTitle(), chunksPathPatternPerEncodedRendition);
+                } catch (IOException e) {
+                    logger.error("Failed to start the renditions encoder for program=[{}] with message=[{}]", programDescriptor.getTitle(), e.getMessage(), e);
+                    errors.add("Failed to start the encoder of the renditions=["+chunksPathPatternPerEncodedRendition.keySet().stream().map(MediaOutputRendition::name).toList()+"] with message=["+e.getMessage()+"]");
+                }
+            }
+        }
+
+        @Override
+        public boolean onFrame(byte[] frameBuffer, Mp3FrameHeader frameHeader) {
+            lock.lock();
+            try {
+                if (ended) { return false; }
+                if (!recordingStarted) {
+                    if (Instant.now().isBefore(recordingStart)) { return true; }    // Still pre-warming
+                    recordingStarted = true;
+                }
+                for (Mp3ChunkSegmentWriter chunkSegmentWriter : passthroughChunkSegmentWriters) {
+                    chunkSegmentWriter.writeFrame(frameBuffer, frameHeader);
+                }
+                publishClosedChunk();
+                if (renditionsEncoder != null) {
+                    renditionsEncoder.write(frameBuffer, frameHeader.frameLengthBytes());
+                }
+                writtenAudioNanos += frameHeader.durationNanos();
+                bytesSinceLastReport += frameHeader.frameLengthBytes();
+                audioNanosSinceLastReport += frameHeader.durationNanos();
+                if ((audioNanosSinceLastReport >= CHUNK_DURATION_NANOS) && (captureHealth != null)) {
+                    captureHealth.onBytesReceived(bytesSinceLastReport);
+                    captureHealth.onChunkProduced();
+                    bytesSinceLastReport = 0;
+                    audioNanosSinceLastReport = 0;
+                }
+            } catch (IOException e) {
+                logger.error("Error while writing the chunks of program=[{}] with message=[{}]", programDescriptor.getTitle(), e.getMessage(), e);
+                endInBackground(false, "Error while writing the chunks with message=["+e.getMessage()+"]");
+                return false;
+            } finally {
+                lock.unlock();
+            }
+
+            // The whole duration of the program has been recorded (or skipped)
+            if ((writtenAudioNanos + skippedGapsNanos) >= targetAudioNanos) {
+                endInBackground(true, null);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * The chunks recorded after the gap stay on the timeline of the recording (the renditions encoder names its
+         * chunks after the wall clock time, so only the chunks written as is need to skip the gap)
+         */
+        @Override
+        public void onUpstreamGap(Instant gapStart, Instant gapEnd) {
+            List<String> currentErrors;
+            lock.lock();
+            try {
+                Instant effectiveGapStart = gapStart.isBefore(recordingStart) ? recordingStart : gapStart;    // Only the gap after the start of the recording matters
+                if (ended || !gapEnd.isAfter(effectiveGapStart)) { return; }
+                recordingStarted = true;
+                Duration gap = Duration.between(effectiveGapStart, gapEnd);
+                for (Mp3ChunkSegmentWriter chunkSegmentWriter : passthroughChunkSegmentWriters) {
+                    try {
+                        chunkSegmentWriter.skipGap(gap);
+                    } catch (IOException e) {
+                        errors.add("Failed to write the chunk before the gap with message=["+e.getMessage()+"]");
+                    }
+                }
+                publishClosedChunk();
+                skippedGapsNanos += gap.toNanos();
+                nbGaps++;
+                errors.add(UpstreamReconnectionPolicy.buildGapError(effectiveGapStart, gapEnd));
+                currentErrors = List.copyOf(errors);
+            } finally {
+                lock.unlock();
+            }
+            logger.warn("Gap of [{}]secs in the recording of program=[{}]", Duration.between(gapStart, gapEnd).toSeconds(), programDescriptor.getTitle());
+
+            // The gap is visible in the state of the recording while it is still ongoing (written outside of the task pushing the frames)
+            streamIngestionEngine.submitIngestionTask("rlalc-capture-gap-" + programDescriptor.getUuid().uuid(), () -> {
+                lock.lock();
+                try {
+                    if (!ended) { createOrUpdateManifest(fileInfoForRecordingStorage.outputDir(), RecordingStatus.Status.ONGOING, currentErrors, null); }    // The chunks recorded so far are kept
+                } finally {
+                    lock.unlock();
+                }
+            });
+        }
+
+        @Override
+        public void onUpstreamEnded(String error) {
+            endInBackground(false, error + " after ["+TimeUnit.NANOSECONDS.toSeconds(writtenAudioNanos)+"]secs of audio");
+        }
+
+        /**
+         * End the capture outside of the task pushing the frames (closing the outputs can take a while when there is a
+         * renditions encoder, and the other captures attached to the same upstream must not wait for it)
+         */
+        private void endInBackground(boolean completed, String error) {
+            streamIngestionEngine.submitIngestionTask("rlalc-capture-end-" + programDescriptor.getUuid().uuid(), () -> end(completed, error));
+        }
+
+        /**
+         * Publish the chunk of the main rendition which has just been closed (if any) to the RecordingChunkFeed. A writer
+         * closes at most one chunk per call.
+         */
+        private void publishClosedChunk() {
+            if ((mainChunkSegmentWriter != null) && (mainChunkSegmentWriter.getNbCompletedChunks() > nbPublishedChunks)) {
+                nbPublishedChunks = mainChunkSegmentWriter.getNbCompletedChunks();
+                onChunkClosed(programDescriptor.getUuid(), mainChunkSegmentWriter.getLastCompletedChunkPath().toFile());
+            }
+        }
+
+        /**
+         * Detach the capture, publish the last chunks of all the renditions and update the manifest (only the first call
+         * does something)
+         */
+        private void end(boolean completed, String error) {
+            lock.lock();
+            try {
+                if (ended) { return; }
+                ended = true;
+                sharedUpstreamMultiplexer.detach(upstream, this);
+                activeCaptures.remove(recordingId, this);
+                captureHealthWatchdog.unwatch(captureHealth);
+                if (error != null) { errors.add(error); }
+
+                int nbCompletedChunks = 0;
+                for (Mp3ChunkSegmentWriter chunkSegmentWriter : passthroughChunkSegmentWriters) {
+                    try {
+                        chunkSegmentWriter.close();
+                    } catch (IOException e) {
+                        completed = false;
+                        errors.add("Failed to write the last chunk with message=["+e.getMessage()+"]");
+                    }
+                    nbCompletedChunks += chunkSegmentWriter.getNbCompletedChunks();
+                }
+                publishClosedChunk();
+                if ((renditionsEncoder != null) && (renditionsEncoder.close(errors) != 0)) {
+                    completed = false;
+                }
+
+                logger.info(" ============ In-process capture for program=[{}] ended with completed=[{}] after [{}]secs of audio, [{}] gaps and [{}] chunks written as is. ==================================== ", programDescriptor.getTitle(), completed, TimeUnit.NANOSECONDS.toSeconds(writtenAudioNanos), nbGaps, nbCompletedChunks);
+                // A recording with gaps is a partial failure, even if it went on until the end of the program
+                updateStatus(programDescriptor, Optional.empty(), Optional.of((completed && (nbGaps == 0)) ? 0 : 1), fileInfoForRecordingStorage.outputDir(), errors);
+                onRecordingFinished(recordingId);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.ChunkSeekTable;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.ChunkSeekTables;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+
+/**
+ * Writes MPEG audio frames "as is" (no re-encoding) into chunk files of a fixed audio duration.
+ *
+ * The chunks are cut on frame boundaries (so each chunk is a valid MP3 file on its own) and are named like the ones
+ * produced by the ffmpeg segmenter ('<recordingBaseName>_chunk_%Y%m%d_%H%M%S.mp3'), the timestamp being the start of
+ * the chunk on the audio timeline of the recording. When the stream is interrupted, the gap is skipped on the timeline
+ * (see skipGap()) so that the chunks written after it are named after their actual time.
+ *
+ * A chunk is written into a '.part' file which is renamed once the chunk is complete, so that the consumers listing
+ * the '.mp3' files never see a partial chunk. The frame offset table of the chunk (see ChunkSeekTable) is built as its
+ * frames are written, and published with it.
+ *
+ * REMARK: This class is not thread safe. It's meant to be used by the single task consuming the stream.
+ */
+public class Mp3ChunkSegmentWriter implements Closeable {
+
+    public static final String IN_PROGRESS_CHUNK_SUFFIX = ".part";
+
+    // Same pattern as the ffmpeg 'strftime' based chunk names
+    private static final String CHUNK_TIMESTAMP_PATTERN = "yyyyMMdd_HHmmss";
+
+    private final DateTimeFormatter chunkTimestampFormatter;
+    private final Path outputDir;
+    private final String recordingBaseName;
+    private final Instant timelineStart;
+    private final long chunkDurationNanos;
+
+    private OutputStream currentChunkOutputStream = null;
+    private Path currentChunkPath = null;
+    private long currentChunkAudioNanos = 0;
+    private long currentChunkLengthBytes = 0;
+    private ChunkSeekTable.Builder currentChunkSeekTableBuilder = null;
+    private long writtenAudioNanos = 0;
+    private long skippedGapsNanos = 0;
+    private int nbCompletedChunks = 0;
+    private Path lastCompletedChunkPath = null;
+
+
+    public Mp3ChunkSegmentWriter(Path outputDir, String recordingBaseName, Instant timelineStart, Duration chunkDuration) {
+        // Same time zone as the ffmpeg 'strftime' based chunk names
+        this(outputDir, recordingBaseName, timelineStart, chunkDuration, ZoneId.systemDefault());
+    }
+
+    /**
+     * @param chunkNamesTimeZone time zone of the timestamps in the chunk names
+     */
+    public Mp3ChunkSegmentWriter(Path outputDir, String recordingBaseName, Instant timelineStart, Duration chunkDuration, ZoneId chunkNamesTimeZone) {
+        this.chunkTimestampFormatter = DateTimeFormatter.ofPattern(CHUNK_TIMESTAMP_PATTERN).withZone(chunkNamesTimeZone);
+        this.outputDir = outputDir;
+        this.recordingBaseName = recordingBaseName;
+        this.timelineStart = timelineStart;
+        this.chunkDurationNanos = chunkDuration.toNanos();
+    }
+
+    /**
+     * Append a frame to the current chunk (and open/close chunks as needed)
+     */
+    public void writeFrame(byte[] frameBuffer, Mp3FrameHeader frameHeader) throws IOException {
+        if (currentChunkOutputStream == null) {
+            openNewChunk();
+        }
+
+        currentChunkOutputStream.write(frameBuffer, 0, frameHeader.frameLengthBytes());
+        currentChunkSeekTableBuilder.addFrame(currentChunkLengthBytes, frameHeader);
+        currentChunkLengthBytes += frameHeader.frameLengthBytes();
+        currentChunkAudioNanos += frameHeader.durationNanos();
+        writtenAudioNanos += frameHeader.durationNanos();
+
+        if (currentChunkAudioNanos >= chunkDurationNanos) {
+            closeCurrentChunk();
+        }
+    }
+
+    /**
+     * Skip a gap of the timeline (the stream has been interrupted): the chunk being written is closed, and the next
+     * chunk starts after the gap
+     */
+    public void skipGap(Duration gap) throws IOException {
+        closeCurrentChunk();
+        skippedGapsNanos += gap.toNanos();
+    }
+
+    /**
+     * @return the duration of the audio written so far (all chunks included), in nanoseconds
+     */
+    public long getWrittenAudioNanos() {
+        return writtenAudioNanos;
+    }
+
+    public int getNbCompletedChunks() {
+        return nbCompletedChunks;
+    }
+
+    /**
+     * @return the last chunk which has been published (null if none)
+     */
+    public Path getLastCompletedChunkPath() {
+        return lastCompletedChunkPath;
+    }
+
+    /**
+     * Close (and publish) the chunk being written, if any
+     */
+    @Override
+    public void close() throws IOException {
+        closeCurrentChunk();
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private void openNewChunk() throws IOException {
+        Instant chunkStart = timelineStart.plusNanos(writtenAudioNanos + skippedGapsNanos);
+        currentChunkPath = outputDir.resolve(recordingBaseName + "_chunk_" + chunkTimestampFormatter.format(chunkStart) + ".mp3");
+        // REMARK: A FileOutputStream is used (rather than Files.newOutputStream) because it is not interruptible. The capture
+        //         task is interrupted when a recording is stopped, and the chunk being written must still be published.
+        currentChunkOutputStream = new BufferedOutputStream(new FileOutputStream(outputDir.resolve(currentChunkPath.getFileName() + IN_PROGRESS_CHUNK_SUFFIX).toFile()));
+        currentChunkAudioNanos = 0;
+        currentChunkLengthBytes = 0;
+        currentChunkSeekTableBuilder = new ChunkSeekTable.Builder();
+    }
+
+    private void closeCurrentChunk() throws IOException {
+        if (currentChunkOutputStream == null) { return; }
+        try {
+            currentChunkOutputStream.close();
+            // The table is published first, so that it's there as soon as the chunk can be found
+            ChunkSeekTables.put(currentChunkPath.toFile(), currentChunkSeekTableBuilder.build(currentChunkLengthBytes));
+            Files.move(outputDir.resolve(currentChunkPath.getFileName() + IN_PROGRESS_CHUNK_SUFFIX), currentChunkPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            nbCompletedChunks++;
+            lastCompletedChunkPath = currentChunkPath;
+        } finally {
+            currentChunkOutputStream = null;
+            currentChunkPath = null;
+            currentChunkSeekTableBuilder = null;
+        }
+    }
+
+}
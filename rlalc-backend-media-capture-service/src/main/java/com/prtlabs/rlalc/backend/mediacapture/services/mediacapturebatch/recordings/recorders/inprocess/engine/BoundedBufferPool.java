@@ -0,0 +1,81 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Pool of fixed size byte buffers shared by all the ingestion tasks.
+ *
+ * The pool is bounded: at most 'maxBuffers' buffers can be in use at the same time, an 'acquire' waits (for a bounded
+ * time) for a buffer to be released when the limit is reached. This caps the memory used for the reads, whatever the
+ * number of streams being captured. The buffers are allocated lazily and reused once released.
+ */
+public class BoundedBufferPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedBufferPool.class);
+
+    private final int bufferSizeBytes;
+    private final int maxBuffers;
+    private final Semaphore availableBuffers;
+    private final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong nbTimesExhausted = new AtomicLong(0);
+
+
+    public BoundedBufferPool(int bufferSizeBytes, int maxBuffers) {
+        this.bufferSizeBytes = bufferSizeBytes;
+        this.maxBuffers = maxBuffers;
+        this.availableBuffers = new Semaphore(maxBuffers);
+    }
+
+    /**
+     * Get a buffer from the pool, waiting at most 'maxWait' for one to be released if they are all in use
+     * @return a buffer of 'bufferSizeBytes' bytes (its content is undefined), or null if none has been released in time
+     */
+    public byte[] acquire(Duration maxWait) throws InterruptedException {
+        if (!availableBuffers.tryAcquire()) {
+            logger.warn("All the [{}] buffers of [{}] bytes are in use (exhausted [{}] times so far), waiting up to [{}]ms for one to be released", maxBuffers, bufferSizeBytes, nbTimesExhausted.incrementAndGet(), maxWait.toMillis());
+            if (!availableBuffers.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                return null;
+            }
+        }
+        byte[] buffer = freeBuffers.poll();
+        return (buffer != null) ? buffer : new byte[bufferSizeBytes];
+    }
+
+    /**
+     * Give a buffer obtained with 'acquire' back to the pool
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) { return; }
+        freeBuffers.offer(buffer);
+        availableBuffers.release();
+    }
+
+    public int getBufferSizeBytes() {
+        return bufferSizeBytes;
+    }
+
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+    public int getNbBuffersInUse() {
+        return maxBuffers - availableBuffers.availablePermits();
+    }
+
+    /**
+     * @return the number of times an 'acquire' had to wait because all the buffers were in use
+     */
+    public long getNbTimesExhausted() {
+        return nbTimesExhausted.get();
+    }
+
+}
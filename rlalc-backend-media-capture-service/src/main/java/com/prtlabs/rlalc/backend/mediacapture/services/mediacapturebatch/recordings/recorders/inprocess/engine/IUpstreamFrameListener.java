@@ -0,0 +1,35 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+
+import java.time.Instant;
+
+
+/**
+ * Subscriber of a shared upstream (see SharedUpstreamMultiplexer). The frames are pushed by the task reading the
+ * upstream, to all its subscribers in turn: the listeners must not block (no waiting on other tasks, no network I/O).
+ */
+public interface IUpstreamFrameListener {
+
+    /**
+     * A frame has been read from the upstream
+     * @param frameBuffer the frame (header included), only valid during the call
+     * @return false if the listener doesn't want any more frames (it's then detached from the upstream)
+     */
+    boolean onFrame(byte[] frameBuffer, Mp3FrameHeader frameHeader);
+
+    /**
+     * The upstream has been reconnected after an interruption (drop or stall), the next frames are the ones received
+     * from gapEnd on
+     * @param gapStart when the last frame before the interruption was received
+     * @param gapEnd   when the upstream was reconnected
+     */
+    void onUpstreamGap(Instant gapStart, Instant gapEnd);
+
+    /**
+     * The upstream ended (it couldn't be reconnected), no more frames will be pushed
+     * @param error description of what happened
+     */
+    void onUpstreamEnded(String error);
+
+}
@@ -0,0 +1,363 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.UpstreamReconnectionPolicy;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameReader;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Shares the upstream connections between the captures of the Programs which are on the same stream URL.
+ *
+ * There is at most one connection per stream URL: the first capture attaching to a stream URL opens it, the next ones
+ * (overlapping programs) attach to the same connection and each of them slices its own chunks from the frames it
+ * receives. When the last capture detaches, the connection is kept open for a while ('linger') so that the next
+ * program on the same station (typically the program of the next hour) attaches to it instead of reconnecting.
+ *
+ * The connections are supervised: an upstream which drops, or which stalls (see UpstreamReconnectionPolicy), is
+ * reconnected with a backoff for as long as captures are attached to it. The captures are told about the gap once the
+ * upstream is back, and keep recording on the same timeline.
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.ingestion.upstreamLingerSeconds : how long an upstream without any capture is kept open (default 120)
+ */
+public class SharedUpstreamMultiplexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedUpstreamMultiplexer.class);
+
+    private static final long UPSTREAM_LINGER_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("prt.rlalc.ingestion.upstreamLingerSeconds", 120));
+    private static final long STALL_TIMEOUT_NANOS = UpstreamReconnectionPolicy.STALL_TIMEOUT.toNanos();
+
+    // The upstreams are static because the recorders are also instantiated by the HK2 ServiceLocator of the Jersey
+    // servlet, and there must be only one connection per stream URL for the whole JVM
+    // REMARK: The map is also the lock protecting the subscriptions (the upstreams are only closed when they have no
+    //         subscriber, and checking that must be atomic with their removal from the map)
+    private static final Map<String, SharedUpstream> sharedUpstreamPerStreamURL = new HashMap<>();
+
+    @Inject private StreamIngestionEngine streamIngestionEngine;
+
+
+
+    /**
+     * Attach a listener to the upstream of a stream URL (connecting to the stream if no other capture is using it)
+     * @return the upstream the listener is attached to (needed to detach it)
+     * @throws UnsupportedUpstreamContentTypeException if the stream is not MPEG audio (and can't be shared)
+     * @throws IOException if the connection to the stream fails
+     */
+    public SharedUpstream attach(String streamURL, IUpstreamFrameListener listener) throws IOException {
+        // Get (or create) the upstream, and subscribe right away so that it can't be closed in the meantime
+        SharedUpstream upstream;
+        boolean mustConnect;
+        synchronized (sharedUpstreamPerStreamURL) {
+            upstream = sharedUpstreamPerStreamURL.get(streamURL);
+            mustConnect = (upstream == null);
+            if (mustConnect) {
+                upstream = new SharedUpstream(streamURL);
+                sharedUpstreamPerStreamURL.put(streamURL, upstream);
+            }
+            upstream.subscribers.add(listener);
+        }
+
+        if (mustConnect) {
+            try {
+                connect(upstream);
+                upstream.connected.complete(null);
+            } catch (IOException e) {
+                synchronized (sharedUpstreamPerStreamURL) { sharedUpstreamPerStreamURL.remove(streamURL, upstream); }
+                upstream.connected.completeExceptionally(e);
+                throw e;
+            }
+        } else {
+            // Another capture is connecting (or is connected) to the stream, wait for the outcome
+            try {
+                upstream.connected.get();
+                logger.info("Attached to the shared upstream of stream=[{}] (shared by [{}] captures)", streamURL, upstream.subscribers.size());
+            } catch (ExecutionException e) {
+                upstream.subscribers.remove(listener);
+                throw (e.getCause() instanceof IOException ioException) ? ioException : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                upstream.subscribers.remove(listener);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while connecting to stream=["+streamURL+"]");
+            }
+        }
+        return upstream;
+    }
+
+    /**
+     * Detach a listener from its upstream (the upstream lingers for a while if it was its last listener)
+     */
+    public void detach(SharedUpstream upstream, IUpstreamFrameListener listener) {
+        upstream.subscribers.remove(listener);
+    }
+
+    /**
+     * Close the current connection of an upstream so that it's reconnected (e.g. when the captures attached to it
+     * don't produce anything anymore)
+     */
+    public void forceReconnection(SharedUpstream upstream, String reason) {
+        closeForReconnection(upstream, reason);
+    }
+
+    public int getNbSharedUpstreams() {
+        synchronized (sharedUpstreamPerStreamURL) {
+            return sharedUpstreamPerStreamURL.size();
+        }
+    }
+
+    /**
+     * MPEG audio is the only content which can be split into frames (and so shared) without transcoding
+     */
+    public static boolean isMpegAudioContentType(String contentType) {
+        if (contentType == null) { return false; }
+        String lowerCaseContentType = contentType.toLowerCase();
+        return (lowerCaseContentType.contains("mpeg") || lowerCaseContentType.contains("mp3")) && !lowerCaseContentType.contains("mpegurl");    // 'mpegurl' is a playlist (m3u), not audio
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    /**
+     * The connection to a stream URL, and the captures attached to it
+     */
+    public static final class SharedUpstream {
+        private final String streamURL;
+        private final List<IUpstreamFrameListener> subscribers = new CopyOnWriteArrayList<>();
+        private final CompletableFuture<Void> connected = new CompletableFuture<>();
+        private volatile UpstreamConnection upstreamConnection = null;
+        private volatile boolean reading = false;           // The connection is being read (and so is watched for stalls)
+        private volatile String closedForReconnectionReason = null;    // Set when the connection has been closed on purpose (stall), to be reconnected
+        private volatile long lastFrameNanos = 0;
+
+        private SharedUpstream(String streamURL) {
+            this.streamURL = streamURL;
+        }
+
+        public String getStreamURL() {
+            return streamURL;
+        }
+
+        public String getContentType() {
+            UpstreamConnection connection = upstreamConnection;
+            return (connection != null) ? connection.contentType() : null;
+        }
+
+        public int getNbSubscribers() {
+            return subscribers.size();
+        }
+    }
+
+
+    private void connect(SharedUpstream upstream) throws IOException {
+        upstream.upstreamConnection = openMpegAudioConnection(upstream.streamURL);
+        upstream.lastFrameNanos = System.nanoTime();
+        StallWatchdog.start();
+        streamIngestionEngine.submitIngestionTask("rlalc-upstream-" + upstream.streamURL, () -> readUpstream(upstream));
+        logger.info("Connected to stream=[{}] (content type=[{}])", upstream.streamURL, upstream.upstreamConnection.contentType());
+    }
+
+    private UpstreamConnection openMpegAudioConnection(String streamURL) throws IOException {
+        UpstreamConnection upstreamConnection = streamIngestionEngine.openUpstreamConnection(streamURL);
+        if (!isMpegAudioContentType(upstreamConnection.contentType())) {
+            upstreamConnection.close();
+            throw new UnsupportedUpstreamContentTypeException(streamURL, upstreamConnection.contentType());
+        }
+        return upstreamConnection;
+    }
+
+    /**
+     * Read the upstream (reconnecting it when it drops or stalls) until it has been without subscribers for longer
+     * than the linger duration, or until it can't be reconnected
+     */
+    private void readUpstream(SharedUpstream upstream) {
+        String error;
+        while (true) {
+            error = readFrames(upstream);
+            if (error == null) { return; }    // Closed after lingering without subscribers
+            if (Thread.currentThread().isInterrupted() || !reconnect(upstream, error)) { break; }
+        }
+
+        // The upstream is gone, the captures still attached to it are notified
+        synchronized (sharedUpstreamPerStreamURL) {
+            sharedUpstreamPerStreamURL.remove(upstream.streamURL, upstream);
+        }
+        for (IUpstreamFrameListener subscriber : upstream.subscribers) {
+            subscriber.onUpstreamEnded(error);
+        }
+        upstream.subscribers.clear();
+    }
+
+    /**
+     * Read the frames of the current connection of the upstream and push them to its subscribers, until the connection
+     * ends (or stalls) or until the upstream has been without subscribers for longer than the linger duration
+     * @return what ended the connection (null if the upstream has been closed after lingering)
+     */
+    private String readFrames(SharedUpstream upstream) {
+        String error = null;
+        Mp3FrameReader frameReader = null;
+        try (UpstreamConnection upstreamConnection = upstream.upstreamConnection) {
+            // The read buffer is only taken from the pool while the connection is being read (and not while waiting for it)
+            frameReader = new Mp3FrameReader(upstreamConnection.body(), streamIngestionEngine.getReadBufferPool(), StreamIngestionEngine.READ_BUFFER_MAX_WAIT);
+            byte[] frameBuffer = new byte[Mp3FrameReader.MAX_FRAME_LENGTH_BYTES];
+            long withoutSubscribersSinceNanos = -1;
+            upstream.reading = true;
+            while (true) {
+                Mp3FrameHeader frameHeader = frameReader.readNextFrame(frameBuffer);
+                if (frameHeader == null) {
+                    error = "Stream=["+upstream.streamURL+"] ended";
+                    break;
+                }
+                upstream.lastFrameNanos = System.nanoTime();
+
+                // Push the frame to the subscribers
+                for (IUpstreamFrameListener subscriber : upstream.subscribers) {
+                    if (!subscriber.onFrame(frameBuffer, frameHeader)) {
+                        upstream.subscribers.remove(subscriber);
+                    }
+                }
+
+                // Close the upstream when it has been without subscribers for too long
+                if (!upstream.subscribers.isEmpty()) {
+                    withoutSubscribersSinceNanos = -1;
+                } else if (withoutSubscribersSinceNanos < 0) {
+                    withoutSubscribersSinceNanos = System.nanoTime();
+                } else if ((System.nanoTime() - withoutSubscribersSinceNanos) > UPSTREAM_LINGER_NANOS) {
+                    synchronized (sharedUpstreamPerStreamURL) {
+                        if (upstream.subscribers.isEmpty()) {
+                            sharedUpstreamPerStreamURL.remove(upstream.streamURL, upstream);
+                            logger.info("Closing the upstream of stream=[{}] (no capture attached for [{}]secs)", upstream.streamURL, TimeUnit.NANOSECONDS.toSeconds(UPSTREAM_LINGER_NANOS));
+                            return null;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            error = "Error while reading stream=["+upstream.streamURL+"] with message=["+e.getMessage()+"]";
+            if (upstream.closedForReconnectionReason == null) { logger.error(error, e); }
+        } finally {
+            upstream.reading = false;
+            if (frameReader != null) { frameReader.releaseReadBuffer(); }
+        }
+        // The read of a connection closed on purpose either fails or ends, the actual reason is the one of the closing
+        String closedForReconnectionReason = upstream.closedForReconnectionReason;
+        return (closedForReconnectionReason != null) ? closedForReconnectionReason : error;
+    }
+
+    /**
+     * Reconnect an upstream which dropped or stalled, with a backoff between the attempts, for as long as captures are
+     * attached to it. Once it's back, its captures are told about the gap.
+     * @return false if the upstream must end (no capture attached anymore, interrupted, or not MPEG audio anymore)
+     */
+    private boolean reconnect(SharedUpstream upstream, String error) {
+        Instant gapStart = Instant.now().minusNanos(System.nanoTime() - upstream.lastFrameNanos);
+        logger.warn("{}. Reconnecting the upstream (shared by [{}] captures)", error, upstream.subscribers.size());
+        for (int nbFailures = 1; ; nbFailures++) {
+            synchronized (sharedUpstreamPerStreamURL) {
+                if (upstream.subscribers.isEmpty()) {
+                    sharedUpstreamPerStreamURL.remove(upstream.streamURL, upstream);
+                    logger.info("Closing the upstream of stream=[{}] (no capture attached anymore)", upstream.streamURL);
+                    return false;
+                }
+            }
+
+            Duration backoff = UpstreamReconnectionPolicy.computeBackoff(nbFailures);
+            try {
+                Thread.sleep(backoff.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            try {
+                upstream.upstreamConnection = openMpegAudioConnection(upstream.streamURL);
+                upstream.closedForReconnectionReason = null;
+                upstream.lastFrameNanos = System.nanoTime();
+                Instant gapEnd = Instant.now();
+                logger.info("Reconnected to stream=[{}] after [{}] attempts ([{}]secs without audio)", upstream.streamURL, nbFailures, Duration.between(gapStart, gapEnd).toSeconds());
+                for (IUpstreamFrameListener subscriber : upstream.subscribers) {
+                    subscriber.onUpstreamGap(gapStart, gapEnd);
+                }
+                return true;
+            } catch (UnsupportedUpstreamContentTypeException e) {
+                // Retrying won't change that
+                logger.error("Failed to reconnect to stream=[{}] with message=[{}]", upstream.streamURL, e.getMessage());
+                return false;
+            } catch (IOException e) {
+                logger.warn("Failed to reconnect to stream=[{}] (attempt=[{}]) with message=[{}]. Retrying in [{}]secs", upstream.streamURL, nbFailures, e.getMessage(), UpstreamReconnectionPolicy.computeBackoff(nbFailures + 1).toSeconds());
+            }
+        }
+    }
+
+    /**
+     * Close the connection being read (its read then ends, and the upstream is reconnected)
+     */
+    private static void closeForReconnection(SharedUpstream upstream, String reason) {
+        UpstreamConnection upstreamConnection = upstream.upstreamConnection;
+        if (!upstream.reading || (upstream.closedForReconnectionReason != null) || (upstreamConnection == null)) { return; }
+        logger.warn("{}, closing its connection to reconnect it", reason);
+        upstream.closedForReconnectionReason = reason;
+        try {
+            upstreamConnection.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the connection to stream=[{}] with message=[{}]", upstream.streamURL, e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the connections which haven't delivered any frame for longer than the stall timeout (their read then ends,
+     * and they are reconnected). A stalled HTTP connection doesn't fail by itself: there is no read timeout on the body.
+     *
+     * REMARK: The watchdog thread is only started when the first upstream is connected (and not in the processes which
+     *         only schedule recordings or serve the management API)
+     */
+    private static final class StallWatchdog {
+        private static final ScheduledExecutorService watchdogExecutor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("rlalc-upstream-stall-watchdog").daemon(true).factory());
+
+        static {
+            watchdogExecutor.scheduleWithFixedDelay(StallWatchdog::closeStalledConnections, 1, 1, TimeUnit.SECONDS);
+        }
+
+        private static void start() {
+            // Starting is done by the class initialization
+        }
+
+        private static void closeStalledConnections() {
+            List<SharedUpstream> upstreams;
+            synchronized (sharedUpstreamPerStreamURL) {
+                upstreams = new ArrayList<>(sharedUpstreamPerStreamURL.values());
+            }
+            long nowNanos = System.nanoTime();
+            for (SharedUpstream upstream : upstreams) {
+                if ((nowNanos - upstream.lastFrameNanos) > STALL_TIMEOUT_NANOS) {
+                    closeForReconnection(upstream, "No data received from stream=["+upstream.streamURL+"] for more than ["+UpstreamReconnectionPolicy.STALL_TIMEOUT.toSeconds()+"]secs");
+                }
+            }
+        }
+    }
+
+}
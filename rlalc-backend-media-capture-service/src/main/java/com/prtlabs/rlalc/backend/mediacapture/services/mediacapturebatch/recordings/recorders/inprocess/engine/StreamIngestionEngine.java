@@ -0,0 +1,128 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Engine running the ingestion of the upstream streams for the in-process recorders.
+ *
+ * Each stream is consumed by its own task running on a virtual thread. The reads are written as plain blocking reads,
+ * but the connections are handled by the (NIO based) JDK HttpClient: a virtual thread waiting for data is parked and
+ * doesn't hold an OS thread. A JVM can then capture thousands of streams with a handful of carrier threads.
+ *
+ * The read buffers are taken from a BoundedBufferPool shared by all the tasks, which caps the memory used whatever the
+ * number of streams. A task only holds a buffer while it's reading (and not while it's waiting for its stream), and a
+ * read which can't get a buffer within READ_BUFFER_MAX_WAIT fails (its stream is then reconnected with a backoff).
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.ingestion.maxReadBuffers : max number of read buffers in use at the same time (default 4096)
+ */
+public class StreamIngestionEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamIngestionEngine.class);
+
+    public static final int READ_BUFFER_SIZE_BYTES = 16 * 1024;
+    public static final Duration READ_BUFFER_MAX_WAIT = Duration.ofSeconds(5);
+
+    private static final Duration CONNECT_TIMEOUT          = Duration.ofSeconds(10);
+    private static final Duration RESPONSE_HEADERS_TIMEOUT = Duration.ofSeconds(15);
+    private static final String   USER_AGENT               = "RadioLiveALaCarte-MediaCapture";
+
+    // The engine state is static because the recorders are also instantiated by the HK2 ServiceLocator of the Jersey
+    // servlet, and there must be only one pool of tasks and buffers for the whole JVM
+    private static final ExecutorService ingestionExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rlalc-ingestion-", 0).factory());
+    private static final BoundedBufferPool readBufferPool = new BoundedBufferPool(READ_BUFFER_SIZE_BYTES, Integer.getInteger("prt.rlalc.ingestion.maxReadBuffers", 4096));
+    private static final AtomicInteger nbActiveIngestionTasks = new AtomicInteger(0);
+
+
+
+    /**
+     * Connect to a stream and wait for the response headers (the body is not read)
+     * @throws IOException if the connection fails or if the server doesn't answer with a 200
+     */
+    public UpstreamConnection openUpstreamConnection(String streamURL) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(streamURL))
+            .timeout(RESPONSE_HEADERS_TIMEOUT)
+            .header("User-Agent", USER_AGENT)
+            .GET()
+            .build();
+        try {
+            HttpResponse<InputStream> response = HttpClientHolder.httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IOException("Unexpected HTTP status=["+response.statusCode()+"] for stream=["+streamURL+"]");
+            }
+            return new UpstreamConnection(streamURL, response.headers().firstValue("Content-Type").orElse(null), response.body());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to stream=["+streamURL+"]");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid stream URL=["+streamURL+"] with message=["+e.getMessage()+"]", e);
+        }
+    }
+
+    /**
+     * Run an ingestion task on its own virtual thread
+     * @param taskName the name given to the thread (shows up in the logs and the thread dumps)
+     */
+    public Future<?> submitIngestionTask(String taskName, Runnable ingestionTask) {
+        return ingestionExecutor.submit(() -> {
+            Thread.currentThread().setName(taskName);
+            nbActiveIngestionTasks.incrementAndGet();
+            try {
+                ingestionTask.run();
+            } catch (RuntimeException e) {
+                logger.error("Ingestion task=[{}] failed with message=[{}]", taskName, e.getMessage(), e);
+                throw e;
+            } finally {
+                nbActiveIngestionTasks.decrementAndGet();
+            }
+        });
+    }
+
+    public BoundedBufferPool getReadBufferPool() {
+        return readBufferPool;
+    }
+
+    public int getNbActiveIngestionTasks() {
+        return nbActiveIngestionTasks.get();
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    /**
+     * The HttpClient starts its selector thread when created, so it's only created when the first stream is opened
+     * (and not in the processes which only schedule recordings or serve the management API)
+     */
+    private static final class HttpClientHolder {
+        private static final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)               // Icecast/Shoutcast servers only speak HTTP/1.x
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build();
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine;
+
+import java.io.IOException;
+
+
+/**
+ * Thrown when an upstream can't be shared because it's not MPEG audio (it then needs to be transcoded by ffmpeg)
+ */
+public class UnsupportedUpstreamContentTypeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String contentType;
+
+    public UnsupportedUpstreamContentTypeException(String streamURL, String contentType) {
+        super("Stream=["+streamURL+"] with content type=["+contentType+"] is not MPEG audio");
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * An open connection to the upstream stream of a radio (the HTTP response headers have been received, the body is
+ * being streamed).
+ *
+ * @param streamURL   the URL of the stream
+ * @param contentType the 'Content-Type' of the stream (null if not provided by the server)
+ * @param body        the body of the response (the audio itself)
+ */
+public record UpstreamConnection(String streamURL, String contentType, InputStream body) implements Closeable {
+
+    /**
+     * Close the connection. This can be called from another thread than the one reading the body.
+     */
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3;
+
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Header of an MPEG audio frame (MPEG 1, 2 and 2.5 - Layers I, II and III).
+ *
+ * Only the information needed to cut a stream on frame boundaries is decoded: the frame length in bytes and the
+ * number of samples it carries (which gives its duration).
+ *
+ * Cf http://www.mp3-tech.org/programmer/frame_header.html for the layout of the 4 bytes header.
+ */
+public record Mp3FrameHeader(int mpegVersion, int layer, int bitrateKbps, int sampleRateHz, boolean padding, boolean mono, int frameLengthBytes, int samplesPerFrame) {
+
+    public static final int HEADER_LENGTH_BYTES = 4;
+
+    public static final int MPEG_VERSION_1   = 1;
+    public static final int MPEG_VERSION_2   = 2;
+    public static final int MPEG_VERSION_2_5 = 25;
+
+    // Bitrates in kbps, indexed by [row][bitrateIndex] (index 0 is "free format" and index 15 is forbidden)
+    private static final int[][] BITRATES_KBPS = {
+        { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },    // MPEG1 - Layer I
+        { 0, 32, 48, 56,  64,  80,  96, 112, 128, 160, 192, 224, 256, 320, 384 },    // MPEG1 - Layer II
+        { 0, 32, 40, 48,  56,  64,  80,  96, 112, 128, 160, 192, 224, 256, 320 },    // MPEG1 - Layer III
+        { 0, 32, 48, 56,  64,  80,  96, 112, 128, 144, 160, 176, 192, 224, 256 },    // MPEG2/2.5 - Layer I
+        { 0,  8, 16, 24,  32,  40,  48,  56,  64,  80,  96, 112, 128, 144, 160 }     // MPEG2/2.5 - Layers II and III
+    };
+
+    // Sample rates in Hz, indexed by [mpegVersion][sampleRateIndex]
+    private static final int[] SAMPLE_RATES_MPEG1   = { 44100, 48000, 32000 };
+    private static final int[] SAMPLE_RATES_MPEG2   = { 22050, 24000, 16000 };
+    private static final int[] SAMPLE_RATES_MPEG2_5 = { 11025, 12000,  8000 };
+
+
+    /**
+     * Decode the frame header located at 'offset' in 'buffer'.
+     *
+     * @return the decoded header, or null if the 4 bytes at 'offset' are not a valid (and supported) frame header
+     */
+    public static Mp3FrameHeader parse(byte[] buffer, int offset) {
+        int b1 = buffer[offset + 1] & 0xFF;
+        int b2 = buffer[offset + 2] & 0xFF;
+        int b3 = buffer[offset + 3] & 0xFF;
+
+        // Frame sync (11 bits set to 1)
+        if (((buffer[offset] & 0xFF) != 0xFF) || ((b1 & 0xE0) != 0xE0)) { return null; }
+
+        // MPEG version and Layer
+        int mpegVersion;
+        switch ((b1 >> 3) & 0x03) {
+            case 0:  mpegVersion = MPEG_VERSION_2_5; break;
+            case 2:  mpegVersion = MPEG_VERSION_2;   break;
+            case 3:  mpegVersion = MPEG_VERSION_1;   break;
+            default: return null;                                   // Reserved
+        }
+        int layer = 4 - ((b1 >> 1) & 0x03);
+        if (layer == 4) { return null; }                            // Reserved
+
+        // Bitrate (the "free format" and the forbidden index are not supported)
+        int bitrateIndex = b2 >> 4;
+        if ((bitrateIndex == 0) || (bitrateIndex == 15)) { return null; }
+        int bitrateRow = (mpegVersion == MPEG_VERSION_1) ? (layer - 1) : ((layer == 1) ? 3 : 4);
+        int bitrateKbps = BITRATES_KBPS[bitrateRow][bitrateIndex];
+
+        // Sample rate
+        int sampleRateIndex = (b2 >> 2) & 0x03;
+        if (sampleRateIndex == 3) { return null; }                  // Reserved
+        int sampleRateHz = switch (mpegVersion) {
+            case MPEG_VERSION_1 -> SAMPLE_RATES_MPEG1[sampleRateIndex];
+            case MPEG_VERSION_2 -> SAMPLE_RATES_MPEG2[sampleRateIndex];
+            default             -> SAMPLE_RATES_MPEG2_5[sampleRateIndex];
+        };
+
+        boolean padding = ((b2 >> 1) & 0x01) == 1;
+        boolean mono = (b3 >> 6) == 3;
+
+        // Frame length and number of samples
+        int frameLengthBytes;
+        int samplesPerFrame;
+        if (layer == 1) {
+            frameLengthBytes = ((12 * bitrateKbps * 1000 / sampleRateHz) + (padding ? 1 : 0)) * 4;
+            samplesPerFrame = 384;
+        } else if ((layer == 3) && (mpegVersion != MPEG_VERSION_1)) {
+            frameLengthBytes = (72 * bitrateKbps * 1000 / sampleRateHz) + (padding ? 1 : 0);
+            samplesPerFrame = 576;
+        } else {
+            frameLengthBytes = (144 * bitrateKbps * 1000 / sampleRateHz) + (padding ? 1 : 0);
+            samplesPerFrame = 1152;
+        }
+
+        return new Mp3FrameHeader(mpegVersion, layer, bitrateKbps, sampleRateHz, padding, mono, frameLengthBytes, samplesPerFrame);
+    }
+
+    /**
+     * @return the duration of the audio carried by this frame, in nanoseconds
+     */
+    public long durationNanos() {
+        return (samplesPerFrame * 1_000_000_000L) / sampleRateHz;
+    }
+
+    /**
+     * Two frames belong to the same stream if they share the same version, layer and sample rate (the bitrate can vary
+     * from one frame to the other with VBR streams).
+     */
+    public boolean isSameStreamAs(Mp3FrameHeader other) {
+        return (other != null) && (mpegVersion == other.mpegVersion) && (layer == other.layer) && (sampleRateHz == other.sampleRateHz);
+    }
+
+    /**
+     * The Xing/Info frame written at the beginning of an MP3 file (by ffmpeg for instance) carries the table of contents
+     * of the file, not audio. Its tag follows the side information of the frame.
+     *
+     * @param frame the frame (header included)
+     */
+    public boolean isXingOrInfoFrame(byte[] frame) {
+        if (layer != 3) { return false; }
+        int sideInfoLength = (mpegVersion == MPEG_VERSION_1) ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        int tagOffset = HEADER_LENGTH_BYTES + sideInfoLength;
+        if (tagOffset + 4 > frameLengthBytes) { return false; }
+        String tag = new String(frame, tagOffset, 4, StandardCharsets.ISO_8859_1);
+        return tag.equals("Xing") || tag.equals("Info");
+    }
+
+}
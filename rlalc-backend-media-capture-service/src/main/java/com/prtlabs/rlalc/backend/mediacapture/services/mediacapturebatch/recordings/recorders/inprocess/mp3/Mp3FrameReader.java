@@ -0,0 +1,219 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine.BoundedBufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+
+
+/**
+ * Splits an MPEG audio byte stream (typically an HTTP/Icecast stream) into frames.
+ *
+ * The reader synchronizes on the frame headers: any byte which is not part of a frame (garbage at the beginning of the
+ * stream, ID3 tags, partial frames after a network issue, ...) is skipped. To avoid locking on a "false sync" (a pair
+ * of bytes in the audio payload which looks like a header), the first frame after a (re)synchronization is only
+ * accepted if it is followed by another compatible header.
+ *
+ * The read buffer can be taken from a BoundedBufferPool: it's then only held while the stream is being read, and given
+ * back to the pool whenever the reader has to wait for the stream (only the bytes of the partial frame read so far are
+ * kept meanwhile). A live stream spends most of its time waiting for its next bytes, so the pool bounds the number of
+ * streams being read at the same time, and not the number of streams being captured.
+ *
+ * REMARK: This class is not thread safe. It's meant to be used by the single task consuming the stream.
+ */
+public class Mp3FrameReader {
+
+    public static final int MAX_FRAME_LENGTH_BYTES = 4096;    // The largest MPEG audio frame (Layer II at 384kbps/32kHz) is 1729 bytes
+
+    private static final int READ_BUFFER_SIZE_BYTES = 16 * 1024;
+
+    private final InputStream inputStream;
+    private final BoundedBufferPool readBufferPool;           // Null if the read buffer is owned by the reader
+    private final Duration readBufferMaxWait;
+    private final byte[] pendingBytes;                        // What's left of the read buffer while it's given back to the pool
+    private byte[] readBuffer;                                // Null while it's given back to the pool (what's left of it is then in pendingBytes)
+    private int readPosition = 0;
+    private int readLimit = 0;
+    private boolean endOfStream = false;
+
+    private Mp3FrameHeader lastFrameHeader = null;            // Null when the reader is not (or no longer) synchronized on the stream
+    private long skippedBytes = 0;
+    private long readBytes = 0;
+
+
+    public Mp3FrameReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+        this.readBufferPool = null;
+        this.readBufferMaxWait = null;
+        this.pendingBytes = null;
+        this.readBuffer = new byte[READ_BUFFER_SIZE_BYTES];
+    }
+
+    /**
+     * @param readBufferPool    the pool of the read buffers (they must be at least twice MAX_FRAME_LENGTH_BYTES long).
+     *                          The reader must be given its buffer back with releaseReadBuffer() once it's not used anymore.
+     * @param readBufferMaxWait how long a read waits for a buffer when they are all in use, before failing
+     */
+    public Mp3FrameReader(InputStream inputStream, BoundedBufferPool readBufferPool, Duration readBufferMaxWait) {
+        if (readBufferPool.getBufferSizeBytes() < 2 * MAX_FRAME_LENGTH_BYTES) { throw new IllegalArgumentException("Read buffers of ["+readBufferPool.getBufferSizeBytes()+"] bytes are too small"); }
+        this.inputStream = inputStream;
+        this.readBufferPool = readBufferPool;
+        this.readBufferMaxWait = readBufferMaxWait;
+        this.pendingBytes = new byte[MAX_FRAME_LENGTH_BYTES + Mp3FrameHeader.HEADER_LENGTH_BYTES];
+        this.readBuffer = null;
+    }
+
+    /**
+     * Read the next frame and copy it (header included) at the beginning of 'frameBuffer'.
+     *
+     * @param frameBuffer a buffer of at least MAX_FRAME_LENGTH_BYTES bytes
+     * @return the header of the frame (its 'frameLengthBytes' gives the number of bytes copied), or null when the end of
+     *         the stream has been reached
+     * @throws IOException if the underlying stream can't be read
+     */
+    public Mp3FrameHeader readNextFrame(byte[] frameBuffer) throws IOException {
+        while (true) {
+            if (!ensureAvailable(Mp3FrameHeader.HEADER_LENGTH_BYTES)) { return null; }
+
+            // Look for a valid header at the current position
+            Mp3FrameHeader header = Mp3FrameHeader.parse(readBuffer, readPosition);
+            if ((header == null) || ((lastFrameHeader != null) && !lastFrameHeader.isSameStreamAs(header))) {
+                lastFrameHeader = null;
+                skipBytes(1);
+                continue;
+            }
+
+            // Make sure the whole frame is available
+            int frameLength = header.frameLengthBytes();
+            if (!ensureAvailable(frameLength)) { return null; }
+
+            // When (re)synchronizing, check that the frame is followed by another compatible frame
+            if (lastFrameHeader == null) {
+                if (!ensureAvailable(frameLength + Mp3FrameHeader.HEADER_LENGTH_BYTES)) { return null; }
+                if (!header.isSameStreamAs(Mp3FrameHeader.parse(readBuffer, readPosition + frameLength))) {
+                    skipBytes(1);
+                    continue;
+                }
+            }
+
+            // Copy the frame
+            System.arraycopy(readBuffer, readPosition, frameBuffer, 0, frameLength);
+            readPosition += frameLength;
+            lastFrameHeader = header;
+            return header;
+        }
+    }
+
+    /**
+     * Give the read buffer back to its pool, if it's held (the reader can't be used afterwards)
+     */
+    public void releaseReadBuffer() {
+        if ((readBufferPool != null) && (readBuffer != null)) {
+            readBufferPool.release(readBuffer);
+            readBuffer = null;
+            readPosition = 0;
+            readLimit = 0;
+        }
+    }
+
+    /**
+     * @return the number of bytes read from the underlying stream so far
+     */
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    /**
+     * @return the number of bytes which have been skipped so far because they were not part of a frame
+     */
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private void skipBytes(int nbBytes) {
+        readPosition += nbBytes;
+        skippedBytes += nbBytes;
+    }
+
+    /**
+     * Make sure that at least 'nbBytes' bytes are available in the read buffer after the current position
+     * @return false if the end of the stream was reached before that
+     */
+    private boolean ensureAvailable(int nbBytes) throws IOException {
+        if ((readBuffer != null) && (readLimit - readPosition >= nbBytes)) { return true; }
+        if (readBufferPool != null) { return ensureAvailableFromPool(nbBytes); }
+
+        // Move what's left at the beginning of the buffer
+        int remaining = readLimit - readPosition;
+        System.arraycopy(readBuffer, readPosition, readBuffer, 0, remaining);
+        readPosition = 0;
+        readLimit = remaining;
+        return readUntil(nbBytes);
+    }
+
+    /**
+     * Same as ensureAvailable(), but the read buffer is given back to the pool while waiting for the stream
+     */
+    private boolean ensureAvailableFromPool(int nbBytes) throws IOException {
+        // Keep what's left of the read buffer (less than a frame, since more is needed), and give the buffer back
+        if (readBuffer != null) {
+            int remaining = readLimit - readPosition;
+            System.arraycopy(readBuffer, readPosition, pendingBytes, 0, remaining);
+            readBufferPool.release(readBuffer);
+            readBuffer = null;
+            readPosition = 0;
+            readLimit = remaining;
+        }
+        if (endOfStream) { return false; }
+
+        // Wait for the stream without any buffer
+        int nextByte = inputStream.read();
+        if (nextByte < 0) {
+            endOfStream = true;
+            return false;
+        }
+
+        // Then read what's available into a buffer of the pool
+        try {
+            readBuffer = readBufferPool.acquire(readBufferMaxWait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a read buffer");
+        }
+        if (readBuffer == null) { throw new IOException("No read buffer released within ["+readBufferMaxWait.toMillis()+"]ms (all the ["+readBufferPool.getMaxBuffers()+"] buffers are in use)"); }
+        System.arraycopy(pendingBytes, 0, readBuffer, 0, readLimit);
+        readBuffer[readLimit++] = (byte) nextByte;
+        readBytes++;
+        return readUntil(nbBytes);
+    }
+
+    /**
+     * Read until at least 'nbBytes' bytes are in the read buffer (its content starting at its beginning)
+     */
+    private boolean readUntil(int nbBytes) throws IOException {
+        while ((readLimit < nbBytes) && !endOfStream) {
+            int nbRead = inputStream.read(readBuffer, readLimit, readBuffer.length - readLimit);
+            if (nbRead < 0) {
+                endOfStream = true;
+            } else {
+                readLimit += nbRead;
+                readBytes += nbRead;
+            }
+        }
+        return readLimit >= nbBytes;
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.quartz.utils.ConnectionProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+
+/**
+ * Quartz ConnectionProvider of the persistent job store (see MediaCaptureScheduler): a pool of connections to an
+ * embedded H2 database, whose Quartz tables are created (from the script shipped with Quartz) on the first start.
+ *
+ * It is instantiated by Quartz, which sets its properties from the 'org.quartz.dataSource.<name>.*' configuration.
+ */
+public class EmbeddedJobStoreConnectionProvider implements ConnectionProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedJobStoreConnectionProvider.class);
+
+    private static final String QUARTZ_H2_SCHEMA_SCRIPT = "/org/quartz/impl/jdbcjobstore/tables_h2.sql";
+
+    private String jdbcUrl;
+    private int maxConnections = 10;
+    private JdbcConnectionPool connectionPool;
+
+
+    public void setJdbcUrl(String jdbcUrl) {
+        this.jdbcUrl = jdbcUrl;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        connectionPool = JdbcConnectionPool.create(jdbcUrl, "sa", "");
+        connectionPool.setMaxConnections(maxConnections);
+        createQuartzTablesIfNeeded();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connectionPool.getConnection();
+    }
+
+    @Override
+    public void shutdown() {
+        if (connectionPool != null) {
+            connectionPool.dispose();
+        }
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private void createQuartzTablesIfNeeded() throws SQLException {
+        try (Connection connection = connectionPool.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet tables = metaData.getTables(null, null, "QRTZ_JOB_DETAILS", null)) {
+                if (tables.next()) { return; }
+            }
+
+            logger.info("Creating the tables of the Quartz job store in database=[{}]", jdbcUrl);
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String sqlStatement : readQuartzSchemaScript().split(";")) {
+                    // Strip the comments of the script
+                    String sql = sqlStatement.lines().filter(line -> !line.trim().startsWith("--")).reduce("", (a, b) -> a + "\n" + b).trim();
+                    if (!sql.isEmpty() && !sql.equalsIgnoreCase("COMMIT")) {
+                        statement.execute(sql);
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static String readQuartzSchemaScript() throws SQLException {
+        try (InputStream script = EmbeddedJobStoreConnectionProvider.class.getResourceAsStream(QUARTZ_H2_SCHEMA_SCRIPT)) {
+            if (script == null) { throw new SQLException("Quartz schema script=["+QUARTZ_H2_SCHEMA_SCRIPT+"] not found"); }
+            return new String(script.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Failed to read the Quartz schema script with message=["+e.getMessage()+"]", e);
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureJob;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCapturePendingStateInitializationJob;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureStopJob;
+import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
+import com.prtlabs.utils.dependencyinjection.hk2.quartz.PrtHK2QuartzJobFactory;
+import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
+import jakarta.inject.Inject;
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+
+/**
+ * The Quartz Scheduler shared by the whole Media Capture service (scheduling of the recordings, management API).
+ *
+ * It is created once, with an explicit configuration (instead of the 'quartz.properties' lookup of a new
+ * StdSchedulerFactory on every call), and its HK2 aware JobFactory is set once at creation. Its lifecycle is explicit:
+ * start() when the planning has been scheduled, shutdown() on exit (also done by a JVM shutdown hook).
+ *
+ * The jobs are kept either in memory or, with the 'jdbc' job store, in an embedded H2 database so that they survive
+ * restarts: the planning scheduled before the restart is kept as is (see scheduleJobs()), and the triggers missed while
+ * the service was down fire as soon as it is back (MediaCaptureJob then only records what remains of the program). The
+ * jobs of the Programs which are not part of the planning anymore are deleted (see schedulePlanningJobs()).
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.scheduler.threadCount : number of threads running the jobs, ie the max number of recordings starting
+ *                                       (or stopping) at the same time without waiting for a thread (default 25)
+ *   - prt.rlalc.scheduler.jobStore    : 'ram' (default) or 'jdbc'
+ *   - prt.rlalc.scheduler.jdbcUrl     : H2 database of the 'jdbc' job store (default '<baseDir>/radiolivealacarte/datastore/scheduler/rlalc-quartz')
+ */
+public class MediaCaptureScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaCaptureScheduler.class);
+
+    private static final String SCHEDULER_NAME = "RLALCMediaCaptureScheduler";
+    private static final int DEFAULT_THREAD_COUNT = 25;
+    private static final String DEFAULT_JDBC_URL = "jdbc:h2:file:" + System.getProperty("prt.rlalc.baseDir", "/opt/prtlabs") + "/radiolivealacarte/datastore/scheduler/rlalc-quartz";
+
+    // Values of the 'prt.rlalc.scheduler.jobStore' System property
+    public static final String JOB_STORE_RAM  = "ram";     // The jobs are lost on restart, and scheduled again from the planning
+    public static final String JOB_STORE_JDBC = "jdbc";    // The jobs are persisted in an embedded database
+
+    // Group of the jobs of the one-time captures (added through the API): they are not part of the planning
+    public static final String ONE_TIME_JOBS_GROUP = "one-time";
+
+    // Jobs of the Programs of the planning (the other jobs, e.g. the continuous recording of the stations, are left alone)
+    private static final Set<Class<? extends Job>> PROGRAM_JOB_CLASSES = Set.of(MediaCaptureJob.class, MediaCaptureStopJob.class, MediaCapturePendingStateInitializationJob.class);
+
+    // REMARK: The scheduler is static because the services are also instantiated by the HK2 ServiceLocator of the Jersey
+    //         servlet, and the management API must see the jobs scheduled by the Media Capture service
+    private static volatile Scheduler scheduler;
+
+    @Inject private PrtHK2QuartzJobFactory prtHK2QuartzJobFactory;
+
+
+    /**
+     * @return the shared Scheduler (created on the first call, but only started by start())
+     */
+    public Scheduler getScheduler() {
+        Scheduler theScheduler = scheduler;
+        if (theScheduler == null) {
+            synchronized (MediaCaptureScheduler.class) {
+                if (scheduler == null) {
+                    scheduler = createScheduler();
+                }
+                theScheduler = scheduler;
+            }
+        }
+        return theScheduler;
+    }
+
+    /**
+     * Schedule several jobs in a single call to the scheduler (a single transaction with the 'jdbc' job store). A job
+     * which is already scheduled (which is the case after a restart with the 'jdbc' job store) is kept as is, including
+     * the misfire handling of its triggers. A job which changed is replaced.
+     *
+     * @return the number of jobs (re)scheduled
+     */
+    public int scheduleJobs(Map<JobDetail, Set<? extends Trigger>> triggersPerJob) throws SchedulerException {
+        return scheduleJobs(getScheduler(), triggersPerJob);
+    }
+
+    /**
+     * Schedule the jobs of the whole planning of the Programs (see scheduleJobs()). The jobs of the Programs which are
+     * not part of it anymore (removed or rescheduled Programs, whose jobs were persisted before a restart with the 'jdbc'
+     * job store) are deleted first, so that they don't fire. The jobs of the one-time captures (see ONE_TIME_JOBS_GROUP)
+     * are kept.
+     *
+     * REMARK: Quartz has no single call deleting and scheduling jobs: they are two transactions. A restart in between
+     *         only leaves jobs missing, which are scheduled again by the next schedulePlanningJobs.
+     *
+     * @return the number of jobs (re)scheduled
+     */
+    public int schedulePlanningJobs(Map<JobDetail, Set<? extends Trigger>> triggersPerJob) throws SchedulerException {
+        return schedulePlanningJobs(getScheduler(), triggersPerJob);
+    }
+
+    static int schedulePlanningJobs(Scheduler theScheduler, Map<JobDetail, Set<? extends Trigger>> triggersPerJob) throws SchedulerException {
+        Set<JobKey> planningJobKeys = triggersPerJob.keySet().stream().map(JobDetail::getKey).collect(Collectors.toSet());
+        List<JobKey> removedJobKeys = new ArrayList<>();
+        for (JobKey jobKey : theScheduler.getJobKeys(GroupMatcher.jobGroupEquals(JobKey.DEFAULT_GROUP))) {
+            if (planningJobKeys.contains(jobKey)) { continue; }
+            JobDetail jobDetail = theScheduler.getJobDetail(jobKey);
+            if ((jobDetail != null) && PROGRAM_JOB_CLASSES.contains(jobDetail.getJobClass())) {
+                removedJobKeys.add(jobKey);
+            }
+        }
+        if (!removedJobKeys.isEmpty()) {
+            theScheduler.deleteJobs(removedJobKeys);
+            logger.info("Deleted nb=[{}] jobs of the programs which are not part of the planning anymore", removedJobKeys.size());
+        }
+        return scheduleJobs(theScheduler, triggersPerJob);
+    }
+
+    static int scheduleJobs(Scheduler theScheduler, Map<JobDetail, Set<? extends Trigger>> triggersPerJob) throws SchedulerException {
+        // The existing jobs are listed once, so that only them need to be compared (there are none on a first start)
+        Set<JobKey> existingJobKeys = theScheduler.getJobKeys(GroupMatcher.anyJobGroup());
+        Map<JobDetail, Set<? extends Trigger>> triggersPerJobToSchedule = new LinkedHashMap<>();
+        for (Map.Entry<JobDetail, Set<? extends Trigger>> entry : triggersPerJob.entrySet()) {
+            if (!existingJobKeys.contains(entry.getKey().getKey()) || !isAlreadyScheduled(theScheduler, entry.getKey(), entry.getValue())) {
+                triggersPerJobToSchedule.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (!triggersPerJobToSchedule.isEmpty()) {
+            theScheduler.scheduleJobs(triggersPerJobToSchedule, true);
+        }
+        return triggersPerJobToSchedule.size();
+    }
+
+    /**
+     * Start firing the triggers of the scheduled jobs
+     */
+    public void start() {
+        try {
+            getScheduler().start();
+        } catch (SchedulerException e) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_001_FailedToScheduleMediaCapture.name(), "Failed to start the Quartz scheduler with message=["+e.getMessage()+"]", e);
+        }
+    }
+
+    /**
+     * Stop the scheduler, waiting for the running jobs to complete
+     */
+    public void shutdown() {
+        synchronized (MediaCaptureScheduler.class) {
+            if (scheduler == null) { return; }
+            try {
+                scheduler.shutdown(true);
+            } catch (SchedulerException e) {
+                logger.error("Failed to shutdown the Quartz scheduler with message=[{}]", e.getMessage(), e);
+            }
+            scheduler = null;
+        }
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private Scheduler createScheduler() {
+        int threadCount = Integer.getInteger("prt.rlalc.scheduler.threadCount", DEFAULT_THREAD_COUNT);
+        String jobStore = System.getProperty("prt.rlalc.scheduler.jobStore", JOB_STORE_RAM);
+        String jdbcUrl = System.getProperty("prt.rlalc.scheduler.jdbcUrl", DEFAULT_JDBC_URL);
+        try {
+            Scheduler newScheduler = new StdSchedulerFactory(buildQuartzProperties(SCHEDULER_NAME, threadCount, jobStore, jdbcUrl)).getScheduler();
+            newScheduler.setJobFactory(prtHK2QuartzJobFactory);    // When Quartz Jobs are created (based on JobDetails), they are instantiated via our HK2 aware factory
+            logger.info("Quartz scheduler=[{}] created with threadCount=[{}] and jobStore=[{}]", SCHEDULER_NAME, threadCount, jobStore);
+            return newScheduler;
+        } catch (SchedulerException e) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_001_FailedToScheduleMediaCapture.name(), "Failed to create the Quartz scheduler with message=["+e.getMessage()+"]", e);
+        }
+    }
+
+    static Properties buildQuartzProperties(String schedulerName, int threadCount, String jobStore, String jdbcUrl) {
+        Properties quartzProperties = new Properties();
+        quartzProperties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, schedulerName);
+        quartzProperties.setProperty("org.quartz.scheduler.skipUpdateCheck", "true");
+        quartzProperties.setProperty(StdSchedulerFactory.PROP_THREAD_POOL_CLASS, "org.quartz.simpl.SimpleThreadPool");
+        quartzProperties.setProperty("org.quartz.threadPool.threadCount", String.valueOf(threadCount));
+        quartzProperties.setProperty("org.quartz.threadPool.threadPriority", String.valueOf(Thread.NORM_PRIORITY));
+        quartzProperties.setProperty("org.quartz.plugin.shutdownhook.class", "org.quartz.plugins.management.ShutdownHookPlugin");
+        quartzProperties.setProperty("org.quartz.plugin.shutdownhook.cleanShutdown", "true");
+        if (JOB_STORE_JDBC.equals(jobStore)) {
+            quartzProperties.setProperty(StdSchedulerFactory.PROP_JOB_STORE_CLASS, "org.quartz.impl.jdbcjobstore.JobStoreTX");
+            quartzProperties.setProperty("org.quartz.jobStore.driverDelegateClass", "org.quartz.impl.jdbcjobstore.StdJDBCDelegate");
+            quartzProperties.setProperty("org.quartz.jobStore.dataSource", "rlalcJobStore");
+            quartzProperties.setProperty("org.quartz.jobStore.tablePrefix", "QRTZ_");
+            quartzProperties.setProperty("org.quartz.jobStore.misfireThreshold", "5000");    // A start missed by more than 5s is handled by the misfire instruction of its trigger
+            quartzProperties.setProperty("org.quartz.dataSource.rlalcJobStore.connectionProvider.class", EmbeddedJobStoreConnectionProvider.class.getName());
+            quartzProperties.setProperty("org.quartz.dataSource.rlalcJobStore.jdbcUrl", jdbcUrl);
+            quartzProperties.setProperty("org.quartz.dataSource.rlalcJobStore.maxConnections", String.valueOf(threadCount + 2));
+        } else {
+            quartzProperties.setProperty(StdSchedulerFactory.PROP_JOB_STORE_CLASS, "org.quartz.simpl.RAMJobStore");
+        }
+        return quartzProperties;
+    }
+
+    private static boolean isAlreadyScheduled(Scheduler theScheduler, JobDetail jobDetail, Set<? extends Trigger> triggers) throws SchedulerException {
+        JobDetail existingJobDetail = theScheduler.getJobDetail(jobDetail.getKey());
+        if ((existingJobDetail == null) || !existingJobDetail.getJobClass().equals(jobDetail.getJobClass())
+            || !comparableJobData(existingJobDetail.getJobDataMap()).equals(comparableJobData(jobDetail.getJobDataMap()))) {
+            return false;
+        }
+        for (Trigger trigger : triggers) {
+            if (!theScheduler.checkExists(trigger.getKey())) { return false; }
+        }
+        return true;
+    }
+
+    private static Map<String, Object> comparableJobData(JobDataMap jobDataMap) {
+        // The adjusted duration of the jobs persisted by the previous versions depends on the time at which they were scheduled
+        Map<String, Object> jobData = new HashMap<>(jobDataMap.getWrappedMap());
+        jobData.remove(MediaCaptureJob.KEY_DURATION_SECONDS);
+        return jobData;
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureJob;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.domain.ProgramId;
+import com.prtlabs.utils.json.PrtJsonUtils;
+import org.quartz.JobDataMap;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Registry of the scheduled Programs, holding their (immutable) ProgramDescriptorDTO already parsed.
+ *
+ * The jobs and the management endpoints resolve their Program against it, instead of parsing the JSON of the JobDataMap
+ * (which is only kept for the persistent job store: after a restart, a Program missing from the registry is parsed once
+ * from the JSON of its first job, then registered).
+ *
+ * The occurrences of a recurring Program share its ProgramId: the Programs are registered per occurrence (ProgramId and
+ * start time), so that the jobs of each occurrence resolve their own. The occurrences which ended more than
+ * ENDED_OCCURRENCES_RETENTION ago are forgotten.
+ */
+public class ProgramDescriptorRegistry {
+
+    private static final ObjectMapper mapper = PrtJsonUtils.getFasterXmlObjectMapper();
+
+    // The stop job of an occurrence fires at its end (or a bit later after a restart), it must still resolve it
+    private static final Duration ENDED_OCCURRENCES_RETENTION = Duration.ofHours(1);
+
+    // REMARK: The registry is static because the services are also instantiated by the HK2 ServiceLocator of the Jersey
+    //         servlet, and the management API must see the Programs registered by the Media Capture service
+    private static final Map<ProgramId, ProgramDescriptorDTO> programDescriptorPerProgramId = new ConcurrentHashMap<>();    // The latest registered occurrence of each Program
+    private static final Map<ProgramOccurrence, ProgramDescriptorDTO> programDescriptorPerOccurrence = new ConcurrentHashMap<>();
+    private static volatile Instant nextEndedOccurrencesPurge = Instant.EPOCH;
+
+
+    /**
+     * Register a Program, and build the data of its jobs (its ProgramId, and its JSON representation for the persistence)
+     *
+     * @return the JobDataMap to use (it is copied by the JobBuilders) for all the jobs of the Program
+     */
+    public JobDataMap registerAndBuildJobData(ProgramDescriptorDTO programDescriptor) throws JsonProcessingException {
+        ProgramDescriptorDTO registeredProgramDescriptor = register(programDescriptor);
+        JobDataMap jobDataMap = new JobDataMap();
+        jobDataMap.put(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON, mapper.writeValueAsString(registeredProgramDescriptor));
+        if (registeredProgramDescriptor.getUuid() != null) {
+            jobDataMap.put(MediaCaptureJob.KEY_PROGRAM_ID, registeredProgramDescriptor.getUuid().uuid());
+        }
+        jobDataMap.put(MediaCaptureJob.KEY_PROGRAM_START_UTC_EPOCH_SEC, registeredProgramDescriptor.getStartTimeUTCEpochSec());
+        jobDataMap.put(MediaCaptureJob.KEY_DEBUG_PROGRAM_TITLE, registeredProgramDescriptor.getTitle());
+        return jobDataMap;
+    }
+
+    /**
+     * Register (or replace) an occurrence of a Program
+     *
+     * @return the immutable ProgramDescriptorDTO registered
+     */
+    public ProgramDescriptorDTO register(ProgramDescriptorDTO programDescriptor) {
+        ProgramDescriptorDTO immutableProgramDescriptor = programDescriptor.toBuilder()
+            .recorderSpecificParameters((programDescriptor.getRecorderSpecificParameters() != null) ? Collections.unmodifiableMap(new HashMap<>(programDescriptor.getRecorderSpecificParameters())) : Map.of())
+            .build();
+        if (immutableProgramDescriptor.getUuid() != null) {
+            purgeEndedOccurrences();
+            programDescriptorPerProgramId.put(immutableProgramDescriptor.getUuid(), immutableProgramDescriptor);
+            programDescriptorPerOccurrence.put(new ProgramOccurrence(immutableProgramDescriptor.getUuid(), immutableProgramDescriptor.getStartTimeUTCEpochSec()), immutableProgramDescriptor);
+        }
+        return immutableProgramDescriptor;
+    }
+
+    /**
+     * @return the latest registered occurrence of a Program (null if it isn't registered)
+     */
+    public ProgramDescriptorDTO get(ProgramId programId) {
+        return programDescriptorPerProgramId.get(programId);
+    }
+
+    /**
+     * @return the ProgramId of a job (null if it isn't the job of a Program), read without parsing its JSON
+     */
+    public ProgramId getProgramId(JobDataMap jobDataMap) throws JsonProcessingException {
+        String programId = jobDataMap.getString(MediaCaptureJob.KEY_PROGRAM_ID);
+        if (programId != null) { return new ProgramId(programId); }
+        // Job persisted before the ProgramIds were added to the JobDataMaps
+        return jobDataMap.containsKey(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON) ? resolve(jobDataMap).getUuid() : null;
+    }
+
+    /**
+     * @return the Program of a job: the registered occurrence of the job, or the one parsed from its JSON if it isn't
+     *         registered yet (the job was persisted before a restart)
+     */
+    public ProgramDescriptorDTO resolve(JobDataMap jobDataMap) throws JsonProcessingException {
+        String programId = jobDataMap.getString(MediaCaptureJob.KEY_PROGRAM_ID);
+        ProgramDescriptorDTO programDescriptor = null;
+        if (programId != null) {
+            programDescriptor = jobDataMap.containsKey(MediaCaptureJob.KEY_PROGRAM_START_UTC_EPOCH_SEC)
+                ? programDescriptorPerOccurrence.get(new ProgramOccurrence(new ProgramId(programId), jobDataMap.getLong(MediaCaptureJob.KEY_PROGRAM_START_UTC_EPOCH_SEC)))
+                : programDescriptorPerProgramId.get(new ProgramId(programId));    // Job persisted before the start times were added to the JobDataMaps
+        }
+        if (programDescriptor == null) {
+            programDescriptor = register(mapper.readValue(jobDataMap.getString(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON), ProgramDescriptorDTO.class));
+        }
+        return programDescriptor;
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private record ProgramOccurrence(ProgramId programId, long startTimeUTCEpochSec) {}
+
+    /**
+     * Forget the occurrences which have ended (checked at most once per ENDED_OCCURRENCES_RETENTION)
+     */
+    private static void purgeEndedOccurrences() {
+        Instant now = Instant.now();
+        if (now.isBefore(nextEndedOccurrencesPurge)) { return; }
+        nextEndedOccurrencesPurge = now.plus(ENDED_OCCURRENCES_RETENTION);
+        long purgeBeforeEpochSec = now.minus(ENDED_OCCURRENCES_RETENTION).getEpochSecond();
+        programDescriptorPerOccurrence.values().removeIf(programDescriptor -> (programDescriptor.getStartTimeUTCEpochSec() + programDescriptor.getDurationSeconds()) < purgeBeforeEpochSec);
+    }
+
+}
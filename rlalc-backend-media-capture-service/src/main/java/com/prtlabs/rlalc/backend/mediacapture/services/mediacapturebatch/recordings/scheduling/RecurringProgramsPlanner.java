@@ -0,0 +1,231 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.dto.RecurringProgramDTO;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureJob;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCapturePendingStateInitializationJob;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureStopJob;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.RecurringProgramsMaterializationJob;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
+import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
+import jakarta.inject.Inject;
+import org.quartz.JobBuilder;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.SchedulerException;
+import org.quartz.SimpleScheduleBuilder;
+import org.quartz.Trigger;
+import org.quartz.TriggerBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Rolling planner of the recurring Programs (see RecurringProgramDTO).
+ *
+ * Instead of scheduling every occurrence of the recurring Programs (or a daily cron job per Program), only the
+ * occurrences of the next hours are materialized into concrete ProgramDescriptorDTOs, whose one-shot jobs (pending state
+ * initialization at 00:00 local time of their day, start, stop) are scheduled like the ones of the other Programs. A single
+ * job (RecurringProgramsMaterializationJob) extends the window every hour, so that the number of jobs in the scheduler,
+ * and the work done at startup, don't depend on the number of weeks of schedule loaded.
+ *
+ * With a continuous recording of the stations, only the pending state initialization of the occurrences is scheduled
+ * (it registers their time range view), the stations being recorded anyway.
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.planning.materializationWindowHours : how far ahead the occurrences are materialized (default 24)
+ */
+public class RecurringProgramsPlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecurringProgramsPlanner.class);
+
+    private static final int DEFAULT_MATERIALIZATION_WINDOW_HOURS = 24;
+    private static final int MATERIALIZATION_INTERVAL_HOURS = 1;    // The window is extended every hour (it must be larger than that)
+
+    // REMARK: The state is static because the services are also instantiated by the HK2 ServiceLocator of the Jersey
+    //         servlet, which also runs the Quartz jobs (and so the RecurringProgramsMaterializationJob)
+    private static volatile List<RecurringProgramDTO> recurringPrograms = List.of();
+    private static final Set<String> materializedOccurrenceKeys = ConcurrentHashMap.newKeySet();
+
+    @Inject private IMediaRecorder mediaRecorder;
+    @Inject private MediaCaptureScheduler mediaCaptureScheduler;
+    @Inject private ProgramDescriptorRegistry programDescriptorRegistry;
+
+
+    /**
+     * Materialize the occurrences of the recurring Programs of the next hours, and schedule the job extending the window
+     * every hour
+     */
+    public void start(List<RecurringProgramDTO> programs) {
+        recurringPrograms = List.copyOf(programs);
+        materializedOccurrenceKeys.clear();
+        materialize();
+
+        try {
+            JobDetail materializationJobDetail = JobBuilder.newJob(RecurringProgramsMaterializationJob.class)
+                .withIdentity("recurring-programs-materialization")
+                .build();
+            Trigger materializationTrigger = TriggerBuilder.newTrigger()
+                .withIdentity("recurring-programs-materialization-trigger")
+                .startAt(Date.from(Instant.now().plus(Duration.ofHours(MATERIALIZATION_INTERVAL_HOURS))))
+                .withSchedule(SimpleScheduleBuilder.repeatHourlyForever(MATERIALIZATION_INTERVAL_HOURS).withMisfireHandlingInstructionNowWithExistingCount())
+                .build();
+            mediaCaptureScheduler.getScheduler().scheduleJob(materializationJobDetail, Set.of(materializationTrigger), true);
+        } catch (SchedulerException e) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_001_FailedToScheduleMediaCapture.name(), "Failed to schedule the materialization of the recurring programs with message=["+e.getMessage()+"]", e);
+        }
+    }
+
+    /**
+     * Schedule the jobs of the occurrences of the recurring Programs which start (or are still running) within the
+     * materialization window, and which haven't been materialized yet
+     *
+     * @return the number of occurrences materialized
+     */
+    public int materialize() {
+        synchronized (RecurringProgramsPlanner.class) {
+            Instant now = Instant.now();
+            Instant windowEnd = now.plus(Duration.ofHours(getMaterializationWindowHours()));
+
+            // Forget the occurrences which have ended (their jobs are gone)
+            materializedOccurrenceKeys.removeIf(occurrenceKey -> Long.parseLong(occurrenceKey.substring(occurrenceKey.lastIndexOf('@') + 1)) < now.getEpochSecond());
+
+            // Build the jobs of the new occurrences (they are all scheduled at once afterwards)
+            Map<JobDetail, Set<? extends Trigger>> triggersPerJob = new LinkedHashMap<>();
+            List<String> newOccurrenceKeys = new ArrayList<>();
+            for (RecurringProgramDTO recurringProgram : recurringPrograms) {
+                for (ProgramDescriptorDTO occurrence : computeOccurrences(recurringProgram, now, windowEnd)) {
+                    // - The occurrences are identified by their end time, so that the ended ones can be forgotten
+                    String occurrenceKey = occurrence.getUuid().uuid() + "@" + (occurrence.getStartTimeUTCEpochSec() + occurrence.getDurationSeconds());
+                    if (materializedOccurrenceKeys.contains(occurrenceKey)) { continue; }
+                    try {
+                        buildOccurrenceJobs(occurrence, now, triggersPerJob);
+                        newOccurrenceKeys.add(occurrenceKey);
+                    } catch (JsonProcessingException e) {
+                        logger.warn("    -> Failed to materialize the occurrence at [{}] of recurring program=[{}] with message=[{}]", Instant.ofEpochSecond(occurrence.getStartTimeUTCEpochSec()), occurrence.getTitle(), e.getMessage());
+                    }
+                }
+            }
+
+            try {
+                int nbScheduledJobs = mediaCaptureScheduler.scheduleJobs(triggersPerJob);
+                materializedOccurrenceKeys.addAll(newOccurrenceKeys);
+                logger.info("Recurring programs materialized until [{}] (nb=[{}] new occurrences, nb=[{}] jobs scheduled)", windowEnd, newOccurrenceKeys.size(), nbScheduledJobs);
+                return newOccurrenceKeys.size();
+            } catch (SchedulerException e) {
+                throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_001_FailedToScheduleMediaCapture.name(), "Failed to schedule the occurrences of the recurring programs with message=["+e.getMessage()+"]", e);
+            }
+        }
+    }
+
+    /**
+     * @return the occurrences of a recurring Program which overlap [from, to), ordered by start time
+     */
+    static List<ProgramDescriptorDTO> computeOccurrences(RecurringProgramDTO recurringProgram, Instant from, Instant to) {
+        List<ProgramDescriptorDTO> occurrences = new ArrayList<>();
+        // An occurrence which started on a previous day may still be running
+        long nbDaysBefore = (recurringProgram.getDurationSeconds() + 86399) / 86400;
+        LocalDate lastDay = to.atZone(recurringProgram.getTimeZone()).toLocalDate();
+        for (LocalDate day = from.atZone(recurringProgram.getTimeZone()).toLocalDate().minusDays(nbDaysBefore); !day.isAfter(lastDay); day = day.plusDays(1)) {
+            if ((recurringProgram.getDaysOfWeek() != null) && !recurringProgram.getDaysOfWeek().isEmpty() && !recurringProgram.getDaysOfWeek().contains(day.getDayOfWeek())) {
+                continue;
+            }
+            // REMARK: A local start time which doesn't exist on a DST change day is shifted by the length of the gap
+            Instant start = ZonedDateTime.of(day, recurringProgram.getLocalStartTime(), recurringProgram.getTimeZone()).toInstant();
+            Instant end = start.plusSeconds(recurringProgram.getDurationSeconds());
+            if (end.isAfter(from) && start.isBefore(to)) {
+                occurrences.add(ProgramDescriptorDTO.builder()
+                    .uuid(recurringProgram.getUuid())
+                    .title(recurringProgram.getTitle())
+                    .streamURL(recurringProgram.getStreamURL())
+                    .startTimeUTCEpochSec(start.getEpochSecond())
+                    .durationSeconds(recurringProgram.getDurationSeconds())
+                    .timeZone(recurringProgram.getTimeZone())
+                    .recorderSpecificParameters((recurringProgram.getRecorderSpecificParameters() != null) ? recurringProgram.getRecorderSpecificParameters() : Map.of())
+                    .build());
+            }
+        }
+        return occurrences;
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private static int getMaterializationWindowHours() {
+        return Math.max(Integer.getInteger("prt.rlalc.planning.materializationWindowHours", DEFAULT_MATERIALIZATION_WINDOW_HOURS), MATERIALIZATION_INTERVAL_HOURS + 1);
+    }
+
+    private void buildOccurrenceJobs(ProgramDescriptorDTO occurrence, Instant now, Map<JobDetail, Set<? extends Trigger>> triggersPerJob) throws JsonProcessingException {
+        // The jobs of the different occurrences of a Program are told apart by their start time
+        String occurrenceId = occurrence.getUuid().uuid() + "-" + occurrence.getStartTimeUTCEpochSec();
+        Instant start = Instant.ofEpochSecond(occurrence.getStartTimeUTCEpochSec());
+        Instant end = start.plusSeconds(occurrence.getDurationSeconds());
+        JobDataMap occurrenceJobData = programDescriptorRegistry.registerAndBuildJobData(occurrence);
+
+        // Pending state initialization at 00:00 local time of the day of the occurrence (or right now if already passed)
+        Instant occurrenceMidnight = start.atZone(occurrence.getTimeZone()).toLocalDate().atStartOfDay(occurrence.getTimeZone()).toInstant();
+        JobDetail pendingJobDetail = JobBuilder.newJob(MediaCapturePendingStateInitializationJob.class)
+            .withIdentity("pending-" + occurrenceId)
+            .usingJobData(occurrenceJobData)
+            .build();
+        Trigger pendingTrigger = TriggerBuilder.newTrigger()
+            .withIdentity("pending-trigger-" + occurrenceId)
+            .startAt(Date.from(occurrenceMidnight.isBefore(now) ? now : occurrenceMidnight))
+            .withPriority(Trigger.DEFAULT_PRIORITY + 1)    // Fired before the start of an occurrence already running, if both are due right now
+            .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+            .build();
+        triggersPerJob.put(pendingJobDetail, Set.of(pendingTrigger));
+
+        // With a continuous recording of the stations, the occurrence only needs its time range view
+        if (mediaRecorder.recordsStationsContinuously()) { return; }
+
+        // Start (right now, for what remains of it, if the occurrence has already started)
+        Instant startAt = start.isBefore(now) ? now : start;
+        Date startFireDate = MediaCaptureJob.computeStartFireTime(startAt, now, occurrence.getUuid().uuid());    // A few seconds before the start (pre-warm)
+        JobDetail startJobDetail = JobBuilder.newJob(MediaCaptureJob.class)
+            .withIdentity("capture-" + occurrenceId)
+            .usingJobData(occurrenceJobData)
+            .build();
+        Trigger startTrigger = TriggerBuilder.newTrigger()
+            .withIdentity("trigger-" + occurrenceId)
+            .startAt(startFireDate)
+            .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())    // A start missed (e.g. during a restart) is performed as soon as possible
+            .build();
+        triggersPerJob.put(startJobDetail, Set.of(startTrigger));
+
+        // Stop
+        JobDetail stopJobDetail = JobBuilder.newJob(MediaCaptureStopJob.class)
+            .withIdentity("stop-" + occurrenceId)
+            .usingJobData(occurrenceJobData)
+            .build();
+        Trigger stopTrigger = TriggerBuilder.newTrigger()
+            .withIdentity("stop-trigger-" + occurrenceId)
+            .startAt(Date.from(end))
+            .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+            .build();
+        triggersPerJob.put(stopJobDetail, Set.of(stopTrigger));
+    }
+
+}
@@ -1,8 +1,9 @@
 package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs;
 
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.MediaOutputRendition;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.ProgramDescriptorRegistry;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
-import com.prtlabs.utils.json.PrtJsonUtils;
 import jakarta.inject.Inject;
 import org.quartz.Job;
 import org.quartz.JobDataMap;
@@ -11,21 +12,44 @@ import org.quartz.JobExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Map;
 
 
 /**
  * Quartz job that executes a media capture task.
+ *
+ * It fires a few seconds before the start of the recording (the pre-warm, 'prt.rlalc.capture.prewarmSeconds', 5 by
+ * default), so that the recorder is connected and ready to write when the program starts (see computeStartFireTime()).
+ * Each Program adds its own jitter to the pre-warm ('prt.rlalc.capture.startJitterSeconds', up to 5 by default), so that
+ * the programs starting at the top of the hour don't all set up their recording in the same second.
  */
 public class MediaCaptureJob implements Job {
 
     private static final Logger logger = LoggerFactory.getLogger(MediaCaptureJob.class);
 
-    public  static final String KEY_PROGRAM_DESC_ASJSON = "programDescAsJson";
-    public  static final String KEY_DURATION_SECONDS    = "durationSeconds";
-    public  static final String KEY_DEBUG_PROGRAM_TITLE = "debug_programTitle";
+    public  static final String KEY_PROGRAM_ID                  = "programId";
+    public  static final String KEY_PROGRAM_DESC_ASJSON         = "programDescAsJson";
+    public  static final String KEY_PROGRAM_START_UTC_EPOCH_SEC = "programStartTimeUTCEpochSec";
+    public  static final String KEY_DURATION_SECONDS            = "durationSeconds";    // Adjusted duration of the jobs persisted by the previous versions (the duration is now computed when the job fires)
+    public  static final String KEY_DEBUG_PROGRAM_TITLE         = "debug_programTitle";
+
+    private static final long DEFAULT_PREWARM_SECONDS = 5;
+    private static final int DEFAULT_START_JITTER_SECONDS = 5;
 
     @Inject private IMediaRecorder mediaRecorder;
+    @Inject private ProgramDescriptorRegistry programDescriptorRegistry;
+
+
+    public MediaCaptureJob() {}
+
+    MediaCaptureJob(IMediaRecorder mediaRecorder, ProgramDescriptorRegistry programDescriptorRegistry) {
+        this.mediaRecorder = mediaRecorder;
+        this.programDescriptorRegistry = programDescriptorRegistry;
+    }
 
 
     @Override
@@ -33,21 +57,35 @@ public class MediaCaptureJob implements Job {
         JobDataMap dataMap = context.getJobDetail().getJobDataMap();
         String debugProgramTitle = dataMap.getString(KEY_DEBUG_PROGRAM_TITLE);
         try {
-            // Get the program descriptor from the job details
+            // Get the program descriptor from the registry (already parsed)
             // REMARK: It's a bad practice to pass the ProgramDescriptorDTO directly in the JobDataMap because of potential
-            //         serialization issues when using a persistent Job scheduler. This is why we go through a JSON representation
-            //         and the optional adjusted duration
-            ProgramDescriptorDTO programDescriptor = PrtJsonUtils.getFasterXmlObjectMapper().readValue(dataMap.getString(KEY_PROGRAM_DESC_ASJSON), ProgramDescriptorDTO.class);
-            // Update its duration if an "adjusted duration" is present (which is the case when the program has already started and the recording needs to be shorter)
-            if (dataMap.containsKey(KEY_DURATION_SECONDS)) {
-                long adjustedDurationSeconds = dataMap.getLong(KEY_DURATION_SECONDS);
-                programDescriptor = programDescriptor.toBuilder()    // Adjust the duration in the ProgramDescriptor
-                    .durationSeconds(adjustedDurationSeconds)
+            //         serialization issues when using a persistent Job scheduler. This is why the JobDataMap holds the ProgramId,
+            //         a JSON representation (only parsed if the Program isn't registered, ie after a restart) and its start time
+            ProgramDescriptorDTO programDescriptor = programDescriptorRegistry.resolve(dataMap);
+
+            // The recording starts with the program, or right now if the job fires late (the program has already started
+            // when it's scheduled, or its start was missed while the service was restarting), and always ends with the program
+            // REMARK: The scheduled fire time of the trigger can't tell how late the job is: with the "fire now" misfire
+            //         instruction of the start triggers, it's the time at which the misfire has been handled
+            Instant now = Instant.now();
+            Instant programStart = Instant.ofEpochSecond(dataMap.containsKey(KEY_PROGRAM_START_UTC_EPOCH_SEC) ? dataMap.getLong(KEY_PROGRAM_START_UTC_EPOCH_SEC) : programDescriptor.getStartTimeUTCEpochSec());
+            Instant programEnd = programStart.plusSeconds(programDescriptor.getDurationSeconds());
+            Instant recordingStart = programStart.isAfter(now) ? programStart : now;
+            long remainingDurationSeconds = Duration.between(recordingStart, programEnd).getSeconds();
+            if (remainingDurationSeconds <= 0) {
+                logger.warn("Skipping media capture for program [{}] as its start fired after its end=[{}]", programDescriptor.getTitle(), programEnd);
+                return;
+            }
+            if (remainingDurationSeconds < programDescriptor.getDurationSeconds()) {
+                logger.info("Media capture for program [{}] fired [{}]secs after its start. Adjusting its durationSeconds to [{}]", programDescriptor.getTitle(), Duration.between(programStart, now).getSeconds(), remainingDurationSeconds);
+                programDescriptor = programDescriptor.toBuilder()
+                    .durationSeconds(remainingDurationSeconds)
                     .build();
             }
 
-            // Start recording
-            mediaRecorder.startRecording(programDescriptor, new HashMap<>());
+            // Start recording (with the renditions defined in the recorderSpecificParameters of the program, if any)
+            Map<String, String> recorderSpecificParameters = (programDescriptor.getRecorderSpecificParameters() != null) ? programDescriptor.getRecorderSpecificParameters() : new HashMap<>();
+            mediaRecorder.startRecording(programDescriptor, MediaOutputRendition.fromRecorderSpecificParameters(recorderSpecificParameters), recorderSpecificParameters, recordingStart);
 
             // Store the recording ID in the static map
             logger.info("Media capture started successfully for program [{}]", programDescriptor.getTitle());
@@ -57,4 +95,25 @@ public class MediaCaptureJob implements Job {
         }
     }
 
+    /**
+     * Compute when the start job of a recording must fire: prewarmSeconds, plus the jitter of the Program, before the start
+     * of the recording (or right now if it's closer). The job itself starts the recording at the start of the program
+     * (see KEY_PROGRAM_START_UTC_EPOCH_SEC).
+     *
+     * REMARK: The jitter is derived from the ProgramId (and not random) so that the job is the same every time it's
+     *         scheduled (the jobs persisted before a restart are kept as is)
+     */
+    public static Date computeStartFireTime(Instant recordingStart, Instant now, String programId) {
+        long prewarmSeconds = Long.getLong("prt.rlalc.capture.prewarmSeconds", DEFAULT_PREWARM_SECONDS) + computeStartJitterSeconds(programId);
+        prewarmSeconds = Math.min(prewarmSeconds, Duration.between(now, recordingStart).getSeconds());
+        if (prewarmSeconds <= 0) { return Date.from(recordingStart); }
+        return Date.from(recordingStart.minusSeconds(prewarmSeconds));
+    }
+
+    private static long computeStartJitterSeconds(String programId) {
+        int maxStartJitterSeconds = Integer.getInteger("prt.rlalc.capture.startJitterSeconds", DEFAULT_START_JITTER_SECONDS);
+        if ((programId == null) || (maxStartJitterSeconds <= 0)) { return 0; }
+        return Math.floorMod(programId.hashCode(), maxStartJitterSeconds + 1);
+    }
+
 }
@@ -1,9 +1,8 @@
 package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.ProgramDescriptorRegistry;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
-import com.prtlabs.utils.json.PrtJsonUtils;
 import jakarta.inject.Inject;
 import org.quartz.Job;
 import org.quartz.JobDataMap;
@@ -17,17 +16,15 @@ public class MediaCapturePendingStateInitializationJob implements Job {
 
     private static final Logger logger = LoggerFactory.getLogger(MediaCapturePendingStateInitializationJob.class);
 
-    private static final ObjectMapper mapper = PrtJsonUtils.getFasterXmlObjectMapper();
-
     @Inject private IMediaRecorder mediaRecorder;
+    @Inject private ProgramDescriptorRegistry programDescriptorRegistry;
 
 
     @Override
     public void execute(JobExecutionContext context) throws JobExecutionException {
         try {
             JobDataMap dataMap = context.getMergedJobDataMap();
-            String programJson = dataMap.getString(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON);
-            ProgramDescriptorDTO program = new ObjectMapper().readValue(programJson, ProgramDescriptorDTO.class);
+            ProgramDescriptorDTO program = programDescriptorRegistry.resolve(dataMap);
 
             logger.info("Marking program [{}] (UUID={}) as PENDING at 00:00 in timeZone [{}]", program.getTitle(), program.getUuid(), program.getTimeZone());
 
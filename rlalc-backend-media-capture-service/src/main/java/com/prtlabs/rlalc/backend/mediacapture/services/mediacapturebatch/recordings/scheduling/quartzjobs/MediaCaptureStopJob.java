@@ -1,8 +1,8 @@
 package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs;
 
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.ProgramDescriptorRegistry;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
-import com.prtlabs.utils.json.PrtJsonUtils;
 import jakarta.inject.Inject;
 import org.quartz.Job;
 import org.quartz.JobDataMap;
@@ -21,14 +21,17 @@ public class MediaCaptureStopJob implements Job {
     @Inject
     private IMediaRecorder mediaRecorder;
 
+    @Inject
+    private ProgramDescriptorRegistry programDescriptorRegistry;
+
 
     @Override
     public void execute(JobExecutionContext context) throws JobExecutionException {
         JobDataMap dataMap = context.getJobDetail().getJobDataMap();
         String debugProgramTitle = dataMap.getString(MediaCaptureJob.KEY_DEBUG_PROGRAM_TITLE);
         try {
-            // Get the program descriptor from the job details
-            ProgramDescriptorDTO programDescriptor = PrtJsonUtils.getFasterXmlObjectMapper().readValue(dataMap.getString(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON), ProgramDescriptorDTO.class);
+            // Get the program descriptor from the registry (already parsed)
+            ProgramDescriptorDTO programDescriptor = programDescriptorRegistry.resolve(dataMap);
             // Stop the recording for this program
             logger.info("Stopping media capture for program [{}] with UUID [{}]", programDescriptor.getTitle(), programDescriptor.getUuid());
             // Stop the recording
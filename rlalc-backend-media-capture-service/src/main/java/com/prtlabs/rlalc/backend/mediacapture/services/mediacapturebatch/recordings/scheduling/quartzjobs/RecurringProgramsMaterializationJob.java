@@ -0,0 +1,30 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.RecurringProgramsPlanner;
+import jakarta.inject.Inject;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+
+/**
+ * Quartz job that extends the window of the materialized occurrences of the recurring Programs (there is a single such
+ * job, run every hour, see RecurringProgramsPlanner).
+ */
+@DisallowConcurrentExecution
+public class RecurringProgramsMaterializationJob implements Job {
+
+    @Inject private RecurringProgramsPlanner recurringProgramsPlanner;
+
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        try {
+            recurringProgramsPlanner.materialize();
+        } catch (Exception e) {
+            throw new JobExecutionException("Failed to materialize the occurrences of the recurring programs", e);
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.continuous.ContinuousStationRecorder;
+import jakarta.inject.Inject;
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Quartz job that starts the 24/7 recording of a station (there is one such job per station, instead of the start/stop
+ * jobs of each Program, when the ContinuousStationRecorder is used).
+ */
+public class StationContinuousCaptureJob implements Job {
+
+    private static final Logger logger = LoggerFactory.getLogger(StationContinuousCaptureJob.class);
+
+    public static final String KEY_STATION_STREAM_URL = "stationStreamURL";
+
+    @Inject private ContinuousStationRecorder continuousStationRecorder;
+
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        JobDataMap dataMap = context.getJobDetail().getJobDataMap();
+        String streamURL = dataMap.getString(KEY_STATION_STREAM_URL);
+        try {
+            logger.info("Starting the continuous recording of station [{}]", streamURL);
+            continuousStationRecorder.startStationCapture(streamURL);
+        } catch (Exception e) {
+            logger.error("Failed to start the continuous recording of station [{}] with message=[{}]", streamURL, e.getMessage(), e);
+            throw new JobExecutionException("Failed to start the continuous recording of a station", e);
+        }
+    }
+
+}
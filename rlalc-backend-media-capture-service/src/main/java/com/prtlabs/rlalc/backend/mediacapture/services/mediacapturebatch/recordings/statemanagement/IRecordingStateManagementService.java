@@ -4,7 +4,10 @@ import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface IRecordingStateManagementService {
@@ -15,7 +18,7 @@ public interface IRecordingStateManagementService {
      * @param outputDir the directory where the recording chunks are stored
      * @param status    the current status of the recording
      * @param errors    the list of errors (if any)
-     * @param chunkList the list of chunk files
+     * @param chunkList the list of chunk files (null to keep the chunks already recorded, e.g. when only the status or the errors change)
      * @return true if the manifest was successfully created/updated, false otherwise
      */
     public boolean createOrUpdateManifest(String outputDir, RecordingStatus.Status status, List<String> errors, List<File> chunkList);
@@ -52,4 +55,28 @@ public interface IRecordingStateManagementService {
      */
     public RecordingStatus readRecordingState(String outputDir);
 
+    /**
+     * Reads the states of several recordings at once (the implementations backed by a database do it with a single query)
+     *
+     * @param outputDirs the directories where the chunks of the recordings are stored
+     * @return the RecordingStatus per outputDir (the recordings without any state are missing)
+     */
+    public default Map<String, RecordingStatus> readRecordingStates(Collection<String> outputDirs) {
+        Map<String, RecordingStatus> statePerOutputDir = new HashMap<>();
+        for (String outputDir : outputDirs) {
+            try {
+                RecordingStatus status = readRecordingState(outputDir);
+                if (status != null) {
+                    statePerOutputDir.put(outputDir, status);
+                }
+            } catch (Exception e) {
+                // The state of the other recordings can still be read
+                RecordingStatus errorStatus = new RecordingStatus(RecordingStatus.Status.PARTIAL_FAILURE);
+                errorStatus.addError("Failed to read manifest: " + e.getMessage());
+                statePerOutputDir.put(outputDir, errorStatus);
+            }
+        }
+        return statePerOutputDir;
+    }
+
 }
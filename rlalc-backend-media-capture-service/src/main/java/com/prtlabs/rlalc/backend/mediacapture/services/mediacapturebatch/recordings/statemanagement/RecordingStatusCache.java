@@ -0,0 +1,80 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement;
+
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Write-through cache of the RecordingStatus of each recording (identified by its outputDir), updated by the recorders
+ * on every transition (after the state has been written into the IRecordingStateManagementService), so that the statuses
+ * can be read without any I/O.
+ *
+ * The statuses are kept in an immutable map replaced on every update (the updates are rare, the reads frequent): a
+ * reader always gets a consistent snapshot of all the recordings, without any locking.
+ */
+public class RecordingStatusCache {
+
+    // REMARK: The snapshot is static because the services are also instantiated by the HK2 ServiceLocator of the Jersey
+    //         servlet, and the recorders and the REST API must see the same statuses
+    private static volatile Map<String, RecordingStatus> statusPerOutputDir = Map.of();
+
+
+    /**
+     * @return the statuses of all the cached recordings, per outputDir (immutable, never modified afterwards)
+     */
+    public Map<String, RecordingStatus> getSnapshot() {
+        return statusPerOutputDir;
+    }
+
+    /**
+     * Cache the status of a recording
+     */
+    public void put(String outputDir, RecordingStatus status) {
+        putAll(Map.of(outputDir, status));
+    }
+
+    /**
+     * Cache the statuses of several recordings at once (they are visible to the readers at the same time)
+     */
+    public void putAll(Map<String, RecordingStatus> statuses) {
+        if (statuses.isEmpty()) { return; }
+        synchronized (RecordingStatusCache.class) {
+            Map<String, RecordingStatus> newStatusPerOutputDir = new HashMap<>(statusPerOutputDir);
+            statuses.forEach((outputDir, status) -> newStatusPerOutputDir.put(outputDir, immutableCopyOf(status)));
+            statusPerOutputDir = Map.copyOf(newStatusPerOutputDir);
+        }
+    }
+
+    /**
+     * Forget the status of a recording (it will be read again from the IRecordingStateManagementService)
+     */
+    public void invalidate(String outputDir) {
+        synchronized (RecordingStatusCache.class) {
+            if (!statusPerOutputDir.containsKey(outputDir)) { return; }
+            Map<String, RecordingStatus> newStatusPerOutputDir = new HashMap<>(statusPerOutputDir);
+            newStatusPerOutputDir.remove(outputDir);
+            statusPerOutputDir = Map.copyOf(newStatusPerOutputDir);
+        }
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private static RecordingStatus immutableCopyOf(RecordingStatus status) {
+        return new RecordingStatus(status.getStatus(),
+            (status.getErrors() != null) ? List.copyOf(status.getErrors()) : List.of(),
+            (status.getChunkList() != null) ? List.copyOf(status.getChunkList()) : List.of());
+    }
+
+}
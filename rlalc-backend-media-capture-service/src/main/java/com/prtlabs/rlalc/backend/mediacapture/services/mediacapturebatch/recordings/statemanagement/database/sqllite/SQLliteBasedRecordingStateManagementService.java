@@ -1,34 +1,387 @@
 package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.database.sqllite;
 
 import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndex;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndexService;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.IRecordingStateManagementService;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
+import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.util.List;
-import java.util.Optional;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
+/**
+ * IRecordingStateManagementService keeping the recording states in an embedded SQLite database (instead of one manifest
+ * file per recording): status, errors, chunks (path, start, duration, size) and the history of the status changes.
+ *
+ * The database is in WAL mode, so that the reads never wait for the writes. All the writes go through a single writer
+ * thread which commits them by batches (all the writes queued while the previous batch was being committed are committed
+ * together), so that the recordings ending at the same time (e.g. all the programs of the top of the hour) don't each
+ * pay for a transaction.
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.stateStore.sqliteFile : path of the database file (default '<baseDir>/radiolivealacarte/datastore/state/rlalc-recordings.db')
+ */
 public class SQLliteBasedRecordingStateManagementService implements IRecordingStateManagementService {
 
+    private static final Logger logger = LoggerFactory.getLogger(SQLliteBasedRecordingStateManagementService.class);
+
+    private static final String DEFAULT_DATABASE_FILE = System.getProperty("prt.rlalc.baseDir", "/opt/prtlabs") + "/radiolivealacarte/datastore/state/rlalc-recordings.db";
+    private static final int MAX_WRITE_BATCH_SIZE = 500;
+    private static final long WRITE_TIMEOUT_SECONDS = 10;
+
+    // The databases are static because the services are also instantiated by the HK2 ServiceLocator of the Jersey servlet,
+    // and there must be a single writer per database file for the whole JVM
+    private static final Map<Path, Database> databasePerFile = new ConcurrentHashMap<>();
+
+    @Inject private RecordingChunkIndexService recordingChunkIndexService;
+
+    private final Path databaseFile;
+
+
+    public SQLliteBasedRecordingStateManagementService() {
+        this(Paths.get(System.getProperty("prt.rlalc.stateStore.sqliteFile", DEFAULT_DATABASE_FILE)));
+    }
+
+    public SQLliteBasedRecordingStateManagementService(Path databaseFile) {
+        this.databaseFile = databaseFile.toAbsolutePath().normalize();
+    }
+
     @Override
     public boolean createOrUpdateManifest(String outputDir, RecordingStatus.Status status, List<String> errors, List<File> chunkList) {
-        return false;
+        return writeRecordingState(outputDir, null, status, errors, chunkList);
     }
 
     @Override
     public void updateStatus(ProgramDescriptorDTO programDescriptor, Optional<Long> ffmpegProcessId, Optional<Integer> ffmpegProcessExitValue, String outputDirForRecordingChunks) {
-
+        updateStatus(programDescriptor, ffmpegProcessId, ffmpegProcessExitValue, outputDirForRecordingChunks, null);
     }
 
     @Override
     public void updateStatus(ProgramDescriptorDTO programDescriptor, Optional<Long> ffmpegProcessId, Optional<Integer> ffmpegProcessExitValue, String outputDirForRecordingChunks, List<String> ffmpegStdoutStdErrCapture) {
+        // Same status computation as the manifest files
+        RecordingStatus.Status status;
+        if (ffmpegProcessExitValue.isPresent()) {
+            status = (ffmpegProcessExitValue.get()==0) ? RecordingStatus.Status.COMPLETED : RecordingStatus.Status.PARTIAL_FAILURE;
+        } else {
+            status = (ffmpegProcessId.isPresent()) ? RecordingStatus.Status.ONGOING : RecordingStatus.Status.PENDING;
+        }
 
+        // The chunks come from the index of the recording directory (rebuilt once when the recording is over)
+        RecordingChunkIndex chunkIndex = ffmpegProcessExitValue.isPresent() ? recordingChunkIndexService.reloadIndex(outputDirForRecordingChunks) : recordingChunkIndexService.getIndex(outputDirForRecordingChunks);
+        String programId = (programDescriptor.getUuid() != null) ? programDescriptor.getUuid().uuid() : null;
+        writeRecordingState(outputDirForRecordingChunks, programId, status, ffmpegStdoutStdErrCapture, chunkIndex.getChunks());
     }
 
     @Override
     public RecordingStatus readRecordingState(String outputDir) {
-        return null;
+        RecordingStatus status = readRecordingStates(List.of(outputDir)).get(outputDir);
+        return (status != null) ? status : new RecordingStatus(RecordingStatus.Status.PENDING);
+    }
+
+    /**
+     * Reads the states of all the recordings with one query per table (whatever the number of recordings)
+     */
+    @Override
+    public Map<String, RecordingStatus> readRecordingStates(Collection<String> outputDirs) {
+        Map<String, RecordingStatus> statePerOutputDir = new HashMap<>();
+        if (outputDirs.isEmpty()) { return statePerOutputDir; }
+        try {
+            getDatabase().read(connection -> {
+                String outputDirsPlaceholders = String.join(",", Collections.nCopies(outputDirs.size(), "?"));
+                try (PreparedStatement statement = connection.prepareStatement("SELECT output_dir, status FROM recording WHERE output_dir IN (" + outputDirsPlaceholders + ")")) {
+                    bindStrings(statement, outputDirs);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            statePerOutputDir.put(resultSet.getString(1), new RecordingStatus(RecordingStatus.Status.valueOf(resultSet.getString(2)), new ArrayList<>(), new ArrayList<>()));
+                        }
+                    }
+                }
+                try (PreparedStatement statement = connection.prepareStatement("SELECT output_dir, message FROM recording_error WHERE output_dir IN (" + outputDirsPlaceholders + ") ORDER BY output_dir, position")) {
+                    bindStrings(statement, outputDirs);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            RecordingStatus status = statePerOutputDir.get(resultSet.getString(1));
+                            if (status != null) { status.getErrors().add(resultSet.getString(2)); }
+                        }
+                    }
+                }
+                try (PreparedStatement statement = connection.prepareStatement("SELECT output_dir, path FROM recording_chunk WHERE output_dir IN (" + outputDirsPlaceholders + ") ORDER BY output_dir, start_epoch_ms")) {
+                    bindStrings(statement, outputDirs);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            RecordingStatus status = statePerOutputDir.get(resultSet.getString(1));
+                            if (status != null) { status.getChunkList().add(new File(resultSet.getString(2))); }
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_012_FailedToAccessRecordingStateStore.name(), "Failed to read the recording states from=["+databaseFile+"] with message=["+e.getMessage()+"]", e);
+        }
+        return statePerOutputDir;
+    }
+
+    /**
+     * @return the successive statuses of a recording (oldest first), as kept across restarts
+     */
+    public List<RecordingStatus.Status> readStatusHistory(String outputDir) {
+        try {
+            return getDatabase().read(connection -> {
+                List<RecordingStatus.Status> history = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement("SELECT status FROM recording_status_history WHERE output_dir = ? ORDER BY id")) {
+                    statement.setString(1, outputDir);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            history.add(RecordingStatus.Status.valueOf(resultSet.getString(1)));
+                        }
+                    }
+                }
+                return history;
+            });
+        } catch (SQLException e) {
+            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_012_FailedToAccessRecordingStateStore.name(), "Failed to read the status history from=["+databaseFile+"] with message=["+e.getMessage()+"]", e);
+        }
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private Database getDatabase() {
+        return databasePerFile.computeIfAbsent(databaseFile, Database::open);
+    }
+
+    /**
+     * Queue the write of the state of a recording, and wait for it to be committed (with the other writes of its batch)
+     */
+    private boolean writeRecordingState(String outputDir, String programId, RecordingStatus.Status status, List<String> errors, List<File> chunkList) {
+        long nowEpochMs = Instant.now().toEpochMilli();
+        CompletableFuture<Boolean> committed = getDatabase().write(connection -> {
+            // The recording itself (the ProgramId is only known from the status updates, and is kept once known)
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO recording(output_dir, program_id, status, updated_epoch_ms) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT(output_dir) DO UPDATE SET program_id = COALESCE(excluded.program_id, program_id), status = excluded.status, updated_epoch_ms = excluded.updated_epoch_ms")) {
+                statement.setString(1, outputDir);
+                statement.setString(2, programId);
+                statement.setString(3, status.name());
+                statement.setLong(4, nowEpochMs);
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO recording_status_history(output_dir, status, at_epoch_ms) VALUES (?, ?, ?)")) {
+                statement.setString(1, outputDir);
+                statement.setString(2, status.name());
+                statement.setLong(3, nowEpochMs);
+                statement.executeUpdate();
+            }
+
+            // Its errors and chunks are replaced (the chunks are kept as is when they are not given)
+            deleteRowsOfRecording(connection, "recording_error", outputDir);
+            if (errors != null) {
+                try (PreparedStatement statement = connection.prepareStatement("INSERT INTO recording_error(output_dir, position, message) VALUES (?, ?, ?)")) {
+                    for (int i = 0; i < errors.size(); i++) {
+                        statement.setString(1, outputDir);
+                        statement.setInt(2, i);
+                        statement.setString(3, errors.get(i));
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            }
+            if (chunkList != null) {
+                deleteRowsOfRecording(connection, "recording_chunk", outputDir);
+                try (PreparedStatement statement = connection.prepareStatement("INSERT OR REPLACE INTO recording_chunk(output_dir, path, start_epoch_ms, duration_ms, size_bytes) VALUES (?, ?, ?, ?, ?)")) {
+                    for (File chunk : chunkList) {
+                        Instant chunkStart = RecordingChunkIndex.parseChunkStart(chunk.getName(), ZoneId.systemDefault());
+                        statement.setString(1, outputDir);
+                        statement.setString(2, chunk.getPath());
+                        statement.setLong(3, (chunkStart != null) ? chunkStart.toEpochMilli() : 0);
+                        statement.setLong(4, RecordingChunkIndex.CHUNK_DURATION.toMillis());
+                        statement.setLong(5, chunk.length());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            }
+        });
+
+        try {
+            return committed.get(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            logger.error("Failed to write the state of recording=[{}] with message=[{}]", outputDir, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static void deleteRowsOfRecording(Connection connection, String table, String outputDir) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + table + " WHERE output_dir = ?")) {
+            statement.setString(1, outputDir);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void bindStrings(PreparedStatement statement, Collection<String> values) throws SQLException {
+        int index = 1;
+        for (String value : values) {
+            statement.setString(index++, value);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWrite {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface SqlRead<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    private static record QueuedWrite(SqlWrite sqlWrite, CompletableFuture<Boolean> committed) {}
+
+    /**
+     * A database file, with its writer thread (and its write connection) and its read connection
+     */
+    private static final class Database {
+        private final Path databaseFile;
+        private final Connection writeConnection;
+        private final Connection readConnection;
+        private final BlockingQueue<QueuedWrite> writeQueue = new LinkedBlockingQueue<>();
+
+        private Database(Path databaseFile, Connection writeConnection, Connection readConnection) {
+            this.databaseFile = databaseFile;
+            this.writeConnection = writeConnection;
+            this.readConnection = readConnection;
+        }
+
+        private static Database open(Path databaseFile) {
+            try {
+                Files.createDirectories(databaseFile.getParent());
+                String jdbcURL = "jdbc:sqlite:" + databaseFile;
+                Connection writeConnection = DriverManager.getConnection(jdbcURL);
+                try (Statement statement = writeConnection.createStatement()) {
+                    statement.execute("PRAGMA journal_mode=WAL");
+                    statement.execute("PRAGMA synchronous=NORMAL");    // In WAL mode, a power loss can only lose the last commits (never corrupt the database)
+                    statement.execute("PRAGMA busy_timeout=5000");
+                    statement.execute("CREATE TABLE IF NOT EXISTS recording(output_dir TEXT PRIMARY KEY, program_id TEXT, status TEXT NOT NULL, updated_epoch_ms INTEGER NOT NULL)");
+                    statement.execute("CREATE INDEX IF NOT EXISTS recording_by_program_id ON recording(program_id)");
+                    statement.execute("CREATE TABLE IF NOT EXISTS recording_error(output_dir TEXT NOT NULL, position INTEGER NOT NULL, message TEXT, PRIMARY KEY(output_dir, position))");
+                    statement.execute("CREATE TABLE IF NOT EXISTS recording_chunk(output_dir TEXT NOT NULL, path TEXT NOT NULL, start_epoch_ms INTEGER NOT NULL, duration_ms INTEGER NOT NULL, size_bytes INTEGER NOT NULL, PRIMARY KEY(output_dir, path))");
+                    statement.execute("CREATE INDEX IF NOT EXISTS recording_chunk_by_start ON recording_chunk(output_dir, start_epoch_ms)");
+                    statement.execute("CREATE TABLE IF NOT EXISTS recording_status_history(id INTEGER PRIMARY KEY AUTOINCREMENT, output_dir TEXT NOT NULL, status TEXT NOT NULL, at_epoch_ms INTEGER NOT NULL)");
+                    statement.execute("CREATE INDEX IF NOT EXISTS recording_status_history_by_output_dir ON recording_status_history(output_dir, id)");
+                }
+                writeConnection.setAutoCommit(false);
+                Connection readConnection = DriverManager.getConnection(jdbcURL);
+                try (Statement statement = readConnection.createStatement()) {
+                    statement.execute("PRAGMA busy_timeout=5000");
+                }
+
+                Database database = new Database(databaseFile, writeConnection, readConnection);
+                Thread writerThread = new Thread(database::writeBatches, "rlalc-state-store-writer");
+                writerThread.setDaemon(true);
+                writerThread.start();
+                logger.info("Recording states stored in the SQLite database=[{}]", databaseFile);
+                return database;
+            } catch (IOException | SQLException e) {
+                throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_012_FailedToAccessRecordingStateStore.name(), "Failed to open the recording state database=["+databaseFile+"] with message=["+e.getMessage()+"]", e);
+            }
+        }
+
+        private CompletableFuture<Boolean> write(SqlWrite sqlWrite) {
+            QueuedWrite queuedWrite = new QueuedWrite(sqlWrite, new CompletableFuture<>());
+            writeQueue.add(queuedWrite);
+            return queuedWrite.committed();
+        }
+
+        private <T> T read(SqlRead<T> sqlRead) throws SQLException {
+            // REMARK: A single read connection is enough: with WAL, the reads don't wait for the writer and are fast
+            synchronized (readConnection) {
+                return sqlRead.apply(readConnection);
+            }
+        }
+
+        /**
+         * The loop of the writer thread: each batch is made of all the writes queued while the previous one was committed.
+         * Whatever a write throws (an SQLException or e.g. a NullPointerException), only its own future fails and the loop goes on.
+         */
+        private void writeBatches() {
+            List<QueuedWrite> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(writeQueue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                writeQueue.drainTo(batch, MAX_WRITE_BATCH_SIZE - 1);
+                try {
+                    for (QueuedWrite queuedWrite : batch) {
+                        queuedWrite.sqlWrite().apply(writeConnection);
+                    }
+                    writeConnection.commit();
+                    batch.forEach(queuedWrite -> queuedWrite.committed().complete(true));
+                } catch (SQLException | RuntimeException e) {
+                    // The writes are replayed one by one, so that a failing write doesn't fail the others of its batch
+                    rollback();
+                    logger.warn("Failed to commit a batch of [{}] writes into=[{}] with message=[{}]. Replaying them one by one", batch.size(), databaseFile, e.getMessage());
+                    for (QueuedWrite queuedWrite : batch) {
+                        try {
+                            queuedWrite.sqlWrite().apply(writeConnection);
+                            writeConnection.commit();
+                            queuedWrite.committed().complete(true);
+                        } catch (SQLException | RuntimeException writeException) {
+                            rollback();
+                            queuedWrite.committed().completeExceptionally(writeException);
+                        }
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void rollback() {
+            try {
+                writeConnection.rollback();
+            } catch (SQLException e) {
+                logger.error("Failed to rollback a write into=[{}] with message=[{}]", databaseFile, e.getMessage(), e);
+            }
+        }
     }
 
 }
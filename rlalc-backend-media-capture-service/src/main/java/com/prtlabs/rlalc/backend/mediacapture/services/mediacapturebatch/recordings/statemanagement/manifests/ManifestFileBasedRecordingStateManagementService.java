@@ -2,80 +2,126 @@ package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.record
 
 import com.fasterxml.jackson.core.util.DefaultIndenter;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndexService;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
-import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
-import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
 import com.prtlabs.utils.json.PrtJsonUtils;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.IRecordingStateManagementService;
 
+import jakarta.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 
 /**
  * Utility class for handling recording manifest files.
+ *
+ * The state of a recording is kept in two files of its storage directory:
+ *   - 'recording-manifest.json': a snapshot of the state (status, errors, chunk list)
+ *   - 'recording-manifest.journal.jsonl': an append-only journal of the changes made since the snapshot (one JSON object
+ *     per line: a status transition, a new or removed chunk, the new errors)
+ * An update only appends its changes to the journal, so its cost doesn't grow with the length of the recording. The
+ * journal is compacted into a new snapshot when it gets long and when the recording is over. The snapshot is replaced
+ * atomically and the journal is replayed over it, so a crash can at most lose the last (partially written) change.
+ *
+ * The states of the ongoing recordings are kept in memory. The state of a recording is evicted when the recording is
+ * over (its files are then authoritative), and the states of the recordings that are over are loaded from the files
+ * each time they're needed, so that the memory doesn't grow with the history of the recordings.
  */
 public class ManifestFileBasedRecordingStateManagementService implements IRecordingStateManagementService {
 
 
     private static final Logger logger = LoggerFactory.getLogger(ManifestFileBasedRecordingStateManagementService.class);
     private static final String MANIFEST_FILENAME = "recording-manifest.json";
+    private static final String JOURNAL_FILENAME  = "recording-manifest.journal.jsonl";
+    private static final int MAX_JOURNAL_ENTRIES_BEFORE_COMPACTION = 500;
     private static final ObjectMapper objectMapper = PrtJsonUtils.getFasterXmlObjectMapper();
 
+    // The states are static because the services are also instantiated by the HK2 ServiceLocator of the Jersey servlet,
+    // and all the instances must append to the same journals (only the states of the ongoing recordings are kept)
+    private static final Map<Path, ManifestState> manifestStatePerOutputDir = new ConcurrentHashMap<>();
+
+    @Inject private RecordingChunkIndexService recordingChunkIndexService;
+
     /**
      * Creates or updates the manifest file for a recording.
      *
      * @param outputDir the directory where the recording chunks are stored
      * @param status    the current status of the recording
      * @param errors    the list of errors (if any)
-     * @param chunkList the list of chunk files
+     * @param chunkList the list of chunk files (null to keep the chunks already recorded)
      * @return true if the manifest was successfully created/updated, false otherwise
      */
     public boolean createOrUpdateManifest(String outputDir, RecordingStatus.Status status, List<String> errors, List<File> chunkList) {
         try {
-            Path manifestPath = Paths.get(outputDir, MANIFEST_FILENAME);
-
-            // Create the JSON object
-            ObjectNode rootNode = objectMapper.createObjectNode();
-            rootNode.put("status", status.toString().toLowerCase());
+            ManifestState manifestState = getManifestState(outputDir);
+            synchronized (manifestState) {
+                if (manifestState.evicted) {
+                    return createOrUpdateManifest(outputDir, status, errors, chunkList);    // The recording has just ended: its state is reloaded from its files
+                }
 
-            // Add errors if present
-            if (errors != null && !errors.isEmpty()) {
-                ArrayNode errorsNode = rootNode.putArray("errors");
-                for (String error : errors) {
-                    errorsNode.add(error);
+                // Compute the changes
+                List<ObjectNode> journalEntries = new ArrayList<>();
+                if (status != manifestState.status) {
+                    journalEntries.add(objectMapper.createObjectNode().put("status", status.toString().toLowerCase()));
+                }
+                List<String> newErrors = (errors != null) ? errors : List.of();
+                if (!newErrors.equals(manifestState.errors)) {
+                    ArrayNode errorsNode = objectMapper.createObjectNode().putArray("errors");
+                    newErrors.forEach(errorsNode::add);
+                    journalEntries.add((ObjectNode) objectMapper.createObjectNode().set("errors", errorsNode));
+                }
+                if (chunkList != null) {    // Else the chunks are unchanged
+                    Set<String> newChunkPaths = new LinkedHashSet<>();
+                    chunkList.forEach(chunk -> newChunkPaths.add(chunk.getPath()));
+                    for (String chunkPath : newChunkPaths) {
+                        if (!manifestState.chunkPaths.contains(chunkPath)) { journalEntries.add(objectMapper.createObjectNode().put("chunk", chunkPath)); }
+                    }
+                    for (String chunkPath : manifestState.chunkPaths) {
+                        if (!newChunkPaths.contains(chunkPath)) { journalEntries.add(objectMapper.createObjectNode().put("chunkRemoved", chunkPath)); }
+                    }
                 }
-            }
 
-            // Add chunk list
-            ArrayNode chunksNode = rootNode.putArray("chunkList");
-            if (chunkList != null) {
-                for (File chunk : chunkList) {
-                    chunksNode.add(chunk.getPath());
+                // Record them
+                if (!journalEntries.isEmpty()) {
+                    if (manifestState.nbJournalEntries == 0) {
+                        manifestState.journalStartsOnNewLine = true;
+                    }
+                    appendToJournal(manifestState, journalEntries);
+                    journalEntries.forEach(manifestState::apply);
+                }
+                boolean recordingIsOver = manifestState.isRecordingOver();
+                if (!Files.exists(manifestState.outputDir.resolve(MANIFEST_FILENAME)) || (manifestState.nbJournalEntries > 0 && recordingIsOver) || (manifestState.nbJournalEntries >= MAX_JOURNAL_ENTRIES_BEFORE_COMPACTION)) {
+                    compact(manifestState);
+                }
+                if (recordingIsOver) {
+                    manifestState.evicted = true;
+                    manifestStatePerOutputDir.remove(manifestState.outputDir, manifestState);
                 }
             }
-
-            // Write to file with pretty printing
-            objectMapper.writer(new DefaultPrettyPrinter().withArrayIndenter(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE))
-                .writeValue(manifestPath.toFile(), rootNode);
-
-
             return true;
         } catch (IOException e) {
             logger.error("Failed to create or update manifest file in {}: {}", outputDir, e.getMessage(), e);
@@ -92,47 +138,18 @@ public class ManifestFileBasedRecordingStateManagementService implements IRecord
     @Override
     public RecordingStatus readRecordingState(String outputDir) {
         try {
-            Path manifestPath = Paths.get(outputDir, MANIFEST_FILENAME);
-
             // If the manifest doesn't exist, return a default status
-            if (!Files.exists(manifestPath)) {
+            Path outputDirPath = Paths.get(outputDir).toAbsolutePath().normalize();
+            if (!manifestStatePerOutputDir.containsKey(outputDirPath) && !Files.exists(outputDirPath.resolve(MANIFEST_FILENAME)) && !Files.exists(outputDirPath.resolve(JOURNAL_FILENAME))) {
                 logger.warn("Manifest file does not exist in {}", outputDir);
                 return new RecordingStatus(RecordingStatus.Status.PENDING);
             }
 
-            // Read the manifest file
-            ObjectNode rootNode = (ObjectNode) objectMapper.readTree(manifestPath.toFile());
-
-            // Parse status
-            RecordingStatus.Status status = RecordingStatus.Status.PENDING;
-            if (rootNode.has("status")) {
-                String statusStr = rootNode.get("status").asText().toUpperCase();
-                try {
-                    status = RecordingStatus.Status.valueOf(statusStr);
-                } catch (IllegalArgumentException e) {
-                    logger.warn("Invalid status in manifest: {}", statusStr);
-                }
+            ManifestState manifestState = getManifestState(outputDir);
+            synchronized (manifestState) {
+                if (manifestState.evicted) { return readRecordingState(outputDir); }
+                return new RecordingStatus(manifestState.status, new ArrayList<>(manifestState.errors), manifestState.chunkPaths.stream().map(File::new).collect(Collectors.toList()));
             }
-
-            // Parse errors
-            List<String> errors = new ArrayList<>();
-            if (rootNode.has("errors")) {
-                ArrayNode errorsNode = (ArrayNode) rootNode.get("errors");
-                for (int i = 0; i < errorsNode.size(); i++) {
-                    errors.add(errorsNode.get(i).asText());
-                }
-            }
-
-            // Parse chunk list
-            List<File> chunkList = new ArrayList<>();
-            if (rootNode.has("chunkList")) {
-                ArrayNode chunksNode = (ArrayNode) rootNode.get("chunkList");
-                for (int i = 0; i < chunksNode.size(); i++) {
-                    chunkList.add(new File(chunksNode.get(i).asText()));
-                }
-            }
-
-            return new RecordingStatus(status, errors, chunkList);
         } catch (IOException e) {
             logger.error("Failed to read manifest file in {}: {}", outputDir, e.getMessage(), e);
             return new RecordingStatus(RecordingStatus.Status.PENDING);
@@ -175,7 +192,8 @@ public class ManifestFileBasedRecordingStateManagementService implements IRecord
         }
 
         // Look for audio chunks
-        List<File> audioChunks = gatherChunkFile(outputDirForRecordingChunks);
+        //  - When the recording is over, the index is rebuilt once so that the last chunk is listed whatever the latency of the file system events
+        List<File> audioChunks = gatherChunkFile(outputDirForRecordingChunks, ffmpegProcessExitValue.isPresent());
         List<String> errors = ((ffmpegStdoutStdErrCapture != null) && (!ffmpegStdoutStdErrCapture.isEmpty())) ? ffmpegStdoutStdErrCapture : null;
 
         createOrUpdateManifest(outputDirForRecordingChunks, status, errors, audioChunks);
@@ -192,29 +210,154 @@ public class ManifestFileBasedRecordingStateManagementService implements IRecord
     //
     //
 
+    static boolean isManifestStateCached(String outputDir) {
+        return manifestStatePerOutputDir.containsKey(Paths.get(outputDir).toAbsolutePath().normalize());
+    }
+
     /**
-     *
-     * @param outputDir
-     * @param capturedOutput
-     * @param finalStatus
+     * The state of a recording: the snapshot with the journal replayed over it
      */
-    private List<File> gatherChunkFile(String outputDir) {
-        List<File> chunkFiles = new ArrayList<>();
-        try {
-            Path dirPath = Paths.get(outputDir);
-            if (Files.exists(dirPath)) {
-                try (Stream<Path> files = Files.list(dirPath)) {
-                    chunkFiles = files
-                        .filter(Files::isRegularFile)
-                        .filter(p -> p.getFileName().toString().endsWith(".mp3"))
-                        .map(Path::toFile)
-                        .collect(Collectors.toList());
+    private static final class ManifestState {
+        private final Path outputDir;
+        private RecordingStatus.Status status = RecordingStatus.Status.PENDING;
+        private List<String> errors = new ArrayList<>();
+        private final Set<String> chunkPaths = new LinkedHashSet<>();
+        private int nbJournalEntries = 0;
+        private boolean journalStartsOnNewLine = true;
+        private boolean evicted = false;                   // Set once the recording is over (the state isn't kept anymore)
+
+        private ManifestState(Path outputDir) {
+            this.outputDir = outputDir;
+        }
+
+        /**
+         * Apply a change (the changes are idempotent, so replaying a journal over a snapshot which already contains some
+         * of its changes is harmless)
+         */
+        private void apply(JsonNode journalEntry) {
+            if (journalEntry.has("status")) {
+                status = parseStatus(journalEntry.get("status").asText());
+            } else if (journalEntry.has("errors")) {
+                errors = new ArrayList<>();
+                journalEntry.get("errors").forEach(error -> errors.add(error.asText()));
+            } else if (journalEntry.has("chunk")) {
+                chunkPaths.add(journalEntry.get("chunk").asText());
+            } else if (journalEntry.has("chunkRemoved")) {
+                chunkPaths.remove(journalEntry.get("chunkRemoved").asText());
+            }
+        }
+
+        private boolean isRecordingOver() {
+            return (status == RecordingStatus.Status.COMPLETED) || (status == RecordingStatus.Status.PARTIAL_FAILURE);
+        }
+    }
+
+    private ManifestState getManifestState(String outputDir) throws IOException {
+        Path outputDirPath = Paths.get(outputDir).toAbsolutePath().normalize();
+        ManifestState manifestState = manifestStatePerOutputDir.get(outputDirPath);
+        if (manifestState == null) {
+            ManifestState loadedManifestState = loadManifestState(outputDirPath);
+            if (loadedManifestState.isRecordingOver()) { return loadedManifestState; }    // Not kept (see the eviction in createOrUpdateManifest)
+            manifestState = manifestStatePerOutputDir.putIfAbsent(outputDirPath, loadedManifestState);
+            if (manifestState == null) { manifestState = loadedManifestState; }
+        }
+        return manifestState;
+    }
+
+    /**
+     * Load the snapshot and replay the journal over it
+     */
+    private ManifestState loadManifestState(Path outputDir) throws IOException {
+        ManifestState manifestState = new ManifestState(outputDir);
+
+        // The snapshot
+        Path manifestPath = outputDir.resolve(MANIFEST_FILENAME);
+        if (Files.exists(manifestPath)) {
+            JsonNode rootNode = objectMapper.readTree(manifestPath.toFile());
+            if (rootNode.has("status")) { manifestState.status = parseStatus(rootNode.get("status").asText()); }
+            if (rootNode.has("errors")) { rootNode.get("errors").forEach(error -> manifestState.errors.add(error.asText())); }
+            if (rootNode.has("chunkList")) { rootNode.get("chunkList").forEach(chunk -> manifestState.chunkPaths.add(chunk.asText())); }
+        }
+
+        // The journal
+        Path journalPath = outputDir.resolve(JOURNAL_FILENAME);
+        if (Files.exists(journalPath)) {
+            boolean journalIsTruncated = false;
+            for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) { continue; }
+                try {
+                    manifestState.apply(objectMapper.readTree(line));
+                    manifestState.nbJournalEntries++;
+                } catch (JsonProcessingException e) {
+                    // The last change was being written when the process stopped
+                    logger.warn("Ignoring the truncated change=[{}] of the manifest journal in {}", line, outputDir);
+                    journalIsTruncated = true;
                 }
             }
-            return chunkFiles;
-        } catch (IOException ex) {
-            throw new PrtTechnicalRuntimeException(RLALCExceptionCodesEnum.RLAC_005_FailedToAccessMediaChunks.name(), "Failed to gather audio chunk files with message=["+ex.getMessage()+"]", ex);
+            manifestState.journalStartsOnNewLine = false;
+            if (journalIsTruncated) {
+                compact(manifestState);    // The next changes can't be appended after a partial line
+            }
+        }
+        return manifestState;
+    }
+
+    private void appendToJournal(ManifestState manifestState, List<ObjectNode> journalEntries) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        if (!manifestState.journalStartsOnNewLine) {
+            lines.append('\n');    // In case the last line of a journal written by a previous process isn't terminated
+            manifestState.journalStartsOnNewLine = true;
+        }
+        for (ObjectNode journalEntry : journalEntries) {
+            lines.append(objectMapper.writeValueAsString(journalEntry)).append('\n');
+        }
+        Files.writeString(manifestState.outputDir.resolve(JOURNAL_FILENAME), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        manifestState.nbJournalEntries += journalEntries.size();
+    }
+
+    /**
+     * Write the state into a new snapshot (replaced atomically), then drop the journal
+     */
+    private void compact(ManifestState manifestState) throws IOException {
+        // Create the JSON object
+        ObjectNode rootNode = objectMapper.createObjectNode();
+        rootNode.put("status", manifestState.status.toString().toLowerCase());
+        if (!manifestState.errors.isEmpty()) {
+            ArrayNode errorsNode = rootNode.putArray("errors");
+            manifestState.errors.forEach(errorsNode::add);
+        }
+        ArrayNode chunksNode = rootNode.putArray("chunkList");
+        manifestState.chunkPaths.forEach(chunksNode::add);
+
+        // Write to file with pretty printing
+        Path manifestPath = manifestState.outputDir.resolve(MANIFEST_FILENAME);
+        Path newManifestPath = manifestState.outputDir.resolve(MANIFEST_FILENAME + ".tmp");
+        objectMapper.writer(new DefaultPrettyPrinter().withArrayIndenter(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE))
+            .writeValue(newManifestPath.toFile(), rootNode);
+        Files.move(newManifestPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Files.deleteIfExists(manifestState.outputDir.resolve(JOURNAL_FILENAME));
+        manifestState.nbJournalEntries = 0;
+        manifestState.journalStartsOnNewLine = true;
+    }
+
+    private static RecordingStatus.Status parseStatus(String statusStr) {
+        try {
+            return RecordingStatus.Status.valueOf(statusStr.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid status in manifest: {}", statusStr);
+            return RecordingStatus.Status.PENDING;
+        }
+    }
+
+    /**
+     * The chunks come from the index of the recording directory (no directory listing on each status change)
+     */
+    private List<File> gatherChunkFile(String outputDir, boolean recordingIsOver) {
+        if (recordingIsOver) {
+            return recordingChunkIndexService.reloadIndex(outputDir).getChunks();
         }
+        return recordingChunkIndexService.getIndex(outputDir).getChunks();
     }
 
 }
@@ -0,0 +1,60 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturemanagement.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO for the live metrics of a capture (see CaptureHealthWatchdog).
+ * Used as the return type for the getCapturesHealth endpoint.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Live metrics of an ongoing capture")
+public class CaptureHealthDTO {
+
+    @JsonProperty("recordingId")
+    @Schema(description = "The recording being captured")
+    private String recordingId;
+
+    @JsonProperty("uuid")
+    @Schema(description = "The UUID of the program")
+    private String uuid;
+
+    @JsonProperty("title")
+    @Schema(description = "The title of the program")
+    private String title;
+
+    @JsonProperty("state")
+    @Schema(description = "STARTING (no chunk yet), HEALTHY, DEGRADED (low throughput) or STALLED (no chunk for too long, the capture is restarted)")
+    private String state;
+
+    @JsonProperty("totalBytes")
+    @Schema(description = "The number of bytes received since the start of the capture")
+    private long totalBytes;
+
+    @JsonProperty("bytesPerSecond")
+    @Schema(description = "The throughput measured over the last seconds")
+    private long bytesPerSecond;
+
+    @JsonProperty("nbChunks")
+    @Schema(description = "The number of chunks produced")
+    private long nbChunks;
+
+    @JsonProperty("averageChunkIntervalSeconds")
+    @Schema(description = "The average time between two chunks (-1 until there are 2 chunks)")
+    private double averageChunkIntervalSeconds;
+
+    @JsonProperty("lastChunkAgeSeconds")
+    @Schema(description = "The time since the last chunk (since the start of the capture if there is none yet)")
+    private long lastChunkAgeSeconds;
+
+    @JsonProperty("nbRestarts")
+    @Schema(description = "The number of times the capture has been restarted by the watchdog")
+    private int nbRestarts;
+}
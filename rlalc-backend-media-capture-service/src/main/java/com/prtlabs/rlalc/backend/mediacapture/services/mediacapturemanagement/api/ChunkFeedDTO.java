@@ -0,0 +1,66 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturemanagement.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * DTO for a batch of the feed of the new chunks (see RecordingChunkFeed).
+ * Used as the return type for the pollChunkFeed endpoint.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "New chunks of the recordings, and the cursor to poll the next ones from")
+public class ChunkFeedDTO {
+
+    @JsonProperty("cursor")
+    @Schema(description = "The cursor to pass to the next poll")
+    private String cursor;
+
+    @JsonProperty("resync")
+    @Schema(description = "True if chunks have been missed since the given cursor (too old, or the service has restarted): the chunks of the recordings must be listed again")
+    private boolean resync;
+
+    @JsonProperty("chunks")
+    @Schema(description = "The chunks closed since the given cursor, in the order they were closed (empty if none was closed before the timeout)")
+    private List<ChunkEventDTO> chunks;
+
+    /**
+     * DTO for a closed chunk.
+     * Used to represent a chunk in the chunks list.
+     */
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Schema(description = "Chunk closed by a recorder")
+    public static class ChunkEventDTO {
+
+        @JsonProperty("uuid")
+        @Schema(description = "The UUID of the program")
+        private String uuid;
+
+        @JsonProperty("chunkName")
+        @Schema(description = "The file name of the chunk")
+        private String chunkName;
+
+        @JsonProperty("chunkURL")
+        @Schema(description = "The URL path the chunk is served from")
+        private String chunkURL;
+
+        @JsonProperty("chunkStartUTCEpochSec")
+        @Schema(description = "The start time of the chunk")
+        private long chunkStartUTCEpochSec;
+
+        @JsonProperty("closedAtUTCEpochMillis")
+        @Schema(description = "When the chunk has been closed")
+        private long closedAtUTCEpochMillis;
+    }
+}
@@ -1,6 +1,8 @@
 package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturemanagement.api;
 
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import jakarta.ws.rs.container.AsyncResponse;
+
 import java.util.List;
 
 
@@ -9,5 +11,7 @@ public interface IRLALCMediaCaptureServiceManagementAPIService {
     List<ProgramDescriptorDTO> getPlannings();
     void addOneShotTestRecording(ProgramDescriptorDTO programDescriptorDTO);
     CurrentPlanningDTO getCurrentPlanning();
+    List<CaptureHealthDTO> getCapturesHealth();
+    void pollChunkFeed(String programUuid, String cursor, int timeoutSeconds, int maxChunks, AsyncResponse asyncResponse);
 
 }
@@ -2,12 +2,19 @@ package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturemanagement.s
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.base.Strings;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturemanagement.api.CaptureHealthDTO;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturemanagement.api.ChunkFeedDTO;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturemanagement.api.CurrentPlanningDTO;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturemanagement.api.IRLALCMediaCaptureServiceManagementAPIService;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.IRLALCMediaCaptureService;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.CaptureHealthWatchdog;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.RecordingChunkFeed;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.MediaCaptureScheduler;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.ProgramDescriptorRegistry;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureJob;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.IMediaCapturePlanningLoader;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.dto.MediaCapturePlanningDTO;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.MediaChunkURLs;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
 import com.prtlabs.rlalc.domain.ProgramId;
 import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
@@ -15,11 +22,15 @@ import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
 import com.prtlabs.utils.json.PrtJsonUtils;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.MediaType;
 
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -27,7 +38,6 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.quartz.*;
-import org.quartz.impl.StdSchedulerFactory;
 import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,12 +52,26 @@ public class RLALCMediaCaptureServiceManagementAPIServiceImpl implements IRLALCM
 
     private static final Logger logger = LoggerFactory.getLogger(RLALCMediaCaptureServiceManagementAPIServiceImpl.class);
 
+    private static final int MAX_CHUNK_FEED_TIMEOUT_SECONDS = 60;
+
     @Inject
     private IMediaCapturePlanningLoader mediaCapturePlanningLoader;
 
     @Inject
     private IRLALCMediaCaptureService mediaCaptureService;
 
+    @Inject
+    private MediaCaptureScheduler mediaCaptureScheduler;
+
+    @Inject
+    private ProgramDescriptorRegistry programDescriptorRegistry;
+
+    @Inject
+    private CaptureHealthWatchdog captureHealthWatchdog;
+
+    @Inject
+    private RecordingChunkFeed recordingChunkFeed;
+
     /**
      * Can be called with:
      *   curl -s http://localhost:9796/api/management/recordingsPlanning -H "Accept: application/json" | jq .
@@ -141,9 +165,8 @@ public class RLALCMediaCaptureServiceManagementAPIServiceImpl implements IRLALCM
             // Get the scheduled jobs from the Quartz scheduler
             List<CurrentPlanningDTO.ScheduledJobDTO> scheduledJobs = new ArrayList<>();
 
-            // Initialize the scheduler
-            SchedulerFactory schedulerFactory = new StdSchedulerFactory();
-            Scheduler scheduler = schedulerFactory.getScheduler();
+            // Get the shared scheduler
+            Scheduler scheduler = mediaCaptureScheduler.getScheduler();
 
             // Get all job keys
             for (JobKey jobKey : scheduler.getJobKeys(GroupMatcher.anyGroup())) {
@@ -161,12 +184,11 @@ public class RLALCMediaCaptureServiceManagementAPIServiceImpl implements IRLALCM
                         .nextFireTime(nextFireTime != null ? 
                             new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(nextFireTime) : null);
 
-                    // Try to extract stream name from job data
+                    // Try to extract stream name from the Program of the job (already parsed in the registry)
                     JobDataMap jobDataMap = jobDetail.getJobDataMap();
                     if (jobDataMap.containsKey(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON)) {
                         try {
-                            ProgramDescriptorDTO programDescriptor = PrtJsonUtils.getFasterXmlObjectMapper()
-                                .readValue(jobDataMap.getString(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON), ProgramDescriptorDTO.class);
+                            ProgramDescriptorDTO programDescriptor = programDescriptorRegistry.resolve(jobDataMap);
                             jobBuilder
                                 .streamName(programDescriptor.getTitle())
                                 .streamURL(programDescriptor.getStreamURL())
@@ -197,4 +219,98 @@ public class RLALCMediaCaptureServiceManagementAPIServiceImpl implements IRLALCM
         }
     }
 
+    /**
+     * Can be called with:
+     *   curl -s http://localhost:9796/api/management/captures/health -H "Accept: application/json" | jq .
+     */
+    @GET
+    @Path("/captures/health")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(
+        summary = "Get the live metrics of the ongoing captures",
+        description = "Returns, for each ongoing capture, its throughput, the cadence and age of its chunks, and its health state"
+    )
+    @ApiResponse(
+        responseCode = "200",
+        description = "Successfully retrieved the metrics of the ongoing captures"
+    )
+    @Override
+    public List<CaptureHealthDTO> getCapturesHealth() {
+        return captureHealthWatchdog.getSnapshots().stream()
+            .map(snapshot -> CaptureHealthDTO.builder()
+                .recordingId(snapshot.recordingId())
+                .uuid((snapshot.programId() != null) ? snapshot.programId().uuid() : null)
+                .title(snapshot.title())
+                .state(snapshot.state().name())
+                .totalBytes(snapshot.totalBytes())
+                .bytesPerSecond(snapshot.bytesPerSecond())
+                .nbChunks(snapshot.nbChunks())
+                .averageChunkIntervalSeconds(snapshot.averageChunkIntervalSeconds())
+                .lastChunkAgeSeconds(snapshot.lastChunkAgeSeconds())
+                .nbRestarts(snapshot.nbRestarts())
+                .build())
+            .toList();
+    }
+
+    /**
+     * Long-poll of the chunks closed by the recorders: returns right away the chunks closed since the cursor, or else
+     * waits (without holding a thread) for the next one, up to the timeout. Each response gives the cursor to poll from next.
+     * Can be called with:
+     *   curl -s "http://localhost:9796/api/management/chunks/feed?programUuid=<programUuid>&cursor=<cursor>&timeoutSeconds=25" -H "Accept: application/json" | jq .
+     */
+    @GET
+    @Path("/chunks/feed")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(
+        summary = "Long-poll the chunks closed by the recorders",
+        description = "Returns the chunks closed since the cursor (of a program, or of all of them), waiting up to the timeout for one if there are none yet. Without cursor, only the chunks closed from now on are returned."
+    )
+    @ApiResponse(
+        responseCode = "200",
+        description = "The chunks closed since the cursor (possibly none if the timeout expired), and the next cursor",
+        content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = ChunkFeedDTO.class))
+    )
+    @ApiResponse(
+        responseCode = "400",
+        description = "Invalid cursor"
+    )
+    @Override
+    public void pollChunkFeed(@QueryParam("programUuid") String programUuid, @QueryParam("cursor") String cursor,
+                              @QueryParam("timeoutSeconds") @DefaultValue("25") int timeoutSeconds, @QueryParam("maxChunks") @DefaultValue("100") int maxChunks,
+                              @Suspended AsyncResponse asyncResponse) {
+        ProgramId programId = Strings.isNullOrEmpty(programUuid) ? null : new ProgramId(programUuid);
+        String pollCursor = Strings.isNullOrEmpty(cursor) ? recordingChunkFeed.getCurrentCursor() : cursor;
+
+        // When nothing is closed before the timeout, an empty batch is returned (and the consumer polls again with the same cursor)
+        // REMARK: The timeout is set before polling, since the poll may resume the response right away
+        AtomicReference<Runnable> cancelWait = new AtomicReference<>(() -> {});
+        asyncResponse.setTimeoutHandler(timedOutResponse -> {
+            cancelWait.get().run();
+            timedOutResponse.resume(ChunkFeedDTO.builder().cursor(pollCursor).resync(false).chunks(List.of()).build());
+        });
+        asyncResponse.setTimeout(Math.max(1, Math.min(timeoutSeconds, MAX_CHUNK_FEED_TIMEOUT_SECONDS)), TimeUnit.SECONDS);
+
+        try {
+            cancelWait.set(recordingChunkFeed.poll(programId, pollCursor, maxChunks, chunkEvents -> asyncResponse.resume(toChunkFeedDTO(chunkEvents))));
+        } catch (IllegalArgumentException e) {
+            asyncResponse.resume(new BadRequestException(e.getMessage()));
+        }
+    }
+
+    private static ChunkFeedDTO toChunkFeedDTO(RecordingChunkFeed.ChunkEvents chunkEvents) {
+        return ChunkFeedDTO.builder()
+            .cursor(chunkEvents.cursor())
+            .resync(chunkEvents.resync())
+            .chunks(chunkEvents.events().stream()
+                .map(event -> ChunkFeedDTO.ChunkEventDTO.builder()
+                    .uuid(event.programId().uuid())
+                    .chunkName(event.chunk().getName())
+                    .chunkURL(MediaChunkURLs.toMediaURLPath(event.chunk()))
+                    .chunkStartUTCEpochSec(event.chunkStart().getEpochSecond())
+                    .closedAtUTCEpochMillis(event.publishedAt().toEpochMilli())
+                    .build())
+                .toList())
+            .build();
+    }
+
 }
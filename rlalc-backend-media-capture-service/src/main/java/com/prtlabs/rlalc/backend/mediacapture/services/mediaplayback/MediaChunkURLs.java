@@ -0,0 +1,29 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+
+/**
+ * Where the audio of the chunks is served: the files under the media root directory of the recorders are served under
+ * '/media/' by the ChunkStreamingServlet (e.g. '<mediaRootDir>/mp3/<recording>/<chunk>.mp3' as '/media/mp3/<recording>/<chunk>.mp3').
+ */
+public final class MediaChunkURLs {
+
+    public static final Path MEDIA_ROOT_DIR = Paths.get(System.getProperty("prt.rlalc.baseDir", "/opt/prtlabs") + "/radiolivealacarte/datastore/media").toAbsolutePath().normalize();
+    public static final String MEDIA_URL_PATH_PREFIX = "/media/";
+
+
+    private MediaChunkURLs() {}
+
+    /**
+     * @return the URL path of a chunk (null if the chunk isn't under the media root directory, and so can't be served)
+     */
+    public static String toMediaURLPath(File chunk) {
+        Path chunkPath = chunk.toPath().toAbsolutePath().normalize();
+        if (!chunkPath.startsWith(MEDIA_ROOT_DIR)) { return null; }
+        return MEDIA_URL_PATH_PREFIX + MEDIA_ROOT_DIR.relativize(chunkPath).toString().replace(File.separatorChar, '/');
+    }
+
+}
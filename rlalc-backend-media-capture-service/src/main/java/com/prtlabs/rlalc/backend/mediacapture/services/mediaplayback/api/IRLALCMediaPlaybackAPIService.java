@@ -0,0 +1,14 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.api;
+
+import jakarta.ws.rs.core.Response;
+
+import java.util.List;
+
+
+public interface IRLALCMediaPlaybackAPIService {
+
+    Response getProgramPlaylist(String programUuid, String mode, String day);
+
+    Response spliceProgramPieces(List<String> pieces);
+
+}
@@ -0,0 +1,265 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.hls;
+
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndex;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.MediaChunkURLs;
+import com.prtlabs.rlalc.domain.ProgramId;
+import jakarta.inject.Inject;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+
+/**
+ * Live HLS playlists of the recordings of the Programs: the 10 seconds chunks are already HLS shaped MP3 segments, they
+ * are listed as is (served by the ChunkStreamingServlet, see MediaChunkURLs).
+ *
+ * Three kinds of playlists:
+ *   - LIVE  : sliding window over the last 'liveWindowSegments' chunks (to follow the program live)
+ *   - EVENT : all the chunks since the start of the program, growing as the chunks land (to play it "à la carte" while
+ *             it's still on air)
+ *   - VOD   : the chunks recorded so far, closed
+ * Once the recording is over, all the playlists are closed (#EXT-X-ENDLIST).
+ *
+ * The playlists are never rebuilt from a directory listing: the chunks come from the in-memory chunk indexes of the
+ * recorder, and the rendered segments of each recording are cached. When a chunk lands, only its segment is rendered
+ * and appended (which invalidates the cached texts of the playlists of that recording), otherwise the cached texts are
+ * served as is.
+ *
+ * The media sequence numbers of the segments never go back, even when the playlists are rendered again (e.g. after the
+ * oldest chunks have been purged), so that the players following a playlist don't play its segments again.
+ *
+ * Only the chunks which are over are listed (the last chunk of a live recording is still being written). A gap in the
+ * recording (see UpstreamReconnectionPolicy) is signaled by an #EXT-X-DISCONTINUITY, and the first segment of the
+ * playlist and of each discontinuity carries its wall clock time (#EXT-X-PROGRAM-DATE-TIME).
+ *
+ * Configuration (System properties):
+ *   - prt.rlalc.hls.liveWindowSegments : number of segments of the LIVE playlists (default 6, ie 1 minute)
+ */
+public class HLSPlaylistService {
+
+    public enum PlaylistMode { LIVE, EVENT, VOD }
+
+    /**
+     * A playlist, and whether it's closed (in which case it won't change anymore)
+     */
+    public record HLSPlaylist(String content, boolean ended) {}
+
+    public static final int TARGET_DURATION_SECONDS = (int) RecordingChunkIndex.CHUNK_DURATION.toSeconds();
+
+    private static final int LIVE_WINDOW_SEGMENTS = Math.max(3, Integer.getInteger("prt.rlalc.hls.liveWindowSegments", 6));
+    // Two chunks further apart than that are separated by a gap (the next chunk of a reconnected stream starts after the gap)
+    private static final Duration MAX_CHUNKS_INTERVAL_WITHOUT_GAP = RecordingChunkIndex.CHUNK_DURATION.plusSeconds(1);
+    private static final int MAX_CACHED_RECORDINGS = 2000;
+
+    private static final DateTimeFormatter PROGRAM_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneOffset.UTC);
+
+    // REMARK: The playlists are static because the services are also instantiated by the HK2 ServiceLocator of the Jersey
+    //         servlet, and all instances need to share the same cache
+    private static final Map<RecordingKey, RecordingPlaylists> playlistsPerRecording = new ConcurrentHashMap<>();
+
+    @Inject private IMediaRecorder mediaRecorder;
+
+
+    /**
+     * @param day the (UTC) day of the recording
+     */
+    public HLSPlaylist getPlaylist(ProgramId programId, LocalDate day, PlaylistMode mode) {
+        // The chunks come from the chunk indexes of the recorder (no I/O)
+        Instant now = Instant.now();
+        List<File> chunks = mediaRecorder.getChunkFiles(programId, day.atTime(12, 0).toInstant(ZoneOffset.UTC));
+        boolean recordingOver = day.isBefore(LocalDate.now(ZoneOffset.UTC)) || isRecordingOver(mediaRecorder.getRecordingStatus(programId));
+
+        RecordingKey recordingKey = new RecordingKey(programId, day);
+        RecordingPlaylists recordingPlaylists = playlistsPerRecording.get(recordingKey);
+        if (recordingPlaylists == null) {
+            evictLeastRecentlyUsedIfFull();
+            recordingPlaylists = playlistsPerRecording.computeIfAbsent(recordingKey, key -> new RecordingPlaylists(mediaRecorder::getChunkStart));
+        }
+        return recordingPlaylists.getPlaylist(chunks, recordingOver, now, mode);
+    }
+
+    public int getNbCachedRecordings() {
+        return playlistsPerRecording.size();
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private record RecordingKey(ProgramId programId, LocalDate day) {}
+
+    /**
+     * A segment of the playlists, rendered once
+     * @param nbDiscontinuitiesUntil number of discontinuities of the recording up to this segment (included)
+     */
+    record RenderedSegment(File chunk, Instant start, boolean discontinuity, int nbDiscontinuitiesUntil, String extInfAndURI) {}
+
+    /**
+     * The rendered segments and the cached playlists of a recording
+     */
+    static final class RecordingPlaylists {
+        private final Function<File, Instant> chunkStartResolver;
+        private final List<RenderedSegment> segments = new ArrayList<>();
+        private long firstSegmentMediaSequence = 0;                                           // The media sequence number of the first rendered segment
+        private int nbConsumedChunks = 0;                                                     // The chunks already rendered, or skipped since they're not chunks
+        private File firstConsumedChunk = null;
+        private File lastConsumedChunk = null;
+        private final String[] contentPerMode = new String[PlaylistMode.values().length];    // null when invalidated
+        private boolean ended = false;
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        RecordingPlaylists(Function<File, Instant> chunkStartResolver) {
+            this.chunkStartResolver = chunkStartResolver;
+        }
+
+        /**
+         * @param chunks the chunks of the recording, sorted by start time
+         */
+        synchronized HLSPlaylist getPlaylist(List<File> chunks, boolean recordingOver, Instant now, PlaylistMode mode) {
+            lastAccessNanos = System.nanoTime();
+            update(chunks, recordingOver, now);
+            String content = contentPerMode[mode.ordinal()];
+            if (content == null) {
+                content = render(mode);
+                contentPerMode[mode.ordinal()] = content;
+            }
+            return new HLSPlaylist(content, ended);
+        }
+
+        /**
+         * Render the segments of the chunks which have landed since the last update (everything is rendered again if
+         * the chunks aren't the ones already rendered, e.g. after a purge)
+         */
+        private void update(List<File> chunks, boolean recordingOver, Instant now) {
+            // Only the chunks which are over are listed
+            int nbCompletedChunks = chunks.size();
+            if (!recordingOver) {
+                while ((nbCompletedChunks > 0) && isStillBeingWritten(chunks.get(nbCompletedChunks - 1), now)) { nbCompletedChunks--; }
+            }
+
+            // Check that the chunks already consumed are the first chunks, otherwise render everything again
+            // REMARK: The files which are not chunks are consumed without being rendered, so the number of consumed chunks
+            //         and the number of rendered segments can differ
+            boolean consumedChunksAreFirstChunks = (nbConsumedChunks <= nbCompletedChunks)
+                && ((nbConsumedChunks == 0) || (firstConsumedChunk.equals(chunks.get(0)) && lastConsumedChunk.equals(chunks.get(nbConsumedChunks - 1))));
+            boolean changed = (recordingOver != ended);
+            if (!consumedChunksAreFirstChunks) {
+                // The media sequence goes on from the segment of the first chunk if it was already listed, and otherwise
+                // from the segment following all the segments listed so far
+                int firstChunkSegmentIndex = (nbCompletedChunks > 0) ? indexOfSegment(chunks.get(0)) : -1;
+                firstSegmentMediaSequence += (firstChunkSegmentIndex >= 0) ? firstChunkSegmentIndex : segments.size();
+                segments.clear();
+                nbConsumedChunks = 0;
+                firstConsumedChunk = null;
+                lastConsumedChunk = null;
+                changed = true;
+            }
+
+            // Render the new segments
+            for (int i = nbConsumedChunks; i < nbCompletedChunks; i++) {
+                File chunk = chunks.get(i);
+                Instant start = chunkStartResolver.apply(chunk);
+                if (start != null) {    // Otherwise not a chunk
+                    Instant nextStart = (i + 1 < chunks.size()) ? chunkStartResolver.apply(chunks.get(i + 1)) : null;
+                    segments.add(renderSegment(chunk, start, nextStart, segments.isEmpty() ? null : segments.get(segments.size() - 1)));
+                    changed = true;
+                }
+                if (firstConsumedChunk == null) { firstConsumedChunk = chunk; }
+                lastConsumedChunk = chunk;
+            }
+            nbConsumedChunks = Math.max(nbConsumedChunks, nbCompletedChunks);
+            ended = recordingOver;
+
+            if (changed) {
+                for (int i = 0; i < contentPerMode.length; i++) { contentPerMode[i] = null; }
+            }
+        }
+
+        private int indexOfSegment(File chunk) {
+            for (int i = 0; i < segments.size(); i++) {
+                if (segments.get(i).chunk().equals(chunk)) { return i; }
+            }
+            return -1;
+        }
+
+        private boolean isStillBeingWritten(File chunk, Instant now) {
+            Instant start = chunkStartResolver.apply(chunk);
+            return (start != null) && start.plus(RecordingChunkIndex.CHUNK_DURATION).isAfter(now);
+        }
+
+        private static RenderedSegment renderSegment(File chunk, Instant start, Instant nextStart, RenderedSegment previousSegment) {
+            boolean discontinuity = (previousSegment != null) && Duration.between(previousSegment.start(), start).compareTo(MAX_CHUNKS_INTERVAL_WITHOUT_GAP) > 0;
+            int nbDiscontinuitiesUntil = ((previousSegment != null) ? previousSegment.nbDiscontinuitiesUntil() : 0) + (discontinuity ? 1 : 0);
+            // A chunk lasts until the next one (at most a chunk duration, the next one may start after a gap)
+            Duration duration = RecordingChunkIndex.CHUNK_DURATION;
+            if ((nextStart != null) && nextStart.isAfter(start) && Duration.between(start, nextStart).compareTo(duration) < 0) {
+                duration = Duration.between(start, nextStart);
+            }
+            String uri = MediaChunkURLs.toMediaURLPath(chunk);
+            String extInfAndURI = String.format(Locale.ROOT, "#EXTINF:%.3f,", duration.toMillis() / 1000.0) + "\n" + ((uri != null) ? uri : chunk.getName()) + "\n";
+            return new RenderedSegment(chunk, start, discontinuity, nbDiscontinuitiesUntil, extInfAndURI);
+        }
+
+        private String render(PlaylistMode mode) {
+            int firstSegmentIndex = (mode == PlaylistMode.LIVE) ? Math.max(0, segments.size() - LIVE_WINDOW_SEGMENTS) : 0;
+            StringBuilder playlist = new StringBuilder(128 + (segments.size() - firstSegmentIndex) * 128);
+            playlist.append("#EXTM3U\n");
+            playlist.append("#EXT-X-VERSION:3\n");
+            playlist.append("#EXT-X-TARGETDURATION:").append(TARGET_DURATION_SECONDS).append('\n');
+            playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(firstSegmentMediaSequence + firstSegmentIndex).append('\n');
+            if (firstSegmentIndex > 0) {
+                // The discontinuity of the first segment of the window isn't listed (nothing precedes it), so it's counted as removed
+                int nbRemovedDiscontinuities = segments.get(firstSegmentIndex).nbDiscontinuitiesUntil();
+                if (nbRemovedDiscontinuities > 0) { playlist.append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(nbRemovedDiscontinuities).append('\n'); }
+            }
+            if (mode != PlaylistMode.LIVE) { playlist.append("#EXT-X-PLAYLIST-TYPE:").append(mode.name()).append('\n'); }
+            for (int i = firstSegmentIndex; i < segments.size(); i++) {
+                RenderedSegment segment = segments.get(i);
+                boolean firstListedSegment = (i == firstSegmentIndex);
+                if (segment.discontinuity() && !firstListedSegment) { playlist.append("#EXT-X-DISCONTINUITY\n"); }
+                if (segment.discontinuity() || firstListedSegment) { playlist.append("#EXT-X-PROGRAM-DATE-TIME:").append(PROGRAM_DATE_TIME_FORMATTER.format(segment.start())).append('\n'); }
+                playlist.append(segment.extInfAndURI());
+            }
+            if (ended || (mode == PlaylistMode.VOD)) { playlist.append("#EXT-X-ENDLIST\n"); }
+            return playlist.toString();
+        }
+    }
+
+    private static boolean isRecordingOver(RecordingStatus recordingStatus) {
+        return (recordingStatus != null) && ((recordingStatus.getStatus() == RecordingStatus.Status.COMPLETED) || (recordingStatus.getStatus() == RecordingStatus.Status.PARTIAL_FAILURE));
+    }
+
+    /**
+     * The recordings whose playlists haven't been requested for the longest time are evicted when the cache is full
+     */
+    private static void evictLeastRecentlyUsedIfFull() {
+        if (playlistsPerRecording.size() < MAX_CACHED_RECORDINGS) { return; }
+        playlistsPerRecording.entrySet().stream()
+            .sorted(Comparator.comparingLong(entry -> entry.getValue().lastAccessNanos))
+            .limit(MAX_CACHED_RECORDINGS / 10)
+            .map(Map.Entry::getKey)
+            .toList()
+            .forEach(playlistsPerRecording::remove);
+    }
+
+}
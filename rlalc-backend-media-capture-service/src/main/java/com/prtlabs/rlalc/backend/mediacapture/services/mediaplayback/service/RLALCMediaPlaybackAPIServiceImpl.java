@@ -0,0 +1,152 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.service;
+
+import com.google.common.base.Strings;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.api.IRLALCMediaPlaybackAPIService;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.hls.HLSPlaylistService;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.splicing.ProgramSplicingService;
+import com.prtlabs.rlalc.domain.ProgramId;
+import com.prtlabs.rlalc.exceptions.RLALCExceptionCodesEnum;
+import com.prtlabs.utils.exceptions.PrtBaseRuntimeException;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+@Path("playback")
+@Tag(name = "playback")
+public class RLALCMediaPlaybackAPIServiceImpl implements IRLALCMediaPlaybackAPIService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RLALCMediaPlaybackAPIServiceImpl.class);
+
+    private static final String HLS_PLAYLIST_MEDIA_TYPE = "application/vnd.apple.mpegurl";
+    private static final String MP3_MEDIA_TYPE = "audio/mpeg";
+
+    // The playlists which are still growing are cached (by the clients and the CDN) for half a segment
+    private static final int GROWING_PLAYLIST_MAX_AGE_SECONDS = HLSPlaylistService.TARGET_DURATION_SECONDS / 2;
+    private static final int ENDED_PLAYLIST_MAX_AGE_SECONDS = 86400;
+
+    @Inject
+    private HLSPlaylistService hlsPlaylistService;
+
+    @Inject
+    private ProgramSplicingService programSplicingService;
+
+    /**
+     * Can be called with:
+     *   curl -s "http://localhost:9796/api/playback/programs/<programUuid>/playlist.m3u8?mode=event"
+     */
+    @GET
+    @Path("/programs/{programUuid}/playlist.m3u8")
+    @Produces(HLS_PLAYLIST_MEDIA_TYPE)
+    @Operation(
+        summary = "Get the HLS playlist of the recording of a program",
+        description = "Returns the HLS playlist of the recording of a program on a (UTC) day, today by default: 'live' (sliding window), 'event' (growing) or 'vod' (closed)"
+    )
+    @ApiResponse(
+        responseCode = "200",
+        description = "Successfully built the playlist"
+    )
+    @ApiResponse(
+        responseCode = "404",
+        description = "No recording found for the program"
+    )
+    @Override
+    public Response getProgramPlaylist(@PathParam("programUuid") String programUuid, @QueryParam("mode") @DefaultValue("live") String mode, @QueryParam("day") String day) {
+        // Parse the parameters
+        HLSPlaylistService.PlaylistMode playlistMode;
+        LocalDate playlistDay;
+        try {
+            playlistMode = HLSPlaylistService.PlaylistMode.valueOf(mode.toUpperCase(Locale.ROOT));
+            playlistDay = Strings.isNullOrEmpty(day) ? LocalDate.now(ZoneOffset.UTC) : LocalDate.parse(day);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new BadRequestException("Invalid mode=["+mode+"] or day=["+day+"] (expected 'live', 'event' or 'vod', and 'yyyy-MM-dd')");
+        }
+
+        // Build the playlist
+        HLSPlaylistService.HLSPlaylist playlist;
+        try {
+            playlist = hlsPlaylistService.getPlaylist(new ProgramId(programUuid), playlistDay, playlistMode);
+        } catch (PrtBaseRuntimeException e) {
+            if (!RLALCExceptionCodesEnum.RLAC_003_NoRecordingStartedForProgram.name().equals(e.exceptionCode)
+                && !RLALCExceptionCodesEnum.RLAC_004_NoRecordingsStorageFoundForProgram.name().equals(e.exceptionCode)) { throw e; }
+            throw new NotFoundException("No recording found for program=["+programUuid+"] with message=["+e.getMessage()+"]");
+        }
+        return Response.ok(playlist.content(), HLS_PLAYLIST_MEDIA_TYPE)
+            .header("Cache-Control", "public, max-age=" + (playlist.ended() ? ENDED_PLAYLIST_MAX_AGE_SECONDS : GROWING_PLAYLIST_MAX_AGE_SECONDS))
+            .build();
+    }
+
+    /**
+     * Can be called with:
+     *   curl -s -o splice.mp3 "http://localhost:9796/api/playback/splice.mp3?piece=<programUuid>,<fromUTCEpochSec>,<toUTCEpochSec>&piece=..."
+     */
+    @GET
+    @Path("/splice.mp3")
+    @Produces(MP3_MEDIA_TYPE)
+    @Operation(
+        summary = "Splice time ranges of the recordings of programs into a single MP3 stream",
+        description = "Streams the MPEG audio frames of the pieces ('programUuid,fromUTCEpochSec,toUTCEpochSec'), in the order they are given, as one continuous MP3 stream"
+    )
+    @ApiResponse(
+        responseCode = "200",
+        description = "Streaming the spliced pieces"
+    )
+    @ApiResponse(
+        responseCode = "400",
+        description = "Invalid pieces"
+    )
+    @ApiResponse(
+        responseCode = "404",
+        description = "No recording found for one of the programs"
+    )
+    @Override
+    public Response spliceProgramPieces(@QueryParam("piece") List<String> pieces) {
+        // Parse the pieces
+        List<ProgramSplicingService.SplicePiece> splicePieces = new ArrayList<>();
+        for (String piece : pieces) {
+            String[] pieceFields = piece.split(",");
+            try {
+                if (pieceFields.length != 3) { throw new IllegalArgumentException("Expected 3 fields"); }
+                splicePieces.add(new ProgramSplicingService.SplicePiece(new ProgramId(pieceFields[0].trim()), Instant.ofEpochSecond(Long.parseLong(pieceFields[1].trim())), Instant.ofEpochSecond(Long.parseLong(pieceFields[2].trim()))));
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException("Invalid piece=["+piece+"] (expected 'programUuid,fromUTCEpochSec,toUTCEpochSec') with message=["+e.getMessage()+"]");
+            }
+        }
+
+        // Find the chunks before anything is streamed (so that the errors can still be reported)
+        List<ProgramSplicingService.PlannedPiece> plannedPieces;
+        try {
+            plannedPieces = programSplicingService.plan(splicePieces);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        } catch (PrtBaseRuntimeException e) {
+            if (!RLALCExceptionCodesEnum.RLAC_003_NoRecordingStartedForProgram.name().equals(e.exceptionCode)
+                && !RLALCExceptionCodesEnum.RLAC_004_NoRecordingsStorageFoundForProgram.name().equals(e.exceptionCode)) { throw e; }
+            throw new NotFoundException("No recording found for one of the pieces with message=["+e.getMessage()+"]");
+        }
+
+        // Stream the frames
+        StreamingOutput splicedStream = outputStream -> {
+            ProgramSplicingService.SpliceResult spliceResult = programSplicingService.splice(plannedPieces, outputStream);
+            logger.info("Spliced [{}] pieces into [{}] frames ([{}] bytes)", plannedPieces.size(), spliceResult.nbFrames(), spliceResult.nbBytes());
+        };
+        return Response.ok(splicedStream, MP3_MEDIA_TYPE)
+            .header("Cache-Control", "no-cache")
+            .build();
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.splicing;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.ChunkSeekTable;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.ChunkSeekTables;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameReader;
+import com.prtlabs.rlalc.domain.ProgramId;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Splices time ranges of the recordings of Programs (e.g. the news of one program, then the music of another one) into
+ * a single continuous MP3 stream: the MPEG audio frames of the chunks are concatenated as is across the chunk (and the
+ * piece) boundaries, without any re-encoding nor intermediate file.
+ *
+ * The chunks of the pieces are found upfront from the in-memory chunk indexes of the recorder (see plan()), so that an
+ * unknown Program is reported before anything is streamed. The frames are then read and written chunk by chunk, so the
+ * first bytes are sent as soon as the first frames of the first chunk are read. The chunk a piece starts in is read from
+ * the seek point at or before the start of the piece (see ChunkSeekTable), rather than from its beginning.
+ *
+ * A piece is cut on the frame boundaries (the frames overlapping its time range are kept). The frames which can't be
+ * concatenated are dropped: the Xing/Info header frame at the beginning of each chunk (which isn't audio), and the frames
+ * whose sample rate differs from the one of the first frame (players can't switch in the middle of a stream).
+ * A piece which is still on air only provides what has been recorded when the splice is planned.
+ */
+public class ProgramSplicingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProgramSplicingService.class);
+
+    public static final int MAX_NB_PIECES = 100;
+    public static final Duration MAX_PIECE_DURATION = Duration.ofHours(24);
+
+    private static final int OUTPUT_BUFFER_SIZE_BYTES = 32 * 1024;
+
+    @Inject private IMediaRecorder mediaRecorder;
+
+
+    /**
+     * A time range of the recording of a Program
+     */
+    public record SplicePiece(ProgramId programId, Instant from, Instant to) {}
+
+    /**
+     * The chunks of a piece (sorted by start time), and their start times
+     */
+    public record PlannedPiece(SplicePiece piece, List<PlannedChunk> chunks) {}
+    public record PlannedChunk(File chunk, Instant start) {}
+
+    /**
+     * What has been spliced
+     */
+    public record SpliceResult(long nbFrames, long nbBytes, long nbDroppedFrames) {}
+
+
+    /**
+     * Find the chunks of the pieces (in memory, no I/O)
+     * @throws IllegalArgumentException if the pieces are invalid
+     */
+    public List<PlannedPiece> plan(List<SplicePiece> pieces) {
+        if (pieces.isEmpty() || (pieces.size() > MAX_NB_PIECES)) { throw new IllegalArgumentException("A splice needs between 1 and ["+MAX_NB_PIECES+"] pieces (got ["+pieces.size()+"])"); }
+        List<PlannedPiece> plannedPieces = new ArrayList<>();
+        for (SplicePiece piece : pieces) {
+            if (!piece.from().isBefore(piece.to()) || (Duration.between(piece.from(), piece.to()).compareTo(MAX_PIECE_DURATION) > 0)) {
+                throw new IllegalArgumentException("Invalid time range from=["+piece.from()+"] to=["+piece.to()+"] for program=["+piece.programId()+"]");
+            }
+            plannedPieces.add(new PlannedPiece(piece, findChunks(piece)));
+        }
+        return plannedPieces;
+    }
+
+    /**
+     * Write the frames of the planned pieces into the output (which is flushed after each chunk)
+     */
+    public SpliceResult splice(List<PlannedPiece> plannedPieces, OutputStream outputStream) throws IOException {
+        return writeFrames(plannedPieces, outputStream);
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    /**
+     * The chunks of the recording of a Program are found day by day (the time range of a piece can span midnight)
+     */
+    private List<PlannedChunk> findChunks(SplicePiece piece) {
+        // Collect the chunks of the days of the piece (a chunk can be listed on two days)
+        Map<File, Instant> startPerChunk = new LinkedHashMap<>();
+        LocalDate lastDay = piece.to().atZone(ZoneOffset.UTC).toLocalDate();
+        for (LocalDate day = piece.from().atZone(ZoneOffset.UTC).toLocalDate().minusDays(1); !day.isAfter(lastDay); day = day.plusDays(1)) {
+            for (File chunk : mediaRecorder.getChunkFiles(piece.programId(), day.atTime(12, 0).toInstant(ZoneOffset.UTC))) {
+                Instant chunkStart = mediaRecorder.getChunkStart(chunk);
+                if ((chunkStart != null) && chunkStart.isBefore(piece.to())) { startPerChunk.put(chunk, chunkStart); }
+            }
+        }
+        List<PlannedChunk> sortedChunks = startPerChunk.entrySet().stream()
+            .map(entry -> new PlannedChunk(entry.getKey(), entry.getValue()))
+            .sorted(Comparator.comparing(PlannedChunk::start))
+            .toList();
+
+        // Keep the chunks starting in the piece, and the one (if any) which was being recorded when the piece starts
+        int firstChunkIndex = 0;
+        for (int i = 0; i < sortedChunks.size(); i++) {
+            if (!sortedChunks.get(i).start().isAfter(piece.from())) { firstChunkIndex = i; }
+        }
+        return sortedChunks.subList(firstChunkIndex, sortedChunks.size());
+    }
+
+    static SpliceResult writeFrames(List<PlannedPiece> plannedPieces, OutputStream outputStream) throws IOException {
+        byte[] frameBuffer = new byte[Mp3FrameReader.MAX_FRAME_LENGTH_BYTES];
+        OutputStream bufferedOutputStream = new BufferedOutputStream(outputStream, OUTPUT_BUFFER_SIZE_BYTES);
+        Mp3FrameHeader streamFirstFrameHeader = null;
+        long nbFrames = 0;
+        long nbBytes = 0;
+        long nbDroppedFrames = 0;
+
+        for (PlannedPiece plannedPiece : plannedPieces) {
+            long pieceFromNanos = toEpochNanos(plannedPiece.piece().from());
+            long pieceToNanos = toEpochNanos(plannedPiece.piece().to());
+            for (PlannedChunk plannedChunk : plannedPiece.chunks()) {
+                long frameStartNanos = toEpochNanos(plannedChunk.start());
+                if (frameStartNanos >= pieceToNanos) { break; }
+                try (FileChannel chunkChannel = FileChannel.open(plannedChunk.chunk().toPath(), StandardOpenOption.READ)) {
+                    // The chunk the piece starts in is read from the seek point at or before the start of the piece
+                    if (frameStartNanos < pieceFromNanos) {
+                        ChunkSeekTable.SeekPoint seekPoint = ChunkSeekTables.get(plannedChunk.chunk()).getSeekPoint(pieceFromNanos - frameStartNanos);
+                        chunkChannel.position(seekPoint.byteOffset());
+                        frameStartNanos += seekPoint.offsetInChunkNanos();
+                    }
+                    Mp3FrameReader frameReader = new Mp3FrameReader(Channels.newInputStream(chunkChannel));
+                    Mp3FrameHeader frameHeader;
+                    while (((frameHeader = frameReader.readNextFrame(frameBuffer)) != null) && (frameStartNanos < pieceToNanos)) {
+                        if (frameHeader.isXingOrInfoFrame(frameBuffer)) { continue; }    // No audio (and doesn't advance the timeline)
+                        long frameEndNanos = frameStartNanos + frameHeader.durationNanos();
+                        if (frameEndNanos > pieceFromNanos) {
+                            if (streamFirstFrameHeader == null) { streamFirstFrameHeader = frameHeader; }
+                            if (streamFirstFrameHeader.isSameStreamAs(frameHeader)) {
+                                bufferedOutputStream.write(frameBuffer, 0, frameHeader.frameLengthBytes());
+                                nbFrames++;
+                                nbBytes += frameHeader.frameLengthBytes();
+                            } else {
+                                nbDroppedFrames++;
+                            }
+                        }
+                        frameStartNanos = frameEndNanos;
+                    }
+                } catch (NoSuchFileException e) {
+                    // The chunk has been purged since the splice was planned
+                    logger.warn("Chunk=[{}] of program=[{}] not found while splicing, skipped", plannedChunk.chunk(), plannedPiece.piece().programId());
+                }
+                bufferedOutputStream.flush();
+            }
+        }
+        bufferedOutputStream.flush();
+        if (nbDroppedFrames > 0) {
+            logger.warn("[{}] frames not matching the sample rate of the first piece have been dropped from the splice", nbDroppedFrames);
+        }
+        return new SpliceResult(nbFrames, nbBytes, nbDroppedFrames);
+    }
+
+    private static long toEpochNanos(Instant instant) {
+        return (instant.getEpochSecond() * 1_000_000_000L) + instant.getNano();
+    }
+
+}
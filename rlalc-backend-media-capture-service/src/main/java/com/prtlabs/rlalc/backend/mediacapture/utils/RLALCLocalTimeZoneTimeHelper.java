@@ -24,4 +24,12 @@ public class RLALCLocalTimeZoneTimeHelper {
         return currentDayForProgramAsYYYYMMDD;
     }
 
+    /**
+     * Build a string with the day of the specified instant in the specified TimeZone
+     * @param timeZone Example value: Europe/Paris, "America/New_York", ...
+     */
+    public String getDayForProgramAsYYYYMMDD(ZoneId timeZone, Instant instant) {
+        return instant.atZone(timeZone).format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+    }
+
 }
@@ -0,0 +1,47 @@
+package com.prtlabs.rlalc.backend.mediacapture.entrypoint.embeddedrestserver.embeddedtomcatwithjersey.mediaserving;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link ChunkStreamingServlet}.
+ */
+public class ChunkStreamingServletTest {
+
+    @Test
+    public void testParseRange() {
+        assertEquals(new ChunkStreamingServlet.ByteRange(0, 99), ChunkStreamingServlet.parseRange("bytes=0-99", 1000));
+        assertEquals(new ChunkStreamingServlet.ByteRange(500, 999), ChunkStreamingServlet.parseRange("bytes=500-", 1000));
+        assertEquals(new ChunkStreamingServlet.ByteRange(900, 999), ChunkStreamingServlet.parseRange("bytes=-100", 1000));
+        assertEquals(new ChunkStreamingServlet.ByteRange(900, 999), ChunkStreamingServlet.parseRange("bytes=900-5000", 1000), "The end of the range must be clipped to the chunk");
+        assertSame(ChunkStreamingServlet.UNSATISFIABLE_RANGE, ChunkStreamingServlet.parseRange("bytes=1000-", 1000));
+        assertNull(ChunkStreamingServlet.parseRange("bytes=0-99,200-299", 1000), "Multiple ranges are ignored (the whole chunk is served)");
+        assertNull(ChunkStreamingServlet.parseRange("bytes=99-0", 1000), "Invalid ranges are ignored");
+        assertNull(ChunkStreamingServlet.parseRange("items=0-99", 1000), "Other units are ignored");
+    }
+
+    @Test
+    public void testETagMatching() {
+        String eTag = ChunkStreamingServlet.buildETag(1000, 1735718400000L);
+
+        assertTrue(ChunkStreamingServlet.matchesETag(eTag, eTag));
+        assertTrue(ChunkStreamingServlet.matchesETag("\"other\", " + eTag, eTag));
+        assertTrue(ChunkStreamingServlet.matchesETag("W/" + eTag, eTag));
+        assertTrue(ChunkStreamingServlet.matchesETag("*", eTag));
+        assertFalse(ChunkStreamingServlet.matchesETag(ChunkStreamingServlet.buildETag(1001, 1735718400000L), eTag), "A growing chunk must not match its previous ETag");
+    }
+
+    @Test
+    public void testOnlyTheFilesUnderTheMediaRootAreResolved() {
+        ChunkStreamingServlet servlet = new ChunkStreamingServlet(Paths.get("/opt/prtlabs/radiolivealacarte/datastore/media"));
+
+        assertEquals(Paths.get("/opt/prtlabs/radiolivealacarte/datastore/media/mp3/program/chunk.mp3"), servlet.resolveChunkPath("/mp3/program/chunk.mp3"));
+        assertNull(servlet.resolveChunkPath("/../../conf/rlalc-backend-media-capture-service.conf"));
+        assertNull(servlet.resolveChunkPath("/"));
+        assertNull(servlet.resolveChunkPath(null));
+    }
+
+}
@@ -1,14 +1,33 @@
 package com.prtlabs.rlalc.backend.mediacapture.services;
 
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.IMediaCapturePlanningLoader;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.dto.MediaCapturePlanningDTO;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.MediaOutputRendition;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.MediaCaptureScheduler;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.domain.ProgramId;
 import org.glassfish.hk2.api.ServiceLocator;
 import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
 import com.prtlabs.rlalc.backend.mediacapture.entrypoint.MediaCaptureServiceHK2Module;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.IRLALCMediaCaptureService;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.RLALCMediaCaptureServiceImpl;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import java.io.File;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Test for {@link RLALCMediaCaptureServiceImpl}.
@@ -29,4 +48,61 @@ public class RLALCMediaCaptureServiceImplTest {
         // Simply verify that the start method doesn't throw any exceptions
         assertDoesNotThrow(() -> service.startMediaCapture());
     }
+
+    @Test
+    public void testProgramOnAirIsInitializedBeforeItsStart() throws Exception {
+        // A program which started a minute ago: its start job fires as soon as the scheduler is started
+        ProgramDescriptorDTO programOnAir = new ProgramDescriptorDTO(new ProgramId(UUID.randomUUID().toString()), "France Inter", "http://direct.franceinter.fr/live/franceinter-midfi.mp3", Instant.now().minusSeconds(60).getEpochSecond(), 600, ZoneId.of("Europe/Paris"));
+        OrderRecordingMediaRecorder mediaRecorder = new OrderRecordingMediaRecorder();
+        ServiceLocator serviceLocator = ServiceLocatorUtilities.createAndPopulateServiceLocator();
+        ServiceLocatorUtilities.bind(serviceLocator, new MediaCaptureServiceHK2Module());
+        ServiceLocatorUtilities.bind(serviceLocator, new AbstractBinder() {
+            @Override
+            protected void configure() {
+                bind(mediaRecorder).to(IMediaRecorder.class).ranked(10);
+                bind((IMediaCapturePlanningLoader) () -> MediaCapturePlanningDTO.builder().programsToCapture(List.of(programOnAir)).build()).to(IMediaCapturePlanningLoader.class).ranked(10);
+            }
+        });
+
+        try {
+            serviceLocator.getService(IRLALCMediaCaptureService.class).startMediaCapture();
+            assertTrue(mediaRecorder.started.await(10, TimeUnit.SECONDS));
+            // The PENDING state of the initialization must not overwrite the ONGOING state of the start
+            assertEquals(List.of("init", "start"), mediaRecorder.calls);
+        } finally {
+            serviceLocator.getService(MediaCaptureScheduler.class).shutdown();
+        }
+    }
+
+
+    private static class OrderRecordingMediaRecorder implements IMediaRecorder {
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        @Override
+        public void initBeforeRecording(ProgramDescriptorDTO programDescriptor) {
+            try {
+                Thread.sleep(200);    // Slow storage
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            calls.add("init");
+        }
+
+        @Override
+        public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters, Instant recordingStart) {
+            startRecording(programDescriptor, renditions, recorderSpecificParameters);
+        }
+
+        @Override
+        public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters) {
+            calls.add("start");
+            started.countDown();
+        }
+
+        @Override public void stopRecording(ProgramId programId) {}
+        @Override public Map<ProgramId, RecordingStatus> getRecordingStatuses() { return Map.of(); }
+        @Override public List<File> getChunkFiles(ProgramId programId, Instant day) { return List.of(); }
+    }
+
 }
@@ -0,0 +1,149 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.Mp3ChunkSegmentWriter;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link RecordingChunkIndex} and for its incremental maintenance by the {@link RecordingChunkIndexService}.
+ */
+public class RecordingChunkIndexTest {
+
+    // MPEG1 - Layer III - 128kbps - 44.1kHz - no padding: 417 bytes and 1152 samples (~26ms) per frame
+    private static final byte[] FRAME_HEADER = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x44 };
+    private static final int FRAME_LENGTH = 417;
+
+    @TempDir
+    Path tempDir;
+
+
+    @Test
+    public void testTimeRangeQuery() throws IOException {
+        // A chunk every 10s from 08:00:00 to 08:09:50
+        Instant firstChunkStart = Instant.parse("2025-03-10T08:00:00Z");
+        for (int i = 0; i < 60; i++) {
+            createChunk(tempDir, ZoneOffset.UTC, firstChunkStart.plusSeconds(i * 10L));
+        }
+        Files.write(tempDir.resolve("recording-manifest.json"), new byte[] { 0 });    // Not a chunk
+        RecordingChunkIndex index = new RecordingChunkIndex(tempDir, ZoneOffset.UTC);
+        index.reload();
+
+        assertEquals(60, index.size());
+        // The chunk started at 08:01:00 overlaps [08:01:05, 08:01:25), the one started at 08:01:30 doesn't
+        List<File> chunks = index.getChunks(Instant.parse("2025-03-10T08:01:05Z"), Instant.parse("2025-03-10T08:01:25Z"));
+        assertEquals(List.of(Instant.parse("2025-03-10T08:01:00Z"), Instant.parse("2025-03-10T08:01:10Z"), Instant.parse("2025-03-10T08:01:20Z")),
+            chunks.stream().map(chunk -> RecordingChunkIndex.parseChunkStart(chunk.getName(), ZoneOffset.UTC)).toList());
+    }
+
+    @Test
+    public void testIndexFollowsTheRecordingDirectory() throws Exception {
+        RecordingChunkIndexService recordingChunkIndexService = new RecordingChunkIndexService();
+        Instant firstChunkStart = Instant.parse("2025-03-10T08:00:00Z");
+        createChunk(tempDir, ZoneId.systemDefault(), firstChunkStart);
+        RecordingChunkIndex index = recordingChunkIndexService.getIndex(tempDir.toString());
+        assertEquals(1, index.size(), "The existing chunks are indexed when the index is created");
+
+        // The chunks written afterwards are indexed without any listing of the directory
+        Path secondChunk = createChunk(tempDir, ZoneId.systemDefault(), firstChunkStart.plusSeconds(10));
+        assertTrue(waitForIndexSize(index, 2), "The new chunk must be indexed");
+        Files.delete(secondChunk);
+        assertTrue(waitForIndexSize(index, 1), "The deleted chunk must be removed from the index");
+        assertSame(index, recordingChunkIndexService.getIndex(tempDir.toString()));
+    }
+
+    @Test
+    public void testIndexIsReleasedWhenTheRecordingEnds() throws Exception {
+        RecordingChunkIndexService recordingChunkIndexService = new RecordingChunkIndexService();
+        Instant firstChunkStart = Instant.parse("2025-03-10T08:00:00Z");
+        createChunk(tempDir, ZoneId.systemDefault(), firstChunkStart);
+        RecordingChunkIndex index = recordingChunkIndexService.getIndex(tempDir.toString());
+        int nbIndexedDirectories = recordingChunkIndexService.getNbIndexedDirectories();
+
+        // The directory isn't watched anymore, and its index is dropped
+        recordingChunkIndexService.releaseIndex(tempDir.toString());
+        assertEquals(nbIndexedDirectories - 1, recordingChunkIndexService.getNbIndexedDirectories());
+        createChunk(tempDir, ZoneId.systemDefault(), firstChunkStart.plusSeconds(10));
+        Thread.sleep(500);
+        assertEquals(1, index.size(), "The released index must not follow the directory anymore");
+
+        // It's rebuilt if it's needed again
+        RecordingChunkIndex rebuiltIndex = recordingChunkIndexService.getIndex(tempDir.toString());
+        assertNotSame(index, rebuiltIndex);
+        assertEquals(2, rebuiltIndex.size());
+        recordingChunkIndexService.releaseIndex(tempDir.toString());
+    }
+
+
+    @Test
+    public void testSeek() throws IOException {
+        // 25 seconds of audio written in 10 seconds chunks (their seek tables are published as they are written)
+        Instant timelineStart = Instant.parse("2025-03-10T08:00:00Z");
+        byte[] frame = new byte[FRAME_LENGTH];
+        System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+        Mp3FrameHeader frameHeader = Mp3FrameHeader.parse(frame, 0);
+        try (Mp3ChunkSegmentWriter chunkSegmentWriter = new Mp3ChunkSegmentWriter(tempDir, "rec", timelineStart, Duration.ofSeconds(10), ZoneOffset.UTC)) {
+            for (int i = 0; i < 960; i++) { chunkSegmentWriter.writeFrame(frame, frameHeader); }
+        }
+        RecordingChunkIndex index = new RecordingChunkIndex(tempDir, ZoneOffset.UTC);
+        index.reload();
+        assertEquals(3, index.size());
+
+        // 08:00:15.5 is in the second chunk, ~5.5 seconds after its start
+        Instant seekInstant = Instant.parse("2025-03-10T08:00:15.500Z");
+        RecordingChunkIndex.ChunkPosition chunkPosition = index.seek(seekInstant);
+        assertEquals(Instant.parse("2025-03-10T08:00:10Z"), chunkPosition.chunkStart());
+        assertEquals(0, chunkPosition.byteOffset() % FRAME_LENGTH, "The offset must be on a frame boundary");
+        assertFalse(chunkPosition.frameStart().isAfter(seekInstant));
+        assertTrue(chunkPosition.frameStart().plusNanos(ChunkSeekTable.FRAMES_PER_SEEK_POINT * frameHeader.durationNanos()).isAfter(seekInstant));
+        assertEquals(Duration.between(chunkPosition.chunkStart(), chunkPosition.frameStart()).toNanos() / frameHeader.durationNanos() * FRAME_LENGTH, chunkPosition.byteOffset());
+        assertNull(index.seek(timelineStart.minusSeconds(1)), "Nothing was recorded before the first chunk");
+    }
+
+    @Test
+    public void testScannedSeekTable_SkipsTheTagsAndTheXingFrame() throws IOException {
+        // An ID3 tag, a Xing frame, then 20 audio frames (like the chunks written by ffmpeg)
+        byte[] id3Tag = { 0x49, 0x44, 0x33, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00 };
+        byte[] chunkBytes = new byte[id3Tag.length + (21 * FRAME_LENGTH)];
+        System.arraycopy(id3Tag, 0, chunkBytes, 0, id3Tag.length);
+        for (int i = 0; i < 21; i++) { System.arraycopy(FRAME_HEADER, 0, chunkBytes, id3Tag.length + (i * FRAME_LENGTH), FRAME_HEADER.length); }
+        System.arraycopy("Xing".getBytes(), 0, chunkBytes, id3Tag.length + 4 + 32, 4);
+        Path chunk = Files.write(tempDir.resolve("rec_chunk_20250310_080000.mp3"), chunkBytes);
+
+        ChunkSeekTable seekTable = ChunkSeekTables.get(chunk.toFile());
+        long frameDurationNanos = Mp3FrameHeader.parse(FRAME_HEADER, 0).durationNanos();
+        assertEquals(3, seekTable.getNbSeekPoints());
+        assertEquals(new ChunkSeekTable.SeekPoint(id3Tag.length + FRAME_LENGTH, 0), seekTable.getSeekPoint(0), "The first audio frame is after the Xing frame");
+        assertEquals(new ChunkSeekTable.SeekPoint(id3Tag.length + (9 * FRAME_LENGTH), 8 * frameDurationNanos), seekTable.getSeekPoint(10 * frameDurationNanos));
+        assertEquals(new ChunkSeekTable.SeekPoint(id3Tag.length + (17 * FRAME_LENGTH), 16 * frameDurationNanos), seekTable.getSeekPoint(60 * frameDurationNanos), "Past the end of the chunk");
+    }
+
+
+    private static Path createChunk(Path dir, ZoneId chunkNamesTimeZone, Instant chunkStart) throws IOException {
+        String timestamp = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss").withZone(chunkNamesTimeZone).format(chunkStart);
+        return Files.write(dir.resolve("rec_chunk_" + timestamp + ".mp3"), new byte[] { 0 });
+    }
+
+    private static boolean waitForIndexSize(RecordingChunkIndex index, int expectedSize) throws InterruptedException {
+        // The WatchService may poll (every few seconds) on some platforms
+        for (int i = 0; i < 150; i++) {
+            if (index.size() == expectedSize) { return true; }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link CaptureHealthWatchdog}.
+ */
+public class CaptureHealthWatchdogTest {
+
+    @Test
+    public void testStalledCaptureIsRestartedOncePerMaxChunkAge() {
+        CaptureHealthWatchdog captureHealthWatchdog = new CaptureHealthWatchdog();
+        AtomicInteger nbRestarts = new AtomicInteger(0);
+        CaptureHealthWatchdog.CaptureHealth captureHealth = captureHealthWatchdog.watch("rec-test-stalled", new ProgramId("test-stalled"), "Test", nbRestarts::incrementAndGet);
+        try {
+            long startNanos = System.nanoTime();
+
+            // Chunks are produced with a good throughput
+            captureHealth.onBytesReceived(200_000);
+            captureHealth.onChunkProduced(startNanos + TimeUnit.SECONDS.toNanos(10));
+            captureHealth.check(startNanos + TimeUnit.SECONDS.toNanos(10));
+            assertEquals(CaptureHealthWatchdog.HealthState.HEALTHY, captureHealth.getState());
+
+            // Then nothing for more than the max age of the last chunk (45 seconds by default)
+            captureHealth.check(startNanos + TimeUnit.SECONDS.toNanos(60));
+            assertEquals(CaptureHealthWatchdog.HealthState.STALLED, captureHealth.getState());
+            assertEquals(1, nbRestarts.get());
+            captureHealth.check(startNanos + TimeUnit.SECONDS.toNanos(65));
+            assertEquals(1, nbRestarts.get(), "The capture must be given some time to restart");
+            captureHealth.check(startNanos + TimeUnit.SECONDS.toNanos(110));
+            assertEquals(2, nbRestarts.get());
+
+            // The restarted capture produces chunks again
+            captureHealth.onBytesReceived(200_000);
+            captureHealth.onChunkProduced(startNanos + TimeUnit.SECONDS.toNanos(115));
+            captureHealth.check(startNanos + TimeUnit.SECONDS.toNanos(115));
+            assertEquals(CaptureHealthWatchdog.HealthState.HEALTHY, captureHealth.getState());
+
+            CaptureHealthWatchdog.CaptureHealthSnapshot snapshot = captureHealthWatchdog.getSnapshots().stream().filter(s -> s.recordingId().equals("rec-test-stalled")).findFirst().orElseThrow();
+            assertEquals(2, snapshot.nbChunks());
+            assertEquals(400_000, snapshot.totalBytes());
+            assertEquals(105.0, snapshot.averageChunkIntervalSeconds(), 0.001);
+            assertEquals(2, snapshot.nbRestarts());
+        } finally {
+            captureHealthWatchdog.unwatch(captureHealth);
+        }
+        assertTrue(captureHealthWatchdog.getSnapshots().stream().noneMatch(s -> s.recordingId().equals("rec-test-stalled")));
+    }
+
+    @Test
+    public void testLowThroughputIsDegraded() {
+        CaptureHealthWatchdog captureHealthWatchdog = new CaptureHealthWatchdog();
+        CaptureHealthWatchdog.CaptureHealth captureHealth = captureHealthWatchdog.watch("rec-test-degraded", new ProgramId("test-degraded"), "Test", null);
+        try {
+            long startNanos = System.nanoTime();
+            captureHealth.check(startNanos + TimeUnit.SECONDS.toNanos(5));
+            assertEquals(CaptureHealthWatchdog.HealthState.STARTING, captureHealth.getState());
+
+            // 1000 bytes in 10 seconds
+            captureHealth.onBytesReceived(1000);
+            captureHealth.onChunkProduced(startNanos + TimeUnit.SECONDS.toNanos(15));
+            captureHealth.check(startNanos + TimeUnit.SECONDS.toNanos(15));
+            assertEquals(CaptureHealthWatchdog.HealthState.DEGRADED, captureHealth.getState());
+        } finally {
+            captureHealthWatchdog.unwatch(captureHealth);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link FinishedRecordingsHistory}.
+ */
+public class FinishedRecordingsHistoryTest {
+
+    private static final Instant NOW = Instant.parse("2025-01-01T08:00:00Z");
+
+    @Test
+    public void testOnlyTheLastFinishedRecordingOfAProgramIsKept() {
+        FinishedRecordingsHistory history = new FinishedRecordingsHistory(Duration.ofHours(48), 100);
+        ProgramId programId = new ProgramId(UUID.randomUUID().toString());
+
+        history.add(programId, new FinishedRecordingsHistory.FinishedRecording("rec-1", "/tmp/program", NOW.minus(Duration.ofDays(1))));
+        history.add(programId, new FinishedRecordingsHistory.FinishedRecording("rec-2", "/tmp/program", NOW));
+
+        assertEquals(1, history.size());
+        assertEquals("rec-2", history.get(programId, NOW).recordingId());
+    }
+
+    @Test
+    public void testExpiredAndOldestRecordingsAreEvicted() {
+        FinishedRecordingsHistory history = new FinishedRecordingsHistory(Duration.ofHours(48), 2);
+        ProgramId expiredProgramId = new ProgramId(UUID.randomUUID().toString());
+        ProgramId oldestProgramId = new ProgramId(UUID.randomUUID().toString());
+        ProgramId programId1 = new ProgramId(UUID.randomUUID().toString());
+        ProgramId programId2 = new ProgramId(UUID.randomUUID().toString());
+
+        history.add(expiredProgramId, new FinishedRecordingsHistory.FinishedRecording("rec-expired", "/tmp/expired", NOW.minus(Duration.ofHours(49))));
+        assertNull(history.get(expiredProgramId, NOW), "A recording finished before the retention must be evicted");
+
+        history.add(oldestProgramId, new FinishedRecordingsHistory.FinishedRecording("rec-oldest", "/tmp/oldest", NOW.minus(Duration.ofHours(2))));
+        history.add(programId1, new FinishedRecordingsHistory.FinishedRecording("rec-1", "/tmp/1", NOW.minus(Duration.ofHours(1))));
+        history.add(programId2, new FinishedRecordingsHistory.FinishedRecording("rec-2", "/tmp/2", NOW));
+
+        assertEquals(2, history.getAll(NOW).size(), "The history must be bounded");
+        assertNull(history.get(oldestProgramId, NOW), "The oldest recording must be evicted first");
+        assertNotNull(history.get(programId1, NOW));
+        assertNotNull(history.get(programId2, NOW));
+    }
+
+}
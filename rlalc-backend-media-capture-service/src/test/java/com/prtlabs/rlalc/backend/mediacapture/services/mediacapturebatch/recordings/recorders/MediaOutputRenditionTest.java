@@ -0,0 +1,47 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.ffmpeg.FFMpegRecorder;
+import com.prtlabs.utils.exceptions.PrtTechnicalRuntimeException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link MediaOutputRendition}.
+ */
+public class MediaOutputRenditionTest {
+
+    @Test
+    public void testFromRecorderSpecificParameters() {
+        List<MediaOutputRendition> renditions = MediaOutputRendition.fromRecorderSpecificParameters(Map.of(
+            MediaOutputRendition.RECORDER_SPECIFIC_PARAMETER_KEY, "archive:mp3:160:32000:2; mobile:mp3:64:22050:1; labeler:WAV:0:16000:1"));
+
+        assertEquals(List.of(
+            new MediaOutputRendition("archive", MediaOutputRendition.Format.MP3, 160, 32000, 2),
+            new MediaOutputRendition("mobile",  MediaOutputRendition.Format.MP3, 64,  22050, 1),
+            new MediaOutputRendition("labeler", MediaOutputRendition.Format.WAV, 0,   16000, 1)
+        ), renditions);
+        assertTrue(MediaOutputRendition.fromRecorderSpecificParameters(Map.of()).isEmpty(), "No rendition defined means the default rendition of the recorder");
+        assertTrue(MediaOutputRendition.parse("source:mp3:0:0:0").isSourcePassthrough());
+    }
+
+    @Test
+    public void testInvalidRenditions() {
+        assertThrows(PrtTechnicalRuntimeException.class, () -> MediaOutputRendition.parse("archive:mp3:160"));
+        assertThrows(PrtTechnicalRuntimeException.class, () -> MediaOutputRendition.parse("archive:ogg:160:32000:2"));
+        assertThrows(PrtTechnicalRuntimeException.class, () -> MediaOutputRendition.parse("../archive:mp3:160:32000:2"));
+        assertThrows(PrtTechnicalRuntimeException.class, () -> MediaOutputRendition.fromRecorderSpecificParameters(Map.of(
+            MediaOutputRendition.RECORDER_SPECIFIC_PARAMETER_KEY, "archive:mp3:160:32000:2;archive:mp3:64:22050:1")));
+    }
+
+    @Test
+    public void testFFMpegOutputArguments() {
+        assertEquals(
+            List.of("-c:a", "pcm_s16le", "-ar", "16000", "-ac", "1", "-f", "segment", "-segment_format", "wav", "-segment_time", "10", "-strftime", "1", "/tmp/labeler/x_chunk_%Y%m%d_%H%M%S.wav"),
+            FFMpegRecorder.buildRenditionOutputArguments(MediaOutputRendition.parse("labeler:wav:0:16000:1"), "/tmp/labeler/x_chunk_%Y%m%d_%H%M%S.wav"));
+    }
+
+}
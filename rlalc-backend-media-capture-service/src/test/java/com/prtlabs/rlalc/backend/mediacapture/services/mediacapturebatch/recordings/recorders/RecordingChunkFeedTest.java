@@ -0,0 +1,86 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link RecordingChunkFeed}.
+ */
+public class RecordingChunkFeedTest {
+
+    @Test
+    public void testPoll_ResumesFromTheCursor() {
+        RecordingChunkFeed recordingChunkFeed = new RecordingChunkFeed();
+        ProgramId programId = new ProgramId(UUID.randomUUID().toString());
+        ProgramId otherProgramId = new ProgramId(UUID.randomUUID().toString());
+        String cursor = recordingChunkFeed.getCurrentCursor();
+        recordingChunkFeed.publish(programId, new File("rec_chunk_20250310_080000.mp3"), Instant.parse("2025-03-10T08:00:00Z"));
+        recordingChunkFeed.publish(otherProgramId, new File("other_chunk_20250310_080000.mp3"), Instant.parse("2025-03-10T08:00:00Z"));
+        recordingChunkFeed.publish(programId, new File("rec_chunk_20250310_080010.mp3"), Instant.parse("2025-03-10T08:00:10Z"));
+
+        // The chunks of the program only, one at a time
+        RecordingChunkFeed.ChunkEvents firstEvents = pollNow(recordingChunkFeed, programId, cursor, 1);
+        assertFalse(firstEvents.resync());
+        assertEquals(List.of("rec_chunk_20250310_080000.mp3"), firstEvents.events().stream().map(event -> event.chunk().getName()).toList());
+        RecordingChunkFeed.ChunkEvents nextEvents = pollNow(recordingChunkFeed, programId, firstEvents.cursor(), 10);
+        assertEquals(List.of("rec_chunk_20250310_080010.mp3"), nextEvents.events().stream().map(event -> event.chunk().getName()).toList());
+        assertEquals(recordingChunkFeed.getCurrentCursor(), nextEvents.cursor());
+
+        // All the programs
+        assertEquals(3, pollNow(recordingChunkFeed, null, cursor, 10).events().size());
+    }
+
+    @Test
+    public void testPoll_WaitsForTheNextChunk() throws InterruptedException {
+        RecordingChunkFeed recordingChunkFeed = new RecordingChunkFeed();
+        ProgramId programId = new ProgramId(UUID.randomUUID().toString());
+        CountDownLatch notified = new CountDownLatch(1);
+        AtomicReference<RecordingChunkFeed.ChunkEvents> notifiedEvents = new AtomicReference<>();
+        recordingChunkFeed.poll(programId, recordingChunkFeed.getCurrentCursor(), 10, chunkEvents -> {
+            notifiedEvents.set(chunkEvents);
+            notified.countDown();
+        });
+
+        // The chunks of the other programs don't wake the consumer up
+        recordingChunkFeed.publish(new ProgramId(UUID.randomUUID().toString()), new File("other_chunk_20250310_080000.mp3"), Instant.parse("2025-03-10T08:00:00Z"));
+        assertFalse(notified.await(200, TimeUnit.MILLISECONDS));
+        recordingChunkFeed.publish(programId, new File("rec_chunk_20250310_080000.mp3"), Instant.parse("2025-03-10T08:00:00Z"));
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(programId), notifiedEvents.get().events().stream().map(RecordingChunkFeed.ChunkEvent::programId).toList());
+
+        // A cancelled wait is not called back
+        Runnable cancelWait = recordingChunkFeed.poll(programId, notifiedEvents.get().cursor(), 10, chunkEvents -> fail("The wait has been cancelled"));
+        cancelWait.run();
+        recordingChunkFeed.publish(programId, new File("rec_chunk_20250310_080010.mp3"), Instant.parse("2025-03-10T08:00:10Z"));
+    }
+
+    @Test
+    public void testPoll_Resync() {
+        RecordingChunkFeed recordingChunkFeed = new RecordingChunkFeed();
+        recordingChunkFeed.publish(new ProgramId(UUID.randomUUID().toString()), new File("rec_chunk_20250310_080000.mp3"), Instant.parse("2025-03-10T08:00:00Z"));
+
+        // A cursor of a previous run of the service
+        RecordingChunkFeed.ChunkEvents chunkEvents = pollNow(recordingChunkFeed, null, "previousRun-42", 10);
+        assertTrue(chunkEvents.resync());
+        assertThrows(IllegalArgumentException.class, () -> recordingChunkFeed.poll(null, "not a cursor", 10, events -> {}));
+    }
+
+
+    private static RecordingChunkFeed.ChunkEvents pollNow(RecordingChunkFeed recordingChunkFeed, ProgramId programId, String cursor, int maxEvents) {
+        AtomicReference<RecordingChunkFeed.ChunkEvents> polledEvents = new AtomicReference<>();
+        recordingChunkFeed.poll(programId, cursor, maxEvents, polledEvents::set);
+        assertNotNull(polledEvents.get(), "The events must be returned right away");
+        return polledEvents.get();
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link RecordingStartAdmissionControl}.
+ */
+public class RecordingStartAdmissionControlTest {
+
+    @Test
+    public void testConcurrentStartsAreBoundedPerHost() {
+        RecordingStartAdmissionControl admissionControl = new RecordingStartAdmissionControl();
+
+        // 4 setups at the same time towards a host by default
+        List<RecordingStartAdmissionControl.StartPermit> permits = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            permits.add(admissionControl.acquire("http://icecast.admission-test.example/station" + i + ".mp3", Duration.ofMillis(100)));
+            assertTrue(permits.get(i).isAdmitted());
+        }
+        RecordingStartAdmissionControl.StartPermit notAdmitted = admissionControl.acquire("http://ICECAST.admission-test.example/station4.mp3", Duration.ofMillis(100));
+        assertFalse(notAdmitted.isAdmitted());
+        notAdmitted.close();
+
+        // The other hosts are not affected
+        try (RecordingStartAdmissionControl.StartPermit otherHost = admissionControl.acquire("http://other.admission-test.example/live.mp3", Duration.ofMillis(100))) {
+            assertTrue(otherHost.isAdmitted());
+        }
+
+        // A permit closed (even twice) gives room for exactly one more setup
+        permits.get(0).close();
+        permits.get(0).close();
+        try (RecordingStartAdmissionControl.StartPermit admitted = admissionControl.acquire("http://icecast.admission-test.example/station4.mp3", Duration.ofMillis(100))) {
+            assertTrue(admitted.isAdmitted());
+            try (RecordingStartAdmissionControl.StartPermit stillNotAdmitted = admissionControl.acquire("http://icecast.admission-test.example/station5.mp3", Duration.ofMillis(100))) {
+                assertFalse(stillNotAdmitted.isAdmitted());
+            }
+        }
+        permits.forEach(RecordingStartAdmissionControl.StartPermit::close);
+    }
+
+}
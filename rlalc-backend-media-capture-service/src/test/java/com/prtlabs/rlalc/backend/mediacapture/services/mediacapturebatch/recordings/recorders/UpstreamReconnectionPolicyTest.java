@@ -0,0 +1,33 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link UpstreamReconnectionPolicy}.
+ */
+public class UpstreamReconnectionPolicyTest {
+
+    @Test
+    public void testBackoffIsExponentialAndCapped() {
+        assertEquals(Duration.ofSeconds(1), UpstreamReconnectionPolicy.computeBackoff(1));
+        assertEquals(Duration.ofSeconds(2), UpstreamReconnectionPolicy.computeBackoff(2));
+        assertEquals(Duration.ofSeconds(16), UpstreamReconnectionPolicy.computeBackoff(5));
+        assertEquals(UpstreamReconnectionPolicy.MAX_BACKOFF, UpstreamReconnectionPolicy.computeBackoff(6));
+        assertEquals(UpstreamReconnectionPolicy.MAX_BACKOFF, UpstreamReconnectionPolicy.computeBackoff(1000), "The backoff must not overflow");
+    }
+
+    @Test
+    public void testGapError() {
+        String gapError = UpstreamReconnectionPolicy.buildGapError(Instant.parse("2025-01-01T07:10:00Z"), Instant.parse("2025-01-01T07:10:45Z"));
+
+        assertTrue(gapError.startsWith(UpstreamReconnectionPolicy.GAP_ERROR_PREFIX));
+        assertTrue(gapError.contains("[2025-01-01T07:10:00Z]") && gapError.contains("[2025-01-01T07:10:45Z]"));
+        assertTrue(gapError.contains("45secs"));
+    }
+
+}
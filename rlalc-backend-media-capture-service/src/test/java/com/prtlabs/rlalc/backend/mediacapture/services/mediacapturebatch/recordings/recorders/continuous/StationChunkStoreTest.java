@@ -0,0 +1,99 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.continuous;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.dto.RecurringProgramDTO;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link StationChunkStore}, and for the slicing of the Programs over it (see {@link ContinuousStationRecorder}).
+ */
+public class StationChunkStoreTest {
+
+    private static final String STREAM_URL = "http://direct.franceinter.fr/live/franceinter-midfi.mp3";
+    private static final DateTimeFormatter CHUNK_TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss").withZone(ZoneOffset.UTC);
+
+    @TempDir
+    Path tempDir;
+
+
+    @Test
+    public void testProgramSlicedAcrossUTCMidnight() throws IOException {
+        // A chunk every 10s from 23:58 to 00:02 UTC (the chunks are in two day directories)
+        StationChunkStore stationChunkStore = new StationChunkStore(tempDir);
+        String stationKey = StationChunkStore.buildStationKey(STREAM_URL);
+        Instant firstChunkStart = Instant.parse("2025-03-09T23:58:00Z");
+        for (int i = 0; i < 24; i++) {
+            createChunk(stationChunkStore, stationKey, firstChunkStart.plusSeconds(i * 10L));
+        }
+
+        // A daily program from 00:59:55 to 01:00:25 in Paris (UTC+1) is the time range 23:59:55 to 00:00:25 UTC
+        ProgramDescriptorDTO program = new ProgramDescriptorDTO(new ProgramId("7bf97a79-9612-411d-966b-657b6d77443e"), "Le journal", STREAM_URL,
+            Instant.parse("2025-01-01T23:59:55Z").getEpochSecond(), 30, ZoneId.of("Europe/Paris"));
+        RecurringProgramDTO everyDay = RecurringProgramDTO.builder().uuid(program.getUuid()).localStartTime(LocalTime.of(0, 59, 55)).durationSeconds(30).timeZone(ZoneId.of("Europe/Paris")).daysOfWeek(Set.of()).build();
+        ContinuousStationRecorder.ProgramTimeRange programTimeRange = ContinuousStationRecorder.computeProgramTimeRange(program, everyDay, Instant.parse("2025-03-10T12:00:00Z"));
+        assertEquals(Instant.parse("2025-03-09T23:59:55Z"), programTimeRange.start());
+        assertEquals(Instant.parse("2025-03-10T00:00:25Z"), programTimeRange.end());
+
+        // The chunks overlapping the program are the ones starting from 23:59:50 (it ends during the program) to 00:00:20
+        List<File> chunks = stationChunkStore.findChunks(stationKey, programTimeRange.start(), programTimeRange.end());
+        assertEquals(List.of("20250309_235950", "20250310_000000", "20250310_000010", "20250310_000020"),
+            chunks.stream().map(chunk -> CHUNK_TIMESTAMP_FORMATTER.format(StationChunkStore.parseChunkStart(chunk.getName()))).toList());
+    }
+
+    @Test
+    public void testProgramTimeRangeOnlyOnTheDaysItAirs() {
+        ProgramDescriptorDTO program = new ProgramDescriptorDTO(new ProgramId("7bf97a79-9612-411d-966b-657b6d77443e"), "Le 7/9", STREAM_URL,
+            Instant.parse("2025-03-10T06:00:00Z").getEpochSecond(), 7200, ZoneId.of("Europe/Paris"));
+
+        // A program recurring on weekdays (2025-03-14 is a Friday)
+        RecurringProgramDTO weekdays = RecurringProgramDTO.builder().uuid(program.getUuid()).localStartTime(LocalTime.of(7, 0)).durationSeconds(7200).timeZone(ZoneId.of("Europe/Paris"))
+            .daysOfWeek(Set.of(DayOfWeek.MONDAY, DayOfWeek.TUESDAY, DayOfWeek.WEDNESDAY, DayOfWeek.THURSDAY, DayOfWeek.FRIDAY)).build();
+        assertEquals(Instant.parse("2025-03-14T06:00:00Z"), ContinuousStationRecorder.computeProgramTimeRange(program, weekdays, Instant.parse("2025-03-14T12:00:00Z")).start());
+        assertNull(ContinuousStationRecorder.computeProgramTimeRange(program, weekdays, Instant.parse("2025-03-15T12:00:00Z")));
+
+        // A one-time program only airs on its own day
+        assertEquals(Instant.parse("2025-03-10T06:00:00Z"), ContinuousStationRecorder.computeProgramTimeRange(program, null, Instant.parse("2025-03-10T20:00:00Z")).start());
+        assertNull(ContinuousStationRecorder.computeProgramTimeRange(program, null, Instant.parse("2025-03-11T06:00:00Z")));
+    }
+
+    @Test
+    public void testPurgeDaysBefore() throws IOException {
+        StationChunkStore stationChunkStore = new StationChunkStore(tempDir);
+        String stationKey = StationChunkStore.buildStationKey(STREAM_URL);
+        for (int day = 1; day <= 5; day++) {
+            createChunk(stationChunkStore, stationKey, Instant.parse("2025-03-0" + day + "T12:00:00Z"));
+        }
+
+        stationChunkStore.purgeDaysBefore(stationKey, LocalDate.of(2025, 3, 4));
+
+        assertFalse(Files.exists(stationChunkStore.getDayDir(stationKey, LocalDate.of(2025, 3, 3))));
+        assertTrue(Files.exists(stationChunkStore.getDayDir(stationKey, LocalDate.of(2025, 3, 4))));
+        assertEquals(2, stationChunkStore.findChunks(stationKey, Instant.parse("2025-03-01T00:00:00Z"), Instant.parse("2025-03-06T00:00:00Z")).size());
+    }
+
+
+    private static void createChunk(StationChunkStore stationChunkStore, String stationKey, Instant chunkStart) throws IOException {
+        Path dayDir = stationChunkStore.getDayDir(stationKey, chunkStart.atZone(ZoneOffset.UTC).toLocalDate());
+        Files.createDirectories(dayDir);
+        Files.write(dayDir.resolve(stationKey + "_chunk_" + CHUNK_TIMESTAMP_FORMATTER.format(chunkStart) + ".mp3"), new byte[] { 0 });
+    }
+
+}
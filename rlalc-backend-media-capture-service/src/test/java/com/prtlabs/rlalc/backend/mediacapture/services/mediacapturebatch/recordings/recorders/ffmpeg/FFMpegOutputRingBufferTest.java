@@ -0,0 +1,104 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.ffmpeg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link FFMpegOutputRingBuffer}.
+ */
+public class FFMpegOutputRingBufferTest {
+
+    // Lines of an ffmpeg process started with '-loglevel level+info'
+    private static final String PROGRESS_LINE = "[info] size=     512kB time=00:00:32.70 bitrate= 128.3kbits/s speed=   1x";
+    private static final String ERROR_LINE    = "[http @ 0x55d0c8a3e0c0] [error] HTTP error 503 Service Unavailable";
+    private static final String WARNING_LINE  = "[http @ 0x55d0c8a3e0c0] [warning] Will reconnect at 1048576 in 0 second(s), error=Connection reset by peer.";
+
+
+    @Test
+    public void testClassify() {
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.PROGRESS, FFMpegOutputRingBuffer.classify(PROGRESS_LINE));
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.ERROR,    FFMpegOutputRingBuffer.classify(ERROR_LINE));
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.WARNING,  FFMpegOutputRingBuffer.classify(WARNING_LINE));
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.INFO,     FFMpegOutputRingBuffer.classify("[info] Input #0, mp3, from 'http://stream.example.com/live.mp3':"));
+    }
+
+    @Test
+    public void testClassify_UsesTheLevelAndNotTheContentOfTheLines() {
+        // Errors, whatever their wording
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.ERROR,   FFMpegOutputRingBuffer.classify("[in#0 @ 0x5581e2c3f740] [error] Error opening input: Server returned 5XX Server Error reply"));
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.ERROR,   FFMpegOutputRingBuffer.classify("[fatal] Error opening input files: Server returned 5XX Server Error reply"));
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.ERROR,   FFMpegOutputRingBuffer.classify("[tcp @ 0x5581e2c41b00] [error] Connection to tcp://stream.example.com:80 failed: Connection refused"));
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.WARNING, FFMpegOutputRingBuffer.classify("[mp3float @ 0x55d0c8a52a40] [warning] Header missing"));
+
+        // Information which happens to contain 'error', 'invalid' or 'failed' (stream metadata, file names, ...)
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.INFO, FFMpegOutputRingBuffer.classify("[info]     icy-name        : Error FM - No Invalid Songs"));
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.INFO, FFMpegOutputRingBuffer.classify("[info]     StreamTitle     : The Failed Experiments - Live"));
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.INFO, FFMpegOutputRingBuffer.classify("[segment @ 0x55d0c8a3e0c0] [info] Opening '/data/error-fm/rec_chunk_20250101_070010.mp3' for writing"));
+
+        // The lines without a level are not written by ffmpeg (the end of the output is reported anyway if it fails)
+        assertEquals(FFMpegOutputRingBuffer.LineCategory.INFO, FFMpegOutputRingBuffer.classify("bash: line 1: ffmpeg: command not found"));
+    }
+
+    @Test
+    public void testParseProgressLines() {
+        assertEquals(512 * 1024, FFMpegOutputRingBuffer.parseProgressSizeBytes(PROGRESS_LINE));
+        assertEquals(512 * 1024, FFMpegOutputRingBuffer.parseProgressSizeBytes("size=     512kB time=00:00:32.70 bitrate= 128.3kbits/s speed=   1x"));
+        assertEquals(2 * 1024 * 1024, FFMpegOutputRingBuffer.parseProgressSizeBytes("size=       2MiB time=00:02:10.00 bitrate= 128.0kbits/s speed=   1x"));
+        assertEquals(-1, FFMpegOutputRingBuffer.parseProgressSizeBytes("size=N/A time=00:00:32.70 bitrate=N/A speed=   1x"));
+        assertEquals(-1, FFMpegOutputRingBuffer.parseProgressSizeBytes(ERROR_LINE));
+        assertEquals("Output #0, segment, to '/data/rec_chunk_%Y%m%d_%H%M%S.mp3':", FFMpegOutputRingBuffer.stripLevel("[info] Output #0, segment, to '/data/rec_chunk_%Y%m%d_%H%M%S.mp3':"));
+        assertTrue(FFMpegOutputRingBuffer.isChunkOpenedLine("[segment @ 0x55d0c8a3e0c0] [info] Opening '/data/rec_chunk_20250101_070010.mp3' for writing"));
+        assertTrue(FFMpegOutputRingBuffer.isChunkOpenedLine("[segment @ 0x55d0c8a3e0c0] Opening '/data/rec_chunk_20250101_070010.mp3' for writing"));
+        assertFalse(FFMpegOutputRingBuffer.isChunkOpenedLine(PROGRESS_LINE));
+        assertEquals("/data/rec_chunk_20250101_070010.mp3", FFMpegOutputRingBuffer.parseOpenedChunkPath("[segment @ 0x55d0c8a3e0c0] Opening '/data/rec_chunk_20250101_070010.mp3' for writing"));
+        assertNull(FFMpegOutputRingBuffer.parseOpenedChunkPath(PROGRESS_LINE));
+    }
+
+    @Test
+    public void testKeepsOnlyTheLastLines() {
+        FFMpegOutputRingBuffer ringBuffer = new FFMpegOutputRingBuffer(5, 2);
+        for (int i = 0; i < 12; i++) {
+            ringBuffer.append("line " + i);
+        }
+
+        assertEquals(List.of("line 7", "line 8", "line 9", "line 10", "line 11"), ringBuffer.getLastLines());
+        assertEquals(12, ringBuffer.getNbLines());
+        assertEquals(7, ringBuffer.getNbDroppedLines());
+    }
+
+    @Test
+    public void testBuildManifestErrors_OnlyReportsClassifiedErrors() {
+        // No errors and a normal exit: nothing in the manifest
+        FFMpegOutputRingBuffer ringBuffer = new FFMpegOutputRingBuffer(5, 2);
+        for (int i = 0; i < 1000; i++) {
+            ringBuffer.append(PROGRESS_LINE);
+        }
+        assertTrue(ringBuffer.buildManifestErrors(0).isEmpty());
+
+        // Errors are not pushed out by the progress lines, and only the last ones are kept
+        ringBuffer.append(WARNING_LINE);
+        ringBuffer.append(ERROR_LINE + " #1");
+        ringBuffer.append(ERROR_LINE + " #2");
+        for (int i = 0; i < 1000; i++) {
+            ringBuffer.append(PROGRESS_LINE);
+        }
+        List<String> manifestErrors = ringBuffer.buildManifestErrors(0);
+        assertEquals(3, manifestErrors.size());
+        assertTrue(manifestErrors.get(0).contains("errors=[2], warnings=[1], errors/warnings not kept=[1]"), manifestErrors.get(0));
+        assertEquals(List.of(ERROR_LINE + " #1", ERROR_LINE + " #2"), manifestErrors.subList(1, 3));
+    }
+
+    @Test
+    public void testBuildManifestErrors_AddsTheEndOfTheOutputOnFailure() {
+        FFMpegOutputRingBuffer ringBuffer = new FFMpegOutputRingBuffer(5, 2);
+        ringBuffer.append(PROGRESS_LINE);
+        ringBuffer.append("Exiting normally, received signal 15.");
+
+        List<String> manifestErrors = ringBuffer.buildManifestErrors(255);
+        assertEquals(List.of(PROGRESS_LINE, "Exiting normally, received signal 15."), manifestErrors.subList(1, manifestErrors.size()));
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link Mp3ChunkSegmentWriter} and for the {@link Mp3FrameReader} it is fed by.
+ */
+public class Mp3ChunkSegmentWriterTest {
+
+    // MPEG1 - Layer III - 128kbps - 44.1kHz - no padding: 417 bytes and 1152 samples (~26ms) per frame
+    private static final byte[] FRAME_HEADER = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x44 };
+    private static final int FRAME_LENGTH = 417;
+
+    @TempDir
+    Path tempDir;
+
+
+    @Test
+    public void testParseFrameHeader() {
+        Mp3FrameHeader header = Mp3FrameHeader.parse(FRAME_HEADER, 0);
+
+        assertNotNull(header);
+        assertEquals(Mp3FrameHeader.MPEG_VERSION_1, header.mpegVersion());
+        assertEquals(3, header.layer());
+        assertEquals(128, header.bitrateKbps());
+        assertEquals(44100, header.sampleRateHz());
+        assertEquals(FRAME_LENGTH, header.frameLengthBytes());
+        assertEquals(1152, header.samplesPerFrame());
+        assertNull(Mp3FrameHeader.parse(new byte[] { 0x49, 0x44, 0x33, 0x04 }, 0), "An ID3 tag is not a frame header");
+    }
+
+    @Test
+    public void testReadFrames_SkipsGarbageBeforeFirstFrame() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(new byte[] { 0x49, 0x44, 0x33, (byte) 0xFF, (byte) 0xFB, 0x00, 0x12 });    // Garbage, including a false sync
+        stream.write(buildFrames(3));
+
+        Mp3FrameReader frameReader = new Mp3FrameReader(new ByteArrayInputStream(stream.toByteArray()));
+        byte[] frameBuffer = new byte[Mp3FrameReader.MAX_FRAME_LENGTH_BYTES];
+        int nbFrames = 0;
+        while (frameReader.readNextFrame(frameBuffer) != null) {
+            nbFrames++;
+        }
+
+        assertEquals(3, nbFrames);
+        assertEquals(7, frameReader.getSkippedBytes());
+    }
+
+    @Test
+    public void testWriteFrames_CutsChunksOnFrameBoundaries() throws IOException {
+        Mp3FrameReader frameReader = new Mp3FrameReader(new ByteArrayInputStream(buildFrames(100)));    // ~2.6 seconds of audio
+        byte[] frameBuffer = new byte[Mp3FrameReader.MAX_FRAME_LENGTH_BYTES];
+
+        try (Mp3ChunkSegmentWriter chunkSegmentWriter = new Mp3ChunkSegmentWriter(tempDir, "test", Instant.parse("2025-01-01T07:00:00Z"), Duration.ofSeconds(1))) {
+            Mp3FrameHeader frameHeader;
+            while ((frameHeader = frameReader.readNextFrame(frameBuffer)) != null) {
+                chunkSegmentWriter.writeFrame(frameBuffer, frameHeader);
+            }
+            assertEquals(2, chunkSegmentWriter.getNbCompletedChunks());
+        }
+
+        // 2 full chunks of 39 frames (1.018s) and the last one with the remaining 22 frames, no partial file left
+        try (Stream<Path> files = Files.list(tempDir)) {
+            List<Path> chunks = files.sorted().collect(Collectors.toList());
+            assertEquals(3, chunks.size());
+            assertTrue(chunks.stream().allMatch(p -> p.getFileName().toString().matches("test_chunk_\\d{8}_\\d{6}\\.mp3")));
+            assertEquals(39L * FRAME_LENGTH, Files.size(chunks.get(0)));
+            assertEquals(39L * FRAME_LENGTH, Files.size(chunks.get(1)));
+            assertEquals(22L * FRAME_LENGTH, Files.size(chunks.get(2)));
+        }
+    }
+
+    @Test
+    public void testSkipGap_NextChunkStartsAfterTheGap() throws IOException {
+        Mp3FrameReader frameReader = new Mp3FrameReader(new ByteArrayInputStream(buildFrames(20)));
+        byte[] frameBuffer = new byte[Mp3FrameReader.MAX_FRAME_LENGTH_BYTES];
+
+        try (Mp3ChunkSegmentWriter chunkSegmentWriter = new Mp3ChunkSegmentWriter(tempDir, "test", Instant.parse("2025-01-01T07:00:00Z"), Duration.ofSeconds(10), ZoneOffset.UTC)) {
+            for (int i = 0; i < 10; i++) {
+                chunkSegmentWriter.writeFrame(frameBuffer, frameReader.readNextFrame(frameBuffer));
+            }
+            // The stream is interrupted for 30 seconds: the chunk before the gap is published right away
+            chunkSegmentWriter.skipGap(Duration.ofSeconds(30));
+            assertEquals(1, chunkSegmentWriter.getNbCompletedChunks());
+            for (int i = 0; i < 10; i++) {
+                chunkSegmentWriter.writeFrame(frameBuffer, frameReader.readNextFrame(frameBuffer));
+            }
+        }
+
+        // The chunk after the gap is on the timeline of the recording (0.26s of audio + 30s of gap)
+        try (Stream<Path> files = Files.list(tempDir)) {
+            List<String> chunkNames = files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+            assertEquals(List.of("test_chunk_20250101_070000.mp3", "test_chunk_20250101_070030.mp3"), chunkNames);
+        }
+    }
+
+
+    private static byte[] buildFrames(int nbFrames) {
+        byte[] frames = new byte[nbFrames * FRAME_LENGTH];
+        for (int i = 0; i < nbFrames; i++) {
+            System.arraycopy(FRAME_HEADER, 0, frames, i * FRAME_LENGTH, FRAME_HEADER.length);
+        }
+        return frames;
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link BoundedBufferPool}, and for the use of its buffers by the {@link Mp3FrameReader}.
+ */
+public class BoundedBufferPoolTest {
+
+    // MPEG1 - Layer III - 128kbps - 44.1kHz - no padding: 417 bytes per frame
+    private static final byte[] FRAME_HEADER = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x44 };
+    private static final int FRAME_LENGTH = 417;
+
+
+    @Test
+    public void testBuffersAreReused() throws InterruptedException {
+        BoundedBufferPool bufferPool = new BoundedBufferPool(1024, 2);
+        byte[] firstBuffer = bufferPool.acquire(Duration.ZERO);
+        byte[] secondBuffer = bufferPool.acquire(Duration.ZERO);
+        assertEquals(1024, firstBuffer.length);
+        assertNotSame(firstBuffer, secondBuffer);
+        assertEquals(2, bufferPool.getNbBuffersInUse());
+
+        bufferPool.release(firstBuffer);
+        assertEquals(1, bufferPool.getNbBuffersInUse());
+        assertSame(firstBuffer, bufferPool.acquire(Duration.ZERO), "A released buffer must be reused");
+        bufferPool.release(firstBuffer);
+        bufferPool.release(secondBuffer);
+        assertEquals(0, bufferPool.getNbBuffersInUse());
+        assertEquals(0, bufferPool.getNbTimesExhausted());
+    }
+
+    @Test
+    public void testExhaustedPoolWaitsForABoundedTime() throws InterruptedException {
+        BoundedBufferPool bufferPool = new BoundedBufferPool(1024, 1);
+        byte[] buffer = bufferPool.acquire(Duration.ZERO);
+
+        // No buffer is released in time
+        assertNull(bufferPool.acquire(Duration.ofMillis(100)));
+        assertEquals(1, bufferPool.getNbTimesExhausted());
+
+        // A buffer released while waiting is handed over
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            bufferPool.release(buffer);
+        });
+        assertSame(buffer, bufferPool.acquire(Duration.ofSeconds(10)));
+        assertEquals(2, bufferPool.getNbTimesExhausted());
+    }
+
+    @Test
+    public void testReadBufferIsGivenBackWhileWaitingForTheStream() throws IOException {
+        BoundedBufferPool bufferPool = new BoundedBufferPool(16 * 1024, 1);
+        byte[] frame = new byte[FRAME_LENGTH];
+        System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+        byte[] frames = new byte[10 * FRAME_LENGTH];
+        for (int i = 0; i < 10; i++) { System.arraycopy(frame, 0, frames, i * FRAME_LENGTH, FRAME_LENGTH); }
+
+        // A stream delivering its frames 1000 bytes at a time, which checks the buffers in use whenever it's waited for
+        InputStream stream = new ByteArrayInputStream(frames) {
+            @Override
+            public synchronized int read() {
+                assertEquals(0, bufferPool.getNbBuffersInUse(), "No buffer must be held while waiting for the stream");
+                return super.read();
+            }
+
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, 1000));
+            }
+        };
+
+        Mp3FrameReader frameReader = new Mp3FrameReader(stream, bufferPool, Duration.ZERO);
+        byte[] frameBuffer = new byte[Mp3FrameReader.MAX_FRAME_LENGTH_BYTES];
+        int nbFrames = 0;
+        Mp3FrameHeader frameHeader;
+        while ((frameHeader = frameReader.readNextFrame(frameBuffer)) != null) {
+            assertEquals(FRAME_LENGTH, frameHeader.frameLengthBytes());
+            nbFrames++;
+        }
+        assertEquals(10, nbFrames, "The frames split across the reads must all be read");
+        frameReader.releaseReadBuffer();
+        assertEquals(0, bufferPool.getNbBuffersInUse());
+    }
+
+    @Test
+    public void testReadFailsWhenNoBufferIsReleasedInTime() throws InterruptedException {
+        BoundedBufferPool bufferPool = new BoundedBufferPool(16 * 1024, 1);
+        byte[] heldBuffer = bufferPool.acquire(Duration.ZERO);
+        byte[] frame = new byte[FRAME_LENGTH];
+        System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+
+        Mp3FrameReader frameReader = new Mp3FrameReader(new ByteArrayInputStream(frame), bufferPool, Duration.ofMillis(50));
+        assertThrows(IOException.class, () -> frameReader.readNextFrame(new byte[Mp3FrameReader.MAX_FRAME_LENGTH_BYTES]));
+        bufferPool.release(heldBuffer);
+    }
+
+}
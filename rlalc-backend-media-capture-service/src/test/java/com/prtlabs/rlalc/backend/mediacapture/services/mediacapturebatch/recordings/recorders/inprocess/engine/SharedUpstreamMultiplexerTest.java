@@ -0,0 +1,176 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.engine;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.hk2.utilities.ServiceLocatorUtilities;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link SharedUpstreamMultiplexer}, with a local HTTP server streaming MP3 frames.
+ */
+public class SharedUpstreamMultiplexerTest {
+
+    // MPEG1 - Layer III - 128kbps - 44.1kHz - no padding: 417 bytes per frame
+    private static final byte[] FRAME_HEADER = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x44 };
+    private static final int FRAME_LENGTH = 417;
+
+    private HttpServer httpServer;
+    private final AtomicInteger nbConnections = new AtomicInteger(0);
+    private SharedUpstreamMultiplexer sharedUpstreamMultiplexer;
+
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        // A never ending MP3 stream (until the client or the server closes the connection)
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.createContext("/live.mp3", exchange -> {
+            nbConnections.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, 0);
+            byte[] frame = new byte[FRAME_LENGTH];
+            System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                while (true) {
+                    body.write(frame);
+                    body.flush();
+                    Thread.sleep(2);
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client is gone
+            }
+        });
+        // A stream which drops after a few frames on its first connection (and then streams normally)
+        httpServer.createContext("/flaky.mp3", exchange -> {
+            int nbFramesBeforeDrop = (nbConnections.incrementAndGet() == 1) ? 10 : Integer.MAX_VALUE;
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, 0);
+            byte[] frame = new byte[FRAME_LENGTH];
+            System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (int i = 0; i < nbFramesBeforeDrop; i++) {
+                    body.write(frame);
+                    body.flush();
+                    Thread.sleep(2);
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client is gone
+            }
+        });
+        httpServer.createContext("/live.aac", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "audio/aac");
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        httpServer.start();
+
+        ServiceLocator serviceLocator = ServiceLocatorUtilities.createAndPopulateServiceLocator();
+        ServiceLocatorUtilities.bind(serviceLocator, new AbstractBinder() {
+            @Override
+            protected void configure() {
+                bind(StreamIngestionEngine.class).to(StreamIngestionEngine.class);
+                bind(SharedUpstreamMultiplexer.class).to(SharedUpstreamMultiplexer.class);
+            }
+        });
+        sharedUpstreamMultiplexer = serviceLocator.getService(SharedUpstreamMultiplexer.class);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        httpServer.stop(0);
+    }
+
+
+    @Test
+    public void testOverlappingCapturesShareTheUpstream() throws Exception {
+        String streamURL = "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/live.mp3";
+        CountingListener firstListener = new CountingListener(20);
+        CountingListener secondListener = new CountingListener(20);
+
+        SharedUpstreamMultiplexer.SharedUpstream firstUpstream = sharedUpstreamMultiplexer.attach(streamURL, firstListener);
+        assertTrue(firstListener.nbFramesReceived.await(10, TimeUnit.SECONDS));
+        SharedUpstreamMultiplexer.SharedUpstream secondUpstream = sharedUpstreamMultiplexer.attach(streamURL, secondListener);
+        assertTrue(secondListener.nbFramesReceived.await(10, TimeUnit.SECONDS));
+
+        assertSame(firstUpstream, secondUpstream);
+        assertEquals(2, firstUpstream.getNbSubscribers());
+        assertEquals(1, nbConnections.get(), "The second capture must not open another connection");
+
+        // The upstream lingers when the captures are detached, and is reused by the next capture (e.g. the program of the next hour)
+        sharedUpstreamMultiplexer.detach(firstUpstream, firstListener);
+        sharedUpstreamMultiplexer.detach(secondUpstream, secondListener);
+        CountingListener nextListener = new CountingListener(20);
+        SharedUpstreamMultiplexer.SharedUpstream nextUpstream = sharedUpstreamMultiplexer.attach(streamURL, nextListener);
+        assertTrue(nextListener.nbFramesReceived.await(10, TimeUnit.SECONDS));
+        assertSame(firstUpstream, nextUpstream);
+        assertEquals(1, nbConnections.get());
+        sharedUpstreamMultiplexer.detach(nextUpstream, nextListener);
+    }
+
+    @Test
+    public void testDroppedUpstreamIsReconnected() throws Exception {
+        String streamURL = "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/flaky.mp3";
+        CountingListener listener = new CountingListener(50);
+
+        SharedUpstreamMultiplexer.SharedUpstream upstream = sharedUpstreamMultiplexer.attach(streamURL, listener);
+        assertTrue(listener.nbGaps.await(10, TimeUnit.SECONDS), "The capture must be told about the gap once the upstream is back");
+        assertTrue(listener.nbFramesReceived.await(10, TimeUnit.SECONDS), "The frames must flow again after the reconnection");
+
+        assertEquals(2, nbConnections.get());
+        assertNull(listener.upstreamEndedError, "The upstream must not end while a capture is attached to it");
+        assertFalse(listener.lastGapEnd.isBefore(listener.lastGapStart));
+        sharedUpstreamMultiplexer.detach(upstream, listener);
+    }
+
+    @Test
+    public void testNonMpegUpstreamIsRejected() {
+        String streamURL = "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/live.aac";
+        UnsupportedUpstreamContentTypeException exception = assertThrows(UnsupportedUpstreamContentTypeException.class, () -> sharedUpstreamMultiplexer.attach(streamURL, new CountingListener(1)));
+        assertEquals("audio/aac", exception.getContentType());
+    }
+
+
+    private static final class CountingListener implements IUpstreamFrameListener {
+        private final CountDownLatch nbFramesReceived;
+        private final CountDownLatch nbGaps = new CountDownLatch(1);
+        private volatile Instant lastGapStart = null;
+        private volatile Instant lastGapEnd = null;
+        private volatile String upstreamEndedError = null;
+
+        private CountingListener(int nbFramesToReceive) {
+            this.nbFramesReceived = new CountDownLatch(nbFramesToReceive);
+        }
+
+        @Override
+        public boolean onFrame(byte[] frameBuffer, Mp3FrameHeader frameHeader) {
+            nbFramesReceived.countDown();
+            return true;
+        }
+
+        @Override
+        public void onUpstreamGap(Instant gapStart, Instant gapEnd) {
+            lastGapStart = gapStart;
+            lastGapEnd = gapEnd;
+            nbGaps.countDown();
+        }
+
+        @Override
+        public void onUpstreamEnded(String error) {
+            upstreamEndedError = error;
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureJob;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureStopJob;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.quartz.*;
+import org.quartz.impl.StdSchedulerFactory;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for the 'jdbc' job store of the {@link MediaCaptureScheduler}.
+ */
+public class MediaCaptureSchedulerTest {
+
+    @TempDir
+    Path tempDir;
+
+
+    @Test
+    public void testJobsSurviveRestarts() throws SchedulerException {
+        String jdbcUrl = "jdbc:h2:file:" + tempDir.resolve("rlalc-quartz");
+        JobKey jobKey = JobKey.jobKey("capture-test");
+
+        // Schedule a job in the future, then stop the scheduler
+        Scheduler scheduler = new StdSchedulerFactory(MediaCaptureScheduler.buildQuartzProperties("RLALCTestScheduler", 2, MediaCaptureScheduler.JOB_STORE_JDBC, jdbcUrl)).getScheduler();
+        JobDetail jobDetail = JobBuilder.newJob(NoOpJob.class).withIdentity(jobKey).usingJobData("programDescAsJson", "{}").build();
+        Trigger trigger = TriggerBuilder.newTrigger()
+            .withIdentity("trigger-test")
+            .startAt(Date.from(Instant.now().plusSeconds(3600)))
+            .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+            .build();
+        scheduler.scheduleJob(jobDetail, trigger);
+        scheduler.shutdown(true);
+
+        // The restarted scheduler has the job, with its data and its trigger
+        Scheduler restartedScheduler = new StdSchedulerFactory(MediaCaptureScheduler.buildQuartzProperties("RLALCTestScheduler", 2, MediaCaptureScheduler.JOB_STORE_JDBC, jdbcUrl)).getScheduler();
+        try {
+            assertTrue(restartedScheduler.checkExists(jobKey));
+            assertEquals("{}", restartedScheduler.getJobDetail(jobKey).getJobDataMap().getString("programDescAsJson"));
+            assertEquals(SimpleTrigger.MISFIRE_INSTRUCTION_FIRE_NOW, restartedScheduler.getTrigger(TriggerKey.triggerKey("trigger-test")).getMisfireInstruction());
+        } finally {
+            restartedScheduler.shutdown(true);
+        }
+    }
+
+    @Test
+    public void testJobsOfTheProgramsRemovedFromThePlanningAreDeleted() throws SchedulerException {
+        String jdbcUrl = "jdbc:h2:file:" + tempDir.resolve("rlalc-quartz");
+
+        // Schedule the planning of 2 programs (and a one-time capture), then stop the scheduler
+        Scheduler scheduler = new StdSchedulerFactory(MediaCaptureScheduler.buildQuartzProperties("RLALCTestScheduler", 2, MediaCaptureScheduler.JOB_STORE_JDBC, jdbcUrl)).getScheduler();
+        Map<JobDetail, Set<? extends Trigger>> planningJobs = new LinkedHashMap<>();
+        addProgramJobs(planningJobs, "program-kept", null);
+        addProgramJobs(planningJobs, "program-removed", null);
+        assertEquals(4, MediaCaptureScheduler.schedulePlanningJobs(scheduler, planningJobs));
+        Map<JobDetail, Set<? extends Trigger>> oneTimeJobs = new LinkedHashMap<>();
+        addProgramJobs(oneTimeJobs, "program-one-time", MediaCaptureScheduler.ONE_TIME_JOBS_GROUP);
+        MediaCaptureScheduler.scheduleJobs(scheduler, oneTimeJobs);
+        scheduler.shutdown(true);
+
+        // The restarted scheduler is given the planning without the removed program: its jobs are deleted, the other ones are kept
+        Scheduler restartedScheduler = new StdSchedulerFactory(MediaCaptureScheduler.buildQuartzProperties("RLALCTestScheduler", 2, MediaCaptureScheduler.JOB_STORE_JDBC, jdbcUrl)).getScheduler();
+        try {
+            Map<JobDetail, Set<? extends Trigger>> newPlanningJobs = new LinkedHashMap<>();
+            addProgramJobs(newPlanningJobs, "program-kept", null);
+            assertEquals(0, MediaCaptureScheduler.schedulePlanningJobs(restartedScheduler, newPlanningJobs), "The jobs already scheduled are kept as is");
+            assertTrue(restartedScheduler.checkExists(JobKey.jobKey("capture-program-kept")));
+            assertTrue(restartedScheduler.checkExists(JobKey.jobKey("stop-program-kept")));
+            assertFalse(restartedScheduler.checkExists(JobKey.jobKey("capture-program-removed")));
+            assertFalse(restartedScheduler.checkExists(JobKey.jobKey("stop-program-removed")));
+            assertFalse(restartedScheduler.checkExists(TriggerKey.triggerKey("trigger-program-removed")));
+            assertTrue(restartedScheduler.checkExists(JobKey.jobKey("capture-program-one-time", MediaCaptureScheduler.ONE_TIME_JOBS_GROUP)));
+        } finally {
+            restartedScheduler.shutdown(true);
+        }
+    }
+
+
+    private static void addProgramJobs(Map<JobDetail, Set<? extends Trigger>> triggersPerJob, String programId, String group) {
+        Date start = Date.from(Instant.now().plusSeconds(3600));
+        triggersPerJob.put(JobBuilder.newJob(MediaCaptureJob.class).withIdentity("capture-" + programId, group).usingJobData(MediaCaptureJob.KEY_PROGRAM_ID, programId).build(),
+            Set.of(TriggerBuilder.newTrigger().withIdentity("trigger-" + programId, group).startAt(start).build()));
+        triggersPerJob.put(JobBuilder.newJob(MediaCaptureStopJob.class).withIdentity("stop-" + programId, group).usingJobData(MediaCaptureJob.KEY_PROGRAM_ID, programId).build(),
+            Set.of(TriggerBuilder.newTrigger().withIdentity("stop-trigger-" + programId, group).startAt(Date.from(start.toInstant().plusSeconds(600))).build()));
+    }
+
+
+    public static class NoOpJob implements Job {
+        @Override
+        public void execute(JobExecutionContext context) {}
+    }
+
+}
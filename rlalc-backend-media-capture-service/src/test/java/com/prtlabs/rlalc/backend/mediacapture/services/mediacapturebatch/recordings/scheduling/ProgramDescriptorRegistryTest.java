@@ -0,0 +1,67 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs.MediaCaptureJob;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.junit.jupiter.api.Test;
+import org.quartz.JobDataMap;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link ProgramDescriptorRegistry}.
+ */
+public class ProgramDescriptorRegistryTest {
+
+    @Test
+    public void testJobsResolveTheRegisteredPrograms() throws JsonProcessingException {
+        ProgramDescriptorRegistry programDescriptorRegistry = new ProgramDescriptorRegistry();
+        ProgramId programId = new ProgramId(UUID.randomUUID().toString());
+        ProgramDescriptorDTO program = new ProgramDescriptorDTO(programId, "France Inter", "http://direct.franceinter.fr/live/franceinter-midfi.mp3", 1761605906L, 1200, ZoneId.of("Europe/Paris"), new HashMap<>(Map.of("renditions", "mp3-128")));
+
+        // The jobs get the registered (immutable) descriptor, without parsing its JSON
+        JobDataMap jobDataMap = programDescriptorRegistry.registerAndBuildJobData(program);
+        ProgramDescriptorDTO resolvedProgram = programDescriptorRegistry.resolve(jobDataMap);
+        assertSame(programDescriptorRegistry.get(programId), resolvedProgram);
+        assertEquals(programId, programDescriptorRegistry.getProgramId(jobDataMap));
+        assertThrows(UnsupportedOperationException.class, () -> resolvedProgram.getRecorderSpecificParameters().put("renditions", "aac-64"));
+
+        // A job persisted before a restart (its Program isn't registered yet) is resolved from its JSON
+        ProgramId otherProgramId = new ProgramId(UUID.randomUUID().toString());
+        JobDataMap persistedJobDataMap = new JobDataMap();
+        persistedJobDataMap.put(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON, jobDataMap.getString(MediaCaptureJob.KEY_PROGRAM_DESC_ASJSON).replace(programId.uuid(), otherProgramId.uuid()));
+        assertEquals("France Inter", programDescriptorRegistry.resolve(persistedJobDataMap).getTitle());
+        assertNotNull(programDescriptorRegistry.get(otherProgramId));
+        assertEquals(otherProgramId, programDescriptorRegistry.getProgramId(persistedJobDataMap));
+    }
+
+    @Test
+    public void testJobsOfEachOccurrenceResolveTheirOwnOccurrence() throws JsonProcessingException {
+        ProgramDescriptorRegistry programDescriptorRegistry = new ProgramDescriptorRegistry();
+        ProgramId programId = new ProgramId(UUID.randomUUID().toString());
+        long startTimeUTCEpochSec = Instant.now().getEpochSecond() + 3600;
+        ProgramDescriptorDTO todayOccurrence = new ProgramDescriptorDTO(programId, "France Inter", "http://direct.franceinter.fr/live/franceinter-midfi.mp3", startTimeUTCEpochSec, 1200, ZoneId.of("Europe/Paris"), Map.of());
+        ProgramDescriptorDTO tomorrowOccurrence = todayOccurrence.toBuilder().startTimeUTCEpochSec(startTimeUTCEpochSec + 86400).build();
+
+        // The occurrences of a recurring Program share its ProgramId: registering the later one doesn't replace the earlier one
+        JobDataMap todayJobDataMap = programDescriptorRegistry.registerAndBuildJobData(todayOccurrence);
+        JobDataMap tomorrowJobDataMap = programDescriptorRegistry.registerAndBuildJobData(tomorrowOccurrence);
+
+        // Each job gets the registered instance of its occurrence (a JSON parsing would build a new one)
+        ProgramDescriptorDTO resolvedTodayOccurrence = programDescriptorRegistry.resolve(todayJobDataMap);
+        ProgramDescriptorDTO resolvedTomorrowOccurrence = programDescriptorRegistry.resolve(tomorrowJobDataMap);
+        assertEquals(startTimeUTCEpochSec, resolvedTodayOccurrence.getStartTimeUTCEpochSec());
+        assertEquals(startTimeUTCEpochSec + 86400, resolvedTomorrowOccurrence.getStartTimeUTCEpochSec());
+        assertSame(resolvedTodayOccurrence, programDescriptorRegistry.resolve(todayJobDataMap));
+        assertSame(resolvedTomorrowOccurrence, programDescriptorRegistry.resolve(tomorrowJobDataMap));
+        assertSame(resolvedTomorrowOccurrence, programDescriptorRegistry.get(programId));
+    }
+
+}
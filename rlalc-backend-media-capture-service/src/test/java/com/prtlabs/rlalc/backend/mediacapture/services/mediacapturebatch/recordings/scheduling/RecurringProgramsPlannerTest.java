@@ -0,0 +1,57 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.planning.dto.RecurringProgramDTO;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link RecurringProgramsPlanner}.
+ */
+public class RecurringProgramsPlannerTest {
+
+    private static final RecurringProgramDTO WEEKDAYS_MORNING_SHOW = RecurringProgramDTO.builder()
+        .uuid(new ProgramId("3e0f8f1e-2f7c-4a43-a2d4-5f0ac4b1e2a1"))
+        .title("Le 7/9")
+        .streamURL("http://direct.franceinter.fr/live/franceinter-midfi.mp3")
+        .daysOfWeek(Set.of(DayOfWeek.MONDAY, DayOfWeek.TUESDAY, DayOfWeek.WEDNESDAY, DayOfWeek.THURSDAY, DayOfWeek.FRIDAY))
+        .localStartTime(LocalTime.of(7, 0))
+        .durationSeconds(7200)
+        .timeZone(ZoneId.of("Europe/Paris"))
+        .build();
+
+
+    @Test
+    public void testOccurrencesFollowTheLocalTimeAcrossDSTChanges() {
+        // The week of the switch to summer time in Europe/Paris (Sunday 2026-03-29)
+        List<ProgramDescriptorDTO> occurrences = RecurringProgramsPlanner.computeOccurrences(WEEKDAYS_MORNING_SHOW, Instant.parse("2026-03-23T00:00:00Z"), Instant.parse("2026-04-01T00:00:00Z"));
+
+        List<Instant> starts = occurrences.stream().map(occurrence -> Instant.ofEpochSecond(occurrence.getStartTimeUTCEpochSec())).toList();
+        assertEquals(List.of(Instant.parse("2026-03-23T06:00:00Z"), Instant.parse("2026-03-24T06:00:00Z"), Instant.parse("2026-03-25T06:00:00Z"),
+                             Instant.parse("2026-03-26T06:00:00Z"), Instant.parse("2026-03-27T06:00:00Z"),
+                             Instant.parse("2026-03-30T05:00:00Z"), Instant.parse("2026-03-31T05:00:00Z")), starts);
+        occurrences.forEach(occurrence -> {
+            assertEquals(WEEKDAYS_MORNING_SHOW.getUuid(), occurrence.getUuid());
+            assertEquals(7200, occurrence.getDurationSeconds());
+        });
+    }
+
+    @Test
+    public void testOnlyTheOccurrencesOverlappingTheWindowAreMaterialized() {
+        // A window starting during the Friday show, and ending when the Monday one starts (07:00 summer time)
+        List<ProgramDescriptorDTO> occurrences = RecurringProgramsPlanner.computeOccurrences(WEEKDAYS_MORNING_SHOW, Instant.parse("2026-03-27T07:00:00Z"), Instant.parse("2026-03-30T05:00:00Z"));
+
+        assertEquals(1, occurrences.size());
+        assertEquals(Instant.parse("2026-03-27T06:00:00Z").getEpochSecond(), occurrences.get(0).getStartTimeUTCEpochSec());
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.quartzjobs;
+
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.MediaOutputRendition;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.scheduling.ProgramDescriptorRegistry;
+import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.quartz.impl.StdSchedulerFactory;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link MediaCaptureJob}.
+ */
+public class MediaCaptureJobTest {
+
+    @Test
+    public void testStartFiresAheadOfTheRecordingToPrewarmIt() {
+        Instant now = Instant.parse("2026-03-23T05:00:00Z");
+
+        // Far enough in the future: the whole pre-warm (5 seconds by default)
+        assertEquals(Date.from(Instant.parse("2026-03-23T05:59:55Z")), MediaCaptureJob.computeStartFireTime(Instant.parse("2026-03-23T06:00:00Z"), now, null));
+
+        // Closer than the pre-warm: fires right now
+        assertEquals(Date.from(now), MediaCaptureJob.computeStartFireTime(now.plusSeconds(2), now, null));
+
+        // Already started: no pre-warm
+        assertEquals(Date.from(now), MediaCaptureJob.computeStartFireTime(now, now, null));
+    }
+
+    @Test
+    public void testStartJitterIsStablePerProgram() {
+        Instant now = Instant.parse("2026-03-23T05:00:00Z");
+        Instant recordingStart = Instant.parse("2026-03-23T06:00:00Z");
+
+        Date fireTime = MediaCaptureJob.computeStartFireTime(recordingStart, now, "7bf97a79-9612-411d-966b-657b6d77443e");
+        long prewarmSeconds = Duration.between(fireTime.toInstant(), recordingStart).getSeconds();
+        assertTrue((prewarmSeconds >= 5) && (prewarmSeconds <= 10), "prewarmSeconds=" + prewarmSeconds);
+
+        // The same Program is always scheduled the same way
+        assertEquals(fireTime, MediaCaptureJob.computeStartFireTime(recordingStart, now, "7bf97a79-9612-411d-966b-657b6d77443e"));
+    }
+
+    @Test
+    public void testMisfiredStartOnlyRecordsWhatRemainsOfTheProgram() throws Exception {
+        // A 10 minutes program which started 5 minutes ago: its start (with its pre-warm) was missed, e.g. during a restart
+        ProgramDescriptorRegistry programDescriptorRegistry = new ProgramDescriptorRegistry();
+        Instant programStart = Instant.now().minusSeconds(300);
+        ProgramDescriptorDTO program = new ProgramDescriptorDTO(new ProgramId(UUID.randomUUID().toString()), "France Inter", "http://direct.franceinter.fr/live/franceinter-midfi.mp3", programStart.getEpochSecond(), 600, ZoneId.of("Europe/Paris"), Map.of());
+        JobDataMap startJobData = new JobDataMap(programDescriptorRegistry.registerAndBuildJobData(program));
+
+        StartRecordingRecorder mediaRecorder = new StartRecordingRecorder();
+        Properties quartzProperties = new Properties();
+        quartzProperties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, "RLALCMediaCaptureJobTest");
+        quartzProperties.setProperty("org.quartz.scheduler.skipUpdateCheck", "true");
+        quartzProperties.setProperty("org.quartz.threadPool.threadCount", "1");
+        quartzProperties.setProperty(StdSchedulerFactory.PROP_JOB_STORE_CLASS, "org.quartz.simpl.RAMJobStore");
+        Scheduler scheduler = new StdSchedulerFactory(quartzProperties).getScheduler();
+        scheduler.setJobFactory((bundle, theScheduler) -> new MediaCaptureJob(mediaRecorder, programDescriptorRegistry));
+        try {
+            scheduler.scheduleJob(JobBuilder.newJob(MediaCaptureJob.class).withIdentity("capture-test").usingJobData(startJobData).build(),
+                TriggerBuilder.newTrigger()
+                    .withIdentity("trigger-test")
+                    .startAt(Date.from(programStart.minusSeconds(5)))
+                    .withSchedule(SimpleScheduleBuilder.simpleSchedule().withMisfireHandlingInstructionFireNow())
+                    .build());
+            scheduler.start();
+            assertTrue(mediaRecorder.started.await(10, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdown(true);
+        }
+
+        // The recording starts right away (no pre-warm wait), and ends with the program
+        assertFalse(mediaRecorder.recordingStart.isAfter(Instant.now()));
+        long expectedDurationSeconds = Duration.between(mediaRecorder.recordingStart, programStart.plusSeconds(600)).getSeconds();
+        assertTrue(Math.abs(mediaRecorder.startedProgram.getDurationSeconds() - expectedDurationSeconds) <= 1, "durationSeconds=" + mediaRecorder.startedProgram.getDurationSeconds());
+        assertTrue(mediaRecorder.startedProgram.getDurationSeconds() <= 300);
+    }
+
+
+    private static class StartRecordingRecorder implements IMediaRecorder {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private volatile ProgramDescriptorDTO startedProgram;
+        private volatile Instant recordingStart;
+
+        @Override
+        public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters, Instant recordingStart) {
+            this.startedProgram = programDescriptor;
+            this.recordingStart = recordingStart;
+            started.countDown();
+        }
+
+        @Override public void initBeforeRecording(ProgramDescriptorDTO programDescriptor) {}
+        @Override public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters) {}
+        @Override public void stopRecording(ProgramId programId) {}
+        @Override public Map<ProgramId, RecordingStatus> getRecordingStatuses() { return Map.of(); }
+        @Override public List<File> getChunkFiles(ProgramId programId, Instant day) { return List.of(); }
+    }
+
+}
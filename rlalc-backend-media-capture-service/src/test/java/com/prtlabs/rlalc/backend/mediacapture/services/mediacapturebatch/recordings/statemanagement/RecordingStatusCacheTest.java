@@ -0,0 +1,41 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement;
+
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link RecordingStatusCache}.
+ */
+public class RecordingStatusCacheTest {
+
+    @Test
+    public void testSnapshotsAreConsistentAndImmutable() {
+        RecordingStatusCache recordingStatusCache = new RecordingStatusCache();
+        recordingStatusCache.putAll(Map.of(
+            "/recordings/cache-a", new RecordingStatus(RecordingStatus.Status.ONGOING),
+            "/recordings/cache-b", new RecordingStatus(RecordingStatus.Status.PENDING)));
+        Map<String, RecordingStatus> snapshot = recordingStatusCache.getSnapshot();
+
+        // A snapshot isn't affected by the later updates, nor by the changes of the statuses which were cached
+        List<File> chunks = new ArrayList<>(List.of(new File("/recordings/cache-a/a_chunk_20250310_080000.mp3")));
+        RecordingStatus completedStatus = new RecordingStatus(RecordingStatus.Status.COMPLETED, new ArrayList<>(), chunks);
+        recordingStatusCache.put("/recordings/cache-a", completedStatus);
+        chunks.add(new File("/recordings/cache-a/a_chunk_20250310_080010.mp3"));
+        assertEquals(RecordingStatus.Status.ONGOING, snapshot.get("/recordings/cache-a").getStatus());
+        assertEquals(RecordingStatus.Status.COMPLETED, recordingStatusCache.getSnapshot().get("/recordings/cache-a").getStatus());
+        assertEquals(1, recordingStatusCache.getSnapshot().get("/recordings/cache-a").getChunkList().size());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.remove("/recordings/cache-b"));
+
+        recordingStatusCache.invalidate("/recordings/cache-b");
+        assertFalse(recordingStatusCache.getSnapshot().containsKey("/recordings/cache-b"));
+        assertTrue(snapshot.containsKey("/recordings/cache-b"));
+    }
+
+}
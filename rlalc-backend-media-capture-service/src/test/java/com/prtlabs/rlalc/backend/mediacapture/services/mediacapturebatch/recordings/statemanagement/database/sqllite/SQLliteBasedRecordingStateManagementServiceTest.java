@@ -0,0 +1,93 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.database.sqllite;
+
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link SQLliteBasedRecordingStateManagementService}.
+ */
+public class SQLliteBasedRecordingStateManagementServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+
+    @Test
+    public void testStatesAreReadBackAndSurviveRestarts() {
+        Path databaseFile = tempDir.resolve("rlalc-recordings.db");
+        SQLliteBasedRecordingStateManagementService stateStore = new SQLliteBasedRecordingStateManagementService(databaseFile);
+        assertTrue(stateStore.createOrUpdateManifest("/recordings/a", RecordingStatus.Status.PENDING, null, null));
+        assertTrue(stateStore.createOrUpdateManifest("/recordings/a", RecordingStatus.Status.ONGOING, null, null));
+        List<File> chunks = List.of(new File("/recordings/a/a_chunk_20250310_080000.mp3"), new File("/recordings/a/a_chunk_20250310_080010.mp3"));
+        assertTrue(stateStore.createOrUpdateManifest("/recordings/a", RecordingStatus.Status.PARTIAL_FAILURE, List.of("Connection reset"), chunks));
+
+        RecordingStatus status = stateStore.readRecordingState("/recordings/a");
+        assertEquals(RecordingStatus.Status.PARTIAL_FAILURE, status.getStatus());
+        assertEquals(List.of("Connection reset"), status.getErrors());
+        assertEquals(chunks, status.getChunkList());
+        assertEquals(RecordingStatus.Status.PENDING, stateStore.readRecordingState("/recordings/unknown").getStatus());
+
+        // Another instance on the same file (e.g. after a restart) sees the same states and history
+        SQLliteBasedRecordingStateManagementService restartedStateStore = new SQLliteBasedRecordingStateManagementService(databaseFile);
+        assertEquals(RecordingStatus.Status.PARTIAL_FAILURE, restartedStateStore.readRecordingState("/recordings/a").getStatus());
+        assertEquals(List.of(RecordingStatus.Status.PENDING, RecordingStatus.Status.ONGOING, RecordingStatus.Status.PARTIAL_FAILURE), restartedStateStore.readStatusHistory("/recordings/a"));
+
+        // An update which doesn't give the chunks (e.g. a gap of an ongoing recording) keeps them
+        assertTrue(restartedStateStore.createOrUpdateManifest("/recordings/a", RecordingStatus.Status.ONGOING, List.of("Gap in the recording"), null));
+        assertEquals(chunks, restartedStateStore.readRecordingState("/recordings/a").getChunkList());
+    }
+
+    @Test
+    public void testConcurrentWritesAndBulkRead() {
+        SQLliteBasedRecordingStateManagementService stateStore = new SQLliteBasedRecordingStateManagementService(tempDir.resolve("rlalc-recordings.db"));
+
+        // Many recordings ending at the same time
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+        List<String> outputDirs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String outputDir = "/recordings/r" + i;
+            outputDirs.add(outputDir);
+            writes.add(CompletableFuture.supplyAsync(() -> stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.COMPLETED, null, List.of(new File(outputDir + "/r_chunk_20250310_080000.mp3")))));
+        }
+        writes.forEach(write -> assertTrue(write.join()));
+
+        Map<String, RecordingStatus> states = stateStore.readRecordingStates(outputDirs);
+        assertEquals(200, states.size());
+        states.values().forEach(status -> {
+            assertEquals(RecordingStatus.Status.COMPLETED, status.getStatus());
+            assertEquals(1, status.getChunkList().size());
+        });
+    }
+
+    @Test
+    public void testAFailingWriteOnlyFailsItselfAndTheWriterGoesOn() {
+        SQLliteBasedRecordingStateManagementService stateStore = new SQLliteBasedRecordingStateManagementService(tempDir.resolve("rlalc-recordings.db"));
+
+        // A write which throws a RuntimeException (no status), queued with valid ones (likely in the same batch)
+        List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String outputDir = "/recordings/r" + i;
+            RecordingStatus.Status status = (i == 10) ? null : RecordingStatus.Status.COMPLETED;
+            writes.add(CompletableFuture.supplyAsync(() -> stateStore.createOrUpdateManifest(outputDir, status, null, null)));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i != 10, writes.get(i).join(), "write=" + i);
+        }
+        assertEquals(RecordingStatus.Status.COMPLETED, stateStore.readRecordingState("/recordings/r9").getStatus());
+
+        // The writer thread is still alive
+        assertTrue(stateStore.createOrUpdateManifest("/recordings/after", RecordingStatus.Status.ONGOING, null, null));
+        assertEquals(RecordingStatus.Status.ONGOING, stateStore.readRecordingState("/recordings/after").getStatus());
+    }
+
+}
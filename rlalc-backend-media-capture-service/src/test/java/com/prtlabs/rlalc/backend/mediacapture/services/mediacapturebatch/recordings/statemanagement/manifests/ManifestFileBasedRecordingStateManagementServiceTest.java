@@ -0,0 +1,104 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.statemanagement.manifests;
+
+import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link ManifestFileBasedRecordingStateManagementService}.
+ */
+public class ManifestFileBasedRecordingStateManagementServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+
+    @Test
+    public void testUpdatesAreJournaledThenCompacted() throws IOException {
+        ManifestFileBasedRecordingStateManagementService stateStore = new ManifestFileBasedRecordingStateManagementService();
+        String outputDir = tempDir.toString();
+        assertTrue(stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.ONGOING, null, List.of()));
+        assertTrue(Files.exists(tempDir.resolve("recording-manifest.json")), "The first update creates the snapshot");
+
+        // The next updates only append their changes to the journal
+        File chunk1 = tempDir.resolve("rec_chunk_20250310_080000.mp3").toFile();
+        File chunk2 = tempDir.resolve("rec_chunk_20250310_080010.mp3").toFile();
+        assertTrue(stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.ONGOING, null, List.of(chunk1)));
+        assertTrue(stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.ONGOING, null, List.of(chunk1, chunk2)));
+        assertEquals(2, Files.readAllLines(tempDir.resolve("recording-manifest.journal.jsonl")).size());
+        assertEquals(List.of(chunk1, chunk2), stateStore.readRecordingState(outputDir).getChunkList());
+
+        // The end of the recording compacts the journal into the snapshot
+        assertTrue(stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.PARTIAL_FAILURE, List.of("Connection reset"), List.of(chunk1, chunk2)));
+        assertFalse(Files.exists(tempDir.resolve("recording-manifest.journal.jsonl")));
+        String snapshot = Files.readString(tempDir.resolve("recording-manifest.json"));
+        assertTrue(snapshot.contains("partial_failure") && snapshot.contains("Connection reset") && snapshot.contains(chunk2.getPath()));
+    }
+
+    @Test
+    public void testGapOfTheRecordingKeepsItsChunks() {
+        ManifestFileBasedRecordingStateManagementService stateStore = new ManifestFileBasedRecordingStateManagementService();
+        String outputDir = tempDir.toString();
+        File chunk1 = tempDir.resolve("rec_chunk_20250310_080000.mp3").toFile();
+        File chunk2 = tempDir.resolve("rec_chunk_20250310_080010.mp3").toFile();
+        assertTrue(stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.ONGOING, null, List.of(chunk1, chunk2)));
+
+        // A gap only updates the errors of the ongoing recording (its chunks aren't given)
+        assertTrue(stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.ONGOING, List.of("Gap in the recording"), null));
+        RecordingStatus status = new ManifestFileBasedRecordingStateManagementService().readRecordingState(outputDir);
+        assertEquals(List.of("Gap in the recording"), status.getErrors());
+        assertEquals(List.of(chunk1, chunk2), status.getChunkList());
+    }
+
+    @Test
+    public void testStateOfARecordingIsEvictedWhenItIsOver() {
+        ManifestFileBasedRecordingStateManagementService stateStore = new ManifestFileBasedRecordingStateManagementService();
+        String outputDir = tempDir.toString();
+        File chunk1 = tempDir.resolve("rec_chunk_20250310_080000.mp3").toFile();
+        assertTrue(stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.ONGOING, null, List.of(chunk1)));
+        assertTrue(ManifestFileBasedRecordingStateManagementService.isManifestStateCached(outputDir));
+
+        // Once the recording is over, its state is read from its files (and isn't kept)
+        assertTrue(stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.COMPLETED, null, List.of(chunk1)));
+        assertFalse(ManifestFileBasedRecordingStateManagementService.isManifestStateCached(outputDir));
+        RecordingStatus status = stateStore.readRecordingState(outputDir);
+        assertEquals(RecordingStatus.Status.COMPLETED, status.getStatus());
+        assertEquals(List.of(chunk1), status.getChunkList());
+        assertFalse(ManifestFileBasedRecordingStateManagementService.isManifestStateCached(outputDir));
+
+        // A recording restarted in the same directory is kept again
+        assertTrue(stateStore.createOrUpdateManifest(outputDir, RecordingStatus.Status.PENDING, null, null));
+        assertEquals(RecordingStatus.Status.PENDING, stateStore.readRecordingState(outputDir).getStatus());
+        assertEquals(List.of(chunk1), stateStore.readRecordingState(outputDir).getChunkList());
+        assertTrue(ManifestFileBasedRecordingStateManagementService.isManifestStateCached(outputDir));
+    }
+
+    @Test
+    public void testJournalIsReplayedAndTruncatedChangeIgnored() throws IOException {
+        // The files left by a process which stopped while appending a change
+        Path outputDir = Files.createDirectories(tempDir.resolve("recording"));
+        File chunk1 = outputDir.resolve("rec_chunk_20250310_080000.mp3").toFile();
+        Files.writeString(outputDir.resolve("recording-manifest.json"), "{ \"status\" : \"ongoing\", \"chunkList\" : [ ] }");
+        Files.writeString(outputDir.resolve("recording-manifest.journal.jsonl"),
+            "{\"chunk\":\"" + chunk1.getPath() + "\"}\n{\"chunk\":\"" + outputDir.resolve("rec_chunk_2025"), StandardCharsets.UTF_8, StandardOpenOption.CREATE);
+
+        ManifestFileBasedRecordingStateManagementService stateStore = new ManifestFileBasedRecordingStateManagementService();
+        RecordingStatus status = stateStore.readRecordingState(outputDir.toString());
+        assertEquals(RecordingStatus.Status.ONGOING, status.getStatus());
+        assertEquals(List.of(chunk1), status.getChunkList());
+        assertFalse(Files.exists(outputDir.resolve("recording-manifest.journal.jsonl")), "The journal with a partial line is compacted");
+
+        assertEquals(RecordingStatus.Status.PENDING, stateStore.readRecordingState(tempDir.resolve("unknown").toString()).getStatus());
+    }
+
+}
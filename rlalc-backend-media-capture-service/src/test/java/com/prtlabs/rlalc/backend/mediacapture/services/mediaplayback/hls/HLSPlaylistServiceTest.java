@@ -0,0 +1,121 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.hls;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.chunkindex.RecordingChunkIndex;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.MediaChunkURLs;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link HLSPlaylistService}.
+ */
+public class HLSPlaylistServiceTest {
+
+    private static final Instant PROGRAM_START = Instant.parse("2025-01-01T07:00:00Z");
+    private static final DateTimeFormatter CHUNK_TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss").withZone(ZoneOffset.UTC);
+
+    @Test
+    public void testOnlyTheChunksWhichAreOverAreListed_andTheNewOnesAreAppended() {
+        HLSPlaylistService.RecordingPlaylists playlists = newRecordingPlaylists();
+        List<File> chunks = new ArrayList<>(List.of(chunkAt(0), chunkAt(10), chunkAt(20)));
+
+        // The last chunk is still being written
+        HLSPlaylistService.HLSPlaylist playlist = playlists.getPlaylist(chunks, false, PROGRAM_START.plusSeconds(25), HLSPlaylistService.PlaylistMode.EVENT);
+        assertEquals(2, countSegments(playlist.content()));
+        assertTrue(playlist.content().contains(MediaChunkURLs.toMediaURLPath(chunkAt(0))));
+        assertTrue(playlist.content().contains("#EXT-X-PLAYLIST-TYPE:EVENT"));
+        assertTrue(playlist.content().contains("#EXT-X-PROGRAM-DATE-TIME:2025-01-01T07:00:00.000Z"));
+        assertFalse(playlist.content().contains("#EXT-X-ENDLIST"));
+        assertFalse(playlist.ended());
+        assertSame(playlist.content(), playlists.getPlaylist(chunks, false, PROGRAM_START.plusSeconds(26), HLSPlaylistService.PlaylistMode.EVENT).content(), "The cached playlist must be served until a chunk lands");
+
+        // A new chunk lands
+        chunks.add(chunkAt(30));
+        HLSPlaylistService.HLSPlaylist updatedPlaylist = playlists.getPlaylist(chunks, false, PROGRAM_START.plusSeconds(35), HLSPlaylistService.PlaylistMode.EVENT);
+        assertEquals(3, countSegments(updatedPlaylist.content()));
+        assertTrue(updatedPlaylist.content().startsWith(playlist.content()), "The new segments must be appended");
+
+        // The recording is over: everything is listed, and the playlist is closed
+        HLSPlaylistService.HLSPlaylist endedPlaylist = playlists.getPlaylist(chunks, true, PROGRAM_START.plusSeconds(36), HLSPlaylistService.PlaylistMode.EVENT);
+        assertEquals(4, countSegments(endedPlaylist.content()));
+        assertTrue(endedPlaylist.content().endsWith("#EXT-X-ENDLIST\n"));
+        assertTrue(endedPlaylist.ended());
+    }
+
+    @Test
+    public void testFilesWhichAreNotChunksAreSkipped_andTheMediaSequenceGoesOnAfterAPurge() {
+        HLSPlaylistService.RecordingPlaylists playlists = newRecordingPlaylists();
+        File notAChunk = MediaChunkURLs.MEDIA_ROOT_DIR.resolve("mp3/program/recording-manifest.json").toFile();
+        List<File> chunks = new ArrayList<>(List.of(chunkAt(0), notAChunk, chunkAt(10), chunkAt(20), chunkAt(30)));
+
+        // The skipped file doesn't make the playlist rendered again
+        String playlist = playlists.getPlaylist(chunks, true, PROGRAM_START.plusSeconds(60), HLSPlaylistService.PlaylistMode.EVENT).content();
+        assertEquals(4, countSegments(playlist));
+        assertSame(playlist, playlists.getPlaylist(chunks, true, PROGRAM_START.plusSeconds(61), HLSPlaylistService.PlaylistMode.EVENT).content(), "The cached playlist must be served while no chunk lands");
+        assertTrue(playlist.contains("#EXT-X-MEDIA-SEQUENCE:0"));
+
+        // The oldest chunks are purged: the segments keep their media sequence numbers
+        chunks.subList(0, 3).clear();
+        String purgedPlaylist = playlists.getPlaylist(chunks, true, PROGRAM_START.plusSeconds(62), HLSPlaylistService.PlaylistMode.EVENT).content();
+        assertEquals(2, countSegments(purgedPlaylist));
+        assertTrue(purgedPlaylist.contains("#EXT-X-MEDIA-SEQUENCE:2"), purgedPlaylist);
+
+        // And they never go back, even if none of the listed segments is left
+        chunks.clear();
+        chunks.add(chunkAt(40));
+        assertTrue(playlists.getPlaylist(chunks, true, PROGRAM_START.plusSeconds(63), HLSPlaylistService.PlaylistMode.EVENT).content().contains("#EXT-X-MEDIA-SEQUENCE:4"));
+    }
+
+    @Test
+    public void testLiveWindowAndGaps() {
+        HLSPlaylistService.RecordingPlaylists playlists = newRecordingPlaylists();
+        List<File> chunks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) { chunks.add(chunkAt(i * 10)); }
+        // 30 seconds gap (the stream has been reconnected)
+        for (int i = 8; i < 14; i++) { chunks.add(chunkAt(i * 10)); }
+
+        String livePlaylist = playlists.getPlaylist(chunks, true, PROGRAM_START.plusSeconds(200), HLSPlaylistService.PlaylistMode.LIVE).content();
+        assertEquals(6, countSegments(livePlaylist));
+        assertTrue(livePlaylist.contains("#EXT-X-MEDIA-SEQUENCE:5"));
+        assertTrue(livePlaylist.contains("#EXT-X-DISCONTINUITY-SEQUENCE:1"), "The discontinuity of the first segment of the window must be counted as removed");
+        assertFalse(livePlaylist.contains("#EXT-X-PLAYLIST-TYPE"));
+
+        String vodPlaylist = playlists.getPlaylist(chunks, true, PROGRAM_START.plusSeconds(200), HLSPlaylistService.PlaylistMode.VOD).content();
+        assertEquals(11, countSegments(vodPlaylist));
+        assertTrue(vodPlaylist.contains("#EXT-X-DISCONTINUITY\n#EXT-X-PROGRAM-DATE-TIME:2025-01-01T07:01:20.000Z\n"));
+        assertTrue(vodPlaylist.contains("#EXTINF:10.000,"));
+        assertTrue(vodPlaylist.endsWith("#EXT-X-ENDLIST\n"));
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private static HLSPlaylistService.RecordingPlaylists newRecordingPlaylists() {
+        return new HLSPlaylistService.RecordingPlaylists(chunk -> RecordingChunkIndex.parseChunkStart(chunk.getName(), ZoneOffset.UTC));
+    }
+
+    private static File chunkAt(int secondsSinceProgramStart) {
+        String chunkName = "program_chunk_" + CHUNK_TIMESTAMP_FORMATTER.format(PROGRAM_START.plusSeconds(secondsSinceProgramStart)) + ".mp3";
+        return MediaChunkURLs.MEDIA_ROOT_DIR.resolve("mp3/program/" + chunkName).toFile();
+    }
+
+    private static int countSegments(String playlist) {
+        return (int) playlist.lines().filter(line -> line.startsWith("#EXTINF:")).count();
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.prtlabs.rlalc.backend.mediacapture.services.mediaplayback.splicing;
+
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.inprocess.mp3.Mp3FrameHeader;
+import com.prtlabs.rlalc.domain.ProgramId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link ProgramSplicingService}.
+ */
+public class ProgramSplicingServiceTest {
+
+    // MPEG-1 Layer III, 128kbps, 44.1kHz, stereo, no padding: 417 bytes and 1152 samples (~26.12ms) per frame
+    private static final byte[] FRAME_HEADER = { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x00 };
+    private static final int FRAME_LENGTH_BYTES = 417;
+    private static final int FRAME_MARKER_OFFSET = 100;
+    private static final int NB_FRAMES_PER_CHUNK = 40;    // ~1.045s
+
+    private static final Instant CHUNKS_START = Instant.parse("2025-01-01T07:00:00Z");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testPiecesAreCutOnFrameBoundariesAcrossChunks() throws IOException {
+        ProgramSplicingService.PlannedChunk firstChunk = writeChunk("first.mp3", CHUNKS_START, 1, false);
+        ProgramSplicingService.PlannedChunk secondChunk = writeChunk("second.mp3", CHUNKS_START.plusSeconds(2), 2, true);
+        ProgramSplicingService.PlannedChunk otherProgramChunk = writeChunk("other.mp3", CHUNKS_START, 3, false);
+
+        // The end of the first chunk, the beginning of the second one, then the beginning of a chunk of another program
+        List<ProgramSplicingService.PlannedPiece> plannedPieces = List.of(
+            new ProgramSplicingService.PlannedPiece(newPiece(CHUNKS_START.plusMillis(500), CHUNKS_START.plusMillis(2500)), List.of(firstChunk, secondChunk)),
+            new ProgramSplicingService.PlannedPiece(newPiece(CHUNKS_START, CHUNKS_START.plusMillis(100)), List.of(otherProgramChunk))
+        );
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ProgramSplicingService.SpliceResult spliceResult = ProgramSplicingService.writeFrames(plannedPieces, outputStream);
+
+        // 500ms to 1045ms of the first chunk (21 frames), 0 to 500ms of the second one (20 frames, its Xing frame is skipped), and 0 to 100ms of the other one (4 frames)
+        byte[] splice = outputStream.toByteArray();
+        assertEquals(21 + 20 + 4, spliceResult.nbFrames());
+        assertEquals(splice.length, spliceResult.nbBytes());
+        assertEquals(spliceResult.nbFrames() * FRAME_LENGTH_BYTES, splice.length, "Only whole frames must be written");
+        for (int i = 0; i < spliceResult.nbFrames(); i++) {
+            int frameOffset = i * FRAME_LENGTH_BYTES;
+            assertEquals((byte) 0xFF, splice[frameOffset], "Frame=["+i+"] is not aligned");
+            assertEquals((i < 21) ? 1 : ((i < 41) ? 2 : 3), splice[frameOffset + FRAME_MARKER_OFFSET], "Frame=["+i+"] is not from the expected chunk");
+        }
+    }
+
+    @Test
+    public void testXingFrameDetection() throws IOException {
+        ProgramSplicingService.PlannedChunk chunk = writeChunk("xing.mp3", CHUNKS_START, 1, true);
+        byte[] chunkBytes = Files.readAllBytes(chunk.chunk().toPath());
+        Mp3FrameHeader frameHeader = Mp3FrameHeader.parse(chunkBytes, 0);
+        assertTrue(frameHeader.isXingOrInfoFrame(chunkBytes));
+        assertFalse(frameHeader.isXingOrInfoFrame(Arrays.copyOfRange(chunkBytes, FRAME_LENGTH_BYTES, 2 * FRAME_LENGTH_BYTES)));
+    }
+
+
+
+
+
+
+    //
+    //
+    // IMPLEMENTATION
+    //
+    //
+
+    private static ProgramSplicingService.SplicePiece newPiece(Instant from, Instant to) {
+        return new ProgramSplicingService.SplicePiece(new ProgramId(UUID.randomUUID().toString()), from, to);
+    }
+
+    /**
+     * Write a chunk of NB_FRAMES_PER_CHUNK audio frames, marked with 'marker', preceded by a Xing frame if asked to
+     */
+    private ProgramSplicingService.PlannedChunk writeChunk(String name, Instant start, int marker, boolean withXingFrame) throws IOException {
+        int nbFrames = NB_FRAMES_PER_CHUNK + (withXingFrame ? 1 : 0);
+        byte[] chunkBytes = new byte[nbFrames * FRAME_LENGTH_BYTES];
+        for (int i = 0; i < nbFrames; i++) {
+            System.arraycopy(FRAME_HEADER, 0, chunkBytes, i * FRAME_LENGTH_BYTES, FRAME_HEADER.length);
+            chunkBytes[(i * FRAME_LENGTH_BYTES) + FRAME_MARKER_OFFSET] = (byte) marker;
+        }
+        if (withXingFrame) {
+            // The tag follows the 32 bytes of side information of an MPEG-1 stereo frame
+            System.arraycopy("Xing".getBytes(), 0, chunkBytes, 4 + 32, 4);
+        }
+        File chunk = tempDir.resolve(name).toFile();
+        Files.write(chunk.toPath(), chunkBytes);
+        return new ProgramSplicingService.PlannedChunk(chunk, start);
+    }
+
+}
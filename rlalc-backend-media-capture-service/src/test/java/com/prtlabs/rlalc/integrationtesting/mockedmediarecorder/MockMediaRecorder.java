@@ -2,6 +2,7 @@ package com.prtlabs.rlalc.integrationtesting.mockedmediarecorder;
 
 import com.prtlabs.rlalc.backend.mediacapture.domain.RecordingStatus;
 import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.IMediaRecorder;
+import com.prtlabs.rlalc.backend.mediacapture.services.mediacapturebatch.recordings.recorders.MediaOutputRendition;
 import com.prtlabs.rlalc.domain.ProgramDescriptorDTO;
 import com.prtlabs.rlalc.domain.ProgramId;
 
@@ -29,7 +30,7 @@ class MockMediaRecorder implements IMediaRecorder {
     }
 
     @Override
-    public void startRecording(ProgramDescriptorDTO programDescriptor, Map<String, String> recorderSpecificParameters) {
+    public void startRecording(ProgramDescriptorDTO programDescriptor, List<MediaOutputRendition> renditions, Map<String, String> recorderSpecificParameters) {
         startedPrograms.add(programDescriptor.getUuid());
         recordingStatuses.put(programDescriptor.getUuid(), new RecordingStatus(RecordingStatus.Status.ONGOING));
     }